@@ -0,0 +1,52 @@
+import renderengine.FrameStatistics;
+
+import java.util.Random;
+
+/**
+ * Renders the scene of the engine in a hidden window, with roughly 1k, 10k and 100k entities, with and without
+ * instancing, and prints the draw calls and the CPU time of a frame, averaged over {@link #FRAMES} frames, after
+ * {@link #WARMUP_FRAMES} frames of warm-up. The CPU time is the one the {@link renderengine.MasterRenderer} spends
+ * issuing the frame; the frame time also includes the game logic and the swap, without v-sync.
+ * <p>
+ * It needs a display and an OpenGL 4.1 driver, so it is not a JMH benchmark; on a headless machine, run it with Mesa's
+ * software rasterizer, e.g. through
+ * {@code LIBGL_ALWAYS_SOFTWARE=1 xvfb-run mvn -P benchmarks test-compile exec:exec -Dbenchmark.main=RenderBenchmark}.
+ */
+public class RenderBenchmark {
+
+    /**
+     * The number of trees, grass patches and ferns (each) of every scene.
+     */
+    private static final int[] ENTITIES_PER_MODEL = {333, 3333, 33333};
+    private static final int WARMUP_FRAMES = 100;
+    private static final int FRAMES = 300;
+
+    public static void main(String[] args) {
+        GraphicEngine engine = new GraphicEngine().withHiddenWindow().initialize();
+        try {
+            System.out.println("entities | instancing | draw calls | CPU ms per frame | frame ms");
+            for (int entitiesPerModel : ENTITIES_PER_MODEL) {
+                engine.populateScene(entitiesPerModel, new Random(entitiesPerModel));
+                for (boolean instancing : new boolean[]{true, false}) {
+                    engine.getRenderer().setInstancingEnabled(instancing);
+                    for (int i = 0; i < WARMUP_FRAMES; ++i) {
+                        engine.renderFrame();
+                    }
+                    long drawCalls = 0;
+                    double cpuMillis = 0.0;
+                    long start = System.nanoTime();
+                    for (int i = 0; i < FRAMES; ++i) {
+                        engine.renderFrame();
+                        drawCalls += FrameStatistics.getDrawCalls();
+                        cpuMillis += FrameStatistics.getCpuRenderMillis();
+                    }
+                    double frameMillis = (System.nanoTime() - start) / 1e6 / FRAMES;
+                    System.out.println(String.format("%8d | %-10s | %10d | %16.3f | %8.3f", entitiesPerModel * 3,
+                            instancing ? "on" : "off", drawCalls / FRAMES, cpuMillis / FRAMES, frameMillis));
+                }
+            }
+        } finally {
+            engine.stop();
+        }
+    }
+}
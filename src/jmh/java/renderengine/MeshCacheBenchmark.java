@@ -0,0 +1,99 @@
+package renderengine;
+
+import models.CompiledModel;
+import models.ModelData;
+import models.VertexFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares, for each model of the resources folder, the time it takes to get a model ready for upload: through the
+ * text parser, optimiser and simplifier, as without the {@link MeshCache}; on a cold cache, which compiles and writes
+ * the model; and on a warm cache, which maps the file, and reads every byte of it, as the upload would.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MeshCacheBenchmark {
+
+    @Param({"fern", "grassModel", "sphere", "stall", "tree"})
+    private String model;
+
+    @Benchmark
+    public ModelData parse() {
+        return OBJLoader.loadOBJ(model);
+    }
+
+    @Benchmark
+    public ModelData[] parseOptimiseLods() {
+        return MeshSimplifier.buildLodChain(MeshOptimizer.optimize(OBJLoader.loadOBJ(model)));
+    }
+
+    @Benchmark
+    public CompiledModel coldCache(ColdCache cache) {
+        return MeshCache.load(model, VertexFormat.PACKED, null);
+    }
+
+    @Benchmark
+    public long warmCache() {
+        return touch(MeshCache.load(model, VertexFormat.PACKED, null));
+    }
+
+    /**
+     * Deletes the cache file of the model before every call.
+     */
+    @State(Scope.Thread)
+    public static class ColdCache {
+
+        private Path file;
+
+        @Setup
+        public void setup(MeshCacheBenchmark benchmark) throws IOException {
+            String model = benchmark.model;
+            byte[] obj = Files.readAllBytes(Paths.get(Loader.RESOURCES_FOLDER + model + ".obj"));
+            file = MeshCache.getCacheFile(model, obj, VertexFormat.PACKED, null);
+        }
+
+        @Setup(Level.Invocation)
+        public void deleteCacheFile() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Reads every byte of the levels of a model, so that a mapped file is actually paged in.
+     *
+     * @return - a checksum of the bytes.
+     */
+    private static long touch(CompiledModel model) {
+        long checksum = 0;
+        for (int i = 0; i < model.getLevelCount(); ++i) {
+            for (ByteBuffer buffer : new ByteBuffer[]{model.getLevel(i).getVertices(), model.getLevel(i).getIndices()}) {
+                for (int j = buffer.position(); j < buffer.limit(); ++j) {
+                    checksum += buffer.get(j);
+                }
+            }
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,60 @@
+package renderengine;
+
+import models.ModelData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MeshOptimizer#optimize(ModelData)} on each model of the resources folder, and prints the cache
+ * statistics of the model, before and after the optimisation, as the setup of the model.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MeshOptimizerBenchmark {
+
+    @Param({"fern", "grassModel", "sphere", "stall", "tree"})
+    private String model;
+
+    private ModelData original;
+
+    @Setup
+    public void setup() {
+        original = OBJLoader.loadOBJ(model);
+        System.out.println(describe(model, original, MeshOptimizer.optimize(original)));
+    }
+
+    @Benchmark
+    public ModelData optimize() {
+        return MeshOptimizer.optimize(original);
+    }
+
+    /**
+     * @return - a one line summary of the cache statistics of a model, before and after the optimisation.
+     */
+    private static String describe(String name, ModelData original, ModelData optimized) {
+        int originalVertices = original.getVertices().length / 3;
+        int optimizedVertices = optimized.getVertices().length / 3;
+        int cacheSize = MeshOptimizer.MEASURED_CACHE_SIZE;
+        return String.format("%-12s %6d triangles | ACMR %.3f -> %.3f | ATVR %.3f -> %.3f", name,
+                original.getIndices().length / 3,
+                MeshOptimizer.computeAcmr(original.getIndices(), originalVertices, cacheSize),
+                MeshOptimizer.computeAcmr(optimized.getIndices(), optimizedVertices, cacheSize),
+                MeshOptimizer.computeAtvr(original.getIndices(), originalVertices, cacheSize),
+                MeshOptimizer.computeAtvr(optimized.getIndices(), optimizedVertices, cacheSize));
+    }
+}
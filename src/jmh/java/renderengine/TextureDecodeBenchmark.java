@@ -0,0 +1,123 @@
+package renderengine;
+
+import org.lwjgl.BufferUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import textures.TextureData;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the start-up time of decoding every texture PNG in the resources folder (the greyscale heightmap is read by
+ * the {@link terrains.HeightmapImage}, and left out): through ImageIO, swizzling the ARGB ints of getRGB into an RGBA
+ * buffer, as textures used to be read; through the PNGDecoder, straight into a direct buffer; through the PNGDecoder,
+ * on a pool of worker threads; and, for reference, reading the compressed textures from the cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TextureDecodeBenchmark {
+
+    private File[] files;
+    private ExecutorService pool;
+
+    @Setup
+    public void setup() {
+        files = new File(Loader.RESOURCES_FOLDER).listFiles(
+                (directory, name) -> name.endsWith(".png") && !name.startsWith("heightmap"));
+        if (files == null) {
+            throw new IllegalStateException("Resources folder not found: " + Loader.RESOURCES_FOLDER);
+        }
+        Arrays.sort(files);
+        pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        // compresses and caches the textures missing from the cache, which the cache benchmark then only reads.
+        compressedTextureCache();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public int imageIO() throws IOException {
+        int bytes = 0;
+        for (File file : files) {
+            BufferedImage image = ImageIO.read(file);
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+            ByteBuffer pixels = BufferUtils.createByteBuffer(width * height * 4);
+            for (int pixel : argb) {
+                pixels.put((byte) (pixel >> 16)).put((byte) (pixel >> 8)).put((byte) pixel).put((byte) (pixel >> 24));
+            }
+            pixels.flip();
+            bytes += pixels.remaining();
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public int pngDecoder() throws IOException {
+        int bytes = 0;
+        for (File file : files) {
+            bytes += decode(file).getPixels().remaining();
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public int pngDecoderOnWorkers() throws InterruptedException, ExecutionException {
+        List<Future<TextureData>> decoded = new ArrayList<>();
+        for (File file : files) {
+            decoded.add(pool.submit(() -> decode(file)));
+        }
+        int bytes = 0;
+        for (Future<TextureData> texture : decoded) {
+            bytes += texture.get().getPixels().remaining();
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public int compressedTextureCache() {
+        int levels = 0;
+        for (File file : files) {
+            String name = file.getName().substring(0, file.getName().length() - ".png".length());
+            levels += Loader.loadCompressedTexture(name, 0, false).getLevelCount();
+        }
+        return levels;
+    }
+
+    private static TextureData decode(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return TextureData.decode(in);
+        }
+    }
+}
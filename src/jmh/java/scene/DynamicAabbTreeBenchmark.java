@@ -0,0 +1,174 @@
+package scene;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link DynamicAabbTree} with a linear scan of the exact bounds, in a scene of mostly static props, at the
+ * density of the scene of the engine (1.5k entities over 800x600 units), with a camera in the middle of it turning
+ * around from one frame to the next. A fraction of the objects are movers, walking in a straight line and bouncing off
+ * the edges of the world; each move call advances all of them by one frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DynamicAabbTreeBenchmark {
+
+    private static final float AREA_PER_OBJECT = 800.0f * 600.0f / 1500.0f;
+    /**
+     * Walking speed, in units per frame.
+     */
+    private static final float SPEED = 0.2f;
+    private static final int VIEWS = 64;
+
+    @Param({"1000", "10000", "100000"})
+    private int size;
+
+    @Param({"0.01", "0.1"})
+    private float moving;
+
+    private DynamicAabbTree<Integer> tree;
+    private int[] proxies;
+    /**
+     * The exact bounds of each object, 6 floats per object, as the linear scan reads them.
+     */
+    private float[] boxes;
+    private float side;
+    private int[] movers;
+    private float[] velocities;
+    private Matrix4f[] views;
+    private FrustumIntersection[] frustums;
+    private int nextView;
+    private final List<Integer> result = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(size);
+        side = (float) Math.sqrt(size * AREA_PER_OBJECT);
+        tree = new DynamicAabbTree<>(0.1f, 0.5f);
+        proxies = new int[size];
+        boxes = new float[size * 6];
+        for (int i = 0; i < size; ++i) {
+            float radius = 1.0f + random.nextFloat() * 7.0f;
+            float x = random.nextFloat() * side;
+            float y = random.nextFloat() * 10.0f;
+            float z = random.nextFloat() * side;
+            int base = i * 6;
+            boxes[base] = x - radius;
+            boxes[base + 1] = y - radius;
+            boxes[base + 2] = z - radius;
+            boxes[base + 3] = x + radius;
+            boxes[base + 4] = y + radius;
+            boxes[base + 5] = z + radius;
+            proxies[i] = tree.createProxy(boxes[base], boxes[base + 1], boxes[base + 2], boxes[base + 3],
+                    boxes[base + 4], boxes[base + 5], i);
+        }
+
+        movers = new int[(int) (size * moving)];
+        velocities = new float[movers.length * 2];
+        for (int i = 0; i < movers.length; ++i) {
+            movers[i] = random.nextInt(size);
+            double heading = random.nextDouble() * 2.0 * Math.PI;
+            velocities[i * 2] = (float) Math.cos(heading) * SPEED;
+            velocities[i * 2 + 1] = (float) Math.sin(heading) * SPEED;
+        }
+
+        // the projection of the MasterRenderer, from a camera 10 units above the middle of the world.
+        Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(60.0), 16.0f / 9.0f, 0.1f, 600.0f);
+        views = new Matrix4f[VIEWS];
+        frustums = new FrustumIntersection[VIEWS];
+        for (int i = 0; i < VIEWS; ++i) {
+            views[i] = new Matrix4f(projection).rotateX(0.1f).rotateY((float) (2.0 * Math.PI * i / VIEWS))
+                    .translate(-side * 0.5f, -10.0f, -side * 0.5f);
+            frustums[i] = new FrustumIntersection(views[i]);
+        }
+    }
+
+    @Benchmark
+    public int queryTree() {
+        result.clear();
+        nextView = (nextView + 1) % VIEWS;
+        tree.queryFrustum(views[nextView], result);
+        return result.size();
+    }
+
+    @Benchmark
+    public int queryScan() {
+        result.clear();
+        nextView = (nextView + 1) % VIEWS;
+        FrustumIntersection frustum = frustums[nextView];
+        for (int i = 0; i < size; ++i) {
+            int base = i * 6;
+            if (frustum.testAab(boxes[base], boxes[base + 1], boxes[base + 2], boxes[base + 3], boxes[base + 4],
+                    boxes[base + 5])) {
+                result.add(i);
+            }
+        }
+        return result.size();
+    }
+
+    @Benchmark
+    public int moveTree() {
+        int reinserted = 0;
+        for (int i = 0; i < movers.length; ++i) {
+            int base = step(i);
+            if (tree.moveProxy(proxies[movers[i]], boxes[base], boxes[base + 1], boxes[base + 2], boxes[base + 3],
+                    boxes[base + 4], boxes[base + 5])) {
+                ++reinserted;
+            }
+        }
+        return reinserted;
+    }
+
+    /**
+     * The scan only has to overwrite the bounds, which {@link #step(int)} does.
+     */
+    @Benchmark
+    public int moveScan() {
+        int moved = 0;
+        for (int i = 0; i < movers.length; ++i) {
+            moved += step(i);
+        }
+        return moved;
+    }
+
+    /**
+     * Moves a mover by one frame, and turns it around at the edges of the world.
+     *
+     * @return - the offset of the bounds of the mover.
+     */
+    private int step(int i) {
+        int base = movers[i] * 6;
+        for (int axis = 0; axis < 2; ++axis) {
+            int min = base + axis * 2;
+            float velocity = velocities[i * 2 + axis];
+            float center = (boxes[min] + boxes[min + 3]) * 0.5f + velocity;
+            if (center < 0.0f || center > side) {
+                velocity = -velocity;
+                velocities[i * 2 + axis] = velocity;
+            }
+            boxes[min] += velocity;
+            boxes[min + 3] += velocity;
+        }
+        return base;
+    }
+}
@@ -0,0 +1,51 @@
+package terrains;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Terrain#getHeightOfTerrain(float, float)} on a terrain built from the heightmap of the scene, at
+ * random points spread over the whole tile.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TerrainBenchmark {
+
+    private static final int POINTS = 1 << 20;
+
+    private Terrain terrain;
+    private float[] points;
+    private int next;
+
+    @Setup
+    public void setup() {
+        terrain = new Terrain(0, 0, null, null, new HeightmapImage("heightmap", 1600.0f, 20.0f));
+        Random random = new Random(42);
+        points = new float[POINTS * 2];
+        for (int i = 0; i < points.length; ++i) {
+            points[i] = random.nextFloat() * Terrain.SIZE;
+        }
+    }
+
+    @Benchmark
+    public float heightQuery() {
+        int i = next;
+        next = (i + 2) & (points.length - 1);
+        return terrain.getHeightOfTerrain(points[i], points[i + 1]);
+    }
+}
@@ -0,0 +1,55 @@
+package utils.objparser;
+
+import models.ModelData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import renderengine.Loader;
+import renderengine.OBJLoader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link OBJParser} with the original line splitting parser, on each model of the resources folder. Run
+ * with -prof gc to compare the memory they allocate too.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OBJParserBenchmark {
+
+    @Param({"fern", "grassModel", "sphere", "stall", "tree"})
+    private String model;
+
+    private Path file;
+
+    @Setup
+    public void setup() {
+        file = Paths.get(Loader.RESOURCES_FOLDER + model + ".obj");
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public ModelData legacy() {
+        return OBJLoader.loadOBJLegacy(model);
+    }
+
+    @Benchmark
+    public ModelData bytes() throws IOException {
+        return OBJParser.parse(file);
+    }
+}
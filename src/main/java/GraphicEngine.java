@@ -2,21 +2,35 @@ import entities.Camera;
 import entities.Entity;
 import entities.Light;
 import entities.Player;
+import models.CompiledModel;
 import models.RawModel;
 import models.TexturedModel;
+import models.VertexFormat;
 import org.joml.Vector3f;
+import renderengine.AssetPipeline;
 import renderengine.DisplayManager;
 import renderengine.Loader;
 import renderengine.MasterRenderer;
-import renderengine.OBJLoader;
+import renderengine.MeshCache;
+import renderengine.ResourceManager;
+import renderengine.TextureStreamer;
+import scene.Scene;
+import terrains.HeightSource;
+import terrains.HeightmapImage;
 import terrains.Terrain;
+import terrains.TerrainManager;
 import textures.ModelTexture;
 import textures.TerrainTexture;
 import textures.TerrainTexturePack;
+import textures.TextureAtlas;
+import textures.TextureData;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static org.lwjgl.glfw.GLFW.glfwWindowShouldClose;
 
@@ -25,92 +39,298 @@ import static org.lwjgl.glfw.GLFW.glfwWindowShouldClose;
  */
 public class GraphicEngine {
 
+    private static final int DEFAULT_ENTITIES_PER_MODEL = 500;
+
+    /**
+     * Terrains are loaded up to TERRAIN_LOAD_RADIUS cells around the player, and evicted past
+     * TERRAIN_EVICTION_RADIUS cells, or when they take more than TERRAIN_GPU_BUDGET bytes.
+     */
+    private static final int TERRAIN_LOAD_RADIUS = 1;
+    private static final int TERRAIN_EVICTION_RADIUS = 2;
+    private static final long TERRAIN_GPU_BUDGET = 32 * Terrain.getGpuBytes();
+    private static final int TERRAIN_UPLOADS_PER_FRAME = 1;
+    /**
+     * The heightmap image covers HEIGHTMAP_WORLD_SIZE x HEIGHTMAP_WORLD_SIZE units of the world, and repeats beyond;
+     * its heights range over [-HEIGHTMAP_MAX_HEIGHT, HEIGHTMAP_MAX_HEIGHT].
+     */
+    private static final float HEIGHTMAP_WORLD_SIZE = 1600.0f;
+    private static final float HEIGHTMAP_MAX_HEIGHT = 20.0f;
+    /**
+     * The small textures of the entities are packed in an atlas this wide, so that they are drawn without rebinding.
+     */
+    private static final int ENTITY_ATLAS_WIDTH = 2048;
+    /**
+     * The size of every layer of the terrain texture pack.
+     */
+    private static final int TERRAIN_TEXTURE_SIZE = 1024;
+    /**
+     * The bytes of streamed textures uploaded per frame.
+     */
+    private static final long TEXTURE_UPLOAD_BUDGET = 1 << 20;
+    /**
+     * The GPU memory the models and textures of the entities may take, before the unused ones are evicted.
+     */
+    private static final long RESOURCE_GPU_BUDGET = 256L << 20;
+
     /******************************************
      * MODELS AND ENTITIES
      ******************************************/
     private RawModel model;
     private ModelTexture texture;
     private TexturedModel staticModel, grass, fern;
-    private List<Entity> entities;
-    private Terrain terrain, terrain1;
+    private Scene scene;
+    private TextureAtlas entityAtlas;
+    /**
+     * The regions of the entity atlas, filled once its images are packed.
+     */
+    private final Map<String, TextureAtlas.Region> atlasRegions = new ConcurrentHashMap<>();
+    private TerrainManager terrainManager;
     public Player player;
 
     /******************************************
      * ENGINE AND LIGHTS
      ******************************************/
     private Loader loader;
+    /**
+     * Shares the models and textures of the entities; the handles acquired at start-up are held until the engine
+     * stops. They are acquired on the GL thread, and collected from the completion stages of the pipeline.
+     */
+    private ResourceManager resources;
+    private final Queue<ResourceManager.Handle<?>> handles = new ConcurrentLinkedQueue<>();
+    /**
+     * Uploads the textures of the models, within a budget of bytes per frame: the asset pipeline reads them at
+     * start-up, and hands them over through the resource manager.
+     */
+    private TextureStreamer textureStreamer;
     private Camera camera;
     private Light light;
     private MasterRenderer renderer;
 
+    private int entitiesPerModel = DEFAULT_ENTITIES_PER_MODEL;
+    private boolean visible = true;
+
+    /**
+     * Sets how many trees, grass patches and ferns (each) are scattered around the scene; useful for stress-testing
+     * the renderer, whose statistics are shown in the window title.
+     */
+    public GraphicEngine withEntitiesPerModel(int entitiesPerModel) {
+        this.entitiesPerModel = entitiesPerModel;
+        return this;
+    }
+
+    /**
+     * Renders into a hidden window, e.g. for the RenderBenchmark of the benchmarks.
+     */
+    GraphicEngine withHiddenWindow() {
+        this.visible = false;
+        return this;
+    }
+
     public GraphicEngine initialize() {
         /******************************************ENGINE AND LIGHTS******************************************/
-        DisplayManager.createDisplay();
+        DisplayManager.createDisplay(visible);
+        long loadStart = System.nanoTime();
         loader = new Loader();
+        textureStreamer = new TextureStreamer(loader, TEXTURE_UPLOAD_BUDGET);
+        resources = new ResourceManager(loader, textureStreamer, RESOURCE_GPU_BUDGET);
 
-        // Loading the player must precede the camera, as the camera requires the player object, BUT IT MUST COME AFTER GLFW CONTEXT INIT
-        TexturedModel playerModel = new TexturedModel(OBJLoader.loadObjModel("stall", loader), new ModelTexture(loader.loadTexture("orange")));
-        player = new Player(playerModel, new Vector3f(0, 0.0f, -50), 0, 0, 0, 1);
+        // Every asset is requested up front: its CPU stages run on the workers of the pipeline, while this thread
+        // compiles the shaders, then runs the GL stages as it waits for the assets it needs next.
+        AssetPipeline assets = new AssetPipeline();
+        String atlasAsset = "entity atlas";
+        CompletableFuture<TextureData> atlasImage = assets.cpu(atlasAsset, () -> Loader.packTextureAtlas(
+                ENTITY_ATLAS_WIDTH, atlasRegions, "orange", "tree", "grassTexture", "fern"));
+        CompletableFuture<TextureAtlas> atlas = assets.gl(atlasAsset, atlasImage,
+                image -> loader.loadTextureAtlas(image, atlasRegions));
+        CompletableFuture<TexturedModel> playerModel = loadModel(assets, atlas, atlasImage, "stall", "orange",
+                VertexFormat.FLOAT);
+        // the levels of detail are built at load time; models which cannot be simplified keep a single level.
+        CompletableFuture<TexturedModel> treeModel = loadModel(assets, atlas, atlasImage, "tree", "tree",
+                VertexFormat.PACKED);
+        CompletableFuture<TexturedModel> grassModel = loadModel(assets, atlas, atlasImage, "grassModel",
+                "grassTexture", VertexFormat.PACKED);
+        CompletableFuture<TexturedModel> fernModel = loadModel(assets, atlas, atlasImage, "fern", "fern",
+                VertexFormat.PACKED);
+
+        // the background first, then one layer per channel of the blendmap.
+        String[] terrainLayers = {"grass_1", "stones1", "dirt1", "grass1"};
+        String terrainAsset = "terrain texture pack";
+        CompletableFuture<Integer> terrainTexture = assets.gl(terrainAsset,
+                assets.cpu(terrainAsset, () -> Loader.compressTextureLayers(TERRAIN_TEXTURE_SIZE, terrainLayers)),
+                loader::loadCompressedTextureArray);
+        CompletableFuture<Integer> blendmapTexture = assets.gl("blendmap.png",
+                assets.cpu("blendmap.png", () -> Loader.decodeTextureLayers("blendmap")), loader::loadTextureArray);
+        CompletableFuture<HeightSource> heightmap = assets.cpu("heightmap.png",
+                () -> new HeightmapImage("heightmap", HEIGHTMAP_WORLD_SIZE, HEIGHTMAP_MAX_HEIGHT));
 
-        camera = Camera.getInstance(player);
         light = new Light(new Vector3f(20000, 20000, 20000), new Vector3f(1, 1, 1));
-        renderer = new MasterRenderer();
+        renderer = new MasterRenderer(loader);
+
+        // Loading the player must precede the camera, as the camera requires the player object, BUT IT MUST COME AFTER GLFW CONTEXT INIT
+        player = new Player(assets.await(playerModel), new Vector3f(0, 0.0f, -50), 0, 0, 0, 1);
+        camera = Camera.getInstance(player);
 
 
         /******************************************MODELS AND ENTITIES******************************************/
-        model = OBJLoader.loadObjModel("tree", loader);
-        texture = new ModelTexture(loader.loadTexture("tree"));
-        staticModel = new TexturedModel(model, texture);
-        grass = new TexturedModel(OBJLoader.loadObjModel("grassModel", loader), new ModelTexture(loader.loadTexture("grassTexture")));
+        staticModel = assets.await(treeModel);
+        model = staticModel.getRawModel();
+        texture = staticModel.getTexture();
+        grass = assets.await(grassModel);
         grass.getTexture().setHasTransparency(true);
         grass.getTexture().setUseFakeLighting(true);
-        fern = new TexturedModel(OBJLoader.loadObjModel("fern", loader), new ModelTexture(loader.loadTexture("fern")));
+        fern = assets.await(fernModel);
         fern.getTexture().setHasTransparency(true);
         fern.getTexture().setUseFakeLighting(true);
+        // far away vegetation is drawn as camera facing quads, showing snapshots of the models taken here, so the
+        // textures streamed so far must be resident rather than placeholders.
+        textureStreamer.finish();
+        renderer.createImpostor(staticModel, light);
+        renderer.createImpostor(grass, light);
+        renderer.createImpostor(fern, light);
 
-        TerrainTexture grass_texture = new TerrainTexture(loader.loadTexture("grass_1"));
-        TerrainTexture rocks_texture = new TerrainTexture(loader.loadTexture("stones1"));
-        TerrainTexture dirt_texture = new TerrainTexture(loader.loadTexture("dirt1"));
-        TerrainTexture grass_texture1 = new TerrainTexture(loader.loadTexture("grass1"));
-        TerrainTexture blendmap = new TerrainTexture(loader.loadTexture("blendmap"));
+        TerrainTexturePack texturePack = new TerrainTexturePack(
+                new TerrainTexture(assets.await(terrainTexture), terrainLayers.length));
+        TerrainTexture blendmap = new TerrainTexture(assets.await(blendmapTexture), 1);
 
-        TerrainTexturePack texturePack = new TerrainTexturePack(grass_texture, rocks_texture, dirt_texture, grass_texture1);
+        terrainManager = new TerrainManager(loader, texturePack, blendmap, assets.await(heightmap),
+                TERRAIN_LOAD_RADIUS, TERRAIN_EVICTION_RADIUS, TERRAIN_GPU_BUDGET, TERRAIN_UPLOADS_PER_FRAME);
+        terrainManager.preload(player.getPosition());
+        // the atlas is uploaded even if none of the models ended up using it.
+        entityAtlas = assets.await(atlas);
+        assets.report();
+        assets.shutdown();
 
-        terrain = new Terrain(0, -1, loader, texturePack, blendmap);
-        terrain1 = new Terrain(-1, -1, loader, texturePack, blendmap);
+        populateScene(entitiesPerModel, new Random());
+        System.out.println("Loaded the scene in " + (System.nanoTime() - loadStart) / 1000000 + " ms");
+        return this;
+    }
 
-        entities = new ArrayList<>();
-        Random random = new Random();
-        for (int i = 0; i < 500; i++) {
-            entities.add(new Entity(staticModel, new Vector3f(random.nextFloat() * 800 - 400, 0, random.nextFloat() * -600), 0, 0, 0, 3));
-            entities.add(new Entity(grass, new Vector3f(random.nextFloat() * 800 - 400, 0, random.nextFloat() * -600), 0, 0, 0, 1));
-            entities.add(new Entity(fern, new Vector3f(random.nextFloat() * 800 - 400, 0, random.nextFloat() * -600), 0, 0, 0, 0.6f));
+    /**
+     * Loads a model along with its levels of detail, through the asset pipeline and the {@link MeshCache}. When its
+     * texture was packed in the entity atlas, and the model does not repeat it, its texture coordinates are remapped
+     * into the atlas, and it shares the atlas texture with the other models; otherwise it gets a texture of its own.
+     * Both the model and its own texture are acquired from the {@link ResourceManager}, so that models loaded twice,
+     * or sharing a texture, share their GPU copies.
+     *
+     * @param assets      - the pipeline the model is loaded through.
+     * @param atlas       - the stage uploading the entity atlas.
+     * @param atlasImage  - the stage packing the entity atlas, after which its regions are known.
+     * @param objFileName - the name of the OBJ file of the model.
+     * @param textureName - the name of the texture of the model.
+     * @param format      - the format the vertices of the model are stored in.
+     * @return - the model, complete once both its levels and its texture are loaded.
+     */
+    private CompletableFuture<TexturedModel> loadModel(AssetPipeline assets, CompletableFuture<TextureAtlas> atlas,
+                                                       CompletableFuture<TextureData> atlasImage, String objFileName,
+                                                       String textureName, VertexFormat format) {
+        String asset = objFileName + ".obj";
+        // the model is remapped once the atlas is packed, so the region it lands in is part of its cache key.
+        CompletableFuture<CompiledModel> compiled = assets.cpu(asset, atlasImage,
+                image -> MeshCache.load(objFileName, format, atlasRegions.get(textureName)));
+        CompletableFuture<Boolean> inAtlas = compiled.thenApply(
+                data -> atlasRegions.containsKey(textureName) && data.hasUnitTextureCoords());
+        CompletableFuture<Integer> textureID = inAtlas.thenCompose(remap -> remap
+                ? atlas.thenApply(TextureAtlas::getTextureID)
+                : assets.loadTexture(textureName, resources).thenApply(this::keep));
+        CompletableFuture<RawModel[]> levels = assets.gl(asset, compiled, data -> keep(
+                resources.acquireModel(objFileName, format, atlasRegions.get(textureName), data)));
+        return levels.thenCombine(textureID, (lods, id) -> new TexturedModel(lods, new ModelTexture(id)));
+    }
+
+    /**
+     * Holds a handle until the engine stops.
+     *
+     * @return - the resource of the handle.
+     */
+    private <T> T keep(ResourceManager.Handle<T> handle) {
+        handles.add(handle);
+        return handle.get();
+    }
+
+    /**
+     * Replaces the entities of the scene with the player, and the given number of trees, grass patches and ferns
+     * (each), scattered around.
+     */
+    void populateScene(int entitiesPerModel, Random random) {
+        scene = new Scene();
+        scene.add(player);
+        for (int i = 0; i < entitiesPerModel; i++) {
+            scene.add(new Entity(staticModel, randomGroundPosition(random), 0, 0, 0, 3));
+            scene.add(new Entity(grass, randomGroundPosition(random), 0, 0, 0, 1));
+            scene.add(new Entity(fern, randomGroundPosition(random), 0, 0, 0, 0.6f));
         }
-        return this;
+    }
+
+    /**
+     * @return - a random position on the ground, in the area in front of the starting position of the player.
+     */
+    private Vector3f randomGroundPosition(Random random) {
+        float x = random.nextFloat() * 800 - 400;
+        float z = random.nextFloat() * -600;
+        return new Vector3f(x, terrainManager.getHeightOfTerrain(x, z), z);
     }
 
     public void gameLoop() {
         while (!glfwWindowShouldClose(DisplayManager.WINDOW)) {
-            camera.move();
-            player.move();
-            renderer.processEntity(player);
+            renderFrame();
+        }
+        stop();
+    }
 
+    /**
+     * Moves the player and the camera, according to the input, and renders a frame.
+     */
+    void renderFrame() {
+        textureStreamer.update();
+        camera.move();
+        player.move(terrainManager);
+        terrainManager.update(player.getPosition());
+        renderer.beginFrame(camera);
+
+        for (Terrain terrain : terrainManager.getTerrains()) {
             renderer.processTerrain(terrain);
-            renderer.processTerrain(terrain1);
-            entities.forEach((entity) -> renderer.processEntity(entity));
-            renderer.render(light, camera);
-            DisplayManager.updateDisplay();
         }
-        stop();
+        renderer.processScene(scene);
+        renderer.render(light, camera);
+        DisplayManager.updateDisplay();
     }
 
-    private void stop() {
+    MasterRenderer getRenderer() {
+        return renderer;
+    }
+
+    void stop() {
+        terrainManager.cleanup();
+        textureStreamer.cleanup();
         renderer.cleanup();
+        handles.forEach(ResourceManager.Handle::release);
+        handles.clear();
+        resources.cleanup();
         loader.cleanup();
         DisplayManager.closeDisplay();
     }
 
+    /**
+     * @param args - optionally, the number of entities to scatter per model (e.g. 333, 3333, 33333 for roughly 1k,
+     *             10k and 100k entities), followed by "--no-instancing" to compare against per-entity draw calls,
+     *             "--no-lod" to draw every entity at full resolution, and/or "--no-impostors" to never draw
+     *             vegetation as impostors.
+     */
     public static void main(String[] args) {
-        new GraphicEngine().initialize().gameLoop();
+        GraphicEngine engine = new GraphicEngine();
+        if (args.length > 0) {
+            engine.withEntitiesPerModel(Integer.parseInt(args[0]));
+        }
+        engine.initialize();
+        for (int i = 1; i < args.length; ++i) {
+            if ("--no-instancing".equals(args[i])) {
+                engine.renderer.setInstancingEnabled(false);
+            } else if ("--no-lod".equals(args[i])) {
+                engine.renderer.setLodEnabled(false);
+            } else if ("--no-impostors".equals(args[i])) {
+                engine.renderer.setImpostorDistance(Float.POSITIVE_INFINITY);
+            }
+        }
+        engine.gameLoop();
     }
 }
@@ -2,6 +2,7 @@ package entities;
 
 import models.TexturedModel;
 import org.joml.Vector3f;
+import scene.Scene;
 
 /**
  * Created by ThatKidFlo on 17.04.2016.
@@ -13,6 +14,18 @@ public class Entity {
     protected float rotX, rotY, rotZ;
     protected float scale;
 
+    /**
+     * The scene indexing this entity, if any, and the ID of the entity in its index.
+     */
+    private Scene scene;
+    private int sceneProxy = Scene.NULL_PROXY;
+
+    /**
+     * The level of detail the entity was last drawn with; the renderer only changes it once the entity has moved
+     * clearly past the switching distance, so that it does not flicker between two levels.
+     */
+    private int lod;
+
     public Entity(TexturedModel model, Vector3f position, float rotX, float rotY, float rotZ, float scale) {
         this.model = model;
         this.position = position;
@@ -26,6 +39,7 @@ public class Entity {
         this.position.x += dx;
         this.position.y += dy;
         this.position.z += dz;
+        boundsChanged();
     }
 
     public void increaseRotation(float dx, float dy, float dz) {
@@ -40,6 +54,16 @@ public class Entity {
 
     public void setModel(TexturedModel model) {
         this.model = model;
+        this.lod = 0;
+        boundsChanged();
+    }
+
+    public int getLod() {
+        return lod;
+    }
+
+    public void setLod(int lod) {
+        this.lod = lod;
     }
 
     public Vector3f getPosition() {
@@ -48,6 +72,7 @@ public class Entity {
 
     public void setPosition(Vector3f position) {
         this.position = position;
+        boundsChanged();
     }
 
     public float getRotX() {
@@ -74,11 +99,45 @@ public class Entity {
         this.rotZ = rotZ;
     }
 
+    /**
+     * @return - the radius of the bounding sphere of this entity in world space, centered in its position.
+     */
+    public float getBoundingRadius() {
+        return model.getBoundingRadius() * scale;
+    }
+
     public float getScale() {
         return scale;
     }
 
     public void setScale(float scale) {
         this.scale = scale;
+        boundsChanged();
+    }
+
+    public Scene getScene() {
+        return scene;
+    }
+
+    public int getSceneProxy() {
+        return sceneProxy;
+    }
+
+    /**
+     * Records the scene indexing this entity; only meant to be called by {@link Scene}.
+     */
+    public void attachToScene(Scene scene, int sceneProxy) {
+        this.scene = scene;
+        this.sceneProxy = sceneProxy;
+    }
+
+    /**
+     * Must be called whenever the position, scale or model of the entity changes, so that the scene index it belongs
+     * to (if any) stays up to date. Subclasses which modify the position in place must call it themselves.
+     */
+    protected void boundsChanged() {
+        if (scene != null) {
+            scene.update(this);
+        }
     }
 }
@@ -5,6 +5,7 @@ import org.joml.Vector3f;
 import org.lwjgl.glfw.GLFW;
 import org.lwjgl.glfw.GLFWKeyCallback;
 import renderengine.DisplayManager;
+import terrains.TerrainManager;
 
 import static org.lwjgl.glfw.GLFW.glfwSetWindowShouldClose;
 import static utils.Maths.cosf;
@@ -22,7 +23,6 @@ public class Player extends Entity {
     private static final float TURN_SPEED = 160.0f;
     private static final float JUMP_STRENGTH = 30.0f;
     private static final float GRAVITY = -50.0f;
-    private static final float TERRAIN_HEIGHT = 0.0f;
 
     private float currentMovementSpeed = 0.0f;
     private float currentTurnSpeed = 0.0f;
@@ -34,7 +34,12 @@ public class Player extends Entity {
         initInput();
     }
 
-    public void move() {
+    /**
+     * Moves the player according to the input, and keeps it on the ground.
+     *
+     * @param terrains - the terrains the player walks on.
+     */
+    public void move(TerrainManager terrains) {
         float timeDelta = DisplayManager.getTimeDelta();
         rotY += currentTurnSpeed * timeDelta;
         float distanceMoved = currentMovementSpeed * timeDelta;
@@ -45,11 +50,13 @@ public class Player extends Entity {
         position.y += upwardSpeed * timeDelta;
         position.z += cosf(toRadiansf(getRotY())) * distanceMoved;
 
-        if (position.y < TERRAIN_HEIGHT) {
+        float terrainHeight = terrains.getHeightOfTerrain(position.x, position.z);
+        if (position.y < terrainHeight) {
             upwardSpeed = 0.0f;
-            position.y = TERRAIN_HEIGHT;
+            position.y = terrainHeight;
             isJumped = false;
         }
+        boundsChanged();
     }
 
     private void initInput() {
@@ -0,0 +1,307 @@
+package models;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A model along with its levels of detail, with every level already encoded the way it is stored on the GPU: the
+ * interleaved vertices of a single VBO, in the layout of a {@link VertexFormat}, and the indices narrowed to their
+ * {@link IndexType}. Uploading it is a pair of glBufferData calls per level, without any conversion.
+ * <p>
+ * It is cached on disk in a minimal container, in the native byte order, so that a cached model can be memory mapped
+ * (see {@link #map(Path)}) and its buffers handed to GL as they are:
+ * <pre>
+ *  header   magic, version, vertex format, flags, level count, as ints
+ *  levels   per level: vertex count, index count, index type, bounding radius, position offset (3 floats),
+ *           position scale (3 floats), texture offset (2 floats), texture scale (2 floats), vertex bytes, index bytes
+ *  data     per level: the vertices, then the indices, padded to a multiple of 4 bytes
+ * </pre>
+ * A file written on a machine of the other byte order has a foreign magic number, and is rejected like a stale one.
+ */
+public class CompiledModel {
+
+    private static final int MAGIC = 0x4C444D47; // "GMDL"
+    /**
+     * Must be increased whenever the layout of the file, or the way the levels are built, changes.
+     */
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 5;
+    private static final int LEVEL_HEADER_INTS = 16;
+    private static final int FLAG_UNIT_TEXTURE_COORDS = 1;
+
+    private final VertexFormat format;
+    private final boolean unitTextureCoords;
+    private final Level[] levels;
+
+    /**
+     * @param format            - the layout of the vertices of every level.
+     * @param unitTextureCoords - whether the texture coordinates of the source model all lie within [0, 1].
+     * @param levels            - the levels of detail, starting with the full resolution one.
+     */
+    public CompiledModel(VertexFormat format, boolean unitTextureCoords, Level[] levels) {
+        this.format = format;
+        this.unitTextureCoords = unitTextureCoords;
+        this.levels = levels;
+    }
+
+    public VertexFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return - whether the texture coordinates of the source model all lie within [0, 1], i.e. whether the model
+     * could share a texture atlas (see {@link textures.TextureAtlas#canRemap(ModelData)}).
+     */
+    public boolean hasUnitTextureCoords() {
+        return unitTextureCoords;
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public Level getLevel(int level) {
+        return levels[level];
+    }
+
+    /**
+     * Writes the model to a cache file. The file is written next to its destination, then moved in place, so that an
+     * interrupted write never leaves a truncated cache behind.
+     *
+     * @param file - the cache file.
+     * @throws IOException - if the file cannot be written.
+     */
+    public void write(Path file) throws IOException {
+        Path folder = file.toAbsolutePath().getParent();
+        Files.createDirectories(folder);
+        // a file of its own, so that concurrent writers of the same model never interleave.
+        Path temporary = Files.createTempFile(folder, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(headerBytes(levels.length)).order(ByteOrder.nativeOrder());
+                header.putInt(MAGIC).putInt(VERSION).putInt(format.ordinal())
+                        .putInt(unitTextureCoords ? FLAG_UNIT_TEXTURE_COORDS : 0).putInt(levels.length);
+                for (Level level : levels) {
+                    header.putInt(level.vertexCount).putInt(level.indexCount).putInt(level.indexType.ordinal())
+                            .putFloat(level.boundingRadius);
+                    putFloats(header, level.positionOffset);
+                    putFloats(header, level.positionScale);
+                    putFloats(header, level.textureOffset);
+                    putFloats(header, level.textureScale);
+                    header.putInt(level.vertices.remaining()).putInt(level.indices.remaining());
+                }
+                header.flip();
+                writeFully(channel, header);
+                ByteBuffer padding = ByteBuffer.allocate(3);
+                for (Level level : levels) {
+                    writeFully(channel, level.vertices.duplicate());
+                    writeFully(channel, level.indices.duplicate());
+                    padding.clear().limit(padding(level.indices.remaining()));
+                    writeFully(channel, padding);
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Maps a cache file in memory. The buffers of the levels are slices of the mapping, so the file is only read as GL
+     * copies them, and is never copied on the heap.
+     *
+     * @param file - the cache file.
+     * @return - the model.
+     * @throws IOException - if the file cannot be read, or is not a cache file of the current version.
+     */
+    public static CompiledModel map(Path file) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid once the channel is closed.
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer data = mapped.order(ByteOrder.nativeOrder());
+        if (data.remaining() < HEADER_INTS * 4 || data.getInt() != MAGIC || data.getInt() != VERSION) {
+            throw new IOException("Not a model cache file of version " + VERSION + ": " + file);
+        }
+        VertexFormat format = getConstant(VertexFormat.values(), data.getInt(), file);
+        boolean unitTextureCoords = (data.getInt() & FLAG_UNIT_TEXTURE_COORDS) != 0;
+        int levelCount = data.getInt();
+        // compared as longs, so that a corrupt count cannot overflow past the check.
+        if (levelCount <= 0 || data.remaining() < (long) levelCount * LEVEL_HEADER_INTS * 4) {
+            throw new IOException("Truncated model cache file: " + file);
+        }
+        Level[] levels = new Level[levelCount];
+
+        int offset = headerBytes(levels.length);
+        for (int i = 0; i < levels.length; ++i) {
+            int vertexCount = data.getInt();
+            int indexCount = data.getInt();
+            IndexType indexType = getConstant(IndexType.values(), data.getInt(), file);
+            float boundingRadius = data.getFloat();
+            float[] positionOffset = getFloats(data, 3);
+            float[] positionScale = getFloats(data, 3);
+            float[] textureOffset = getFloats(data, 2);
+            float[] textureScale = getFloats(data, 2);
+            int vertexBytes = data.getInt();
+            int indexBytes = data.getInt();
+            if (vertexCount < 0 || indexCount < 0 || vertexBytes < 0 || indexBytes < 0
+                    || (long) offset + vertexBytes + indexBytes > data.capacity()) {
+                throw new IOException("Truncated model cache file: " + file);
+            }
+            // draws would read past the end of the buffers.
+            if ((long) vertexCount * format.getBytesPerVertex() > vertexBytes
+                    || (long) indexCount * indexType.getBytesPerIndex() > indexBytes) {
+                throw new IOException("Corrupt model cache file: " + file);
+            }
+            ByteBuffer vertices = slice(data, offset, vertexBytes);
+            offset += vertexBytes;
+            ByteBuffer indices = slice(data, offset, indexBytes);
+            offset += indexBytes + padding(indexBytes);
+            levels[i] = new Level(vertexCount, indexCount, indexType, boundingRadius, positionOffset, positionScale,
+                    textureOffset, textureScale, vertices, indices);
+        }
+        return new CompiledModel(format, unitTextureCoords, levels);
+    }
+
+    /**
+     * @return - the constant of the given ordinal.
+     * @throws IOException - if there is no constant of that ordinal, i.e. the file is corrupt.
+     */
+    private static <E extends Enum<E>> E getConstant(E[] constants, int ordinal, Path file) throws IOException {
+        if (ordinal < 0 || ordinal >= constants.length) {
+            throw new IOException("Corrupt model cache file: " + file);
+        }
+        return constants[ordinal];
+    }
+
+    private static int headerBytes(int levelCount) {
+        return (HEADER_INTS + levelCount * LEVEL_HEADER_INTS) * 4;
+    }
+
+    /**
+     * @return - the number of bytes which align the end of a block of the given length on 4 bytes.
+     */
+    private static int padding(int length) {
+        return -length & 3;
+    }
+
+    private static ByteBuffer slice(ByteBuffer data, int offset, int length) {
+        ByteBuffer slice = data.duplicate();
+        slice.limit(offset + length).position(offset);
+        return slice.slice().order(ByteOrder.nativeOrder());
+    }
+
+    private static void putFloats(ByteBuffer buffer, float[] values) {
+        for (float value : values) {
+            buffer.putFloat(value);
+        }
+    }
+
+    private static float[] getFloats(ByteBuffer buffer, int count) {
+        float[] values = new float[count];
+        for (int i = 0; i < count; ++i) {
+            values[i] = buffer.getFloat();
+        }
+        return values;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * One level of detail, ready to be uploaded.
+     */
+    public static class Level {
+
+        private final int vertexCount;
+        private final int indexCount;
+        private final IndexType indexType;
+        private final float boundingRadius;
+        private final float[] positionOffset;
+        private final float[] positionScale;
+        private final float[] textureOffset;
+        private final float[] textureScale;
+        private final ByteBuffer vertices;
+        private final ByteBuffer indices;
+
+        /**
+         * @param vertexCount    - the number of vertices.
+         * @param indexCount     - the number of indices, i.e. the number of vertices drawn.
+         * @param indexType      - the type the indices are stored with.
+         * @param boundingRadius - the radius of the bounding sphere of the level, centered on the origin.
+         * @param positionOffset - see {@link RawModel#getPositionOffset()}.
+         * @param positionScale  - see {@link RawModel#getPositionScale()}.
+         * @param textureOffset  - see {@link RawModel#getTextureOffset()}.
+         * @param textureScale   - see {@link RawModel#getTextureScale()}.
+         * @param vertices       - the interleaved vertices, in the layout of the vertex format of the model.
+         * @param indices        - the indices, as values of the index type.
+         */
+        public Level(int vertexCount, int indexCount, IndexType indexType, float boundingRadius,
+                     float[] positionOffset, float[] positionScale, float[] textureOffset, float[] textureScale,
+                     ByteBuffer vertices, ByteBuffer indices) {
+            this.vertexCount = vertexCount;
+            this.indexCount = indexCount;
+            this.indexType = indexType;
+            this.boundingRadius = boundingRadius;
+            this.positionOffset = positionOffset;
+            this.positionScale = positionScale;
+            this.textureOffset = textureOffset;
+            this.textureScale = textureScale;
+            this.vertices = vertices;
+            this.indices = indices;
+        }
+
+        public int getVertexCount() {
+            return vertexCount;
+        }
+
+        public int getIndexCount() {
+            return indexCount;
+        }
+
+        public IndexType getIndexType() {
+            return indexType;
+        }
+
+        public float getBoundingRadius() {
+            return boundingRadius;
+        }
+
+        public float[] getPositionOffset() {
+            return positionOffset;
+        }
+
+        public float[] getPositionScale() {
+            return positionScale;
+        }
+
+        public float[] getTextureOffset() {
+            return textureOffset;
+        }
+
+        public float[] getTextureScale() {
+            return textureScale;
+        }
+
+        public ByteBuffer getVertices() {
+            return vertices;
+        }
+
+        public ByteBuffer getIndices() {
+            return indices;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package models;
+
+/**
+ * A set of snapshots of a {@link TexturedModel}, taken from evenly spaced angles around its vertical axis and laid out
+ * in a grid in a single texture (the atlas). Far away entities are drawn as a camera facing quad showing the snapshot
+ * taken from the closest angle, instead of as the full model.
+ * <p>
+ * Every snapshot frames the bounding sphere of the model: it covers [-r, r] on both axes, with r the bounding radius,
+ * centered on the origin of the model.
+ */
+public class Impostor {
+
+    private final int textureID;
+    private final int viewCount;
+    private final int columns;
+    private final int rows;
+
+    /**
+     * @param textureID - the ID of the atlas texture.
+     * @param viewCount - the number of snapshots; snapshot i is taken from the angle 360 * i / viewCount degrees.
+     * @param columns   - the number of snapshots per row of the atlas.
+     * @param rows      - the number of rows of the atlas; snapshot i lies in column i % columns, row i / columns,
+     *                  counting rows from the bottom.
+     */
+    public Impostor(int textureID, int viewCount, int columns, int rows) {
+        this.textureID = textureID;
+        this.viewCount = viewCount;
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    public int getTextureID() {
+        return textureID;
+    }
+
+    public int getViewCount() {
+        return viewCount;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+}
@@ -0,0 +1,103 @@
+package models;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The integer types an index buffer can be stored with. The {@link renderengine.Loader} picks the narrowest one able
+ * to address every vertex of a mesh.
+ */
+public enum IndexType {
+
+    UNSIGNED_BYTE(GL11.GL_UNSIGNED_BYTE, 1, 0xFF),
+    UNSIGNED_SHORT(GL11.GL_UNSIGNED_SHORT, 2, 0xFFFF),
+    UNSIGNED_INT(GL11.GL_UNSIGNED_INT, 4, Integer.MAX_VALUE);
+
+    private final int glType;
+    private final int bytesPerIndex;
+    private final int maxIndex;
+
+    IndexType(int glType, int bytesPerIndex, int maxIndex) {
+        this.glType = glType;
+        this.bytesPerIndex = bytesPerIndex;
+        this.maxIndex = maxIndex;
+    }
+
+    /**
+     * @param maxIndex - the highest index of a mesh, i.e. its vertex count minus one.
+     * @return - the narrowest type able to hold the index.
+     */
+    public static IndexType forMaxIndex(int maxIndex) {
+        for (IndexType type : values()) {
+            if (maxIndex <= type.maxIndex) {
+                return type;
+            }
+        }
+        return UNSIGNED_INT;
+    }
+
+    /**
+     * @param indices - the indices of a mesh.
+     * @return - the narrowest type able to hold every index.
+     */
+    public static IndexType forIndices(int[] indices) {
+        int maxIndex = 0;
+        for (int index : indices) {
+            maxIndex = Math.max(maxIndex, index);
+        }
+        return forMaxIndex(maxIndex);
+    }
+
+    /**
+     * Narrows the indices to this type, in native byte order, as glBufferData expects them.
+     *
+     * @param indices - the indices; this type must be able to hold every one of them.
+     * @return - the encoded indices, ready to be read.
+     */
+    public ByteBuffer encode(int[] indices) {
+        ByteBuffer buffer = BufferUtils.createByteBuffer(indices.length * bytesPerIndex);
+        for (int index : indices) {
+            switch (this) {
+                case UNSIGNED_BYTE:
+                    buffer.put((byte) index);
+                    break;
+                case UNSIGNED_SHORT:
+                    buffer.putShort((short) index);
+                    break;
+                default:
+                    buffer.putInt(index);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @param buffer - indices encoded with this type (see {@link #encode(int[])}).
+     * @param i      - the position of the index in the buffer, in indices.
+     * @return - the index, widened back to an int.
+     */
+    public int decode(ByteBuffer buffer, int i) {
+        switch (this) {
+            case UNSIGNED_BYTE:
+                return buffer.get(i) & 0xFF;
+            case UNSIGNED_SHORT:
+                return buffer.getShort(i * 2) & 0xFFFF;
+            default:
+                return buffer.getInt(i * 4);
+        }
+    }
+
+    /**
+     * @return - the type to pass to glDrawElements.
+     */
+    public int getGlType() {
+        return glType;
+    }
+
+    public int getBytesPerIndex() {
+        return bytesPerIndex;
+    }
+}
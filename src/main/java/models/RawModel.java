@@ -4,12 +4,52 @@ package models;
  * Created by ThatKidFlo on 15.04.2016.
  */
 public class RawModel {
+    private static final float[] NO_OFFSET = {0.0f, 0.0f, 0.0f};
+    private static final float[] NO_SCALE = {1.0f, 1.0f, 1.0f};
+
     private int vaoID;
     private int vertexCount;
+    /**
+     * Radius of the bounding sphere of the model, centered in the origin of model space.
+     */
+    private float boundingRadius;
+
+    private IndexType indexType;
+    private VertexFormat vertexFormat;
+    /**
+     * Map the values stored in the VBOs back to model space positions and texture coordinates (value * scale +
+     * offset); identity for the {@link VertexFormat#FLOAT} format.
+     */
+    private float[] positionOffset;
+    private float[] positionScale;
+    private float[] textureOffset;
+    private float[] textureScale;
+    /**
+     * Whether the instance attributes of the VAO are wired to the instance VBO of the entity renderer. Kept on the
+     * model rather than by VAO ID, as a deleted VAO's ID may be handed out again to another model.
+     */
+    private boolean instanceAttributesWired;
+
+    public RawModel(int vaoID, int vertexCount, float boundingRadius) {
+        this(vaoID, vertexCount, boundingRadius, IndexType.UNSIGNED_INT);
+    }
+
+    public RawModel(int vaoID, int vertexCount, float boundingRadius, IndexType indexType) {
+        this(vaoID, vertexCount, boundingRadius, indexType, VertexFormat.FLOAT, NO_OFFSET, NO_SCALE, NO_OFFSET,
+                NO_SCALE);
+    }
 
-    public RawModel(int vaoID, int vertexCount) {
+    public RawModel(int vaoID, int vertexCount, float boundingRadius, IndexType indexType, VertexFormat vertexFormat,
+                    float[] positionOffset, float[] positionScale, float[] textureOffset, float[] textureScale) {
         this.vaoID = vaoID;
         this.vertexCount = vertexCount;
+        this.boundingRadius = boundingRadius;
+        this.indexType = indexType;
+        this.vertexFormat = vertexFormat;
+        this.positionOffset = positionOffset;
+        this.positionScale = positionScale;
+        this.textureOffset = textureOffset;
+        this.textureScale = textureScale;
     }
 
     public int getVaoID() {
@@ -19,4 +59,43 @@ public class RawModel {
     public int getVertexCount() {
         return vertexCount;
     }
+
+    public float getBoundingRadius() {
+        return boundingRadius;
+    }
+
+    /**
+     * @return - the type of the indices in the element array buffer of the VAO.
+     */
+    public IndexType getIndexType() {
+        return indexType;
+    }
+
+    public VertexFormat getVertexFormat() {
+        return vertexFormat;
+    }
+
+    public float[] getPositionOffset() {
+        return positionOffset;
+    }
+
+    public float[] getPositionScale() {
+        return positionScale;
+    }
+
+    public float[] getTextureOffset() {
+        return textureOffset;
+    }
+
+    public float[] getTextureScale() {
+        return textureScale;
+    }
+
+    public boolean hasInstanceAttributesWired() {
+        return instanceAttributesWired;
+    }
+
+    public void setInstanceAttributesWired(boolean instanceAttributesWired) {
+        this.instanceAttributesWired = instanceAttributesWired;
+    }
 }
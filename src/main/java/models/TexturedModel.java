@@ -9,9 +9,26 @@ public class TexturedModel {
 
     private RawModel rawModel;
     private ModelTexture texture;
+    /**
+     * The levels of detail of the model, from the full resolution model (level 0) to the coarsest one.
+     */
+    private RawModel[] levels;
+    /**
+     * The snapshots far away entities of this model are drawn with, or null if they are always drawn as meshes.
+     */
+    private Impostor impostor;
 
     public TexturedModel(RawModel model, ModelTexture texture) {
-        this.rawModel = model;
+        this(new RawModel[]{model}, texture);
+    }
+
+    /**
+     * @param levels  - the levels of detail of the model, starting with the full resolution one.
+     * @param texture - the texture shared by all levels.
+     */
+    public TexturedModel(RawModel[] levels, ModelTexture texture) {
+        this.rawModel = levels[0];
+        this.levels = levels;
         this.texture = texture;
     }
 
@@ -22,4 +39,31 @@ public class TexturedModel {
     public RawModel getRawModel() {
         return rawModel;
     }
+
+    /**
+     * @param level - the level of detail, 0 being the full resolution.
+     * @return - the model of the given level.
+     */
+    public RawModel getRawModel(int level) {
+        return levels[level];
+    }
+
+    public int getLodCount() {
+        return levels.length;
+    }
+
+    public Impostor getImpostor() {
+        return impostor;
+    }
+
+    public void setImpostor(Impostor impostor) {
+        this.impostor = impostor;
+    }
+
+    /**
+     * @return - the radius of the bounding sphere of the underlying {@link RawModel}, in model space.
+     */
+    public float getBoundingRadius() {
+        return rawModel.getBoundingRadius();
+    }
 }
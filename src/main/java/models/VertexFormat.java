@@ -0,0 +1,34 @@
+package models;
+
+/**
+ * The layouts in which the {@link renderengine.Loader} can store the vertices of a mesh.
+ */
+public enum VertexFormat {
+
+    /**
+     * Positions, texture coordinates and normals as plain floats (32 bytes per vertex), each in a VBO of its own, or
+     * interleaved in a single VBO, in that order, when loaded from a {@link CompiledModel}.
+     */
+    FLOAT(32),
+
+    /**
+     * A single interleaved VBO with a 16 byte stride:
+     * <pre>
+     *  0..7    position, 3 shorts (+ 2 bytes of padding), relative to the bounds of the mesh
+     *  8..11   texture coordinates, 2 unsigned shorts, relative to the UV bounds of the mesh
+     *  12..15  normal, octahedral encoded in the first two 10 bit components of a GL_INT_2_10_10_10_REV
+     * </pre>
+     * The shaders rebuild the values from the per-mesh scale and offset held by the {@link RawModel}.
+     */
+    PACKED(16);
+
+    private final int bytesPerVertex;
+
+    VertexFormat(int bytesPerVertex) {
+        this.bytesPerVertex = bytesPerVertex;
+    }
+
+    public int getBytesPerVertex() {
+        return bytesPerVertex;
+    }
+}
@@ -0,0 +1,223 @@
+package renderengine;
+
+import textures.CompressedTexture;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Loads assets as a graph of stages, so that start-up takes as long as its longest chain of dependent stages, rather
+ * than the sum of every asset.
+ * <p>
+ * Every asset is split into CPU stages (reading files, parsing, decoding, optimising), run on a fork-join pool, and GL
+ * stages (creating VAOs and textures), queued for the GL thread, which runs them while it waits in
+ * {@link #await(CompletableFuture)}. Stages are chained with {@link CompletableFuture}s, so an asset made of other
+ * assets (e.g. a textured model) completes as soon as its mesh and its texture do, whatever order they finish in.
+ * <p>
+ * The time spent in the stages of every asset is recorded, and printed by {@link #report()}.
+ */
+public class AssetPipeline {
+
+    /**
+     * Queued when an awaited future completes, to wake the GL thread up.
+     */
+    private static final Runnable WAKE_UP = () -> {
+    };
+
+    private final ForkJoinPool workers;
+    private final BlockingQueue<Runnable> glTasks = new LinkedBlockingQueue<>();
+    private final Executor glThread = glTasks::add;
+    /**
+     * The timings of every asset, in the order they were requested.
+     */
+    private final Map<String, AssetTiming> timings = new LinkedHashMap<>();
+    private final long start = System.nanoTime();
+
+    public AssetPipeline() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism - the number of threads running CPU stages.
+     */
+    public AssetPipeline(int parallelism) {
+        this.workers = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Starts a CPU stage.
+     *
+     * @param asset - the name of the asset the stage is timed under.
+     * @param stage - the work of the stage, run on a worker thread.
+     * @return - the result of the stage.
+     */
+    public <T> CompletableFuture<T> cpu(String asset, Supplier<T> stage) {
+        AssetTiming timing = timing(asset);
+        return CompletableFuture.supplyAsync(() -> timing.time(false, stage), workers);
+    }
+
+    /**
+     * Chains a CPU stage after another stage.
+     *
+     * @param asset - the name of the asset the stage is timed under.
+     * @param input - the stage the stage depends on.
+     * @param stage - the work of the stage, run on a worker thread.
+     * @return - the result of the stage.
+     */
+    public <T, R> CompletableFuture<R> cpu(String asset, CompletableFuture<T> input, Function<T, R> stage) {
+        AssetTiming timing = timing(asset);
+        return input.thenApplyAsync(value -> timing.time(false, () -> stage.apply(value)), workers);
+    }
+
+    /**
+     * Chains a CPU stage after two other stages.
+     *
+     * @param asset  - the name of the asset the stage is timed under.
+     * @param first  - the first stage the stage depends on.
+     * @param second - the second stage the stage depends on.
+     * @param stage  - the work of the stage, run on a worker thread.
+     * @return - the result of the stage.
+     */
+    public <T, U, R> CompletableFuture<R> cpu(String asset, CompletableFuture<T> first, CompletableFuture<U> second,
+                                              BiFunction<T, U, R> stage) {
+        AssetTiming timing = timing(asset);
+        return first.thenCombineAsync(second, (a, b) -> timing.time(false, () -> stage.apply(a, b)), workers);
+    }
+
+    /**
+     * Chains a GL stage after another stage.
+     *
+     * @param asset - the name of the asset the stage is timed under.
+     * @param input - the stage the stage depends on.
+     * @param stage - the work of the stage, run on the GL thread.
+     * @return - the result of the stage.
+     */
+    public <T, R> CompletableFuture<R> gl(String asset, CompletableFuture<T> input, Function<T, R> stage) {
+        AssetTiming timing = timing(asset);
+        return input.thenApplyAsync(value -> timing.time(true, () -> stage.apply(value)), glThread);
+    }
+
+    /**
+     * Loads the texture of a model through a resource manager: it is read from the texture cache, or decoded and
+     * compressed, on a worker thread, then acquired on the GL thread; when the manager already holds the texture, the
+     * one read is dropped, and the resident one is shared.
+     *
+     * @param fileName  - the name of the PNG file, in the resources folder, without the ".png" extension.
+     * @param resources - the manager the texture is acquired from.
+     * @return - a handle on the ID of the texture.
+     */
+    public CompletableFuture<ResourceManager.Handle<Integer>> loadTexture(String fileName,
+                                                                          ResourceManager resources) {
+        String asset = fileName + ".png";
+        CompletableFuture<CompressedTexture> texture = cpu(asset,
+                () -> Loader.loadCompressedTexture(fileName, 0, false));
+        return gl(asset, texture, data -> resources.acquireTexture(fileName, data));
+    }
+
+    /**
+     * Runs the GL stages on the calling thread, which must be the GL thread, until the given stage completes.
+     *
+     * @param future - the stage to wait for.
+     * @return - the result of the stage.
+     * @throws IllegalStateException - if the stage, or one it depends on, failed.
+     */
+    public <T> T await(CompletableFuture<T> future) {
+        future.whenComplete((value, error) -> glTasks.add(WAKE_UP));
+        try {
+            while (!future.isDone()) {
+                glTasks.take().run();
+            }
+            return future.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading the assets.", e);
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Could not load the assets.", e.getCause());
+        }
+    }
+
+    /**
+     * Prints the time spent in the stages of every asset, when each of them was ready, and the time since the
+     * pipeline was created.
+     */
+    public void report() {
+        long elapsed = System.nanoTime() - start;
+        long cpuTotal = 0;
+        long glTotal = 0;
+        List<AssetTiming> assets;
+        synchronized (timings) {
+            assets = new ArrayList<>(timings.values());
+        }
+        for (AssetTiming timing : assets) {
+            synchronized (timing) {
+                System.out.println(timing);
+                cpuTotal += timing.cpuNanos;
+                glTotal += timing.glNanos;
+            }
+        }
+        System.out.println("Loaded " + assets.size() + " assets in " + elapsed / 1000000 + " ms: "
+                + cpuTotal / 1000000 + " ms of CPU stages on " + workers.getParallelism() + " threads, "
+                + glTotal / 1000000 + " ms of GL stages.");
+    }
+
+    /**
+     * Stops the worker threads; stages still running are abandoned.
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+        glTasks.clear();
+    }
+
+    private AssetTiming timing(String asset) {
+        synchronized (timings) {
+            return timings.computeIfAbsent(asset, AssetTiming::new);
+        }
+    }
+
+    private class AssetTiming {
+
+        private final String asset;
+        private long cpuNanos;
+        private long glNanos;
+        /**
+         * When the last stage of the asset finished, since the pipeline was created.
+         */
+        private long readyNanos;
+
+        private AssetTiming(String asset) {
+            this.asset = asset;
+        }
+
+        private <T> T time(boolean gl, Supplier<T> stage) {
+            long stageStart = System.nanoTime();
+            T result = stage.get();
+            long stageEnd = System.nanoTime();
+            synchronized (this) {
+                if (gl) {
+                    glNanos += stageEnd - stageStart;
+                } else {
+                    cpuNanos += stageEnd - stageStart;
+                }
+                readyNanos = Math.max(readyNanos, stageEnd - start);
+            }
+            return result;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return asset + ": " + cpuNanos / 1000000 + " ms CPU, " + glNanos / 1000000 + " ms GL, ready after "
+                    + readyNanos / 1000000 + " ms";
+        }
+    }
+}
@@ -22,15 +22,29 @@ public final class DisplayManager {
     public static int WINDOW_HEIGHT = 720;
     public static final int FPS_CAP = 120;
 
+    private static final String TITLE = "My Game Engine! - v0.0.1";
+
     private static long lastFrameTime;
     private static float timeDelta;
+    private static long lastTitleUpdateTime;
+    private static int framesSinceTitleUpdate;
 
     public static void createDisplay() {
+        createDisplay(true);
+    }
+
+    /**
+     * Creates the window and its OpenGL context, and makes the context current on the calling thread.
+     *
+     * @param visible - false to keep the window hidden, e.g. for tests and benchmarks, which only need the context.
+     */
+    public static void createDisplay(boolean visible) {
         GLFWErrorCallback.createPrint(System.err).set();
         if (!glfwInit()) {
             throw new RuntimeException("Failed to init GLFW.");
         }
 
+        glfwWindowHint(GLFW_VISIBLE, visible ? GLFW_TRUE : GLFW_FALSE);
         glfwWindowHint(GLFW_RESIZABLE, GLFW_TRUE);
         glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 4);
         glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 1);
@@ -41,17 +55,19 @@ public final class DisplayManager {
         glfwWindowHint(GLFW_STENCIL_BITS, 4);
         glfwWindowHint(GLFW_SAMPLES, 4);
 
-        WINDOW = glfwCreateWindow(WINDOW_WIDTH, WINDOW_HEIGHT, "My Game Engine! - v0.0.1", NULL, NULL);
+        WINDOW = glfwCreateWindow(WINDOW_WIDTH, WINDOW_HEIGHT, TITLE, NULL, NULL);
 
         if (WINDOW == NULL) {
             throw new RuntimeException("Failed to create WINDOW.");
         }
 
         glfwMakeContextCurrent(WINDOW);
-        // Enable v-sync
-        glfwSwapInterval(1);
+        // Enable v-sync; a hidden window is never presented, so it has no reason to wait for it.
+        glfwSwapInterval(visible ? 1 : 0);
 
-        glfwShowWindow(WINDOW);
+        if (visible) {
+            glfwShowWindow(WINDOW);
+        }
         // This line is critical for LWJGL's interoperation with GLFW's
         // OpenGL context, or any context that is managed externally.
         // LWJGL detects the context that is current in the current thread,
@@ -59,7 +75,7 @@ public final class DisplayManager {
         // bindings available for use.
         GL.createCapabilities();
         initializeIO();
-        lastFrameTime = getCurrentMillis();
+        lastFrameTime = lastTitleUpdateTime = getCurrentMillis();
     }
 
     private static void initializeIO() {
@@ -107,6 +123,21 @@ public final class DisplayManager {
         final long currentFrameTime = getCurrentMillis();
         timeDelta = (currentFrameTime - lastFrameTime) / Constants.Time.MILLIS_TO_SECONDS;
         lastFrameTime = currentFrameTime;
+        updateTitle(currentFrameTime);
+    }
+
+    /**
+     * Once per second, shows the frame rate and the rendering statistics of the last frame in the window title.
+     */
+    private static void updateTitle(long currentFrameTime) {
+        ++framesSinceTitleUpdate;
+        long elapsed = currentFrameTime - lastTitleUpdateTime;
+        if (elapsed >= Constants.Time.MILLIS_TO_SECONDS) {
+            float fps = framesSinceTitleUpdate * Constants.Time.MILLIS_TO_SECONDS / elapsed;
+            glfwSetWindowTitle(WINDOW, String.format("%s | %.0f fps | %s", TITLE, fps, FrameStatistics.summary()));
+            framesSinceTitleUpdate = 0;
+            lastTitleUpdateTime = currentFrameTime;
+        }
     }
 
     public static void closeDisplay() {
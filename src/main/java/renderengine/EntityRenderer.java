@@ -6,92 +6,188 @@ import entities.Light;
 import models.RawModel;
 import models.TexturedModel;
 import org.joml.Matrix4f;
+import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL20;
-import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
 import shaders.StaticShader;
 import textures.ModelTexture;
 import utils.Maths;
 
-import java.util.List;
-import java.util.Map;
+import java.nio.FloatBuffer;
 
 /**
  * Created by ThatKidFlo on 15.04.2016.
  */
 public class EntityRenderer {
 
+    /**
+     * The maximum number of instances drawn by a single instanced draw call; bigger batches are split.
+     */
+    private static final int MAX_INSTANCES = 10000;
+    /**
+     * The number of floats each instance contributes to the instance VBO (a 4x4 transformation matrix).
+     */
+    private static final int INSTANCE_DATA_LENGTH = 16;
+    /**
+     * The first VAO attribute used for the per-instance transformation matrix; a mat4 attribute spans 4 slots.
+     */
+    public static final int INSTANCE_TRANSFORMATION_ATTRIBUTE = 3;
+    /**
+     * Batches smaller than this are drawn one entity at a time, as filling the instance VBO is not worth it for them.
+     */
+    private static final int MIN_INSTANCED_BATCH_SIZE = 4;
+
     private StaticShader shader;
+    private Loader loader;
 
-    public EntityRenderer(StaticShader shader, Matrix4f projectionMatrix) {
-        this.shader = shader;
+    private boolean instancingEnabled = true;
+    private final int instanceVbo;
+    private final FloatBuffer instanceBuffer = BufferUtils.createFloatBuffer(MAX_INSTANCES * INSTANCE_DATA_LENGTH);
+    private final Matrix4f transformation = new Matrix4f();
 
-        shader.start();
-        shader.loadProjectionMatrix(projectionMatrix);
-        shader.stop();
-    }
+    /**
+     * The material loaded in the shader by the last prepared model, in the current frame.
+     */
+    private ModelTexture boundMaterial;
 
-    public void render(Map<TexturedModel, List<Entity>> entities) {
-        entities.keySet().forEach(
-                (model) -> {
-                    prepareTexturedModel(model);
-                    entities.get(model).forEach(
-                            (entity) -> {
-                                prepareInstance(entity);
-                                GL11.glDrawElements(GL11.GL_TRIANGLES, model.getRawModel().getVertexCount(), GL11
-                                        .GL_UNSIGNED_INT, 0);
-                            });
-                    unbindTexturedModel();
-                }
-        );
+    public EntityRenderer(StaticShader shader, Loader loader) {
+        this.shader = shader;
+        this.loader = loader;
+        this.instanceVbo = loader.createEmptyVbo(MAX_INSTANCES * INSTANCE_DATA_LENGTH);
     }
 
     /**
-     * Prepares a {@link TexturedModel}  for rendering, by binding the VAO of the model to be rendered, and enabling the
-     * vertex attribute arrays at index 0, 1, and 2. They contain, respectively:
-     * 0: the positional data, (XYZ, floats).
-     * 1: the texture data,  (UV, floats).
-     * 2: the normal vectors (XYZ, floats).
+     * Renders a sorted {@link RenderQueue}. Consecutive entries sharing the same {@link TexturedModel} and level of
+     * detail are drawn as one batch, and in between batches only the pieces of state which actually differ are
+     * changed.
      *
-     * @param model - the {@link TexturedModel} to be prepared for rendering
+     * @param queue - the queue of entities to render, already sorted.
      */
-    private void prepareTexturedModel(TexturedModel model) {
-        RawModel rawModel = model.getRawModel();
+    public void render(RenderQueue queue) {
+        int first = 0;
+        while (first < queue.size()) {
+            Entity firstEntity = queue.getEntity(first);
+            TexturedModel model = firstEntity.getModel();
+            int lod = firstEntity.getLod();
+            int end = first + 1;
+            while (end < queue.size() && queue.getEntity(end).getModel() == model
+                    && queue.getEntity(end).getLod() == lod) {
+                ++end;
+            }
+
+            RawModel rawModel = model.getRawModel(lod);
+            prepareTexturedModel(model, rawModel);
+            if (instancingEnabled && end - first >= MIN_INSTANCED_BATCH_SIZE) {
+                renderInstanced(rawModel, queue, first, end);
+            } else {
+                shader.loadInstanced(false);
+                for (int i = first; i < end; ++i) {
+                    prepareInstance(queue.getEntity(i));
+                    GL11.glDrawElements(GL11.GL_TRIANGLES, rawModel.getVertexCount(),
+                            rawModel.getIndexType().getGlType(), 0);
+                    FrameStatistics.recordDrawCall(1);
+                }
+            }
+            FrameStatistics.recordTriangles((long) (end - first) * rawModel.getVertexCount() / 3,
+                    (long) (end - first) * model.getRawModel().getVertexCount() / 3);
+            first = end;
+        }
+        unbindTexturedModel();
+    }
+
+    public boolean isInstancingEnabled() {
+        return instancingEnabled;
+    }
 
-        // Bind the VAO of the model to be rendered
-        GL30.glBindVertexArray(rawModel.getVaoID());
+    public void setInstancingEnabled(boolean instancingEnabled) {
+        this.instancingEnabled = instancingEnabled;
+    }
 
-        // Load the vertex attribute array on position 0 in the VAO list (contains position data)
-        GL20.glEnableVertexAttribArray(0);
+    /**
+     * Draws a whole batch of entities sharing the same model, by writing the transformation matrix of each of them in
+     * the instance VBO, and issuing one instanced draw call per {@link #MAX_INSTANCES} entities.
+     *
+     * @param rawModel - the model shared by all entities in the batch; its VAO must already be bound.
+     * @param queue    - the queue holding the entities to draw.
+     * @param from     - the index of the first entity of the batch in the queue, inclusive.
+     * @param to       - the index of the last entity of the batch in the queue, exclusive.
+     */
+    private void renderInstanced(RawModel rawModel, RenderQueue queue, int from, int to) {
+        wireInstanceAttributes(rawModel);
+        shader.loadInstanced(true);
+
+        for (int first = from; first < to; first += MAX_INSTANCES) {
+            int count = Math.min(MAX_INSTANCES, to - first);
+            instanceBuffer.clear();
+            for (int i = 0; i < count; ++i) {
+                Entity entity = queue.getEntity(first + i);
+                Maths.createTransformationMatrix(entity.getPosition(), entity.getRotX(), entity.getRotY(),
+                        entity.getRotZ(), entity.getScale(), transformation)
+                        .get(i * INSTANCE_DATA_LENGTH, instanceBuffer);
+            }
+            instanceBuffer.limit(count * INSTANCE_DATA_LENGTH);
+            loader.updateVbo(instanceVbo, instanceBuffer);
+
+            GL31.glDrawElementsInstanced(GL11.GL_TRIANGLES, rawModel.getVertexCount(),
+                    rawModel.getIndexType().getGlType(), 0, count);
+            FrameStatistics.recordDrawCall(count);
+        }
+    }
 
-        // Position 1 contains the texture coordinates data.
-        GL20.glEnableVertexAttribArray(1);
+    /**
+     * Attaches the instance VBO to the VAO of the model, the first time the model is drawn instanced. The matrix
+     * occupies 4 consecutive attributes, one column per attribute.
+     *
+     * @param rawModel - the model whose VAO should receive the instance attributes.
+     */
+    private void wireInstanceAttributes(RawModel rawModel) {
+        if (!rawModel.hasInstanceAttributesWired()) {
+            rawModel.setInstanceAttributesWired(true);
+            for (int column = 0; column < 4; ++column) {
+                loader.addInstancedAttribute(rawModel.getVaoID(), instanceVbo, INSTANCE_TRANSFORMATION_ATTRIBUTE + column,
+                        4, INSTANCE_DATA_LENGTH, column * 4);
+            }
+        }
+    }
 
-        // Position 2 contains the normal coordinates of each vertex.
-        GL20.glEnableVertexAttribArray(2);
+    /**
+     * Prepares a {@link TexturedModel} for rendering, by binding its VAO and texture, setting the culling mode and
+     * loading its material into the shader. The {@link GLState} skips the binds and switches which the previous
+     * model already set, and the material is only loaded when it differs from the previous one; the vertex attribute
+     * arrays themselves are enabled once and for all in the VAO, by the {@link Loader}.
+     *
+     * @param model    - the {@link TexturedModel} to be prepared for rendering
+     * @param rawModel - the level of detail of the model to be drawn.
+     */
+    private void prepareTexturedModel(TexturedModel model, RawModel rawModel) {
         ModelTexture texture = model.getTexture();
 
-        if (texture.isHasTransparency()) {
-            MasterRenderer.disableCulling();
+        FrameStatistics.recordStateChange(GLState.bindVertexArray(rawModel.getVaoID()));
+        shader.loadVertexFormat(rawModel);
+        FrameStatistics.recordStateChange(texture.isHasTransparency()
+                ? MasterRenderer.disableCulling()
+                : MasterRenderer.enableCulling());
+
+        if (texture != boundMaterial) {
+            shader.loadFakeLightingVariable(texture.isUseFakeLighting());
+            shader.loadShineVariables(texture.getShineDamper(), texture.getReflectivity());
+            boundMaterial = texture;
+            FrameStatistics.recordStateChange(true);
+        } else {
+            FrameStatistics.recordStateChange(false);
         }
-        shader.loadFakeLightingVariable(texture.isUseFakeLighting());
-        shader.loadShineVariables(texture.getShineDamper(), texture.getReflectivity());
-
-        // Must activate texture bank 0, since the sampler2D from the fragment shader uses this bank by default.
-        GL13.glActiveTexture(GL13.GL_TEXTURE0);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, model.getTexture().getID());
 
+        // Texture bank 0, since the sampler2D from the fragment shader uses this bank by default.
+        FrameStatistics.recordStateChange(GLState.bindTexture(0, GL11.GL_TEXTURE_2D, texture.getID()));
     }
 
+    /**
+     * Restores back face culling, which the terrain relies on, once the whole queue has been drawn, and forgets the
+     * material loaded in this frame.
+     */
     private void unbindTexturedModel() {
         MasterRenderer.enableCulling();
-        GL20.glDisableVertexAttribArray(0);
-        GL20.glDisableVertexAttribArray(1);
-        GL20.glDisableVertexAttribArray(2);
-
-        // Unbind the VAO
-        GL30.glBindVertexArray(0);
+        boundMaterial = null;
     }
 
     /**
@@ -107,9 +203,11 @@ public class EntityRenderer {
                         entity.getRotX(),
                         entity.getRotY(),
                         entity.getRotZ(),
-                        entity.getScale()
+                        entity.getScale(),
+                        transformation
                 )
         );
+        FrameStatistics.recordTransformUpload();
     }
 
     /**
@@ -125,17 +223,9 @@ public class EntityRenderer {
         TexturedModel model = entity.getModel();
         RawModel rawModel = model.getRawModel();
 
-        // Bind the VAO of the model to be rendered
-        GL30.glBindVertexArray(rawModel.getVaoID());
-
-        // Load the vertex attribute array on position 0 in the VAO list (contains position data)
-        GL20.glEnableVertexAttribArray(0);
-
-        // Position 1 contains the texture coordinates data.
-        GL20.glEnableVertexAttribArray(1);
-
-        // Position 2 contains the normal coordinates of each vertex.
-        GL20.glEnableVertexAttribArray(2);
+        // Bind the VAO of the model to be rendered; its vertex attribute arrays are already enabled.
+        GLState.bindVertexArray(rawModel.getVaoID());
+        shader.loadVertexFormat(rawModel);
 
         Matrix4f transformationMatrix = Maths
                 .createTransformationMatrix(
@@ -152,17 +242,9 @@ public class EntityRenderer {
         shader.loadShineVariables(texture.getShineDamper(), texture.getReflectivity());
 
         // Must activate texture bank 0, since the sampler2D from the fragment shader uses this bank by default.
-        GL13.glActiveTexture(GL13.GL_TEXTURE0);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, model.getTexture().getID());
+        GLState.bindTexture(0, GL11.GL_TEXTURE_2D, model.getTexture().getID());
 
         // The call to glDrawArrays was replaced, since now we also have the indices buffer bound
-        GL11.glDrawElements(GL11.GL_TRIANGLES, rawModel.getVertexCount(), GL11.GL_UNSIGNED_INT, 0);
-
-        GL20.glDisableVertexAttribArray(0);
-        GL20.glDisableVertexAttribArray(1);
-        GL20.glDisableVertexAttribArray(2);
-
-        // Unbind the VAO
-        GL30.glBindVertexArray(0);
+        GL11.glDrawElements(GL11.GL_TRIANGLES, rawModel.getVertexCount(), rawModel.getIndexType().getGlType(), 0);
     }
 }
@@ -0,0 +1,225 @@
+package renderengine;
+
+/**
+ * Per-frame rendering counters. All counters are reset by {@link #beginFrame()}, which the {@link MasterRenderer}
+ * calls once at the start of every frame, so the values read after a frame has been rendered describe that frame only.
+ */
+public final class FrameStatistics {
+
+    private static int drawCalls;
+    private static int instancesDrawn;
+    private static long trianglesDrawn;
+    private static long trianglesAtFullDetail;
+    private static int transformUploads;
+    private static long cpuRenderNanos;
+    private static int entitiesVisible;
+    private static int entitiesCulled;
+    private static int terrainsVisible;
+    private static int terrainsCulled;
+    private static int terrainPatchesVisible;
+    private static int terrainPatchesCulled;
+    private static int stateChanges;
+    private static int stateChangesAvoided;
+    private static int glCallsIssued;
+    private static int glCallsElided;
+    private static int uniformUploads;
+    private static int uniformUploadsSkipped;
+
+    private FrameStatistics() {
+    }
+
+    /**
+     * Resets every per-frame counter. Must be called once, before any rendering work of the frame is issued.
+     */
+    public static void beginFrame() {
+        drawCalls = 0;
+        instancesDrawn = 0;
+        trianglesDrawn = trianglesAtFullDetail = 0;
+        transformUploads = 0;
+        entitiesVisible = entitiesCulled = 0;
+        terrainsVisible = terrainsCulled = 0;
+        terrainPatchesVisible = terrainPatchesCulled = 0;
+        stateChanges = stateChangesAvoided = 0;
+        glCallsIssued = glCallsElided = 0;
+        uniformUploads = uniformUploadsSkipped = 0;
+    }
+
+    public static void recordDrawCall(int instances) {
+        ++drawCalls;
+        instancesDrawn += instances;
+    }
+
+    /**
+     * Records the triangles submitted by a draw call, next to the number the full resolution models would have cost.
+     *
+     * @param triangles           - the triangles actually submitted.
+     * @param fullDetailTriangles - the triangles the same draw would have submitted without levels of detail.
+     */
+    public static void recordTriangles(long triangles, long fullDetailTriangles) {
+        trianglesDrawn += triangles;
+        trianglesAtFullDetail += fullDetailTriangles;
+    }
+
+    public static void recordTransformUpload() {
+        ++transformUploads;
+    }
+
+    public static void recordEntityVisibility(boolean visible) {
+        if (visible) {
+            ++entitiesVisible;
+        } else {
+            ++entitiesCulled;
+        }
+    }
+
+    public static void recordEntitiesVisibility(int visible, int culled) {
+        entitiesVisible += visible;
+        entitiesCulled += culled;
+    }
+
+    public static void recordTerrainVisibility(boolean visible) {
+        if (visible) {
+            ++terrainsVisible;
+        } else {
+            ++terrainsCulled;
+        }
+    }
+
+    public static void recordTerrainPatchVisibility(boolean visible) {
+        if (visible) {
+            ++terrainPatchesVisible;
+        } else {
+            ++terrainPatchesCulled;
+        }
+    }
+
+    /**
+     * Records whether a piece of state (VAO, texture, culling mode, material) had to be changed in between two batches,
+     * or could be kept as it was.
+     *
+     * @param changed - true if the state was changed, false if the change was avoided.
+     */
+    public static void recordStateChange(boolean changed) {
+        if (changed) {
+            ++stateChanges;
+        } else {
+            ++stateChangesAvoided;
+        }
+    }
+
+    /**
+     * Records whether a state changing call went through to the driver, or was elided by the {@link GLState} cache.
+     *
+     * @param issued - true if the call reached the driver.
+     */
+    public static void recordGlCall(boolean issued) {
+        if (issued) {
+            ++glCallsIssued;
+        } else {
+            ++glCallsElided;
+        }
+    }
+
+    /**
+     * Records whether a uniform upload reached the driver, or was skipped because the uniform already held the value.
+     *
+     * @param uploaded - true if the value was uploaded.
+     */
+    public static void recordUniformUpload(boolean uploaded) {
+        if (uploaded) {
+            ++uniformUploads;
+        } else {
+            ++uniformUploadsSkipped;
+        }
+    }
+
+    public static void recordCpuRenderTime(long nanos) {
+        cpuRenderNanos = nanos;
+    }
+
+    public static int getDrawCalls() {
+        return drawCalls;
+    }
+
+    public static int getInstancesDrawn() {
+        return instancesDrawn;
+    }
+
+    public static long getTrianglesDrawn() {
+        return trianglesDrawn;
+    }
+
+    public static long getTrianglesAtFullDetail() {
+        return trianglesAtFullDetail;
+    }
+
+    public static int getTransformUploads() {
+        return transformUploads;
+    }
+
+    public static int getEntitiesVisible() {
+        return entitiesVisible;
+    }
+
+    public static int getEntitiesCulled() {
+        return entitiesCulled;
+    }
+
+    public static int getTerrainsVisible() {
+        return terrainsVisible;
+    }
+
+    public static int getTerrainsCulled() {
+        return terrainsCulled;
+    }
+
+    public static int getTerrainPatchesVisible() {
+        return terrainPatchesVisible;
+    }
+
+    public static int getTerrainPatchesCulled() {
+        return terrainPatchesCulled;
+    }
+
+    public static int getStateChanges() {
+        return stateChanges;
+    }
+
+    public static int getStateChangesAvoided() {
+        return stateChangesAvoided;
+    }
+
+    public static int getGlCallsIssued() {
+        return glCallsIssued;
+    }
+
+    public static int getGlCallsElided() {
+        return glCallsElided;
+    }
+
+    public static int getUniformUploads() {
+        return uniformUploads;
+    }
+
+    public static int getUniformUploadsSkipped() {
+        return uniformUploadsSkipped;
+    }
+
+    public static float getCpuRenderMillis() {
+        return cpuRenderNanos / 1_000_000.0f;
+    }
+
+    /**
+     * @return - a short, human readable summary of the counters of the last frame.
+     */
+    public static String summary() {
+        return String.format("%d draw calls | %d instances | %dk triangles (%dk at full detail)"
+                        + " | %d transform uploads | entities %d/%d culled"
+                        + " | terrains %d/%d culled (patches %d/%d) | %d state changes, %d avoided | GL calls %d issued, %d elided"
+                        + " | uniforms %d uploaded, %d skipped | %.2f ms CPU",
+                drawCalls, instancesDrawn, trianglesDrawn / 1000, trianglesAtFullDetail / 1000, transformUploads, entitiesCulled, entitiesCulled + entitiesVisible,
+                terrainsCulled, terrainsCulled + terrainsVisible, terrainPatchesCulled,
+                terrainPatchesCulled + terrainPatchesVisible, stateChanges, stateChangesAvoided,
+                glCallsIssued, glCallsElided, uniformUploads, uniformUploadsSkipped, getCpuRenderMillis());
+    }
+}
@@ -0,0 +1,209 @@
+package renderengine;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+import java.util.Arrays;
+
+/**
+ * Shadow copy of the pieces of OpenGL state the engine changes every frame: the bound program, VAO, array buffer,
+ * the textures bound to each unit, the active texture unit, and the culling, depth test and blending switches.
+ * Every change goes through this class, which only calls the driver when the requested value differs from the current
+ * one. As a consequence, the state must never be changed by calling GL directly, or the shadow copy would lie.
+ * <p>
+ * Every setter returns whether the call reached the driver, and the per-frame number of issued and elided calls is
+ * kept in the {@link FrameStatistics}.
+ */
+public final class GLState {
+
+    private static final int UNKNOWN = -1;
+    private static final int MAX_TEXTURE_UNITS = 16;
+    /**
+     * Texture targets tracked separately on each unit.
+     */
+    private static final int[] TEXTURE_TARGETS = {GL11.GL_TEXTURE_2D, GL30.GL_TEXTURE_2D_ARRAY};
+
+    private static int program = UNKNOWN;
+    private static int vertexArray = UNKNOWN;
+    private static int arrayBuffer = UNKNOWN;
+    private static int activeTextureUnit = UNKNOWN;
+    private static final int[][] textures = new int[TEXTURE_TARGETS.length][MAX_TEXTURE_UNITS];
+    private static int cullFace = UNKNOWN;
+    private static int depthTest = UNKNOWN;
+    private static int blend = UNKNOWN;
+
+    static {
+        invalidate();
+    }
+
+    private GLState() {
+    }
+
+    /**
+     * Forgets everything known about the current state, so that the next call to each setter reaches the driver. Must
+     * be called if the GL context is recreated, or if the state is changed behind the back of this class.
+     */
+    public static void invalidate() {
+        program = vertexArray = arrayBuffer = activeTextureUnit = UNKNOWN;
+        cullFace = depthTest = blend = UNKNOWN;
+        for (int[] unitBindings : textures) {
+            Arrays.fill(unitBindings, UNKNOWN);
+        }
+    }
+
+    public static boolean useProgram(int programID) {
+        if (program == programID) {
+            return elided();
+        }
+        GL20.glUseProgram(programID);
+        program = programID;
+        return issued();
+    }
+
+    public static boolean bindVertexArray(int vaoID) {
+        if (vertexArray == vaoID) {
+            return elided();
+        }
+        GL30.glBindVertexArray(vaoID);
+        vertexArray = vaoID;
+        return issued();
+    }
+
+    /**
+     * Binds a buffer to GL_ARRAY_BUFFER. The element array buffer binding is not tracked, as it belongs to the bound
+     * VAO.
+     */
+    public static boolean bindArrayBuffer(int vboID) {
+        if (arrayBuffer == vboID) {
+            return elided();
+        }
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+        arrayBuffer = vboID;
+        return issued();
+    }
+
+    /**
+     * @param unit - the index of the texture unit (i.e. 0 for GL_TEXTURE0).
+     */
+    public static boolean activeTexture(int unit) {
+        if (activeTextureUnit == unit) {
+            return elided();
+        }
+        GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+        activeTextureUnit = unit;
+        return issued();
+    }
+
+    /**
+     * Binds a texture to a unit, activating the unit first if needed.
+     *
+     * @param unit      - the index of the texture unit (i.e. 0 for GL_TEXTURE0).
+     * @param target    - GL_TEXTURE_2D, or GL_TEXTURE_2D_ARRAY.
+     * @param textureID - the texture to bind.
+     * @return - whether the bind reached the driver.
+     */
+    public static boolean bindTexture(int unit, int target, int textureID) {
+        int[] bindings = textures[targetSlot(target)];
+        if (bindings[unit] == textureID) {
+            return elided();
+        }
+        activeTexture(unit);
+        GL11.glBindTexture(target, textureID);
+        bindings[unit] = textureID;
+        return issued();
+    }
+
+    public static boolean setCullFace(boolean enabled) {
+        if (cullFace == toState(enabled)) {
+            return elided();
+        }
+        toggle(GL11.GL_CULL_FACE, enabled);
+        cullFace = toState(enabled);
+        return issued();
+    }
+
+    public static boolean setDepthTest(boolean enabled) {
+        if (depthTest == toState(enabled)) {
+            return elided();
+        }
+        toggle(GL11.GL_DEPTH_TEST, enabled);
+        depthTest = toState(enabled);
+        return issued();
+    }
+
+    public static boolean setBlend(boolean enabled) {
+        if (blend == toState(enabled)) {
+            return elided();
+        }
+        toggle(GL11.GL_BLEND, enabled);
+        blend = toState(enabled);
+        return issued();
+    }
+
+    public static void deleteProgram(int programID) {
+        if (program == programID) {
+            useProgram(0);
+        }
+        GL20.glDeleteProgram(programID);
+    }
+
+    public static void deleteVertexArray(int vaoID) {
+        if (vertexArray == vaoID) {
+            vertexArray = 0;
+        }
+        GL30.glDeleteVertexArrays(vaoID);
+    }
+
+    public static void deleteBuffer(int vboID) {
+        if (arrayBuffer == vboID) {
+            arrayBuffer = 0;
+        }
+        GL15.glDeleteBuffers(vboID);
+    }
+
+    public static void deleteTexture(int textureID) {
+        // deleting a bound texture reverts the units it was bound to, to texture 0.
+        for (int[] unitBindings : textures) {
+            for (int unit = 0; unit < unitBindings.length; ++unit) {
+                if (unitBindings[unit] == textureID) {
+                    unitBindings[unit] = 0;
+                }
+            }
+        }
+        GL11.glDeleteTextures(textureID);
+    }
+
+    private static void toggle(int capability, boolean enabled) {
+        if (enabled) {
+            GL11.glEnable(capability);
+        } else {
+            GL11.glDisable(capability);
+        }
+    }
+
+    private static int toState(boolean enabled) {
+        return enabled ? 1 : 0;
+    }
+
+    private static int targetSlot(int target) {
+        for (int slot = 0; slot < TEXTURE_TARGETS.length; ++slot) {
+            if (TEXTURE_TARGETS[slot] == target) {
+                return slot;
+            }
+        }
+        throw new IllegalArgumentException("Untracked texture target: " + target);
+    }
+
+    private static boolean issued() {
+        FrameStatistics.recordGlCall(true);
+        return true;
+    }
+
+    private static boolean elided() {
+        FrameStatistics.recordGlCall(false);
+        return false;
+    }
+}
@@ -0,0 +1,75 @@
+package renderengine;
+
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL31;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A GL buffer which data is appended to, a chunk at a time, while it is being produced, e.g. by the
+ * {@link utils.objparser.OBJStreamParser}. Each chunk is copied in with glBufferSubData; when the buffer is full, it is
+ * replaced by one twice as big, and its contents copied over on the GPU, so the data never goes back through the CPU.
+ * <p>
+ * The buffer is not tracked by any {@link Loader}: once the data is complete, the owner of the final buffer (see
+ * {@link #getBufferID()}) is responsible for deleting it.
+ */
+class GrowableBuffer {
+
+    private int bufferID;
+    private long capacity;
+    private long size;
+
+    /**
+     * @param capacity - the initial capacity, in bytes; a good estimate of the final size avoids copies.
+     */
+    GrowableBuffer(long capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.bufferID = createBuffer(this.capacity);
+    }
+
+    /**
+     * Appends the remaining bytes of a buffer, without changing its position.
+     *
+     * @param data - the data to append.
+     */
+    void append(ByteBuffer data) {
+        long required = size + data.remaining();
+        if (required > capacity) {
+            grow(Math.max(required, capacity * 2));
+        }
+        GLState.bindArrayBuffer(bufferID);
+        GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, size, data);
+        size = required;
+    }
+
+    int getBufferID() {
+        return bufferID;
+    }
+
+    /**
+     * @return - the number of bytes appended so far.
+     */
+    long getSize() {
+        return size;
+    }
+
+    private void grow(long newCapacity) {
+        int grown = createBuffer(newCapacity);
+        // the copy targets are not tracked by the GLState, and leave the array buffer binding alone.
+        GL15.glBindBuffer(GL31.GL_COPY_READ_BUFFER, bufferID);
+        GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, grown);
+        GL31.glCopyBufferSubData(GL31.GL_COPY_READ_BUFFER, GL31.GL_COPY_WRITE_BUFFER, 0, 0, size);
+        GL15.glBindBuffer(GL31.GL_COPY_READ_BUFFER, 0);
+        GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+        GLState.deleteBuffer(bufferID);
+        bufferID = grown;
+        capacity = newCapacity;
+    }
+
+    private static int createBuffer(long capacity) {
+        int bufferID = GL15.glGenBuffers();
+        GLState.bindArrayBuffer(bufferID);
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, capacity, GL15.GL_STATIC_DRAW);
+        return bufferID;
+    }
+}
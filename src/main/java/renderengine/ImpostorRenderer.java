@@ -0,0 +1,209 @@
+package renderengine;
+
+import entities.Entity;
+import entities.Light;
+import models.Impostor;
+import models.RawModel;
+import models.TexturedModel;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL14;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import shaders.FrameUniforms;
+import shaders.ImpostorShader;
+import shaders.StaticShader;
+import textures.ModelTexture;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bakes {@link Impostor}s, and draws far away entities with them: each entity becomes a single quad, turned towards the
+ * camera around the Y axis, and all the entities sharing an impostor are drawn by one instanced draw call.
+ * <p>
+ * Baking only needs a current GL context; it renders into an offscreen framebuffer, so it works just as well with a
+ * hidden window, or a software implementation of OpenGL.
+ */
+public class ImpostorRenderer {
+
+    /**
+     * The number of snapshots taken around each model, and how they are laid out in the atlas.
+     */
+    private static final int VIEW_COUNT = 8;
+    private static final int ATLAS_COLUMNS = 4;
+    private static final int ATLAS_ROWS = 2;
+    /**
+     * The size, in pixels, of each snapshot.
+     */
+    private static final int CELL_SIZE = 256;
+
+    private static final int MAX_INSTANCES = 10000;
+    /**
+     * The number of floats each instance contributes to the instance VBO: center and half size, then rotation.
+     */
+    private static final int INSTANCE_DATA_LENGTH = 5;
+    public static final int INSTANCE_CENTER_ATTRIBUTE = 1;
+    public static final int INSTANCE_ROTATION_ATTRIBUTE = 2;
+
+    private static final float[] QUAD_CORNERS = {-1, 1, -1, -1, 1, 1, 1, -1};
+
+    private final ImpostorShader shader;
+    private final Loader loader;
+    private final RawModel quad;
+    private final int instanceVbo;
+    private final FloatBuffer instanceBuffer = BufferUtils.createFloatBuffer(MAX_INSTANCES * INSTANCE_DATA_LENGTH);
+
+    /**
+     * The atlases baked so far, deleted on cleanup.
+     */
+    private final List<Integer> atlases = new ArrayList<>();
+
+    public ImpostorRenderer(ImpostorShader shader, Loader loader) {
+        this.shader = shader;
+        this.loader = loader;
+        this.quad = loader.loadToVAO(QUAD_CORNERS, 2);
+        this.instanceVbo = loader.createEmptyVbo(MAX_INSTANCES * INSTANCE_DATA_LENGTH);
+        loader.addInstancedAttribute(quad.getVaoID(), instanceVbo, INSTANCE_CENTER_ATTRIBUTE, 4,
+                INSTANCE_DATA_LENGTH, 0);
+        loader.addInstancedAttribute(quad.getVaoID(), instanceVbo, INSTANCE_ROTATION_ATTRIBUTE, 1,
+                INSTANCE_DATA_LENGTH, 4);
+    }
+
+    /**
+     * Takes {@link #VIEW_COUNT} snapshots of a model, from evenly spaced angles around its Y axis, with an orthographic
+     * camera framing its bounding sphere, and lays them out in an atlas. The model is lit by the given light, as if it
+     * stood at the origin, and without fog; its alpha channel holds the coverage of the model.
+     * <p>
+     * The frame uniforms and viewport are left in an undefined state; the caller must restore them.
+     *
+     * @param model         - the model to take snapshots of.
+     * @param light         - the light the model is lit with.
+     * @param staticShader  - the shader the model is normally drawn with.
+     * @param frameUniforms - the buffer the camera of each snapshot is written to.
+     * @return - the impostor of the model.
+     */
+    public Impostor bake(TexturedModel model, Light light, StaticShader staticShader, FrameUniforms frameUniforms) {
+        int width = CELL_SIZE * ATLAS_COLUMNS;
+        int height = CELL_SIZE * ATLAS_ROWS;
+
+        int atlas = GL11.glGenTextures();
+        GLState.bindTexture(0, GL11.GL_TEXTURE_2D, atlas);
+        GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, width, height, 0, GL11.GL_RGBA,
+                GL11.GL_UNSIGNED_BYTE, (ByteBuffer) null);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR_MIPMAP_LINEAR);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+        atlases.add(atlas);
+
+        int framebuffer = GL30.glGenFramebuffers();
+        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, framebuffer);
+        GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, atlas, 0);
+        int depthBuffer = GL30.glGenRenderbuffers();
+        GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, depthBuffer);
+        GL30.glRenderbufferStorage(GL30.GL_RENDERBUFFER, GL14.GL_DEPTH_COMPONENT24, width, height);
+        GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_ATTACHMENT, GL30.GL_RENDERBUFFER,
+                depthBuffer);
+        if (GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER) != GL30.GL_FRAMEBUFFER_COMPLETE) {
+            throw new IllegalStateException("Incomplete impostor framebuffer.");
+        }
+
+        GLState.setDepthTest(true);
+        GL11.glViewport(0, 0, width, height);
+        GL11.glClearColor(0, 0, 0, 0);
+        GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+
+        RawModel rawModel = model.getRawModel();
+        ModelTexture texture = model.getTexture();
+        float radius = rawModel.getBoundingRadius();
+        Matrix4f projection = new Matrix4f().ortho(-radius, radius, -radius, radius, 0.0f, 4.0f * radius);
+        Matrix4f view = new Matrix4f();
+        Vector3f eye = new Vector3f();
+        frameUniforms.setProjectionMatrix(projection);
+        frameUniforms.setLight(light);
+        frameUniforms.setFog(0.0f, 1.0f);
+
+        staticShader.start();
+        GLState.bindVertexArray(rawModel.getVaoID());
+        staticShader.loadVertexFormat(rawModel);
+        staticShader.loadInstanced(false);
+        staticShader.loadTransformationMatrix(new Matrix4f());
+        staticShader.loadFakeLightingVariable(texture.isUseFakeLighting());
+        staticShader.loadShineVariables(texture.getShineDamper(), texture.getReflectivity());
+        GLState.bindTexture(0, GL11.GL_TEXTURE_2D, texture.getID());
+        if (texture.isHasTransparency()) {
+            MasterRenderer.disableCulling();
+        }
+
+        for (int i = 0; i < VIEW_COUNT; ++i) {
+            double angle = 2.0 * Math.PI * i / VIEW_COUNT;
+            eye.set((float) Math.sin(angle), 0.0f, (float) Math.cos(angle)).mul(2.0f * radius);
+            view.setLookAt(eye.x, eye.y, eye.z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+            frameUniforms.setView(view, eye);
+            frameUniforms.upload();
+
+            GL11.glViewport((i % ATLAS_COLUMNS) * CELL_SIZE, (i / ATLAS_COLUMNS) * CELL_SIZE, CELL_SIZE, CELL_SIZE);
+            GL11.glDrawElements(GL11.GL_TRIANGLES, rawModel.getVertexCount(), rawModel.getIndexType().getGlType(), 0);
+        }
+
+        MasterRenderer.enableCulling();
+        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+        GL30.glDeleteRenderbuffers(depthBuffer);
+        GL30.glDeleteFramebuffers(framebuffer);
+
+        GLState.bindTexture(0, GL11.GL_TEXTURE_2D, atlas);
+        GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
+
+        return new Impostor(atlas, VIEW_COUNT, ATLAS_COLUMNS, ATLAS_ROWS);
+    }
+
+    /**
+     * Draws the entities batched per model, each model with one instanced draw call per {@link #MAX_INSTANCES}
+     * entities. The shader must already be started.
+     *
+     * @param batches - the entities to draw as impostors, grouped by model; every model must have an impostor.
+     */
+    public void render(Map<TexturedModel, List<Entity>> batches) {
+        FrameStatistics.recordStateChange(GLState.bindVertexArray(quad.getVaoID()));
+        for (Map.Entry<TexturedModel, List<Entity>> batch : batches.entrySet()) {
+            List<Entity> entities = batch.getValue();
+            if (entities.isEmpty()) {
+                continue;
+            }
+            TexturedModel model = batch.getKey();
+            Impostor impostor = model.getImpostor();
+            float radius = model.getRawModel().getBoundingRadius();
+            shader.loadImpostor(impostor);
+            FrameStatistics.recordStateChange(GLState.bindTexture(0, GL11.GL_TEXTURE_2D, impostor.getTextureID()));
+
+            for (int first = 0; first < entities.size(); first += MAX_INSTANCES) {
+                int count = Math.min(MAX_INSTANCES, entities.size() - first);
+                instanceBuffer.clear();
+                for (int i = first; i < first + count; ++i) {
+                    Entity entity = entities.get(i);
+                    Vector3f position = entity.getPosition();
+                    instanceBuffer.put(position.x).put(position.y).put(position.z)
+                            .put(radius * entity.getScale()).put(entity.getRotY());
+                }
+                instanceBuffer.flip();
+                loader.updateVbo(instanceVbo, instanceBuffer);
+                GL31.glDrawArraysInstanced(GL11.GL_TRIANGLE_STRIP, 0, quad.getVertexCount(), count);
+                FrameStatistics.recordDrawCall(count);
+            }
+            FrameStatistics.recordTriangles(2L * entities.size(),
+                    (long) entities.size() * model.getRawModel().getVertexCount() / 3);
+        }
+    }
+
+    public void cleanup() {
+        atlases.forEach(GLState::deleteTexture);
+        atlases.clear();
+    }
+}
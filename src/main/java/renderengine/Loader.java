@@ -1,20 +1,37 @@
 package renderengine;
 
-import de.matthiasmann.twl.utils.PNGDecoder;
+import models.CompiledModel;
+import models.IndexType;
+import models.ModelData;
 import models.RawModel;
+import models.VertexFormat;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.*;
+import textures.BlockCompressor;
+import textures.CompressedTexture;
+import textures.TextureAtlas;
+import textures.TextureAtlasBuilder;
+import textures.TextureData;
+import utils.objparser.OBJStreamParser;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.lwjgl.opengl.GL11.*;
 
@@ -24,6 +41,12 @@ import static org.lwjgl.opengl.GL11.*;
 public class Loader {
 
     public static final String RESOURCES_FOLDER = "deps/";
+    /**
+     * Where compressed textures and compiled models are cached; it can be deleted at any time, and is rebuilt on the
+     * next start.
+     */
+    public static final String CACHE_FOLDER = RESOURCES_FOLDER + "cache/";
+    private static final byte[] PLACEHOLDER_TEXEL = {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0xFF};
 
     /**
      * These two fields are for memory management purposes (i.e. they keep track of
@@ -33,75 +56,711 @@ public class Loader {
     private List<Integer> vaos = new ArrayList<>();
     private List<Integer> vbos = new ArrayList<>();
     private List<Integer> textures = new ArrayList<>();
+    /**
+     * The VBOs created for each VAO, deleted along with it when the model is unloaded before cleanup.
+     */
+    private Map<Integer, List<Integer>> vaoBuffers = new HashMap<>();
+    /**
+     * The VAO being built, between {@link #createVAO()} and {@link #unbindVAO()}.
+     */
+    private int currentVao;
 
     public RawModel loadToVAO(float[] positions, float[] textureCoordinates, float[] normals, int[] indices) {
+        return loadToVAO(positions, textureCoordinates, normals, indices, VertexFormat.FLOAT);
+    }
+
+    public RawModel loadToVAO(float[] positions, float[] textureCoordinates, float[] normals, int[] indices,
+                              VertexFormat format) {
+        return loadToVAO(positions, textureCoordinates, normals, indices, computeBoundingRadius(positions, 3), format);
+    }
+
+    /**
+     * Loads a model parsed by the {@link OBJLoader}, reusing the bounding radius it has already computed.
+     *
+     * @param data - the parsed model.
+     * @return - the newly created {@link RawModel}.
+     */
+    public RawModel loadToVAO(ModelData data) {
+        return loadToVAO(data, VertexFormat.FLOAT);
+    }
+
+    /**
+     * Loads a model parsed by the {@link OBJLoader}, with the given vertex layout.
+     *
+     * @param data   - the parsed model.
+     * @param format - the layout of the vertices in the VBOs.
+     * @return - the newly created {@link RawModel}.
+     */
+    public RawModel loadToVAO(ModelData data, VertexFormat format) {
+        return loadToVAO(data.getVertices(), data.getTextureCoords(), data.getNormals(), data.getIndices(),
+                data.getFurthestPoint(), format);
+    }
+
+    /**
+     * Loads a model made of positions only, to be drawn without indices (e.g. a quad drawn as a triangle strip).
+     *
+     * @param positions  - the positions of the vertices.
+     * @param dimensions - the number of components of each position (2 or 3).
+     * @return - the newly created {@link RawModel}, whose vertex count is the number of positions.
+     */
+    public RawModel loadToVAO(float[] positions, int dimensions) {
+        int vaoID = createVAO();
+        storeDataInAttributeList(0, dimensions, positions);
+        unbindVAO();
+        return new RawModel(vaoID, positions.length / dimensions, computeBoundingRadius(positions, dimensions));
+    }
+
+    /**
+     * Loads a model made of positions only, whose indices live in an element buffer shared with other models (see
+     * {@link #loadIndexBuffer(int[], IndexType)}); the model is drawn from ranges of that buffer.
+     *
+     * @param positions   - the positions of the vertices.
+     * @param dimensions  - the number of components of each position (2 or 3).
+     * @param indexBuffer - the shared element buffer.
+     * @param indexType   - the type the shared indices are stored with.
+     * @param indexCount  - the number of indices needed to draw the whole model, used as its vertex count.
+     * @return - the newly created {@link RawModel}.
+     */
+    public RawModel loadToVAO(float[] positions, int dimensions, int indexBuffer, IndexType indexType,
+                              int indexCount) {
         int vaoID = createVAO();
-        bindIndicesBuffer(indices);
+        GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        storeDataInAttributeList(0, dimensions, positions);
+        unbindVAO();
+        return new RawModel(vaoID, indexCount, computeBoundingRadius(positions, dimensions), indexType);
+    }
+
+    /**
+     * Stores indices in an element buffer of their own, not attached to any VAO, so that several VAOs can share it.
+     *
+     * @param indices - the indices to store.
+     * @param type    - the type to store them with; it must be able to hold every index.
+     * @return - the ID of the element buffer.
+     */
+    public int loadIndexBuffer(int[] indices, IndexType type) {
+        int vboID = GL15.glGenBuffers();
+        vbos.add(vboID);
+        // the element array binding belongs to the bound VAO, so the data goes through the array buffer binding.
+        GLState.bindArrayBuffer(vboID);
+        storeIndices(GL15.GL_ARRAY_BUFFER, indices, type);
+        return vboID;
+    }
+
+    /**
+     * Loads every level of detail of a model, as built by the {@link MeshSimplifier}.
+     *
+     * @param levels - the levels of the model, starting with the full resolution one.
+     * @param format - the layout of the vertices in the VBOs.
+     * @return - the newly created {@link RawModel}s, one per level.
+     */
+    public RawModel[] loadToVAO(ModelData[] levels, VertexFormat format) {
+        RawModel[] models = new RawModel[levels.length];
+        for (int level = 0; level < levels.length; ++level) {
+            models[level] = loadToVAO(levels[level], format);
+        }
+        return models;
+    }
+
+    /**
+     * Loads every level of detail of a compiled model (see {@link MeshCache}). The buffers of the levels are handed to
+     * GL as they are, so a model mapped from the cache is copied straight from the file to the VBOs.
+     *
+     * @param model - the compiled model.
+     * @return - the newly created {@link RawModel}s, one per level.
+     */
+    public RawModel[] loadToVAO(CompiledModel model) {
+        VertexFormat format = model.getFormat();
+        RawModel[] models = new RawModel[model.getLevelCount()];
+        for (int i = 0; i < models.length; ++i) {
+            CompiledModel.Level level = model.getLevel(i);
+            int vaoID = createVAO();
+            int indexVboID = GL15.glGenBuffers();
+            addVaoBuffer(indexVboID);
+            GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indexVboID);
+            GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, level.getIndices(), GL15.GL_STATIC_DRAW);
+
+            int vboID = GL15.glGenBuffers();
+            addVaoBuffer(vboID);
+            GLState.bindArrayBuffer(vboID);
+            GL15.glBufferData(GL15.GL_ARRAY_BUFFER, level.getVertices(), GL15.GL_STATIC_DRAW);
+            if (format == VertexFormat.PACKED) {
+                setPackedAttributes();
+            } else {
+                setInterleavedFloatAttributes();
+            }
+            unbindVAO();
+            models[i] = new RawModel(vaoID, level.getIndexCount(), level.getBoundingRadius(), level.getIndexType(),
+                    format, level.getPositionOffset(), level.getPositionScale(), level.getTextureOffset(),
+                    level.getTextureScale());
+        }
+        return models;
+    }
+
+    /**
+     * Loads an OBJ model too large to be parsed on the heap, e.g. a scan of millions of triangles, by streaming it
+     * straight into its VBOs (see {@link OBJStreamParser}): the heap only ever holds a chunk of the file, whatever the
+     * size of the model. The vertices are stored as {@link VertexFormat#FLOAT} and the indices as unsigned ints, and no
+     * level of detail is built, as both would need the whole mesh at once.
+     *
+     * @param objFileName - the name of the OBJ file, in the resources folder, without the ".obj" extension.
+     * @param chunkBytes  - the size of the chunks the file is read and uploaded in; no line may be longer.
+     * @return - the newly created {@link RawModel}.
+     * @throws IllegalStateException - if the OBJ file cannot be read.
+     */
+    public RawModel loadStreamedOBJ(String objFileName, int chunkBytes) {
+        Path objFile = Paths.get(RESOURCES_FOLDER + objFileName + ".obj");
+        long fileSize;
+        try {
+            fileSize = Files.size(objFile);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the model " + objFile, e);
+        }
+        // text takes a few times the space of the binary data it describes, so a quarter of the file rarely grows.
+        GrowableBuffer vertices = new GrowableBuffer(Math.max(chunkBytes, fileSize / 4));
+        GrowableBuffer indices = new GrowableBuffer(Math.max(chunkBytes, fileSize / 4));
+        OBJStreamParser parser = new OBJStreamParser(chunkBytes, vertices::append, indices::append);
+        boolean parsed = false;
+        try {
+            parser.parse(objFile);
+            if (parser.getIndexCount() > Integer.MAX_VALUE) {
+                throw new IllegalStateException("The model " + objFile + " has too many indices to be drawn at once.");
+            }
+            parsed = true;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the model " + objFile, e);
+        } finally {
+            if (!parsed) {
+                GLState.deleteBuffer(vertices.getBufferID());
+                GLState.deleteBuffer(indices.getBufferID());
+            }
+        }
+
+        int vaoID = createVAO();
+        // only tracked now, as the buffers are replaced, and the old ones deleted, whenever they grow.
+        addVaoBuffer(vertices.getBufferID());
+        addVaoBuffer(indices.getBufferID());
+        GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indices.getBufferID());
+        GLState.bindArrayBuffer(vertices.getBufferID());
+        setInterleavedFloatAttributes();
+        unbindVAO();
+        return new RawModel(vaoID, (int) parser.getIndexCount(), parser.getBoundingRadius(), IndexType.UNSIGNED_INT);
+    }
+
+    private RawModel loadToVAO(float[] positions, float[] textureCoordinates, float[] normals, int[] indices,
+                               float boundingRadius, VertexFormat format) {
+        int vaoID = createVAO();
+        IndexType indexType = bindIndicesBuffer(indices);
+        return storeVertices(vaoID, positions, textureCoordinates, normals, indices.length, boundingRadius, indexType,
+                format);
+    }
+
+    /**
+     * Stores the vertices in the bound VAO, whose indices are already bound, then unbinds it.
+     */
+    private RawModel storeVertices(int vaoID, float[] positions, float[] textureCoordinates, float[] normals,
+                                   int indexCount, float boundingRadius, IndexType indexType, VertexFormat format) {
+        if (format == VertexFormat.PACKED) {
+            PackedVertices packed = new PackedVertices(positions, textureCoordinates, normals);
+            storePackedVertices(packed);
+            unbindVAO();
+            return new RawModel(vaoID, indexCount, boundingRadius, indexType, format, packed.getPositionOffset(),
+                    packed.getPositionScale(), packed.getTextureOffset(), packed.getTextureScale());
+        }
         storeDataInAttributeList(0, 3, positions);
         storeDataInAttributeList(1, 2, textureCoordinates);
         storeDataInAttributeList(2, 3, normals);
         unbindVAO();
-        return new RawModel(vaoID, indices.length);
+        return new RawModel(vaoID, indexCount, boundingRadius, indexType);
+    }
+
+    /**
+     * @param positions  - positions, in model space.
+     * @param dimensions - the number of components of each position.
+     * @return - the distance from the origin to the furthest of the positions.
+     */
+    private static float computeBoundingRadius(float[] positions, int dimensions) {
+        float furthestSquared = 0.0f;
+        for (int i = 0; i < positions.length; i += dimensions) {
+            float lengthSquared = 0.0f;
+            for (int component = 0; component < dimensions; ++component) {
+                lengthSquared += positions[i + component] * positions[i + component];
+            }
+            furthestSquared = Math.max(furthestSquared, lengthSquared);
+        }
+        return (float) Math.sqrt(furthestSquared);
     }
 
     /**
      * Load a texture file, and bind it to the texture ID which is returned from this method.
+     * <p>
+     * The texture is block compressed, with a precomputed mip chain (see {@link BlockCompressor}). The compressed
+     * texture is cached in {@link #CACHE_FOLDER}, under a name holding the hash of the PNG file, so the PNG is
+     * only decoded and compressed again when it changes; every later start uploads the cached levels as they are.
      *
      * @param fileName - the name of the file containing 2D image data; "res/" will be prepended, and ".png" appended.
      * @return - the ID of the generated texture.
      */
     public int loadTexture(String fileName) {
-        ByteBuffer buffer = null;
-        int height = 0;
-        int width = 0;
-        try {
-            InputStream in = new FileInputStream(RESOURCES_FOLDER + fileName + ".png");
-            PNGDecoder decoder = new PNGDecoder(in);
-            height = decoder.getHeight();
-            width = decoder.getWidth();
-            buffer = ByteBuffer.allocateDirect(4 * decoder.getWidth() * decoder.getHeight());
-            buffer.order(ByteOrder.nativeOrder());
-            decoder.decode(buffer, decoder.getWidth() * 4, PNGDecoder.Format.RGBA);
-            buffer.flip();
-            in.close();
-        } catch (FileNotFoundException e) {
-            System.err.println("File not found!");
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+        return loadTexture(loadCompressedTexture(fileName, 0, false));
+    }
+
+    /**
+     * Uploads a texture read by {@link #loadCompressedTexture(String, int, boolean)}, e.g. on a worker thread (see
+     * {@link AssetPipeline}).
+     *
+     * @param texture - the compressed texture, or null to create a texture without any image.
+     * @return - the ID of the generated texture.
+     */
+    public int loadTexture(CompressedTexture texture) {
+        int textureID = glGenTextures();
+        GLState.bindTexture(0, GL_TEXTURE_2D, textureID);
+
+        if (texture != null) {
+            // the rows of a compressed level are whole blocks, so the unpack alignment does not apply.
+            for (int level = 0; level < texture.getLevelCount(); ++level) {
+                GL13.glCompressedTexImage2D(GL_TEXTURE_2D, level, texture.getInternalFormat(),
+                        texture.getLevelWidth(level), texture.getLevelHeight(level), 0, texture.getLevel(level));
+            }
+            glTexParameteri(GL_TEXTURE_2D, GL12.GL_TEXTURE_MAX_LEVEL, texture.getLevelCount() - 1);
         }
+        setTextureParameters();
+
+        // Keep track of the texture, for cleanup purposes.
+        textures.add(textureID);
+        return textureID;
+    }
+
+    /**
+     * Creates a texture holding a single grey texel, standing in for a texture which is still being loaded (see
+     * {@link TextureStreamer}); it has the same sampling parameters as the textures of {@link #loadTexture(String)}.
+     *
+     * @return - the ID of the generated texture.
+     */
+    int createPlaceholderTexture() {
+        ByteBuffer texel = BufferUtils.createByteBuffer(4);
+        texel.put(PLACEHOLDER_TEXEL).flip();
 
         int textureID = glGenTextures();
-        glBindTexture(GL_TEXTURE_2D, textureID);
+        GLState.bindTexture(0, GL_TEXTURE_2D, textureID);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, 1, 1, 0, GL_RGBA, GL_UNSIGNED_BYTE, texel);
+        glTexParameteri(GL_TEXTURE_2D, GL12.GL_TEXTURE_MAX_LEVEL, 0);
+        setTextureParameters();
 
-        GL30.glGenerateMipmap(textureID);
+        textures.add(textureID);
+        return textureID;
+    }
+
+    /**
+     * Sets the sampling parameters of the textures of models on the texture bound to unit 0.
+     */
+    private static void setTextureParameters() {
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
         glTexParameterf(GL_TEXTURE_2D, GL14.GL_TEXTURE_LOD_BIAS, -0.2f);
-        //GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 1);
-
-        // Specify the 2D image data that should be bound to the texture
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, buffer);
-        // Bind the texture to its id.
-        glBindTexture(GL_TEXTURE_2D, textureID);
         // This will wrap the textures.
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
-        // Sharp filtering, for now
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
 
         // add anisotropic filtering to the texture which is currently active
         glTexParameterf(GL_TEXTURE_2D, EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, 16.0f);
+    }
+
+    /**
+     * Reads the compressed version of a PNG image from the cache, or compresses the image and caches it when the cache
+     * holds no version of the current contents of the image. A cache which cannot be read or written only costs the
+     * time of compressing the image again.
+     *
+     * @param fileName - the name of the image, in the resources folder, without the ".png" extension.
+     * @param size     - the width and height to resample the image to, in pixels, or 0 to keep its own size.
+     * @param opaque   - true to always compress the image as BC1; false to compress it as BC3 if it has transparency.
+     * @return - the compressed image, or null if the image cannot be read.
+     */
+    static CompressedTexture loadCompressedTexture(String fileName, int size, boolean opaque) {
+        byte[] png;
+        try {
+            png = Files.readAllBytes(Paths.get(RESOURCES_FOLDER + fileName + ".png"));
+        } catch (IOException e) {
+            System.err.println("File not found!");
+            e.printStackTrace();
+            return null;
+        }
+
+        String variant = (size > 0 ? "-" + size : "") + (opaque ? "-opaque" : "");
+        Path cacheFile = Paths.get(CACHE_FOLDER + fileName + "-" + hash(png) + variant + ".tex");
+        if (Files.isRegularFile(cacheFile)) {
+            try {
+                return CompressedTexture.read(cacheFile);
+            } catch (IOException e) {
+                System.err.println("Could not read the cached texture " + cacheFile + ", compressing it again.");
+                e.printStackTrace();
+            }
+        }
+
+        CompressedTexture texture;
+        try {
+            TextureData image = TextureData.decode(new ByteArrayInputStream(png));
+            if (size > 0) {
+                image = image.resize(size, size);
+            }
+            texture = opaque ? BlockCompressor.compress(image, true) : BlockCompressor.compress(image);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        try {
+            texture.write(cacheFile);
+        } catch (IOException e) {
+            System.err.println("Could not cache the texture " + cacheFile);
+            e.printStackTrace();
+        }
+        return texture;
+    }
+
+    /**
+     * @return - the SHA-1 hash of the data, in hexadecimal.
+     */
+    static String hash(byte[] data) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(data)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-1.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Loads several images into the layers of one GL_TEXTURE_2D_ARRAY, so that a shader can blend between all of them
+     * with a single bound texture. Every layer must have the same size, so the images are resampled to the size of the
+     * largest one; images which cannot be read are left blank.
+     *
+     * @param fileNames - the names of the images, one per layer, in the resources folder, without the ".png"
+     *                  extension.
+     * @return - the ID of the generated texture array.
+     */
+    public int loadTextureArray(String... fileNames) {
+        return loadTextureArray(decodeTextureLayers(fileNames));
+    }
+
+    /**
+     * Reads the layers of a texture array, resampled to the size of the largest one; the CPU half of
+     * {@link #loadTextureArray(String...)}, which may run on any thread.
+     *
+     * @param fileNames - the names of the images, one per layer, in the resources folder, without the ".png"
+     *                  extension.
+     * @return - the layers, all of the same size; the ones which cannot be read are blank.
+     */
+    public static TextureData[] decodeTextureLayers(String... fileNames) {
+        TextureData[] layers = new TextureData[fileNames.length];
+        int width = 1;
+        int height = 1;
+        for (int i = 0; i < fileNames.length; ++i) {
+            layers[i] = decodeTexture(fileNames[i]);
+            if (layers[i] != null) {
+                width = Math.max(width, layers[i].getWidth());
+                height = Math.max(height, layers[i].getHeight());
+            }
+        }
+        for (int i = 0; i < layers.length; ++i) {
+            layers[i] = layers[i] == null
+                    ? new TextureData(width, height, BufferUtils.createByteBuffer(4 * width * height))
+                    : layers[i].resize(width, height);
+        }
+        return layers;
+    }
+
+    /**
+     * Uploads the layers read by {@link #decodeTextureLayers(String...)} into one GL_TEXTURE_2D_ARRAY.
+     *
+     * @param layers - the layers, all of the same size.
+     * @return - the ID of the generated texture array.
+     */
+    public int loadTextureArray(TextureData[] layers) {
+        int width = layers[0].getWidth();
+        int height = layers[0].getHeight();
+        int textureID = glGenTextures();
+        GLState.bindTexture(0, GL30.GL_TEXTURE_2D_ARRAY, textureID);
+        GL12.glTexImage3D(GL30.GL_TEXTURE_2D_ARRAY, 0, GL_RGBA8, width, height, layers.length, 0, GL_RGBA,
+                GL_UNSIGNED_BYTE, (ByteBuffer) null);
+        for (int i = 0; i < layers.length; ++i) {
+            GL12.glTexSubImage3D(GL30.GL_TEXTURE_2D_ARRAY, 0, 0, 0, i, width, height, 1, GL_RGBA, GL_UNSIGNED_BYTE,
+                    layers[i].getPixels());
+        }
+        GL30.glGenerateMipmap(GL30.GL_TEXTURE_2D_ARRAY);
+        glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_REPEAT);
+        glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_REPEAT);
+        glTexParameterf(GL30.GL_TEXTURE_2D_ARRAY, EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, 16.0f);
+
+        textures.add(textureID);
+        return textureID;
+    }
+
+    /**
+     * Loads several opaque images into the layers of one block compressed GL_TEXTURE_2D_ARRAY (e.g. the layers of a
+     * terrain texture pack). The images are resampled to the given size, and compressed as BC1, dropping their alpha
+     * channel; like {@link #loadTexture(String)}, the compressed layers are cached on disk. Images which cannot be read
+     * are left black.
+     *
+     * @param size      - the width and height of every layer, in pixels.
+     * @param fileNames - the names of the images, one per layer, in the resources folder, without the ".png"
+     *                  extension.
+     * @return - the ID of the generated texture array.
+     */
+    public int loadCompressedTextureArray(int size, String... fileNames) {
+        return loadCompressedTextureArray(compressTextureLayers(size, fileNames));
+    }
+
+    /**
+     * Reads, or decodes and compresses, the layers of a compressed texture array; the CPU half of
+     * {@link #loadCompressedTextureArray(int, String...)}, which may run on any thread.
+     *
+     * @param size      - the width and height of every layer, in pixels.
+     * @param fileNames - the names of the images, one per layer, in the resources folder, without the ".png"
+     *                  extension.
+     * @return - the compressed layers; the ones which cannot be read are black.
+     */
+    public static CompressedTexture[] compressTextureLayers(int size, String... fileNames) {
+        // the layers are read, or decoded and compressed, in parallel; only the upload needs the GL thread.
+        CompressedTexture[] layers = Arrays.stream(fileNames).parallel()
+                .map(fileName -> loadCompressedTexture(fileName, size, true))
+                .toArray(CompressedTexture[]::new);
+        for (int i = 0; i < fileNames.length; ++i) {
+            if (layers[i] == null) {
+                layers[i] = BlockCompressor.compress(new TextureData(size, size,
+                        BufferUtils.createByteBuffer(4 * size * size)), true);
+            }
+        }
+        return layers;
+    }
+
+    /**
+     * Uploads the layers read by {@link #compressTextureLayers(int, String...)} into one GL_TEXTURE_2D_ARRAY.
+     *
+     * @param layers - the compressed layers, all of the same size and format.
+     * @return - the ID of the generated texture array.
+     */
+    public int loadCompressedTextureArray(CompressedTexture[] layers) {
+        int textureID = glGenTextures();
+        GLState.bindTexture(0, GL30.GL_TEXTURE_2D_ARRAY, textureID);
+        CompressedTexture first = layers[0];
+        for (int level = 0; level < first.getLevelCount(); ++level) {
+            int layerBytes = first.getLevel(level).remaining();
+            ByteBuffer levelData = BufferUtils.createByteBuffer(layerBytes * layers.length);
+            for (CompressedTexture layer : layers) {
+                levelData.put(layer.getLevel(level).duplicate());
+            }
+            levelData.flip();
+            GL13.glCompressedTexImage3D(GL30.GL_TEXTURE_2D_ARRAY, level, first.getInternalFormat(),
+                    first.getLevelWidth(level), first.getLevelHeight(level), layers.length, 0, levelData);
+        }
+        glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL12.GL_TEXTURE_MAX_LEVEL, first.getLevelCount() - 1);
+        glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_REPEAT);
+        glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_REPEAT);
+        glTexParameterf(GL30.GL_TEXTURE_2D_ARRAY, EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, 16.0f);
+
+        textures.add(textureID);
+        return textureID;
+    }
+
+    /**
+     * Packs several small images into one atlas texture (see {@link TextureAtlasBuilder}). Images which cannot be read,
+     * or are too wide for the atlas, are left out; models textured with them must load their own texture.
+     *
+     * @param width     - the width of the atlas, in pixels.
+     * @param fileNames - the names of the images, in the resources folder, without the ".png" extension; the regions
+     *                  of the atlas are named after them.
+     * @return - the atlas.
+     */
+    public TextureAtlas loadTextureAtlas(int width, String... fileNames) {
+        Map<String, TextureAtlas.Region> regions = new HashMap<>();
+        return loadTextureAtlas(packTextureAtlas(width, regions, fileNames), regions);
+    }
+
+    /**
+     * Reads several images, and packs them into the image of an atlas; the CPU half of
+     * {@link #loadTextureAtlas(int, String...)}, which may run on any thread.
+     *
+     * @param width     - the width of the atlas, in pixels.
+     * @param regions   - filled with the region of every packed image, by file name.
+     * @param fileNames - the names of the images, in the resources folder, without the ".png" extension.
+     * @return - the image of the atlas.
+     */
+    public static TextureData packTextureAtlas(int width, Map<String, TextureAtlas.Region> regions,
+                                               String... fileNames) {
+        TextureAtlasBuilder builder = new TextureAtlasBuilder(width);
+        TextureData[] images = Arrays.stream(fileNames).parallel()
+                .map(Loader::decodeTexture)
+                .toArray(TextureData[]::new);
+        for (int i = 0; i < fileNames.length; ++i) {
+            String fileName = fileNames[i];
+            TextureData image = images[i];
+            if (image != null && !builder.add(fileName, image)) {
+                System.err.println("The texture " + fileName + " is too large for the atlas, it is left out.");
+            }
+        }
+        return builder.build(regions);
+    }
+
+    /**
+     * Uploads the image packed by {@link #packTextureAtlas(int, Map, String...)}.
+     *
+     * @param atlas   - the image of the atlas.
+     * @param regions - the regions of the images packed in it.
+     * @return - the atlas.
+     */
+    public TextureAtlas loadTextureAtlas(TextureData atlas, Map<String, TextureAtlas.Region> regions) {
+        int textureID = glGenTextures();
+        GLState.bindTexture(0, GL_TEXTURE_2D, textureID);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, atlas.getWidth(), atlas.getHeight(), 0, GL_RGBA, GL_UNSIGNED_BYTE,
+                atlas.getPixels());
+        // the levels past MAX_MIP_LEVEL would blend the regions together.
+        glTexParameteri(GL_TEXTURE_2D, GL12.GL_TEXTURE_MAX_LEVEL, TextureAtlasBuilder.MAX_MIP_LEVEL);
+        GL30.glGenerateMipmap(GL_TEXTURE_2D);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+
+        textures.add(textureID);
+        return new TextureAtlas(textureID, regions);
+    }
+
+    /**
+     * Reads a PNG image from the resources folder, as RGBA.
+     *
+     * @param fileName - the name of the image, without the ".png" extension.
+     * @return - the decoded image, or null if it could not be read.
+     */
+    private static TextureData decodeTexture(String fileName) {
+        try (InputStream in = new FileInputStream(RESOURCES_FOLDER + fileName + ".png")) {
+            return TextureData.decode(in);
+        } catch (FileNotFoundException e) {
+            System.err.println("File not found!");
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Creates a single channel texture holding one height per texel, normalised to [0, 1] (e.g. a terrain heightmap,
+     * read with texelFetch, so it is neither filtered nor mipmapped).
+     *
+     * @param heights - the heights, row by row, as unsigned 16 bit values.
+     * @param size    - the number of texels along each side of the texture.
+     * @return - the ID of the generated texture.
+     */
+    public int loadHeightmap(short[] heights, int size) {
+        ShortBuffer buffer = BufferUtils.createShortBuffer(heights.length);
+        buffer.put(heights);
+        buffer.flip();
+
+        int textureID = glGenTextures();
+        GLState.bindTexture(0, GL_TEXTURE_2D, textureID);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+        // rows of an odd number of shorts are not aligned on 4 bytes.
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 2);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL30.GL_R16, size, size, 0, GL_RED, GL_UNSIGNED_SHORT, buffer);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
 
-        // Keep track of the texture, for cleanup purposes.
         textures.add(textureID);
         return textureID;
     }
 
+    /**
+     * Creates an empty VBO, big enough to hold the specified number of floats, whose contents are meant to be
+     * re-specified every frame (e.g. per-instance data).
+     *
+     * @param floatCount - the capacity of the VBO, expressed in floats.
+     * @return - the ID of the newly created VBO.
+     */
+    public int createEmptyVbo(int floatCount) {
+        int vboID = GL15.glGenBuffers();
+        vbos.add(vboID);
+        GLState.bindArrayBuffer(vboID);
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, floatCount * 4L, GL15.GL_STREAM_DRAW);
+        return vboID;
+    }
+
+    /**
+     * Wires an attribute of the given VAO to a region of the given (instance) VBO, and marks it as advancing once per
+     * instance, rather than once per vertex. The VAO is left bound.
+     *
+     * @param vao                  - the VAO whose attribute list will be modified.
+     * @param vbo                  - the VBO holding the per-instance data.
+     * @param attribute            - the attribute index in the VAO.
+     * @param dataSize             - the number of floats making up this attribute (at most 4).
+     * @param instancedDataLength  - the number of floats making up the data of a whole instance (i.e. the stride).
+     * @param offset               - the offset, in floats, of this attribute inside the data of an instance.
+     */
+    public void addInstancedAttribute(int vao, int vbo, int attribute, int dataSize, int instancedDataLength, int offset) {
+        GLState.bindVertexArray(vao);
+        GLState.bindArrayBuffer(vbo);
+        GL20.glVertexAttribPointer(attribute, dataSize, GL11.GL_FLOAT, false, instancedDataLength * 4, offset * 4L);
+        GL33.glVertexAttribDivisor(attribute, 1);
+        GL20.glEnableVertexAttribArray(attribute);
+    }
+
+    /**
+     * Replaces the contents of a stream VBO with the data in the buffer. The old storage is orphaned first, so that
+     * the driver does not have to wait for draws which are still reading the previous contents.
+     *
+     * @param vbo    - the VBO to update; it must have been created with the same capacity as the buffer.
+     * @param buffer - the data to upload, already flipped.
+     */
+    public void updateVbo(int vbo, FloatBuffer buffer) {
+        GLState.bindArrayBuffer(vbo);
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer.capacity() * 4L, GL15.GL_STREAM_DRAW);
+        GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, buffer);
+    }
+
+    /**
+     * Deletes a texture created by this loader before cleanup, e.g. when the terrain it belongs to is evicted.
+     *
+     * @param textureID - the texture to delete.
+     */
+    public void unloadTexture(int textureID) {
+        if (textures.remove((Integer) textureID)) {
+            GLState.deleteTexture(textureID);
+        }
+    }
+
+    /**
+     * Deletes a model created by this loader before cleanup, along with the VBOs created for it; buffers shared with
+     * other models (see {@link #loadIndexBuffer(int[], IndexType)}) are left alone.
+     *
+     * @param model - the model to delete.
+     */
+    public void unloadModel(RawModel model) {
+        int vaoID = model.getVaoID();
+        if (!vaos.remove((Integer) vaoID)) {
+            return;
+        }
+        List<Integer> buffers = vaoBuffers.remove(vaoID);
+        if (buffers != null) {
+            for (int vboID : buffers) {
+                vbos.remove((Integer) vboID);
+                GLState.deleteBuffer(vboID);
+            }
+        }
+        GLState.deleteVertexArray(vaoID);
+    }
+
     public void cleanup() {
-        vaos.forEach(GL30::glDeleteVertexArrays);
-        vbos.forEach(GL15::glDeleteBuffers);
-        textures.forEach(GL11::glDeleteTextures);
+        vaos.forEach(GLState::deleteVertexArray);
+        vbos.forEach(GLState::deleteBuffer);
+        textures.forEach(GLState::deleteTexture);
     }
 
     /**
@@ -114,10 +773,20 @@ public class Loader {
         // add generated VAO to the garbage collection list, for collection once the window should close.
         vaos.add(vaoID);
 
-        GL30.glBindVertexArray(vaoID);
+        GLState.bindVertexArray(vaoID);
+        currentVao = vaoID;
         return vaoID;
     }
 
+    /**
+     * Keeps track of a VBO created for the VAO being built, for cleanup purposes, and so that it is deleted along with
+     * the VAO (see {@link #unloadModel(RawModel)}).
+     */
+    private void addVaoBuffer(int vboID) {
+        vbos.add(vboID);
+        vaoBuffers.computeIfAbsent(currentVao, id -> new ArrayList<>()).add(vboID);
+    }
+
     /**
      * This method stores the vertex data given as the latter parameter in the
      * attribute list of the VAO, at the index specified by the former parameter.
@@ -128,10 +797,10 @@ public class Loader {
     private void storeDataInAttributeList(int attributeNumber, int coordinateSize, float[] data) {
         int vboID = GL15.glGenBuffers();
         // add generated VBO to the garbage collection list.
-        vbos.add(vboID);
+        addVaoBuffer(vboID);
 
         // Bind the generated Vertex Buffer Object(VBO).
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+        GLState.bindArrayBuffer(vboID);
 
         // Obtain the data as a FloatBuffer.
         FloatBuffer buffer = storeDataInFloatBuffer(data);
@@ -143,38 +812,83 @@ public class Loader {
         // 3 elements per vertex (i.e. 3D coordinates), of type float, not normalized, without
         // stride (no elements in between data), which start at index 0 of the array buffer.
         GL20.glVertexAttribPointer(attributeNumber, coordinateSize, GL11.GL_FLOAT, false, 0, 0);
+        // Enabling the attribute is part of the VAO state, so it only has to be done once, here.
+        GL20.glEnableVertexAttribArray(attributeNumber);
+    }
 
-        // Unbind the current VBO
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+    /**
+     * Stores vertices in the {@link VertexFormat#PACKED} layout, in a single VBO, and points attributes 0, 1 and 2 of
+     * the bound VAO to their interleaved components. The integers are not normalised by GL; the shaders scale them.
+     *
+     * @param packed - the packed vertices.
+     */
+    private void storePackedVertices(PackedVertices packed) {
+        int vboID = GL15.glGenBuffers();
+        addVaoBuffer(vboID);
+        GLState.bindArrayBuffer(vboID);
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, packed.getData(), GL15.GL_STATIC_DRAW);
+        setPackedAttributes();
+    }
+
+    /**
+     * Points attributes 0, 1 and 2 of the bound VAO to the components of the {@link VertexFormat#PACKED} vertices in
+     * the bound VBO.
+     */
+    private void setPackedAttributes() {
+        int stride = VertexFormat.PACKED.getBytesPerVertex();
+        GL20.glVertexAttribPointer(0, 3, GL11.GL_SHORT, false, stride, 0);
+        GL20.glVertexAttribPointer(1, 2, GL11.GL_UNSIGNED_SHORT, false, stride, 8);
+        GL20.glVertexAttribPointer(2, 4, GL33.GL_INT_2_10_10_10_REV, false, stride, 12);
+        for (int attribute = 0; attribute < 3; ++attribute) {
+            GL20.glEnableVertexAttribArray(attribute);
+        }
+    }
+
+    /**
+     * Points attributes 0, 1 and 2 of the bound VAO to the positions, texture coordinates and normals of
+     * {@link VertexFormat#FLOAT} vertices interleaved in the bound VBO, as compiled by the {@link MeshCache}.
+     */
+    private void setInterleavedFloatAttributes() {
+        int stride = VertexFormat.FLOAT.getBytesPerVertex();
+        GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, stride, 0);
+        GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, stride, 12);
+        GL20.glVertexAttribPointer(2, 3, GL11.GL_FLOAT, false, stride, 20);
+        for (int attribute = 0; attribute < 3; ++attribute) {
+            GL20.glEnableVertexAttribArray(attribute);
+        }
     }
 
     /**
      * Unbinds the most recently bound VAO.
      */
     private void unbindVAO() {
-        //This unbinds the currently bound VAO.
-        GL30.glBindVertexArray(0);
+        //This unbinds the currently bound VAO, so that no later element array buffer bind can leak into it.
+        GLState.bindVertexArray(0);
+        currentVao = 0;
     }
 
-    private void bindIndicesBuffer(int[] indices) {
+    /**
+     * Stores the indices in the element array buffer of the bound VAO, with the narrowest type able to address all the
+     * vertices they refer to.
+     *
+     * @param indices - the indices of the mesh.
+     * @return - the type the indices have been stored with.
+     */
+    private IndexType bindIndicesBuffer(int[] indices) {
         int vboID = GL15.glGenBuffers();
-        vbos.add(vboID);
+        addVaoBuffer(vboID);
         GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, vboID);
-        IntBuffer buffer = storeDataInIntBuffer(indices);
-        GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+
+        IndexType type = IndexType.forIndices(indices);
+        storeIndices(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, type);
+        return type;
     }
 
     /**
-     * Util method, which will convert a raw int array into an IntBuffer.
-     *
-     * @param data - the float data that should be converted to a IntBuffer.
-     * @return - the converted data.
+     * Fills the buffer bound to the target with the indices, narrowed to the given type.
      */
-    private IntBuffer storeDataInIntBuffer(int[] data) {
-        IntBuffer buffer = BufferUtils.createIntBuffer(data.length);
-        buffer.put(data);
-        buffer.flip();
-        return buffer;
+    private void storeIndices(int target, int[] indices, IndexType type) {
+        GL15.glBufferData(target, type.encode(indices), GL15.GL_STATIC_DRAW);
     }
 
     /**
@@ -3,12 +3,19 @@ package renderengine;
 import entities.Camera;
 import entities.Entity;
 import entities.Light;
+import models.Impostor;
 import models.TexturedModel;
+import org.joml.FrustumIntersection;
 import org.joml.Matrix4f;
+import org.joml.Vector3f;
 import org.lwjgl.opengl.GL11;
+import scene.Scene;
+import shaders.FrameUniforms;
+import shaders.ImpostorShader;
 import shaders.StaticShader;
 import shaders.TerrainShader;
 import terrains.Terrain;
+import utils.Maths;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -32,8 +39,34 @@ public class MasterRenderer {
     private static float GREEN = 0.5f;
     private static float BLUE = 0.6f;
 
+    /**
+     * The projected sizes (as a fraction of the screen height) below which an entity switches to its next coarser level
+     * of detail; level i + 1 is used below LOD_SCREEN_SIZES[i].
+     */
+    private static final float[] LOD_SCREEN_SIZES = {0.25f, 0.12f, 0.06f};
+    /**
+     * How far past a switching size an entity has to go before its level changes, so that entities lingering around
+     * the switching distance do not flicker between two levels.
+     */
+    private static final float LOD_HYSTERESIS = 0.2f;
+
+    /**
+     * The distance along the viewing direction past which the entities whose model has an {@link Impostor} are drawn
+     * with it, by default.
+     */
+    private static final float DEFAULT_IMPOSTOR_DISTANCE = 120.0f;
+
+    private static final float FOG_DENSITY = 0.0035f;
+    private static final float FOG_GRADIENT = 5.0f;
+
 
     private Matrix4f projectionMatrix;
+    private final Matrix4f viewMatrix = new Matrix4f();
+    private final Matrix4f projectionViewMatrix = new Matrix4f();
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private long frameStart;
+
+    private final FrameUniforms frameUniforms = new FrameUniforms();
 
     private StaticShader shader = new StaticShader();
     private EntityRenderer renderer;
@@ -41,48 +74,124 @@ public class MasterRenderer {
     private TerrainRenderer terrainRenderer;
     private TerrainShader terrainShader = new TerrainShader();
 
-    private Map<TexturedModel, List<Entity>> entities = new HashMap<>();
+    private ImpostorRenderer impostorRenderer;
+    private ImpostorShader impostorShader = new ImpostorShader();
+
+    private final RenderQueue entities = new RenderQueue();
     private List<Terrain> terrains = new ArrayList<>();
+    /**
+     * Every terrain processed in the current frame, culled or not; their levels of detail are picked together.
+     */
+    private final List<Terrain> processedTerrains = new ArrayList<>();
+    private final Vector3f cameraPosition = new Vector3f();
+    private final List<Entity> visibleEntities = new ArrayList<>();
+    private boolean lodEnabled = true;
+    /**
+     * The entities drawn as impostors in the next frame, per model; the lists are kept from one frame to the next.
+     */
+    private final Map<TexturedModel, List<Entity>> impostors = new HashMap<>();
+    private float impostorDistance = DEFAULT_IMPOSTOR_DISTANCE;
 
-    public MasterRenderer() {
+    public MasterRenderer(Loader loader) {
         // Disable rendering of faces pointing away from the camera
+        GL11.glCullFace(GL11.GL_BACK);
         enableCulling();
         createProjectionMatrix();
-        renderer = new EntityRenderer(shader, projectionMatrix);
-        terrainRenderer = new TerrainRenderer(terrainShader, projectionMatrix);
+        frameUniforms.setProjectionMatrix(projectionMatrix);
+        frameUniforms.setSkyColour(RED, GREEN, BLUE);
+        frameUniforms.setFog(FOG_DENSITY, FOG_GRADIENT);
+        renderer = new EntityRenderer(shader, loader);
+        terrainRenderer = new TerrainRenderer(terrainShader);
+        impostorRenderer = new ImpostorRenderer(impostorShader, loader);
     }
 
-    public static void enableCulling() {
-        GL11.glEnable(GL11.GL_CULL_FACE);
-        GL11.glCullFace(GL11.GL_BACK);
+    public static boolean enableCulling() {
+        return GLState.setCullFace(true);
+    }
+
+    public static boolean disableCulling() {
+        return GLState.setCullFace(false);
     }
 
-    public static void disableCulling() {
-        GL11.glDisable(GL11.GL_CULL_FACE);
+    /**
+     * Starts a new frame: resets the frame statistics, and extracts the view frustum planes from the projection and
+     * view matrices of the camera, so that the entities and terrains processed afterwards can be culled against them.
+     * Must be called once per frame, after the camera has moved, and before any call to processEntity/processTerrain.
+     *
+     * @param camera - the camera the upcoming frame will be rendered from.
+     */
+    public void beginFrame(Camera camera) {
+        frameStart = System.nanoTime();
+        FrameStatistics.beginFrame();
+        viewMatrix.set(Maths.createViewMatrix(camera));
+        projectionMatrix.mul(viewMatrix, projectionViewMatrix);
+        frustum.set(projectionViewMatrix);
+        cameraPosition.set(camera.getPosition());
+        frameUniforms.setView(viewMatrix, camera);
     }
 
     /**
-     * Performs a render of the currently bound entities.
+     * Performs a render of the currently bound entities. The values shared by all shaders (camera, light, fog) are
+     * uploaded once, to the {@link FrameUniforms} buffer, instead of to each shader program.
      *
      * @param sun    - light source to be used as the sun.
-     * @param camera - camera, used in creating the view matrix.
+     * @param camera - camera, used in creating the view matrix; its view was captured by {@link #beginFrame(Camera)}.
      */
     public void render(Light sun, Camera camera) {
         prepare();
+        frameUniforms.setLight(sun);
+        frameUniforms.upload();
         shader.start();
-        shader.loadSkyColour(RED, GREEN, BLUE);
-        shader.loadLight(sun);
-        shader.loadViewMatrix(camera);
+        entities.sort();
         renderer.render(entities);
-        shader.stop();
+        impostorShader.start();
+        impostorRenderer.render(impostors);
+        // no need to unbind the entity shader; binding the terrain shader replaces it.
         terrainShader.start();
-        terrainShader.loadSkyColour(RED, GREEN, BLUE);
-        terrainShader.loadLight(sun);
-        terrainShader.loadViewMatrix(camera);
-        terrainRenderer.render(terrains);
-        terrainShader.stop();
+        terrainRenderer.selectLevels(processedTerrains, cameraPosition,
+                projectionMatrix.m11() * DisplayManager.WINDOW_HEIGHT / 2.0f);
+        terrainRenderer.render(terrains, frustum);
         terrains.clear();
+        processedTerrains.clear();
         entities.clear();
+        impostors.values().forEach(List::clear);
+        FrameStatistics.recordCpuRenderTime(System.nanoTime() - frameStart);
+    }
+
+    public void setInstancingEnabled(boolean instancingEnabled) {
+        renderer.setInstancingEnabled(instancingEnabled);
+    }
+
+    /**
+     * @param lodEnabled - whether the entities far away are drawn with their coarser levels of detail, or always at
+     *                   full resolution.
+     */
+    public void setLodEnabled(boolean lodEnabled) {
+        this.lodEnabled = lodEnabled;
+    }
+
+    /**
+     * @param impostorDistance - the distance along the viewing direction past which the entities whose model has an
+     *                         {@link Impostor} are drawn with it; {@link Float#POSITIVE_INFINITY} never uses them.
+     */
+    public void setImpostorDistance(float impostorDistance) {
+        this.impostorDistance = impostorDistance;
+    }
+
+    /**
+     * Bakes the {@link Impostor} of a model, which far away entities of the model will be drawn with from then on.
+     * Must be called at load time, outside of a frame, as it renders to an offscreen framebuffer.
+     *
+     * @param model - the model to create an impostor for; usually vegetation, which is numerous and mostly symmetric.
+     * @param light - the light the snapshots of the model are lit with.
+     */
+    public void createImpostor(TexturedModel model, Light light) {
+        model.setImpostor(impostorRenderer.bake(model, light, shader, frameUniforms));
+        impostors.put(model, new ArrayList<>());
+        // the baking replaced the camera and viewport of the window.
+        frameUniforms.setProjectionMatrix(projectionMatrix);
+        frameUniforms.setFog(FOG_DENSITY, FOG_GRADIENT);
+        GL11.glViewport(0, 0, DisplayManager.WINDOW_WIDTH, DisplayManager.WINDOW_HEIGHT);
     }
 
     /**
@@ -90,7 +199,7 @@ public class MasterRenderer {
      * clearing the color buffer bit.
      */
     public void prepare() {
-        GL11.glEnable(GL11.GL_DEPTH_TEST);
+        GLState.setDepthTest(true);
         GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
         // Map the viewport to the size of the whole window.
         GL11.glClearColor(RED, GREEN, BLUE, 1);
@@ -98,30 +207,100 @@ public class MasterRenderer {
 
     /**
      * Processes the terrain, by enqueueing it for rendering in the next frame. This method must be called before
-     * every frame, for each terrain that should be rendered in the respective frame.
+     * every frame, for each terrain that should be rendered in the respective frame. Terrains whose bounding sphere
+     * lies outside the view frustum are not drawn, but still take part in the choice of the levels of detail of their
+     * neighbours; the patches of the others are culled one by one when drawn.
      *
      * @param terrain - the terrain to prepare for rendering.
      */
     public void processTerrain(Terrain terrain) {
-        terrains.add(terrain);
+        processedTerrains.add(terrain);
+        Vector3f center = terrain.getCenter();
+        boolean visible = frustum.testSphere(center.x, center.y, center.z, terrain.getBoundingRadius());
+        FrameStatistics.recordTerrainVisibility(visible);
+        if (visible) {
+            terrains.add(terrain);
+        }
     }
 
     /**
      * Processes the entity, by enqueueing it for rendering in the next frame. This method must be called before every
-     * frame, for each entity that is to be rendered in the respective frame.
+     * frame, for each entity that is to be rendered in the respective frame. Entities whose bounding sphere lies
+     * completely outside the view frustum are discarded.
      *
      * @param entity - the entity to prepare for rendering.
      */
     public void processEntity(Entity entity) {
+        Vector3f position = entity.getPosition();
+        boolean visible = frustum.testSphere(position.x, position.y, position.z, entity.getBoundingRadius());
+        FrameStatistics.recordEntityVisibility(visible);
+        if (visible) {
+            batchEntity(entity);
+        }
+    }
+
+    /**
+     * Processes all entities of a scene in one go, by walking its spatial index, so that whole groups of entities
+     * outside the view frustum are discarded without looking at each of them.
+     *
+     * @param scene - the scene whose visible entities should be rendered in the next frame.
+     */
+    public void processScene(Scene scene) {
+        visibleEntities.clear();
+        scene.collectVisible(projectionViewMatrix, visibleEntities);
+        FrameStatistics.recordEntitiesVisibility(visibleEntities.size(), scene.size() - visibleEntities.size());
+        for (int i = 0; i < visibleEntities.size(); ++i) {
+            batchEntity(visibleEntities.get(i));
+        }
+    }
+
+    /**
+     * Enqueues a visible entity, with a sort key made of the state it needs, and of its distance from the camera. The
+     * level of detail of the entity is picked here, from its projected size; entities far enough to be drawn as
+     * impostors are set aside instead.
+     */
+    private void batchEntity(Entity entity) {
         TexturedModel entityModel = entity.getModel();
-        List<Entity> batch = entities.get(entityModel);
-        if (batch != null) {
-            batch.add(entity);
-        } else {
-            batch = new ArrayList<>();
-            batch.add(entity);
-            entities.put(entityModel, batch);
+        Vector3f position = entity.getPosition();
+        // depth along the viewing direction, i.e. -z in view space.
+        float viewDepth = -(viewMatrix.m02() * position.x + viewMatrix.m12() * position.y
+                + viewMatrix.m22() * position.z + viewMatrix.m32());
+        if (viewDepth > impostorDistance && entityModel.getImpostor() != null) {
+            impostors.get(entityModel).add(entity);
+            return;
+        }
+        entity.setLod(lodEnabled ? selectLod(entity, viewDepth) : 0);
+        entities.add(RenderQueue.createKey(
+                shader.getProgramID(),
+                entityModel.getTexture().isHasTransparency(),
+                entityModel.getTexture().getID(),
+                entityModel.getRawModel(entity.getLod()).getVaoID(),
+                viewDepth / FAR_PLANE
+        ), entity);
+    }
+
+    /**
+     * Picks the level of detail of an entity from the fraction of the screen height its bounding sphere covers,
+     * starting from the level it was last drawn with, and only moving past a switching size by a margin.
+     *
+     * @param entity    - the entity about to be drawn.
+     * @param viewDepth - the distance of the entity along the viewing direction.
+     * @return - the level of detail to draw the entity with.
+     */
+    private int selectLod(Entity entity, float viewDepth) {
+        int coarsest = Math.min(entity.getModel().getLodCount(), LOD_SCREEN_SIZES.length + 1) - 1;
+        if (viewDepth <= NEAR_PLANE) {
+            return 0;
+        }
+        float screenSize = entity.getBoundingRadius() * projectionMatrix.m11() / viewDepth;
+        int lod = Math.min(entity.getLod(), coarsest);
+        while (lod < coarsest && screenSize < LOD_SCREEN_SIZES[lod] * (1.0f - LOD_HYSTERESIS)) {
+            ++lod;
+        }
+        while (lod > 0 && screenSize > LOD_SCREEN_SIZES[lod - 1] * (1.0f + LOD_HYSTERESIS)) {
+            --lod;
         }
+        return lod;
     }
 
     /**
@@ -130,6 +309,9 @@ public class MasterRenderer {
     public void cleanup() {
         shader.cleanup();
         terrainShader.cleanup();
+        impostorShader.cleanup();
+        impostorRenderer.cleanup();
+        frameUniforms.cleanup();
     }
 
     private void createProjectionMatrix() {
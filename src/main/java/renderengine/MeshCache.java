@@ -0,0 +1,143 @@
+package renderengine;
+
+import models.CompiledModel;
+import models.IndexType;
+import models.ModelData;
+import models.VertexFormat;
+import org.lwjgl.BufferUtils;
+import textures.TextureAtlas;
+import utils.objparser.OBJParser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Compiles OBJ models into {@link CompiledModel}s, and caches them on disk, so that a model is only parsed, optimised
+ * (see {@link MeshOptimizer}) and simplified (see {@link MeshSimplifier}) when it changes; every later start maps the
+ * cached file, and uploads it as it is.
+ * <p>
+ * The cache files live in {@link Loader#CACHE_FOLDER}, under a name holding the hash of the OBJ file, the vertex
+ * format, and the atlas region the model was remapped into, if any.
+ */
+public final class MeshCache {
+
+    private MeshCache() {
+    }
+
+    /**
+     * Reads a compiled model from the cache, or compiles it and caches it when the cache holds no version of the
+     * current contents of the OBJ file. A cache which cannot be read or written only costs the time of compiling the
+     * model again.
+     *
+     * @param objFileName - the name of the OBJ file, in the resources folder, without the ".obj" extension.
+     * @param format      - the layout to encode the vertices with.
+     * @param region      - the atlas region to remap the texture coordinates into, or null to keep them; they are
+     *                    only remapped when they all lie within [0, 1] (see {@link TextureAtlas#canRemap(ModelData)}).
+     * @return - the compiled model.
+     * @throws IllegalStateException - if the OBJ file cannot be read.
+     */
+    public static CompiledModel load(String objFileName, VertexFormat format, TextureAtlas.Region region) {
+        Path objFile = Paths.get(Loader.RESOURCES_FOLDER + objFileName + ".obj");
+        byte[] obj;
+        try {
+            obj = Files.readAllBytes(objFile);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the model " + objFile, e);
+        }
+
+        Path cacheFile = getCacheFile(objFileName, obj, format, region);
+        if (Files.isRegularFile(cacheFile)) {
+            try {
+                return CompiledModel.map(cacheFile);
+            } catch (IOException e) {
+                System.err.println("Could not read the cached model " + cacheFile + ", compiling it again.");
+                e.printStackTrace();
+            }
+        }
+
+        // parsed from the bytes read for the hash, rather than read again.
+        CompiledModel model = compile(OBJParser.parse(ByteBuffer.wrap(obj)), format, region);
+        try {
+            model.write(cacheFile);
+        } catch (IOException e) {
+            System.err.println("Could not cache the model " + cacheFile);
+            e.printStackTrace();
+        }
+        return model;
+    }
+
+    /**
+     * Remaps, optimises and simplifies a model, then encodes every level of detail the way it is stored on the GPU.
+     *
+     * @param data   - the parsed model.
+     * @param format - the layout to encode the vertices with.
+     * @param region - the atlas region to remap the texture coordinates into, or null to keep them.
+     * @return - the compiled model.
+     */
+    public static CompiledModel compile(ModelData data, VertexFormat format, TextureAtlas.Region region) {
+        boolean unitTextureCoords = TextureAtlas.canRemap(data);
+        if (region != null && unitTextureCoords) {
+            data = TextureAtlas.remap(region, data);
+        }
+        ModelData[] lods = MeshSimplifier.buildLodChain(MeshOptimizer.optimize(data));
+        CompiledModel.Level[] levels = new CompiledModel.Level[lods.length];
+        for (int i = 0; i < lods.length; ++i) {
+            levels[i] = compileLevel(lods[i], format);
+        }
+        return new CompiledModel(format, unitTextureCoords, levels);
+    }
+
+    /**
+     * @return - the cache file of a model, named after the contents of its OBJ file and the settings it is compiled
+     * with.
+     */
+    static Path getCacheFile(String objFileName, byte[] obj, VertexFormat format, TextureAtlas.Region region) {
+        return Paths.get(Loader.CACHE_FOLDER + objFileName + "-" + Loader.hash(obj) + getVariant(format, region)
+                + ".mesh");
+    }
+
+    /**
+     * @return - a suffix telling apart the models compiled from the same OBJ file with different settings.
+     */
+    static String getVariant(VertexFormat format, TextureAtlas.Region region) {
+        String variant = "-" + format.name().toLowerCase();
+        if (region != null) {
+            float[] bounds = {region.getU(), region.getV(), region.getWidth(), region.getHeight()};
+            variant += String.format("-%08x", Arrays.hashCode(bounds));
+        }
+        return variant;
+    }
+
+    private static CompiledModel.Level compileLevel(ModelData data, VertexFormat format) {
+        float[] positions = data.getVertices();
+        float[] textureCoords = data.getTextureCoords();
+        float[] normals = data.getNormals();
+        int[] indices = data.getIndices();
+        int vertexCount = positions.length / 3;
+
+        IndexType indexType = IndexType.forIndices(indices);
+        ByteBuffer indexData = indexType.encode(indices);
+
+        if (format == VertexFormat.PACKED) {
+            PackedVertices packed = new PackedVertices(positions, textureCoords, normals);
+            return new CompiledModel.Level(vertexCount, indices.length, indexType, data.getFurthestPoint(),
+                    packed.getPositionOffset(), packed.getPositionScale(), packed.getTextureOffset(),
+                    packed.getTextureScale(), packed.getData(), indexData);
+        }
+        ByteBuffer vertices = BufferUtils.createByteBuffer(vertexCount * VertexFormat.FLOAT.getBytesPerVertex());
+        for (int vertex = 0; vertex < vertexCount; ++vertex) {
+            vertices.putFloat(positions[vertex * 3]).putFloat(positions[vertex * 3 + 1])
+                    .putFloat(positions[vertex * 3 + 2]);
+            vertices.putFloat(textureCoords[vertex * 2]).putFloat(textureCoords[vertex * 2 + 1]);
+            vertices.putFloat(normals[vertex * 3]).putFloat(normals[vertex * 3 + 1]).putFloat(normals[vertex * 3 + 2]);
+        }
+        vertices.flip();
+        return new CompiledModel.Level(vertexCount, indices.length, indexType, data.getFurthestPoint(),
+                new float[]{0.0f, 0.0f, 0.0f}, new float[]{1.0f, 1.0f, 1.0f}, new float[]{0.0f, 0.0f},
+                new float[]{1.0f, 1.0f}, vertices, indexData);
+    }
+}
@@ -0,0 +1,366 @@
+package renderengine;
+
+import models.ModelData;
+
+import java.util.Arrays;
+
+/**
+ * Optional optimisation stage for the meshes produced by the {@link OBJLoader}, meant to run before they are handed
+ * to the {@link Loader}. Modelling tools export triangles in whatever order they were created in, which makes the GPU
+ * transform the same vertices over and over. This stage:
+ * <ol>
+ * <li>reorders the triangles so that they reuse the vertices still held by the post-transform cache (Tom Forsyth's
+ * "Linear-Speed Vertex Cache Optimisation");</li>
+ * <li>splits the result in clusters at the points where the cache starts cold anyway, and sorts the clusters so that
+ * the ones facing outwards are drawn first (Sander et al., "Fast Triangle Reordering for Vertex Locality and Reduced
+ * Overdraw"), which lets early depth testing reject more of the fragments behind them;</li>
+ * <li>renumbers the vertices in the order of their first use, so that fetching them walks the VBOs linearly.</li>
+ * </ol>
+ * The efficiency of the cache is measured with the ACMR (average cache miss ratio, i.e. transformed vertices per
+ * triangle; 0.5 at best, 3 at worst) and the ATVR (average transform to vertex ratio; 1 at best); the
+ * MeshOptimizerBenchmark prints both, before and after the optimisation, for every model in the resources folder.
+ */
+public final class MeshOptimizer {
+
+    /**
+     * The size of the FIFO cache the statistics are measured against; a common size for the post-transform caches of
+     * desktop GPUs.
+     */
+    public static final int MEASURED_CACHE_SIZE = 16;
+
+    /**
+     * The size of the LRU cache the triangle ordering is scored against. Forsyth's scoring is not sensitive to the
+     * exact size, as long as it is not below the size of the actual cache.
+     */
+    private static final int CACHE_SIZE = 32;
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+
+    /**
+     * The cluster sorting is dropped if it would make the ACMR worse by more than this factor.
+     */
+    private static final float OVERDRAW_CACHE_THRESHOLD = 1.05f;
+
+    private MeshOptimizer() {
+    }
+
+    /**
+     * Runs all three passes over a mesh.
+     *
+     * @param data - the mesh, as loaded by the {@link OBJLoader}.
+     * @return - an equivalent mesh, with reordered triangles and vertices.
+     */
+    public static ModelData optimize(ModelData data) {
+        int vertexCount = data.getVertices().length / 3;
+        int[] indices = optimizeVertexCache(data.getIndices(), vertexCount);
+        indices = optimizeOverdraw(indices, data.getVertices());
+        return optimizeVertexFetch(data, indices);
+    }
+
+    /**
+     * Reorders the triangles of a mesh for the post-transform vertex cache. Each vertex is scored by its position in a
+     * simulated LRU cache, and by the number of triangles still waiting to use it (so that lone triangles are not left
+     * behind); the triangle with the highest sum of vertex scores among those touching the cache is emitted next.
+     *
+     * @param indices     - the triangle list.
+     * @param vertexCount - the number of vertices the indices refer to.
+     * @return - the reordered triangle list.
+     */
+    public static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+        int triangleCount = indices.length / 3;
+
+        // triangles adjacent to each vertex, as a compact list per vertex.
+        int[] remaining = new int[vertexCount];
+        for (int index : indices) {
+            ++remaining[index];
+        }
+        int[] adjacencyStart = new int[vertexCount + 1];
+        for (int vertex = 0; vertex < vertexCount; ++vertex) {
+            adjacencyStart[vertex + 1] = adjacencyStart[vertex] + remaining[vertex];
+        }
+        int[] adjacency = new int[indices.length];
+        int[] fill = Arrays.copyOf(adjacencyStart, vertexCount);
+        for (int i = 0; i < indices.length; ++i) {
+            adjacency[fill[indices[i]]++] = i / 3;
+        }
+
+        int[] cachePosition = new int[vertexCount];
+        Arrays.fill(cachePosition, -1);
+        float[] vertexScores = new float[vertexCount];
+        for (int vertex = 0; vertex < vertexCount; ++vertex) {
+            vertexScores[vertex] = scoreVertex(-1, remaining[vertex]);
+        }
+        float[] triangleScores = new float[triangleCount];
+        for (int triangle = 0; triangle < triangleCount; ++triangle) {
+            triangleScores[triangle] = vertexScores[indices[triangle * 3]] + vertexScores[indices[triangle * 3 + 1]]
+                    + vertexScores[indices[triangle * 3 + 2]];
+        }
+        boolean[] emitted = new boolean[triangleCount];
+
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] newCache = new int[CACHE_SIZE + 3];
+        int cacheCount = 0;
+        int[] result = new int[indices.length];
+        int scanCursor = 0;
+
+        for (int output = 0; output < triangleCount; ++output) {
+            // the best triangle touching the cache, or the next one in input order when the cache leads nowhere.
+            int best = -1;
+            float bestScore = -1.0f;
+            for (int slot = 0; slot < cacheCount; ++slot) {
+                int vertex = cache[slot];
+                for (int i = adjacencyStart[vertex]; i < adjacencyStart[vertex + 1]; ++i) {
+                    int triangle = adjacency[i];
+                    if (!emitted[triangle] && triangleScores[triangle] > bestScore) {
+                        bestScore = triangleScores[triangle];
+                        best = triangle;
+                    }
+                }
+            }
+            if (best < 0) {
+                while (emitted[scanCursor]) {
+                    ++scanCursor;
+                }
+                best = scanCursor;
+            }
+
+            emitted[best] = true;
+            System.arraycopy(indices, best * 3, result, output * 3, 3);
+
+            // move the vertices of the triangle to the front of the cache, pushing the others back.
+            int newCount = 0;
+            for (int corner = 0; corner < 3; ++corner) {
+                int vertex = indices[best * 3 + corner];
+                newCache[newCount++] = vertex;
+                --remaining[vertex];
+            }
+            for (int slot = 0; slot < cacheCount; ++slot) {
+                int vertex = cache[slot];
+                if (vertex != newCache[0] && vertex != newCache[1] && vertex != newCache[2]) {
+                    newCache[newCount++] = vertex;
+                }
+            }
+
+            // rescore the vertices which moved, or fell out of the cache, and the triangles using them.
+            for (int slot = 0; slot < newCount; ++slot) {
+                int vertex = newCache[slot];
+                cachePosition[vertex] = slot < CACHE_SIZE ? slot : -1;
+                vertexScores[vertex] = scoreVertex(cachePosition[vertex], remaining[vertex]);
+            }
+            for (int slot = 0; slot < newCount; ++slot) {
+                int vertex = newCache[slot];
+                for (int i = adjacencyStart[vertex]; i < adjacencyStart[vertex + 1]; ++i) {
+                    int triangle = adjacency[i];
+                    if (!emitted[triangle]) {
+                        triangleScores[triangle] = vertexScores[indices[triangle * 3]]
+                                + vertexScores[indices[triangle * 3 + 1]] + vertexScores[indices[triangle * 3 + 2]];
+                    }
+                }
+            }
+
+            int[] swap = cache;
+            cache = newCache;
+            newCache = swap;
+            cacheCount = Math.min(newCount, CACHE_SIZE);
+        }
+        return result;
+    }
+
+    /**
+     * Splits a cache optimised triangle list in clusters, starting a new cluster wherever a triangle misses the cache
+     * with all three vertices (i.e. where the order could be changed without losing vertex reuse), and sorts the
+     * clusters by how much they face away from the center of the mesh; the outer surfaces, which are the most likely
+     * to occlude the rest, are drawn first. The sorting is dropped if it costs too much vertex reuse.
+     *
+     * @param indices   - the cache optimised triangle list.
+     * @param positions - the XYZ positions of the vertices.
+     * @return - the reordered triangle list.
+     */
+    public static int[] optimizeOverdraw(int[] indices, float[] positions) {
+        int triangleCount = indices.length / 3;
+        int vertexCount = positions.length / 3;
+        if (triangleCount == 0) {
+            return indices;
+        }
+
+        int[] clusterStarts = new int[triangleCount + 1];
+        int clusterCount = 0;
+        int[] cacheTimestamps = new int[vertexCount];
+        int time = MEASURED_CACHE_SIZE + 1;
+        for (int triangle = 0; triangle < triangleCount; ++triangle) {
+            int misses = 0;
+            for (int corner = 0; corner < 3; ++corner) {
+                int vertex = indices[triangle * 3 + corner];
+                if (time - cacheTimestamps[vertex] > MEASURED_CACHE_SIZE) {
+                    cacheTimestamps[vertex] = time++;
+                    ++misses;
+                }
+            }
+            if (triangle == 0 || misses == 3) {
+                clusterStarts[clusterCount++] = triangle;
+            }
+        }
+        clusterStarts[clusterCount] = triangleCount;
+        if (clusterCount == 1) {
+            return indices;
+        }
+
+        float meshX = 0.0f;
+        float meshY = 0.0f;
+        float meshZ = 0.0f;
+        for (int vertex = 0; vertex < vertexCount; ++vertex) {
+            meshX += positions[vertex * 3];
+            meshY += positions[vertex * 3 + 1];
+            meshZ += positions[vertex * 3 + 2];
+        }
+        meshX /= vertexCount;
+        meshY /= vertexCount;
+        meshZ /= vertexCount;
+
+        // the area weighted centroid and normal of each cluster.
+        float[] sortKeys = new float[clusterCount];
+        Integer[] order = new Integer[clusterCount];
+        for (int cluster = 0; cluster < clusterCount; ++cluster) {
+            float centerX = 0.0f, centerY = 0.0f, centerZ = 0.0f;
+            float normalX = 0.0f, normalY = 0.0f, normalZ = 0.0f;
+            float totalArea = 0.0f;
+            for (int triangle = clusterStarts[cluster]; triangle < clusterStarts[cluster + 1]; ++triangle) {
+                int a = indices[triangle * 3] * 3;
+                int b = indices[triangle * 3 + 1] * 3;
+                int c = indices[triangle * 3 + 2] * 3;
+                float e1x = positions[b] - positions[a];
+                float e1y = positions[b + 1] - positions[a + 1];
+                float e1z = positions[b + 2] - positions[a + 2];
+                float e2x = positions[c] - positions[a];
+                float e2y = positions[c + 1] - positions[a + 1];
+                float e2z = positions[c + 2] - positions[a + 2];
+                // the length of the cross product is twice the area of the triangle.
+                float crossX = e1y * e2z - e1z * e2y;
+                float crossY = e1z * e2x - e1x * e2z;
+                float crossZ = e1x * e2y - e1y * e2x;
+                float area = (float) Math.sqrt(crossX * crossX + crossY * crossY + crossZ * crossZ);
+
+                centerX += (positions[a] + positions[b] + positions[c]) / 3.0f * area;
+                centerY += (positions[a + 1] + positions[b + 1] + positions[c + 1]) / 3.0f * area;
+                centerZ += (positions[a + 2] + positions[b + 2] + positions[c + 2]) / 3.0f * area;
+                normalX += crossX;
+                normalY += crossY;
+                normalZ += crossZ;
+                totalArea += area;
+            }
+            float normalLength = (float) Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+            if (totalArea > 0.0f && normalLength > 0.0f) {
+                sortKeys[cluster] = ((centerX / totalArea - meshX) * normalX
+                        + (centerY / totalArea - meshY) * normalY
+                        + (centerZ / totalArea - meshZ) * normalZ) / normalLength;
+            }
+            order[cluster] = cluster;
+        }
+        // stable, so that clusters with equal keys keep their cache friendly order.
+        Arrays.sort(order, (first, second) -> Float.compare(sortKeys[second], sortKeys[first]));
+
+        int[] result = new int[indices.length];
+        int output = 0;
+        for (int cluster : order) {
+            int from = clusterStarts[cluster] * 3;
+            int length = clusterStarts[cluster + 1] * 3 - from;
+            System.arraycopy(indices, from, result, output, length);
+            output += length;
+        }
+
+        float before = computeAcmr(indices, vertexCount, MEASURED_CACHE_SIZE);
+        float after = computeAcmr(result, vertexCount, MEASURED_CACHE_SIZE);
+        return after <= before * OVERDRAW_CACHE_THRESHOLD ? result : indices;
+    }
+
+    /**
+     * Renumbers the vertices in the order the triangle list first uses them, and moves their attributes accordingly.
+     * Vertices which no triangle uses are dropped.
+     *
+     * @param data    - the mesh whose vertices should be reordered.
+     * @param indices - the final triangle list of the mesh.
+     * @return - the mesh, with its vertices in fetch order.
+     */
+    public static ModelData optimizeVertexFetch(ModelData data, int[] indices) {
+        int vertexCount = data.getVertices().length / 3;
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        int usedVertices = 0;
+        int[] remappedIndices = new int[indices.length];
+        for (int i = 0; i < indices.length; ++i) {
+            int vertex = indices[i];
+            if (remap[vertex] < 0) {
+                remap[vertex] = usedVertices++;
+            }
+            remappedIndices[i] = remap[vertex];
+        }
+
+        float[] positions = new float[usedVertices * 3];
+        float[] textureCoords = new float[usedVertices * 2];
+        float[] normals = new float[usedVertices * 3];
+        for (int vertex = 0; vertex < vertexCount; ++vertex) {
+            int target = remap[vertex];
+            if (target >= 0) {
+                System.arraycopy(data.getVertices(), vertex * 3, positions, target * 3, 3);
+                System.arraycopy(data.getTextureCoords(), vertex * 2, textureCoords, target * 2, 2);
+                System.arraycopy(data.getNormals(), vertex * 3, normals, target * 3, 3);
+            }
+        }
+        return new ModelData(positions, textureCoords, normals, remappedIndices, data.getFurthestPoint());
+    }
+
+    /**
+     * @return - the number of vertices transformed per triangle, with a FIFO cache of the given size.
+     */
+    public static float computeAcmr(int[] indices, int vertexCount, int cacheSize) {
+        return indices.length == 0 ? 0.0f : countCacheMisses(indices, vertexCount, cacheSize) / (indices.length / 3.0f);
+    }
+
+    /**
+     * @return - the number of vertices transformed per vertex of the mesh, with a FIFO cache of the given size.
+     */
+    public static float computeAtvr(int[] indices, int vertexCount, int cacheSize) {
+        boolean[] used = new boolean[vertexCount];
+        int usedVertices = 0;
+        for (int index : indices) {
+            if (!used[index]) {
+                used[index] = true;
+                ++usedVertices;
+            }
+        }
+        return usedVertices == 0 ? 0.0f : countCacheMisses(indices, vertexCount, cacheSize) / (float) usedVertices;
+    }
+
+    private static int countCacheMisses(int[] indices, int vertexCount, int cacheSize) {
+        // a vertex is in the FIFO cache if fewer than cacheSize vertices have been inserted since it was.
+        int[] insertedAt = new int[vertexCount];
+        int time = cacheSize + 1;
+        int misses = 0;
+        for (int index : indices) {
+            if (time - insertedAt[index] > cacheSize) {
+                insertedAt[index] = time++;
+                ++misses;
+            }
+        }
+        return misses;
+    }
+
+    private static float scoreVertex(int cachePosition, int remainingTriangles) {
+        if (remainingTriangles == 0) {
+            return -1.0f;
+        }
+        float score = 0.0f;
+        if (cachePosition >= 0) {
+            if (cachePosition < 3) {
+                // the vertices of the last triangle get a fixed score, so that strips do not wobble back and forth.
+                score = LAST_TRIANGLE_SCORE;
+            } else {
+                float scaler = 1.0f / (CACHE_SIZE - 3);
+                score = (float) Math.pow(1.0f - (cachePosition - 3) * scaler, CACHE_DECAY_POWER);
+            }
+        }
+        return score + VALENCE_BOOST_SCALE * (float) Math.pow(remainingTriangles, -VALENCE_BOOST_POWER);
+    }
+}
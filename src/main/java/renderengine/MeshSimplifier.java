@@ -0,0 +1,501 @@
+package renderengine;
+
+import models.ModelData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Builds chains of levels of detail for the meshes produced by the {@link OBJLoader}, by repeatedly collapsing the
+ * edge whose removal changes the shape the least, as measured by the quadric error metric (Garland and Heckbert,
+ * "Surface Simplification Using Quadric Error Metrics").
+ * <p>
+ * The topology is taken from the positions alone: the vertices which the OBJ format splits because of their texture
+ * coordinates or normals (seams, flat shading) are welded together, and collapse as one. An edge is collapsed onto one
+ * of its endpoints (half edge collapse); the vertices of the removed endpoint are replaced by vertices of the kept one
+ * lying on the same side of any seam, or by a copy of themselves moved onto it if there is none, so that the texture
+ * mapping is kept on both sides. Edges on the border of the mesh, or on a texture seam, carry an extra quadric which
+ * keeps them in place.
+ */
+public final class MeshSimplifier {
+
+    /**
+     * The ratio of triangles kept from one level to the next.
+     */
+    private static final float LEVEL_RATIO = 0.5f;
+    /**
+     * A level is only kept if it has at most this ratio of the triangles of the previous level.
+     */
+    private static final float MIN_REDUCTION = 0.8f;
+    private static final int MAX_LEVELS = 4;
+    private static final int MIN_TRIANGLES = 16;
+
+    /**
+     * The deviation allowed for the first coarser level, as a fraction of the bounding radius of the mesh; it doubles
+     * with each further level, as the coarser levels are only used further away.
+     */
+    private static final float FIRST_LEVEL_ERROR = 0.02f;
+    private static final double BOUNDARY_WEIGHT = 10.0;
+    /**
+     * Collapses turning a triangle by more than ~78 degrees are rejected, as they fold the surface over itself.
+     */
+    private static final double MIN_NORMAL_COSINE = 0.2;
+
+    private MeshSimplifier() {
+    }
+
+    /**
+     * Builds a chain of levels of detail, each with about half the triangles of the previous one, for as long as the
+     * simplification stays within the error budget of the level. Every coarser level goes through the
+     * {@link MeshOptimizer}.
+     *
+     * @param data - the full resolution mesh.
+     * @return - the levels, starting with the full resolution mesh itself.
+     */
+    public static ModelData[] buildLodChain(ModelData data) {
+        List<ModelData> levels = new ArrayList<>();
+        levels.add(data);
+        float maxError = FIRST_LEVEL_ERROR * data.getFurthestPoint();
+        while (levels.size() < MAX_LEVELS) {
+            ModelData previous = levels.get(levels.size() - 1);
+            int previousTriangles = previous.getIndices().length / 3;
+            int target = (int) (previousTriangles * LEVEL_RATIO);
+            if (target < MIN_TRIANGLES) {
+                break;
+            }
+            ModelData level = simplify(previous, target, maxError);
+            if (level.getIndices().length / 3 > previousTriangles * MIN_REDUCTION) {
+                break;
+            }
+            levels.add(MeshOptimizer.optimize(level));
+            maxError *= 2.0f;
+        }
+        return levels.toArray(new ModelData[levels.size()]);
+    }
+
+    /**
+     * Simplifies a mesh down to the target number of triangles, or as close to it as the error budget allows.
+     *
+     * @param data            - the mesh to simplify.
+     * @param targetTriangles - the number of triangles to reach.
+     * @param maxError        - the root mean square distance a collapse may move the surface by.
+     * @return - the simplified mesh; its vertex arrays may hold vertices no triangle uses any more.
+     */
+    public static ModelData simplify(ModelData data, int targetTriangles, float maxError) {
+        return new Simplification(data).run(targetTriangles, maxError);
+    }
+
+    /**
+     * The state of the simplification of a single mesh. "Vertices" are the vertices of the mesh, with their own
+     * texture coordinates and normal; "points" are the distinct positions they are welded into.
+     */
+    private static final class Simplification {
+
+        private final float furthestPoint;
+
+        private float[] positions;
+        private float[] textureCoords;
+        private float[] normals;
+        private int[] vertexPoints;
+        private int vertexCount;
+
+        private final int[] triangles;
+        private final boolean[] removedTriangles;
+        private int remainingTriangles;
+
+        private final float[] pointPositions;
+        private final double[] quadrics;
+        /**
+         * The total area of the triangles whose planes make up the quadric of each point; the cost of a collapse is
+         * divided by it, so that it reads as a mean squared distance, whatever the density of the mesh.
+         */
+        private final double[] quadricWeights;
+        private final int[][] pointTriangles;
+        private final int[] pointTriangleCounts;
+        private final boolean[] removedPoints;
+        private final int[] versions;
+        private final PriorityQueue<Collapse> queue = new PriorityQueue<>();
+
+        private final double[] normal = new double[3];
+        private final double[] otherNormal = new double[3];
+
+        private Simplification(ModelData data) {
+            furthestPoint = data.getFurthestPoint();
+            positions = data.getVertices().clone();
+            textureCoords = data.getTextureCoords().clone();
+            normals = data.getNormals().clone();
+            vertexCount = positions.length / 3;
+            triangles = data.getIndices().clone();
+            removedTriangles = new boolean[triangles.length / 3];
+            remainingTriangles = triangles.length / 3;
+
+            // weld the vertices by position.
+            vertexPoints = new int[vertexCount];
+            Map<List<Float>, Integer> pointIDs = new HashMap<>();
+            float[] welded = new float[vertexCount * 3];
+            for (int vertex = 0; vertex < vertexCount; ++vertex) {
+                List<Float> key = Arrays.asList(positions[vertex * 3], positions[vertex * 3 + 1],
+                        positions[vertex * 3 + 2]);
+                Integer point = pointIDs.get(key);
+                if (point == null) {
+                    point = pointIDs.size();
+                    pointIDs.put(key, point);
+                    System.arraycopy(positions, vertex * 3, welded, point * 3, 3);
+                }
+                vertexPoints[vertex] = point;
+            }
+            int pointCount = pointIDs.size();
+            pointPositions = Arrays.copyOf(welded, pointCount * 3);
+            quadrics = new double[pointCount * 10];
+            quadricWeights = new double[pointCount];
+            removedPoints = new boolean[pointCount];
+            versions = new int[pointCount];
+
+            pointTriangleCounts = new int[pointCount];
+            for (int vertex : triangles) {
+                ++pointTriangleCounts[vertexPoints[vertex]];
+            }
+            pointTriangles = new int[pointCount][];
+            for (int point = 0; point < pointCount; ++point) {
+                pointTriangles[point] = new int[pointTriangleCounts[point]];
+                pointTriangleCounts[point] = 0;
+            }
+            for (int i = 0; i < triangles.length; ++i) {
+                int point = vertexPoints[triangles[i]];
+                pointTriangles[point][pointTriangleCounts[point]++] = i / 3;
+            }
+        }
+
+        private ModelData run(int targetTriangles, float maxError) {
+            addFaceQuadrics();
+            addBoundaryQuadrics();
+            for (int i = 0; i < triangles.length; ++i) {
+                pushCollapses(point(i), point(next(i)));
+            }
+
+            double maxCost = (double) maxError * maxError;
+            while (remainingTriangles > targetTriangles && !queue.isEmpty()) {
+                Collapse collapse = queue.poll();
+                if (collapse.cost > maxCost) {
+                    break;
+                }
+                if (removedPoints[collapse.from] || removedPoints[collapse.to]
+                        || versions[collapse.from] != collapse.fromVersion
+                        || versions[collapse.to] != collapse.toVersion) {
+                    continue;
+                }
+                if (!flipsTriangles(collapse.from, collapse.to)) {
+                    collapse(collapse.from, collapse.to);
+                }
+            }
+
+            int[] indices = new int[remainingTriangles * 3];
+            int output = 0;
+            for (int triangle = 0; triangle < removedTriangles.length; ++triangle) {
+                if (!removedTriangles[triangle]) {
+                    System.arraycopy(triangles, triangle * 3, indices, output, 3);
+                    output += 3;
+                }
+            }
+            return new ModelData(Arrays.copyOf(positions, vertexCount * 3), Arrays.copyOf(textureCoords,
+                    vertexCount * 2), Arrays.copyOf(normals, vertexCount * 3), indices, furthestPoint);
+        }
+
+        /**
+         * Moves a point onto another one: the triangles using both disappear, and the vertices of the moved point are
+         * replaced in the other triangles.
+         */
+        private void collapse(int from, int to) {
+            // the vertices at the removed point, and their replacements at the kept point.
+            Map<Integer, Integer> replacements = new HashMap<>();
+            for (int i = 0; i < pointTriangleCounts[from]; ++i) {
+                int triangle = pointTriangles[from][i];
+                int toCorner = cornerAt(triangle, to);
+                if (!removedTriangles[triangle] && toCorner >= 0) {
+                    // the vertices sharing an edge lie on the same side of any seam.
+                    replacements.putIfAbsent(triangles[cornerAt(triangle, from)], triangles[toCorner]);
+                    removedTriangles[triangle] = true;
+                    --remainingTriangles;
+                }
+            }
+
+            for (int i = 0; i < pointTriangleCounts[from]; ++i) {
+                int triangle = pointTriangles[from][i];
+                if (removedTriangles[triangle]) {
+                    continue;
+                }
+                int corner = cornerAt(triangle, from);
+                int vertex = triangles[corner];
+                Integer replacement = replacements.get(vertex);
+                if (replacement == null) {
+                    replacement = copyVertexTo(vertex, to);
+                    replacements.put(vertex, replacement);
+                }
+                triangles[corner] = replacement;
+                addTriangle(to, triangle);
+            }
+
+            removedPoints[from] = true;
+            for (int i = 0; i < 10; ++i) {
+                quadrics[to * 10 + i] += quadrics[from * 10 + i];
+            }
+            quadricWeights[to] += quadricWeights[from];
+            ++versions[to];
+
+            // the cost of every edge around the kept point has changed.
+            for (int i = 0; i < pointTriangleCounts[to]; ++i) {
+                int triangle = pointTriangles[to][i];
+                if (removedTriangles[triangle]) {
+                    continue;
+                }
+                for (int corner = triangle * 3; corner < triangle * 3 + 3; ++corner) {
+                    if (point(corner) != to) {
+                        pushCollapses(to, point(corner));
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return - true if moving the point onto the other one would turn one of its remaining triangles over.
+         */
+        private boolean flipsTriangles(int from, int to) {
+            for (int i = 0; i < pointTriangleCounts[from]; ++i) {
+                int triangle = pointTriangles[from][i];
+                if (removedTriangles[triangle] || cornerAt(triangle, to) >= 0) {
+                    continue;
+                }
+                int a = point(triangle * 3);
+                int b = point(triangle * 3 + 1);
+                int c = point(triangle * 3 + 2);
+                if (computeNormal(a, b, c, normal) == 0.0) {
+                    continue;
+                }
+                if (computeNormal(a == from ? to : a, b == from ? to : b, c == from ? to : c, otherNormal) == 0.0) {
+                    return true;
+                }
+                if (normal[0] * otherNormal[0] + normal[1] * otherNormal[1] + normal[2] * otherNormal[2]
+                        < MIN_NORMAL_COSINE) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void addFaceQuadrics() {
+            for (int base = 0; base < triangles.length; base += 3) {
+                double area = computeNormal(point(base), point(base + 1), point(base + 2), normal) / 2.0;
+                if (area == 0.0) {
+                    continue;
+                }
+                int a = point(base) * 3;
+                double d = -(normal[0] * pointPositions[a] + normal[1] * pointPositions[a + 1]
+                        + normal[2] * pointPositions[a + 2]);
+                for (int corner = base; corner < base + 3; ++corner) {
+                    addPlane(point(corner), normal[0], normal[1], normal[2], d, area);
+                    quadricWeights[point(corner)] += area;
+                }
+            }
+        }
+
+        /**
+         * Adds, for every edge on the border of the mesh or on a texture seam, a plane through the edge and
+         * perpendicular to its triangle, so that moving the points away from the border or the seam is penalised.
+         * An edge is on a border if a single triangle uses it, and on a seam if the triangles on either side do not
+         * share the same texture coordinates for it.
+         */
+        private void addBoundaryQuadrics() {
+            Map<Long, Integer> pointEdgeUses = new HashMap<>();
+            Map<Long, Integer> textureEdgeUses = new HashMap<>();
+            for (int i = 0; i < triangles.length; ++i) {
+                pointEdgeUses.merge(edgeKey(point(i), point(next(i))), 1, Integer::sum);
+                textureEdgeUses.merge(edgeKey(textureKey(triangles[i]), textureKey(triangles[next(i)])), 1,
+                        Integer::sum);
+            }
+
+            for (int i = 0; i < triangles.length; ++i) {
+                int from = point(i);
+                int to = point(next(i));
+                boolean border = pointEdgeUses.get(edgeKey(from, to)) == 1;
+                boolean seam = textureEdgeUses.get(edgeKey(textureKey(triangles[i]), textureKey(triangles[next(i)])))
+                        == 1;
+                int base = i - i % 3;
+                if (!(border || seam) || computeNormal(point(base), point(base + 1), point(base + 2), normal) == 0.0) {
+                    continue;
+                }
+                double ex = pointPositions[to * 3] - pointPositions[from * 3];
+                double ey = pointPositions[to * 3 + 1] - pointPositions[from * 3 + 1];
+                double ez = pointPositions[to * 3 + 2] - pointPositions[from * 3 + 2];
+                double px = ey * normal[2] - ez * normal[1];
+                double py = ez * normal[0] - ex * normal[2];
+                double pz = ex * normal[1] - ey * normal[0];
+                double length = Math.sqrt(px * px + py * py + pz * pz);
+                if (length == 0.0) {
+                    continue;
+                }
+                px /= length;
+                py /= length;
+                pz /= length;
+                double d = -(px * pointPositions[from * 3] + py * pointPositions[from * 3 + 1]
+                        + pz * pointPositions[from * 3 + 2]);
+                // weighted like a face as long as the edge, so that it holds against the faces around it.
+                double weight = BOUNDARY_WEIGHT * (ex * ex + ey * ey + ez * ez);
+                addPlane(from, px, py, pz, d, weight);
+                addPlane(to, px, py, pz, d, weight);
+            }
+        }
+
+        /**
+         * Identifies a vertex by its point and texture coordinates, ignoring its normal (so that flat shaded meshes
+         * are not taken as made of seams only).
+         */
+        private long textureKey(int vertex) {
+            long u = Float.floatToIntBits(textureCoords[vertex * 2]);
+            long v = Float.floatToIntBits(textureCoords[vertex * 2 + 1]);
+            return (u * 31 + v) * 1_000_003L + vertexPoints[vertex];
+        }
+
+        private static long edgeKey(long a, long b) {
+            return Math.min(a, b) * 0x9E3779B97F4A7C15L + Math.max(a, b);
+        }
+
+        /**
+         * Adds the quadric of the plane ax + by + cz + d = 0 to a point; the quadric is stored as the upper half of the
+         * symmetric 4x4 matrix (a2, ab, ac, ad, b2, bc, bd, c2, cd, d2).
+         */
+        private void addPlane(int point, double a, double b, double c, double d, double weight) {
+            int q = point * 10;
+            quadrics[q] += weight * a * a;
+            quadrics[q + 1] += weight * a * b;
+            quadrics[q + 2] += weight * a * c;
+            quadrics[q + 3] += weight * a * d;
+            quadrics[q + 4] += weight * b * b;
+            quadrics[q + 5] += weight * b * c;
+            quadrics[q + 6] += weight * b * d;
+            quadrics[q + 7] += weight * c * c;
+            quadrics[q + 8] += weight * c * d;
+            quadrics[q + 9] += weight * d * d;
+        }
+
+        /**
+         * @return - the error of moving both points to the position of the second one, i.e. v^T (Q1 + Q2) v, divided by
+         * the area the quadrics were built from.
+         */
+        private double evaluate(int first, int second) {
+            double x = pointPositions[second * 3];
+            double y = pointPositions[second * 3 + 1];
+            double z = pointPositions[second * 3 + 2];
+            double weight = quadricWeights[first] + quadricWeights[second];
+            double error = evaluate(first * 10, x, y, z) + evaluate(second * 10, x, y, z);
+            return weight > 0.0 ? Math.max(error / weight, 0.0) : Double.POSITIVE_INFINITY;
+        }
+
+        private double evaluate(int q, double x, double y, double z) {
+            return quadrics[q] * x * x + 2 * quadrics[q + 1] * x * y + 2 * quadrics[q + 2] * x * z
+                    + 2 * quadrics[q + 3] * x + quadrics[q + 4] * y * y + 2 * quadrics[q + 5] * y * z
+                    + 2 * quadrics[q + 6] * y + quadrics[q + 7] * z * z + 2 * quadrics[q + 8] * z + quadrics[q + 9];
+        }
+
+        private void pushCollapses(int a, int b) {
+            queue.add(new Collapse(a, b, versions[a], versions[b], evaluate(a, b)));
+            queue.add(new Collapse(b, a, versions[b], versions[a], evaluate(b, a)));
+        }
+
+        /**
+         * @return - twice the area of the triangle; if it is 0 (degenerate triangle), the normal is left undefined.
+         */
+        private double computeNormal(int a, int b, int c, double[] dest) {
+            double e1x = pointPositions[b * 3] - pointPositions[a * 3];
+            double e1y = pointPositions[b * 3 + 1] - pointPositions[a * 3 + 1];
+            double e1z = pointPositions[b * 3 + 2] - pointPositions[a * 3 + 2];
+            double e2x = pointPositions[c * 3] - pointPositions[a * 3];
+            double e2y = pointPositions[c * 3 + 1] - pointPositions[a * 3 + 1];
+            double e2z = pointPositions[c * 3 + 2] - pointPositions[a * 3 + 2];
+            double nx = e1y * e2z - e1z * e2y;
+            double ny = e1z * e2x - e1x * e2z;
+            double nz = e1x * e2y - e1y * e2x;
+            double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (length == 0.0) {
+                return 0.0;
+            }
+            dest[0] = nx / length;
+            dest[1] = ny / length;
+            dest[2] = nz / length;
+            return length;
+        }
+
+        /**
+         * Creates a vertex with the texture coordinates and normal of the given one, at the position of the point.
+         */
+        private int copyVertexTo(int vertex, int point) {
+            if (vertexCount * 3 == positions.length) {
+                int capacity = vertexCount * 2;
+                positions = Arrays.copyOf(positions, capacity * 3);
+                textureCoords = Arrays.copyOf(textureCoords, capacity * 2);
+                normals = Arrays.copyOf(normals, capacity * 3);
+                vertexPoints = Arrays.copyOf(vertexPoints, capacity);
+            }
+            int copy = vertexCount++;
+            System.arraycopy(pointPositions, point * 3, positions, copy * 3, 3);
+            System.arraycopy(textureCoords, vertex * 2, textureCoords, copy * 2, 2);
+            System.arraycopy(normals, vertex * 3, normals, copy * 3, 3);
+            vertexPoints[copy] = point;
+            return copy;
+        }
+
+        private void addTriangle(int point, int triangle) {
+            if (pointTriangleCounts[point] == pointTriangles[point].length) {
+                pointTriangles[point] = Arrays.copyOf(pointTriangles[point], pointTriangles[point].length * 2 + 1);
+            }
+            pointTriangles[point][pointTriangleCounts[point]++] = triangle;
+        }
+
+        /**
+         * @return - the index in the triangle list of the corner of the triangle lying on the point, or -1.
+         */
+        private int cornerAt(int triangle, int point) {
+            for (int corner = triangle * 3; corner < triangle * 3 + 3; ++corner) {
+                if (point(corner) == point) {
+                    return corner;
+                }
+            }
+            return -1;
+        }
+
+        private int point(int corner) {
+            return vertexPoints[triangles[corner]];
+        }
+
+        private static int next(int corner) {
+            return corner - corner % 3 + (corner + 1) % 3;
+        }
+    }
+
+    /**
+     * A candidate half edge collapse; it is stale if either point has changed since it was queued.
+     */
+    private static final class Collapse implements Comparable<Collapse> {
+        private final int from;
+        private final int to;
+        private final int fromVersion;
+        private final int toVersion;
+        private final double cost;
+
+        private Collapse(int from, int to, int fromVersion, int toVersion, double cost) {
+            this.from = from;
+            this.to = to;
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+            this.cost = cost;
+        }
+
+        @Override
+        public int compareTo(Collapse other) {
+            return Double.compare(cost, other.cost);
+        }
+    }
+}
@@ -4,9 +4,11 @@ import models.ModelData;
 import models.RawModel;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
+import utils.objparser.OBJParser;
 import utils.objparser.Vertex;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Stream;
@@ -32,7 +34,32 @@ public class OBJLoader {
 
     private static final String RESOURCES_FOLDER = "deps/";
 
+    /**
+     * Loads an .obj file, with the {@link OBJParser}.
+     *
+     * @param objFilename - the name of the .obj file, in the resources folder, without the ".obj" extension.
+     * @return - the parsed model, or an empty one if the file cannot be read.
+     */
     public static ModelData loadOBJ(String objFilename) {
+        try {
+            return OBJParser.parse(Paths.get(RESOURCES_FOLDER + objFilename + ".obj"));
+        } catch (IOException e) {
+            System.err.println("Failed to read the file!");
+            e.printStackTrace();
+            return new ModelData(new float[0], new float[0], new float[0], new int[0], 0.0f);
+        }
+    }
+
+    /**
+     * The original parser, splitting the file line by line; kept as the reference the {@link OBJParser} is checked
+     * and measured against (see OBJParserTest, and OBJParserBenchmark in the benchmarks). It only reads triangles,
+     * with all three indices, and stops at the first statement following the faces.
+     *
+     * @param objFilename - the name of the .obj file, in the resources folder, without the ".obj" extension.
+     * @return - the parsed model.
+     */
+    @Deprecated
+    public static ModelData loadOBJLegacy(String objFilename) {
 
         String line;
         List<Vertex> vertices = new ArrayList<>();
@@ -124,7 +151,8 @@ public class OBJLoader {
             verticesArray[i * 3 + 2] = position.z;
 
             texturesArray[i * 2] = texture.x;
-            texturesArray[i * 2 + 1] = texture.y;
+            // 1-y because OpenGL actually starts UV mapping from the top left corner
+            texturesArray[i * 2 + 1] = 1 - texture.y;
 
             normalsArray[i * 3] = normal.x;
             normalsArray[i * 3 + 1] = normal.y;
@@ -0,0 +1,199 @@
+package renderengine;
+
+import models.VertexFormat;
+import org.lwjgl.BufferUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the vertices of a mesh in the {@link VertexFormat#PACKED} layout.
+ * <p>
+ * The integers are read by the vertex shader as they are (i.e. the attributes are not normalised by GL), and the
+ * per-mesh scale and offset map them back to their original range. This keeps the decoding independent of the way
+ * the driver converts normalised signed integers, which changed between OpenGL 4.1 and 4.2. The decoding errors are
+ * bounded by:
+ * <ul>
+ * <li>positions: half of a quantisation step, i.e. (extent of the mesh on the axis) / 65534 / 2 per axis;</li>
+ * <li>texture coordinates: (UV extent of the mesh) / 65535 / 2 per axis;</li>
+ * <li>normals: 10 bit octahedral encoding, which stays under half a degree.</li>
+ * </ul>
+ */
+public final class PackedVertices {
+
+    private static final int POSITION_RANGE = Short.MAX_VALUE;
+    private static final int TEXTURE_RANGE = 0xFFFF;
+    private static final int NORMAL_RANGE = 511;
+
+    private final ByteBuffer data;
+    private final int vertexCount;
+    private final float[] positionOffset = new float[3];
+    private final float[] positionScale = new float[3];
+    private final float[] textureOffset = new float[2];
+    private final float[] textureScale = new float[2];
+
+    /**
+     * @param positions          - XYZ positions.
+     * @param textureCoordinates - UV coordinates.
+     * @param normals            - XYZ normals, of unit length.
+     */
+    public PackedVertices(float[] positions, float[] textureCoordinates, float[] normals) {
+        vertexCount = positions.length / 3;
+        computeRange(positions, 3, positionOffset, positionScale, true);
+        computeRange(textureCoordinates, 2, textureOffset, textureScale, false);
+
+        data = BufferUtils.createByteBuffer(vertexCount * VertexFormat.PACKED.getBytesPerVertex());
+        for (int vertex = 0; vertex < vertexCount; ++vertex) {
+            for (int axis = 0; axis < 3; ++axis) {
+                data.putShort((short) quantise(positions[vertex * 3 + axis], axis, positionOffset, positionScale,
+                        -POSITION_RANGE, POSITION_RANGE));
+            }
+            data.putShort((short) 0);
+            for (int axis = 0; axis < 2; ++axis) {
+                data.putShort((short) quantise(textureCoordinates[vertex * 2 + axis], axis, textureOffset,
+                        textureScale, 0, TEXTURE_RANGE));
+            }
+            data.putInt(encodeNormal(normals[vertex * 3], normals[vertex * 3 + 1], normals[vertex * 3 + 2]));
+        }
+        data.flip();
+    }
+
+    /**
+     * @return - the packed vertices, ready to be uploaded.
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * @return - the position of the mesh matching a stored value of 0, i.e. the center of its bounds.
+     */
+    public float[] getPositionOffset() {
+        return positionOffset;
+    }
+
+    /**
+     * @return - the model space size of a quantisation step, along each axis.
+     */
+    public float[] getPositionScale() {
+        return positionScale;
+    }
+
+    public float[] getTextureOffset() {
+        return textureOffset;
+    }
+
+    public float[] getTextureScale() {
+        return textureScale;
+    }
+
+    /**
+     * Decodes the position of a vertex, the way the vertex shader does.
+     */
+    public void decodePosition(int vertex, float[] dest) {
+        int base = vertex * VertexFormat.PACKED.getBytesPerVertex();
+        for (int axis = 0; axis < 3; ++axis) {
+            dest[axis] = positionOffset[axis] + positionScale[axis] * data.getShort(base + axis * 2);
+        }
+    }
+
+    /**
+     * Decodes the texture coordinates of a vertex, the way the vertex shader does.
+     */
+    public void decodeTextureCoordinates(int vertex, float[] dest) {
+        int base = vertex * VertexFormat.PACKED.getBytesPerVertex() + 8;
+        for (int axis = 0; axis < 2; ++axis) {
+            dest[axis] = textureOffset[axis] + textureScale[axis] * (data.getShort(base + axis * 2) & 0xFFFF);
+        }
+    }
+
+    /**
+     * Decodes the normal of a vertex, the way the vertex shader does.
+     */
+    public void decodeNormal(int vertex, float[] dest) {
+        decodePackedNormal(data.getInt(vertex * VertexFormat.PACKED.getBytesPerVertex() + 12), dest);
+    }
+
+    /**
+     * Encodes a unit vector with the octahedral mapping: the vector is projected on the octahedron |x|+|y|+|z|=1,
+     * whose lower half is folded over the upper one, and the resulting XY are stored in the two lowest 10 bit
+     * components of a 2_10_10_10 integer.
+     *
+     * @return - the packed normal.
+     */
+    public static int encodeNormal(float x, float y, float z) {
+        float length = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        if (length == 0.0f) {
+            return 0;
+        }
+        float u = x / length;
+        float v = y / length;
+        if (z < 0.0f) {
+            float foldedU = (1.0f - Math.abs(v)) * signNotZero(u);
+            float foldedV = (1.0f - Math.abs(u)) * signNotZero(v);
+            u = foldedU;
+            v = foldedV;
+        }
+        int packedU = Math.round(u * NORMAL_RANGE);
+        int packedV = Math.round(v * NORMAL_RANGE);
+        return (packedU & 0x3FF) | (packedV & 0x3FF) << 10;
+    }
+
+    /**
+     * Decodes a normal packed by {@link #encodeNormal(float, float, float)}.
+     */
+    public static void decodePackedNormal(int packed, float[] dest) {
+        // sign extend the two 10 bit components.
+        float u = ((packed << 22) >> 22) / (float) NORMAL_RANGE;
+        float v = ((packed << 12) >> 22) / (float) NORMAL_RANGE;
+        float z = 1.0f - Math.abs(u) - Math.abs(v);
+        if (z < 0.0f) {
+            float unfoldedU = (1.0f - Math.abs(v)) * signNotZero(u);
+            float unfoldedV = (1.0f - Math.abs(u)) * signNotZero(v);
+            u = unfoldedU;
+            v = unfoldedV;
+        }
+        float length = (float) Math.sqrt(u * u + v * v + z * z);
+        dest[0] = u / length;
+        dest[1] = v / length;
+        dest[2] = z / length;
+    }
+
+    private static float signNotZero(float value) {
+        return value >= 0.0f ? 1.0f : -1.0f;
+    }
+
+    /**
+     * Computes the offset and the step of the quantisation of each component: either centered, so that the values map
+     * to [-range, range], or starting at the minimum, so that they map to [0, range].
+     */
+    private static void computeRange(float[] values, int components, float[] offset, float[] scale, boolean centered) {
+        for (int axis = 0; axis < components; ++axis) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int i = axis; i < values.length; i += components) {
+                min = Math.min(min, values[i]);
+                max = Math.max(max, values[i]);
+            }
+            if (min > max) {
+                min = max = 0.0f;
+            }
+            float extent = max - min;
+            if (centered) {
+                offset[axis] = (min + max) / 2.0f;
+                scale[axis] = extent > 0.0f ? extent / 2.0f / POSITION_RANGE : 1.0f;
+            } else {
+                offset[axis] = min;
+                scale[axis] = extent > 0.0f ? extent / TEXTURE_RANGE : 1.0f;
+            }
+        }
+    }
+
+    private static int quantise(float value, int axis, float[] offset, float[] scale, int min, int max) {
+        int quantised = Math.round((value - offset[axis]) / scale[axis]);
+        return Math.min(Math.max(quantised, min), max);
+    }
+}
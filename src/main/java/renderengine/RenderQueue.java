@@ -0,0 +1,136 @@
+package renderengine;
+
+import entities.Entity;
+
+import java.util.Arrays;
+
+/**
+ * Queue of the entities to draw in a frame, each one tagged with a 64 bit sort key which packs the GL state it needs.
+ * Sorting the keys groups the draws sharing the same state, so that the renderer only has to change state in between
+ * groups. From the most significant bit to the least significant one, a key holds:
+ * <pre>
+ *  63..60  shader program          (4 bits)
+ *  59      transparency            (1 bit, opaque first, as alpha tested geometry disables culling and early-Z)
+ *  58..43  texture ID              (16 bits)
+ *  42..27  VAO ID                  (16 bits)
+ *  26..3   quantised view depth    (24 bits, front to back)
+ *  2..0    unused
+ * </pre>
+ * The depth sits below the state, so it orders the entities inside each group of identical state: every instanced
+ * batch is submitted front to back, which lets early depth testing reject the hidden fragments, without breaking the
+ * batch apart.
+ * <p>
+ * The IDs only take part in the ordering: two different textures whose IDs collide on the low 16 bits would merely be
+ * interleaved, as the renderer compares the actual state before skipping a change.
+ */
+public class RenderQueue {
+
+    private static final int PROGRAM_SHIFT = 60;
+    private static final int TRANSPARENCY_SHIFT = 59;
+    private static final int TEXTURE_SHIFT = 43;
+    private static final int VAO_SHIFT = 27;
+    private static final int DEPTH_SHIFT = 3;
+
+    private static final long PROGRAM_MASK = 0xFL;
+    private static final long ID_MASK = 0xFFFFL;
+    private static final int DEPTH_BITS = 24;
+    private static final long MAX_DEPTH = (1L << DEPTH_BITS) - 1;
+
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    private long[] keys = new long[1024];
+    private Entity[] entities = new Entity[1024];
+    private long[] scratchKeys = new long[1024];
+    private Entity[] scratchEntities = new Entity[1024];
+    private final int[] histogram = new int[RADIX];
+    private int count;
+
+    /**
+     * Packs the state needed to draw an entity in a sort key.
+     *
+     * @param program     - the ID of the shader program.
+     * @param transparent - whether the model has transparency (and is thus drawn without back face culling).
+     * @param textureID   - the ID of the texture.
+     * @param vaoID       - the ID of the VAO.
+     * @param depth       - the view space depth of the entity, in [0, 1] of the far plane distance.
+     * @return - the sort key.
+     */
+    public static long createKey(int program, boolean transparent, int textureID, int vaoID, float depth) {
+        long quantisedDepth = (long) (Math.min(Math.max(depth, 0.0f), 1.0f) * MAX_DEPTH);
+        return (program & PROGRAM_MASK) << PROGRAM_SHIFT
+                | (transparent ? 1L : 0L) << TRANSPARENCY_SHIFT
+                | (textureID & ID_MASK) << TEXTURE_SHIFT
+                | (vaoID & ID_MASK) << VAO_SHIFT
+                | quantisedDepth << DEPTH_SHIFT;
+    }
+
+    public void add(long key, Entity entity) {
+        if (count == keys.length) {
+            int capacity = count * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            entities = Arrays.copyOf(entities, capacity);
+            scratchKeys = new long[capacity];
+            scratchEntities = new Entity[capacity];
+        }
+        keys[count] = key;
+        entities[count] = entity;
+        ++count;
+    }
+
+    /**
+     * Sorts the queue by key, with an LSD radix sort over bytes; passes over bytes which are identical for all keys
+     * (e.g. the program, while there is a single one) are skipped. Equal keys keep their insertion order.
+     */
+    public void sort() {
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            Arrays.fill(histogram, 0);
+            for (int i = 0; i < count; ++i) {
+                ++histogram[(int) (keys[i] >>> shift) & (RADIX - 1)];
+            }
+            if (count == 0 || histogram[(int) (keys[0] >>> shift) & (RADIX - 1)] == count) {
+                continue;
+            }
+
+            int offset = 0;
+            for (int bucket = 0; bucket < RADIX; ++bucket) {
+                int bucketSize = histogram[bucket];
+                histogram[bucket] = offset;
+                offset += bucketSize;
+            }
+            for (int i = 0; i < count; ++i) {
+                int destination = histogram[(int) (keys[i] >>> shift) & (RADIX - 1)]++;
+                scratchKeys[destination] = keys[i];
+                scratchEntities[destination] = entities[i];
+            }
+
+            long[] swapKeys = keys;
+            keys = scratchKeys;
+            scratchKeys = swapKeys;
+            Entity[] swapEntities = entities;
+            entities = scratchEntities;
+            scratchEntities = swapEntities;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getKey(int index) {
+        return keys[index];
+    }
+
+    public Entity getEntity(int index) {
+        return entities[index];
+    }
+
+    /**
+     * Empties the queue, dropping the references to the queued entities.
+     */
+    public void clear() {
+        Arrays.fill(entities, 0, count, null);
+        Arrays.fill(scratchEntities, 0, count, null);
+        count = 0;
+    }
+}
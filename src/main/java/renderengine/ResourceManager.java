@@ -0,0 +1,263 @@
+package renderengine;
+
+import models.CompiledModel;
+import models.RawModel;
+import models.VertexFormat;
+import textures.CompressedTexture;
+import textures.TextureAtlas;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Shares the models and textures on the GPU between everything which uses them, and frees them mid-session once they
+ * are not needed anymore, rather than only at exit (see {@link Loader#cleanup()}).
+ * <p>
+ * Every resource is keyed by the file it is loaded from, and the settings it is built with, so requesting a resource
+ * which is resident hands out the same GPU copy again, without loading anything. Each request returns a
+ * {@link Handle}, which must be released once the resource is not used anymore. A resource without handles stays
+ * resident, in case it is requested again, until the resources take more GPU memory than the budget: the least
+ * recently requested unused resources are evicted first.
+ * <p>
+ * {@link #cleanup()} reports the handles which were never released, along with where they were acquired from. Every
+ * method must be called on the GL thread.
+ */
+public class ResourceManager {
+
+    private final Loader loader;
+    private final TextureStreamer textureStreamer;
+    private final long gpuBudget;
+    /**
+     * The resident resources, by key, least recently requested first.
+     */
+    private final LinkedHashMap<String, Resource<?>> resources = new LinkedHashMap<>(16, 0.75f, true);
+    private long gpuBytes;
+
+    /**
+     * @param loader          - the loader the models are uploaded with, and deleted by.
+     * @param textureStreamer - the streamer the textures are uploaded with, and deleted by.
+     * @param gpuBudget       - the GPU memory the resident resources may take, in bytes; unused resources are evicted
+     *                        beyond it, while the ones in use are kept regardless.
+     */
+    public ResourceManager(Loader loader, TextureStreamer textureStreamer, long gpuBudget) {
+        this.loader = loader;
+        this.textureStreamer = textureStreamer;
+        this.gpuBudget = gpuBudget;
+    }
+
+    /**
+     * Acquires a model along with its levels of detail, compiled ahead of time, e.g. on a worker thread (see
+     * {@link AssetPipeline} and {@link MeshCache}); when a model of the same key is already resident, it is shared,
+     * and the compiled model is dropped.
+     *
+     * @param objFileName - the name of the OBJ file the model was compiled from.
+     * @param format      - the layout the model was compiled with.
+     * @param region      - the atlas region the model was compiled for, or null.
+     * @param model       - the compiled model.
+     * @return - a handle on the levels of the model, starting with the full resolution one.
+     */
+    public Handle<RawModel[]> acquireModel(String objFileName, VertexFormat format, TextureAtlas.Region region,
+                                           CompiledModel model) {
+        return acquire(getModelKey(objFileName, format, region), () -> loader.loadToVAO(model),
+                levels -> getByteCount(model), levels -> {
+                    for (RawModel level : levels) {
+                        loader.unloadModel(level);
+                    }
+                });
+    }
+
+    /**
+     * Acquires a texture read ahead of time, e.g. on a worker thread; when it is already resident, it is shared, and
+     * the texture read is dropped. Otherwise, it is uploaded by the {@link TextureStreamer}, and shows a placeholder
+     * until then.
+     *
+     * @param fileName - the name of the PNG file the texture was read from.
+     * @param texture  - the compressed texture, or null if it could not be read.
+     * @return - a handle on the ID of the texture.
+     */
+    public Handle<Integer> acquireTexture(String fileName, CompressedTexture texture) {
+        return acquire("texture " + fileName, () -> textureStreamer.load(texture),
+                textureID -> texture != null ? texture.getByteCount() : 0, textureStreamer::unload);
+    }
+
+    /**
+     * Acquires any resource: the resource of the key if it is resident, or else the one created by the given function.
+     * The key must be unique to the resource, and to the type of its value.
+     *
+     * @param key       - the key of the resource.
+     * @param create    - creates the resource; only called if it is not resident.
+     * @param byteCount - the GPU memory taken by the created resource, in bytes.
+     * @param delete    - deletes the resource, once it is evicted.
+     * @return - a handle on the resource.
+     */
+    public <T> Handle<T> acquire(String key, Supplier<T> create, ToLongFunction<? super T> byteCount,
+                                 Consumer<? super T> delete) {
+        @SuppressWarnings("unchecked")
+        Resource<T> resource = (Resource<T>) resources.get(key);
+        if (resource == null) {
+            T value = create.get();
+            resource = new Resource<>(key, value, byteCount.applyAsLong(value), delete);
+            resources.put(key, resource);
+            gpuBytes += resource.bytes;
+        }
+        Handle<T> handle = new Handle<>(resource, callSite());
+        resource.handles.add(handle);
+        evictOverBudget();
+        return handle;
+    }
+
+    /**
+     * @return - the GPU memory taken by the resident resources, in bytes.
+     */
+    public long getGpuBytes() {
+        return gpuBytes;
+    }
+
+    /**
+     * @return - the number of resident resources, used or not.
+     */
+    public int getResidentCount() {
+        return resources.size();
+    }
+
+    /**
+     * Prints every handle which has not been released yet, with where it was acquired from.
+     *
+     * @return - the number of handles which have not been released.
+     */
+    public int reportLeaks() {
+        int leaks = 0;
+        for (Resource<?> resource : resources.values()) {
+            for (Handle<?> handle : resource.handles) {
+                System.err.println("Leaked " + resource.key + " (" + resource.bytes + " bytes), acquired at "
+                        + handle.acquiredAt);
+                ++leaks;
+            }
+        }
+        return leaks;
+    }
+
+    /**
+     * Reports the handles which were never released (see {@link #reportLeaks()}), then deletes every resident
+     * resource; must be called before {@link Loader#cleanup()}.
+     */
+    public void cleanup() {
+        int leaks = reportLeaks();
+        if (leaks > 0) {
+            System.err.println(leaks + " resource handles were not released before cleanup.");
+        }
+        resources.values().forEach(Resource::delete);
+        resources.clear();
+        gpuBytes = 0;
+    }
+
+    private void release(Handle<?> handle) {
+        Resource<?> resource = handle.resource;
+        resource.handles.remove(handle);
+        evictOverBudget();
+    }
+
+    private void evictOverBudget() {
+        Iterator<Resource<?>> leastRecentlyRequested = resources.values().iterator();
+        while (gpuBytes > gpuBudget && leastRecentlyRequested.hasNext()) {
+            Resource<?> resource = leastRecentlyRequested.next();
+            if (resource.handles.isEmpty()) {
+                resource.delete();
+                leastRecentlyRequested.remove();
+                gpuBytes -= resource.bytes;
+            }
+        }
+    }
+
+    private static String getModelKey(String objFileName, VertexFormat format, TextureAtlas.Region region) {
+        return "model " + objFileName + MeshCache.getVariant(format, region);
+    }
+
+    private static long getByteCount(CompiledModel model) {
+        long bytes = 0;
+        for (int i = 0; i < model.getLevelCount(); ++i) {
+            bytes += model.getLevel(i).getVertices().remaining() + model.getLevel(i).getIndices().remaining();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return - the first frame of the stack of the calling thread outside of this class.
+     */
+    private static String callSite() {
+        for (StackTraceElement frame : new Throwable().getStackTrace()) {
+            if (!frame.getClassName().startsWith(ResourceManager.class.getName())) {
+                return frame.toString();
+            }
+        }
+        return "an unknown location";
+    }
+
+    /**
+     * A reference to a resident resource, which keeps it from being evicted until it is released.
+     */
+    public final class Handle<T> {
+
+        private final Resource<T> resource;
+        private final String acquiredAt;
+        private boolean released;
+
+        private Handle(Resource<T> resource, String acquiredAt) {
+            this.resource = resource;
+            this.acquiredAt = acquiredAt;
+        }
+
+        /**
+         * @return - the resource.
+         * @throws IllegalStateException - if the handle has been released.
+         */
+        public T get() {
+            if (released) {
+                throw new IllegalStateException("The handle on " + resource.key + " has been released.");
+            }
+            return resource.value;
+        }
+
+        /**
+         * Gives up the resource; it may be evicted once it has no handles left. Must be called once, after which the
+         * handle cannot be used anymore.
+         *
+         * @throws IllegalStateException - if the handle has already been released.
+         */
+        public void release() {
+            if (released) {
+                throw new IllegalStateException("The handle on " + resource.key + " has already been released.");
+            }
+            released = true;
+            ResourceManager.this.release(this);
+        }
+    }
+
+    private static class Resource<T> {
+
+        private final String key;
+        private final T value;
+        private final long bytes;
+        private final Consumer<? super T> delete;
+        /**
+         * The handles which have not been released; the resource may only be evicted once there are none.
+         */
+        private final List<Handle<T>> handles = new ArrayList<>();
+
+        private Resource(String key, T value, long bytes, Consumer<? super T> delete) {
+            this.key = key;
+            this.value = value;
+            this.bytes = bytes;
+            this.delete = delete;
+        }
+
+        private void delete() {
+            delete.accept(value);
+        }
+    }
+}
@@ -1,98 +1,214 @@
 package renderengine;
 
 import entities.Entity;
-import models.RawModel;
 import models.TexturedModel;
+import org.joml.FrustumIntersection;
 import org.joml.Matrix4f;
+import org.joml.Vector3f;
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
 import shaders.TerrainShader;
+import terrains.GeoMipmap;
 import terrains.Terrain;
 import textures.ModelTexture;
 import textures.TerrainTexturePack;
 import utils.Maths;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by ThatKidFlo on 03.05.2016.
  */
 public class TerrainRenderer {
 
+    /**
+     * The largest height error, in pixels on screen, a coarser level of a patch may introduce.
+     */
+    private static final float MAX_PIXEL_ERROR = 2.0f;
+    /**
+     * Patches closer than this are drawn at full resolution, and each further level needs twice the distance; this
+     * keeps the per-vertex lighting and fog of nearby flat ground smooth.
+     */
+    private static final float DETAIL_DISTANCE = 50.0f;
+
+    private static final int[] NEIGHBOUR_X = {0, 1, 0, -1};
+    private static final int[] NEIGHBOUR_Z = {-1, 0, 1, 0};
+    private static final int[] NEIGHBOUR_MASKS = {GeoMipmap.COARSER_NEGATIVE_Z, GeoMipmap.COARSER_POSITIVE_X,
+            GeoMipmap.COARSER_POSITIVE_Z, GeoMipmap.COARSER_NEGATIVE_X};
+
     private TerrainShader shader;
+    /**
+     * The terrains whose levels were selected in the current frame, by grid position; used to find the neighbours of
+     * the patches on the edges of a terrain.
+     */
+    private final Map<Long, Terrain> terrainsByGrid = new HashMap<>();
 
-    public TerrainRenderer(TerrainShader shader, Matrix4f projectionMatrix) {
+    public TerrainRenderer(TerrainShader shader) {
         this.shader = shader;
         shader.start();
-        shader.loadProjectionMatrix(projectionMatrix);
         shader.connectTextureUnits();
         shader.stop();
     }
 
-    public void render(List<Terrain> terrains) {
-        terrains.stream().forEach(
-                (terrain) -> {
-                    prepareTerrain(terrain);
-                    loadModelMatrix(terrain);
-                    GL11.glDrawElements(GL11.GL_TRIANGLES, terrain.getModel().getVertexCount(), GL11
-                            .GL_UNSIGNED_INT, 0);
-                    unbindTexturedModel();
+    /**
+     * Picks the level of every patch of the terrains: the coarsest one whose height error stays under
+     * {@link #MAX_PIXEL_ERROR} pixels on screen, from the distance between the camera and the patch. The levels are
+     * then refined where needed, so that adjacent patches, in the same terrain or not, are never more than one level
+     * apart, which is all the stitching patterns can hide.
+     * <p>
+     * The terrains culled in this frame must be included too, so that the edges they share with visible terrains are
+     * stitched the same way whether they are drawn or not.
+     *
+     * @param terrains      - every terrain of the world around the camera.
+     * @param camera        - the position of the camera, in world space.
+     * @param pixelsPerUnit - the size on screen, in pixels, of one unit at distance one from the camera.
+     */
+    public void selectLevels(List<Terrain> terrains, Vector3f camera, float pixelsPerUnit) {
+        terrainsByGrid.clear();
+        for (Terrain terrain : terrains) {
+            terrainsByGrid.put(gridKey(terrain.getGridX(), terrain.getGridZ()), terrain);
+            for (int patch = 0; patch < Terrain.PATCHES_PER_SIDE * Terrain.PATCHES_PER_SIDE; ++patch) {
+                float distance = distanceToPatch(terrain, patch, camera);
+                int level = 0;
+                while (level + 1 < GeoMipmap.LEVEL_COUNT && distance >= DETAIL_DISTANCE * (1 << level)
+                        && terrain.getPatchError(patch, level + 1) * pixelsPerUnit <= MAX_PIXEL_ERROR * distance) {
+                    ++level;
                 }
-        );
+                terrain.setPatchLevel(patch, level);
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Terrain terrain : terrains) {
+                for (int patchZ = 0; patchZ < Terrain.PATCHES_PER_SIDE; ++patchZ) {
+                    for (int patchX = 0; patchX < Terrain.PATCHES_PER_SIDE; ++patchX) {
+                        int patch = Terrain.getPatchIndex(patchX, patchZ);
+                        int level = terrain.getPatchLevel(patch);
+                        for (int side = 0; side < 4; ++side) {
+                            level = Math.min(level, neighbourLevel(terrain, patchX, patchZ, side) + 1);
+                        }
+                        if (level != terrain.getPatchLevel(patch)) {
+                            terrain.setPatchLevel(patch, level);
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
     }
 
     /**
-     * Prepares a {@link Terrain}  for rendering, by binding the VAO of the terrain to be rendered, and enabling the
-     * vertex attribute arrays at index 0, 1, and 2. They contain, respectively:
-     * 0: the positional data, (XYZ, floats).
-     * 1: the texture data,  (UV, floats).
-     * 2: the normal vectors (XYZ, floats).
+     * Draws the patches of the terrains which lie in the view frustum, each at the level picked by
+     * {@link #selectLevels(List, Vector3f, float)}, stitched to its coarser neighbours.
      *
-     * @param terrain - the {@link Terrain} to be prepared for rendering
+     * @param terrains - the terrains to draw.
+     * @param frustum  - the view frustum of the camera.
      */
-    private void prepareTerrain(Terrain terrain) {
-        RawModel rawModel = terrain.getModel();
+    public void render(List<Terrain> terrains, FrustumIntersection frustum) {
+        for (Terrain terrain : terrains) {
+            GeoMipmap geoMipmap = terrain.getGeoMipmap();
+            prepareTerrain(terrain);
+            loadModelMatrix(terrain);
+            int fullDetailTriangles = geoMipmap.getIndexCount(0, 0) / 3;
+            for (int patchZ = 0; patchZ < Terrain.PATCHES_PER_SIDE; ++patchZ) {
+                for (int patchX = 0; patchX < Terrain.PATCHES_PER_SIDE; ++patchX) {
+                    int patch = Terrain.getPatchIndex(patchX, patchZ);
+                    boolean visible = frustum.testAab(
+                            terrain.getPatchBound(patch, 0), terrain.getPatchBound(patch, 1),
+                            terrain.getPatchBound(patch, 2), terrain.getPatchBound(patch, 3),
+                            terrain.getPatchBound(patch, 4), terrain.getPatchBound(patch, 5));
+                    FrameStatistics.recordTerrainPatchVisibility(visible);
+                    if (!visible) {
+                        continue;
+                    }
+                    int level = terrain.getPatchLevel(patch);
+                    int mask = 0;
+                    for (int side = 0; side < 4; ++side) {
+                        if (neighbourLevel(terrain, patchX, patchZ, side) > level) {
+                            mask |= NEIGHBOUR_MASKS[side];
+                        }
+                    }
+                    int indexCount = geoMipmap.getIndexCount(level, mask);
+                    shader.loadPatchOffset(patchX * GeoMipmap.PATCH_QUADS, patchZ * GeoMipmap.PATCH_QUADS);
+                    GL11.glDrawElements(GL11.GL_TRIANGLES, indexCount, geoMipmap.getIndexType().getGlType(),
+                            geoMipmap.getOffset(level, mask));
+                    FrameStatistics.recordDrawCall(1);
+                    FrameStatistics.recordTriangles(indexCount / 3, fullDetailTriangles);
+                }
+            }
+        }
+    }
 
-        // Bind the VAO of the terrain to be rendered
-        GL30.glBindVertexArray(rawModel.getVaoID());
+    /**
+     * @return - the level of the patch next to the given one, on the given side (see {@link #NEIGHBOUR_X}), looking
+     * into the adjacent terrain if needed; the level of the patch itself when there is no terrain there.
+     */
+    private int neighbourLevel(Terrain terrain, int patchX, int patchZ, int side) {
+        int neighbourX = patchX + NEIGHBOUR_X[side];
+        int neighbourZ = patchZ + NEIGHBOUR_Z[side];
+        Terrain neighbourTerrain = terrain;
+        if (neighbourX < 0 || neighbourX >= Terrain.PATCHES_PER_SIDE
+                || neighbourZ < 0 || neighbourZ >= Terrain.PATCHES_PER_SIDE) {
+            neighbourTerrain = terrainsByGrid.get(gridKey(terrain.getGridX() + NEIGHBOUR_X[side],
+                    terrain.getGridZ() + NEIGHBOUR_Z[side]));
+            if (neighbourTerrain == null) {
+                return terrain.getPatchLevel(Terrain.getPatchIndex(patchX, patchZ));
+            }
+            neighbourX = Math.floorMod(neighbourX, Terrain.PATCHES_PER_SIDE);
+            neighbourZ = Math.floorMod(neighbourZ, Terrain.PATCHES_PER_SIDE);
+        }
+        return neighbourTerrain.getPatchLevel(Terrain.getPatchIndex(neighbourX, neighbourZ));
+    }
 
-        // Load the vertex attribute array on position 0 in the VAO list (contains position data)
-        GL20.glEnableVertexAttribArray(0);
+    /**
+     * @return - the distance from the camera to the closest point of the bounding box of the patch.
+     */
+    private static float distanceToPatch(Terrain terrain, int patch, Vector3f camera) {
+        float dx = Math.max(0.0f, Math.max(terrain.getPatchBound(patch, 0) - camera.x,
+                camera.x - terrain.getPatchBound(patch, 3)));
+        float dy = Math.max(0.0f, Math.max(terrain.getPatchBound(patch, 1) - camera.y,
+                camera.y - terrain.getPatchBound(patch, 4)));
+        float dz = Math.max(0.0f, Math.max(terrain.getPatchBound(patch, 2) - camera.z,
+                camera.z - terrain.getPatchBound(patch, 5)));
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
 
-        // Position 1 contains the texture coordinates data.
-        GL20.glEnableVertexAttribArray(1);
+    private static long gridKey(int gridX, int gridZ) {
+        return ((long) gridX << 32) | (gridZ & 0xFFFFFFFFL);
+    }
 
-        // Position 2 contains the normal coordinates of each vertex.
-        GL20.glEnableVertexAttribArray(2);
+    /**
+     * Prepares a {@link Terrain}  for rendering, by binding the grid of the {@link GeoMipmap}, shared by all terrains
+     * (so only the first terrain actually binds it), along with the textures and heightmap of the terrain.
+     *
+     * @param terrain - the {@link Terrain} to be prepared for rendering
+     */
+    private void prepareTerrain(Terrain terrain) {
+        FrameStatistics.recordStateChange(GLState.bindVertexArray(terrain.getGeoMipmap().getGrid().getVaoID()));
+        shader.loadTerrainGrid(Terrain.QUAD_SIZE, Terrain.QUADS_PER_SIDE, terrain.getMinHeight(),
+                terrain.getHeightSpan());
 
         bindTextures(terrain);
         shader.loadShineVariables(1, 0);
     }
 
-    private void bindTexture(int textureID, int where) {
-        GL13.glActiveTexture(where);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
-    }
-
+    /**
+     * Binds the texture pack, blendmap and heightmap of a terrain. Each bind is skipped when its unit already holds
+     * the texture, so tiles sharing the same pack and blendmap only bind their own heightmap.
+     */
     private void bindTextures(Terrain terrain) {
         final TerrainTexturePack texturePack = terrain.getTexturePack();
 
-        bindTexture(texturePack.getBackgroundTexture().getTextureID(), GL13.GL_TEXTURE0);
-        bindTexture(texturePack.getRedTexture().getTextureID(), GL13.GL_TEXTURE1);
-        bindTexture(texturePack.getGreenTexture().getTextureID(), GL13.GL_TEXTURE2);
-        bindTexture(texturePack.getBlueTexture().getTextureID(), GL13.GL_TEXTURE3);
-        bindTexture(terrain.getBlendmap().getTextureID(), GL13.GL_TEXTURE4);
-    }
-
-    private void unbindTexturedModel() {
-        GL20.glDisableVertexAttribArray(0);
-        GL20.glDisableVertexAttribArray(1);
-        GL20.glDisableVertexAttribArray(2);
-
-        // Unbind the VAO
-        GL30.glBindVertexArray(0);
+        FrameStatistics.recordStateChange(GLState.bindTexture(0, GL30.GL_TEXTURE_2D_ARRAY,
+                texturePack.getLayers().getTextureID()));
+        FrameStatistics.recordStateChange(GLState.bindTexture(1, GL30.GL_TEXTURE_2D_ARRAY,
+                terrain.getBlendmap().getTextureID()));
+        FrameStatistics.recordStateChange(GLState.bindTexture(2, GL11.GL_TEXTURE_2D, terrain.getHeightmap()));
+        shader.loadLayerCount(texturePack.getLayerCount());
     }
 
     /**
@@ -0,0 +1,210 @@
+package renderengine;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL30;
+import textures.CompressedTexture;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Loads textures without blocking the GL thread: the returned texture ID is usable right away, and shows a grey
+ * placeholder until the real texture is resident.
+ * <p>
+ * Reading (or decoding and compressing, see {@link Loader#loadTexture(String)}) happens beforehand, on the CPU stages
+ * of the {@link AssetPipeline}, straight into off-heap buffers. The GL thread then uploads the finished textures
+ * through a pixel buffer object, a few mip levels per call to {@link #update()}, within a budget of bytes per frame, so
+ * that a burst of textures never stalls a frame. The levels are uploaded smallest first, and the base level of the
+ * texture is lowered after each of them, so the texture sharpens progressively instead of popping in at the end.
+ * <p>
+ * The pixel unpack buffer binding is not tracked by the {@link GLState}; it is only bound during {@link #update()},
+ * and unbound before returning, as every other texture upload expects client memory.
+ */
+public class TextureStreamer {
+
+    private final Loader loader;
+    private final long bytesPerFrame;
+    private final int pixelBuffer;
+
+    /**
+     * The textures read, waiting to be uploaded; only touched by the GL thread.
+     */
+    private final Queue<PendingTexture> decoded = new ArrayDeque<>();
+    /**
+     * The textures which are not resident yet, by ID, whether they are queued or being uploaded; only touched by the
+     * GL thread.
+     */
+    private final Map<Integer, PendingTexture> requested = new HashMap<>();
+    /**
+     * The texture being uploaded, level by level, across frames.
+     */
+    private PendingTexture uploading;
+
+    /**
+     * @param loader        - the loader the textures are created with, and deleted by on cleanup.
+     * @param bytesPerFrame - the number of bytes uploaded per call to {@link #update()}; a mip level larger than the
+     *                      budget is still uploaded, on its own, in a frame of its own.
+     */
+    public TextureStreamer(Loader loader, long bytesPerFrame) {
+        this.loader = loader;
+        this.bytesPerFrame = bytesPerFrame;
+        this.pixelBuffer = GL15.glGenBuffers();
+    }
+
+    /**
+     * Starts streaming a texture which has already been read, e.g. by a CPU stage of the {@link AssetPipeline}. Must be
+     * called on the GL thread.
+     *
+     * @param texture - the compressed texture, or null if it could not be read, in which case the placeholder stays.
+     * @return - the ID of the texture, holding a placeholder until the texture is resident.
+     */
+    public int load(CompressedTexture texture) {
+        PendingTexture request = request();
+        request.texture = texture;
+        decoded.add(request);
+        return request.textureID;
+    }
+
+    /**
+     * Deletes a texture created by this streamer, whether it is resident yet or not; if it is still queued, it is
+     * dropped before its upload. Must be called on the GL thread.
+     *
+     * @param textureID - the texture to delete.
+     */
+    public void unload(int textureID) {
+        PendingTexture request = requested.remove(textureID);
+        if (request != null) {
+            request.cancelled = true;
+            if (uploading == request) {
+                uploading = null;
+            }
+        }
+        loader.unloadTexture(textureID);
+    }
+
+    /**
+     * Must be called once per frame, on the GL thread: uploads the textures read since the last call, within the
+     * budget of bytes per frame.
+     */
+    public void update() {
+        upload(bytesPerFrame);
+    }
+
+    /**
+     * Uploads every texture read so far, regardless of the budget; meant for load time, e.g. before textures are
+     * baked into impostors.
+     */
+    public void finish() {
+        upload(Long.MAX_VALUE);
+    }
+
+    public void cleanup() {
+        requested.clear();
+        decoded.clear();
+        uploading = null;
+        GLState.deleteBuffer(pixelBuffer);
+    }
+
+    private void upload(long budget) {
+        boolean bound = false;
+        long uploaded = 0;
+        while (true) {
+            if (uploading == null) {
+                uploading = decoded.poll();
+                if (uploading == null) {
+                    break;
+                }
+                if (uploading.cancelled || uploading.texture == null) {
+                    // unloaded while it was queued, or unreadable: the placeholder is all there is.
+                    requested.remove(uploading.textureID, uploading);
+                    uploading = null;
+                    continue;
+                }
+                uploading.nextLevel = uploading.texture.getLevelCount() - 1;
+            }
+            CompressedTexture texture = uploading.texture;
+            int level = uploading.nextLevel;
+            ByteBuffer data = texture.getLevel(level);
+            // at least one level per frame, however large.
+            if (uploaded > 0 && uploaded + data.remaining() > budget) {
+                break;
+            }
+            if (!bound) {
+                GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, pixelBuffer);
+                bound = true;
+            }
+            uploadLevel(uploading.textureID, texture, level);
+            uploaded += data.remaining();
+
+            if (level == 0) {
+                requested.remove(uploading.textureID, uploading);
+                uploading = null;
+            } else {
+                uploading.nextLevel = level - 1;
+            }
+        }
+        if (bound) {
+            GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, 0);
+        }
+    }
+
+    /**
+     * Copies a level to the pixel buffer, and specifies the level of the texture from it. The storage of the pixel
+     * buffer is orphaned first, so that the copy never waits for the driver to finish reading the previous level.
+     */
+    private void uploadLevel(int textureID, CompressedTexture texture, int level) {
+        ByteBuffer data = texture.getLevel(level);
+        GL15.glBufferData(GL21.GL_PIXEL_UNPACK_BUFFER, data.remaining(), GL15.GL_STREAM_DRAW);
+        ByteBuffer mapped = GL30.glMapBufferRange(GL21.GL_PIXEL_UNPACK_BUFFER, 0, data.remaining(),
+                GL30.GL_MAP_WRITE_BIT | GL30.GL_MAP_INVALIDATE_BUFFER_BIT);
+        if (mapped == null) {
+            throw new IllegalStateException("Could not map the texture upload buffer.");
+        }
+        mapped.put(data.duplicate());
+        GL15.glUnmapBuffer(GL21.GL_PIXEL_UNPACK_BUFFER);
+
+        GLState.bindTexture(0, GL11.GL_TEXTURE_2D, textureID);
+        // the data argument is an offset into the bound pixel buffer.
+        GL13.glCompressedTexImage2D(GL11.GL_TEXTURE_2D, level, texture.getInternalFormat(),
+                texture.getLevelWidth(level), texture.getLevelHeight(level), 0, data.remaining(), 0L);
+        if (level == texture.getLevelCount() - 1) {
+            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL12.GL_TEXTURE_MAX_LEVEL, level);
+        }
+        // the levels below the base one still hold the placeholder, or nothing, and are ignored until replaced.
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL12.GL_TEXTURE_BASE_LEVEL, level);
+    }
+
+    /**
+     * Creates the placeholder of a texture, and keeps track of it until it is resident.
+     */
+    private PendingTexture request() {
+        PendingTexture request = new PendingTexture(loader.createPlaceholderTexture());
+        requested.put(request.textureID, request);
+        return request;
+    }
+
+    private static class PendingTexture {
+
+        private final int textureID;
+        /**
+         * Set once the texture is read, before it is queued for upload; null if it could not be read.
+         */
+        private CompressedTexture texture;
+        /**
+         * Whether the texture was unloaded before it was resident; its ID may already belong to another texture.
+         */
+        private boolean cancelled;
+        private int nextLevel;
+
+        private PendingTexture(int textureID) {
+            this.textureID = textureID;
+        }
+    }
+}
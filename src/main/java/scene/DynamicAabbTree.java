@@ -0,0 +1,588 @@
+package scene;
+
+import org.joml.Matrix4fc;
+import org.joml.Vector4f;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A dynamic bounding volume hierarchy over axis aligned bounding boxes, in the spirit of the dynamic tree used by
+ * Box2D and Bullet. Every object is a leaf (a "proxy") holding a fattened copy of its bounds, so that small movements
+ * do not require touching the tree at all; bigger movements remove and re-insert the leaf, which costs O(log n)
+ * thanks to the tree being kept balanced through rotations.
+ * <p>
+ * Nodes are kept in parallel primitive arrays, indexed by the proxy ID, so that traversals do not chase pointers
+ * across the heap, and so that 100k+ objects do not mean 100k+ node objects. A frustum traversal only reads the bounds
+ * and the children of the nodes, and stops testing the planes a node is found to be completely inside of for its whole
+ * subtree. Below {@link #LINEAR_QUERY_THRESHOLD} objects, scanning the leaves beats any traversal, so the frustum
+ * queries do that instead.
+ *
+ * @param <T> - the type of the objects stored in the leaves.
+ */
+public final class DynamicAabbTree<T> {
+
+    public static final int NULL_NODE = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MIN_X = 0, MIN_Y = 1, MIN_Z = 2, MAX_X = 3, MAX_Y = 4, MAX_Z = 5;
+    /**
+     * The number of objects from which the frustum queries traverse the tree, rather than scan every leaf; measured
+     * with the DynamicAabbTreeBenchmark of the benchmarks.
+     */
+    static final int LINEAR_QUERY_THRESHOLD = 512;
+    private static final int PLANE_COUNT = 6;
+    private static final int ALL_PLANES = (1 << PLANE_COUNT) - 1;
+    private static final int OUTSIDE = -1;
+
+    /**
+     * The fat bounds of each node, 6 floats per node: minX, minY, minZ, maxX, maxY, maxZ.
+     */
+    private float[] bounds;
+    /**
+     * The parent of each node; for nodes on the free list, the next free node instead.
+     */
+    private int[] parent;
+    /**
+     * The two children of each node, side by side; both are {@link #NULL_NODE} for leaves.
+     */
+    private int[] children;
+    /**
+     * Height of the subtree rooted in each node: 0 for leaves, -1 for free nodes.
+     */
+    private int[] height;
+    private Object[] userData;
+
+    private int root = NULL_NODE;
+    private int freeList = NULL_NODE;
+    private int capacity;
+    private int proxyCount;
+
+    /**
+     * Each leaf bounds is grown by this fraction of its extent (and by at least {@link #minimumMargin}), so that an
+     * object can move a little before it has to be re-inserted.
+     */
+    private final float marginFraction;
+    private final float minimumMargin;
+
+    /**
+     * The traversal stack; the frustum query stores each node shifted left by {@link #PLANE_COUNT}, along with the
+     * planes its parent straddles, in the low bits.
+     */
+    private int[] stack = new int[64];
+    /**
+     * The planes of the frustum being queried, 4 floats per plane (see {@link Matrix4fc#frustumPlane}), and for each
+     * of them, the offsets in the bounds of the corner furthest along its normal, then of the closest one.
+     */
+    private final float[] planes = new float[PLANE_COUNT * 4];
+    private final int[] planeCorners = new int[PLANE_COUNT * 6];
+    private final Vector4f plane = new Vector4f();
+
+    public DynamicAabbTree(float marginFraction, float minimumMargin) {
+        this.marginFraction = marginFraction;
+        this.minimumMargin = minimumMargin;
+        grow(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return - the number of objects currently stored in the tree.
+     */
+    public int size() {
+        return proxyCount;
+    }
+
+    /**
+     * @return - the height of the tree, 0 when it holds a single object (or none).
+     */
+    public int getHeight() {
+        return root == NULL_NODE ? 0 : height[root];
+    }
+
+    /**
+     * Inserts a new object in the tree.
+     *
+     * @return - the proxy ID, which must be passed back to {@link #moveProxy} and {@link #destroyProxy}.
+     */
+    public int createProxy(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, T data) {
+        int proxy = allocateNode();
+        setFatBounds(proxy, minX, minY, minZ, maxX, maxY, maxZ);
+        userData[proxy] = data;
+        height[proxy] = 0;
+        insertLeaf(proxy);
+        ++proxyCount;
+        return proxy;
+    }
+
+    public void destroyProxy(int proxy) {
+        removeLeaf(proxy);
+        freeNode(proxy);
+        --proxyCount;
+    }
+
+    /**
+     * Updates the bounds of an object. Nothing happens as long as the new bounds are still contained in the fat bounds
+     * stored in the tree.
+     *
+     * @return - true if the object had to be re-inserted in the tree.
+     */
+    public boolean moveProxy(int proxy, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int base = proxy * 6;
+        if (bounds[base + MIN_X] <= minX && bounds[base + MIN_Y] <= minY && bounds[base + MIN_Z] <= minZ
+                && bounds[base + MAX_X] >= maxX && bounds[base + MAX_Y] >= maxY && bounds[base + MAX_Z] >= maxZ) {
+            return false;
+        }
+        removeLeaf(proxy);
+        setFatBounds(proxy, minX, minY, minZ, maxX, maxY, maxZ);
+        insertLeaf(proxy);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T getUserData(int proxy) {
+        return (T) userData[proxy];
+    }
+
+    /**
+     * Collects every object whose fat bounds are not completely outside the frustum. Whole subtrees found to be
+     * completely inside the frustum are collected without testing any of their descendants, and the descendants of a
+     * node are only tested against the planes the node straddles.
+     *
+     * @param projectionView - the projection matrix multiplied by the view matrix, which the frustum is extracted from.
+     * @param result         - the list the objects will be appended to.
+     * @return - the number of nodes whose bounds were tested.
+     */
+    public int queryFrustum(Matrix4fc projectionView, List<T> result) {
+        if (root == NULL_NODE) {
+            return 0;
+        }
+        loadPlanes(projectionView);
+        if (proxyCount < LINEAR_QUERY_THRESHOLD) {
+            return scanFrustum(result);
+        }
+        int tested = 0;
+        int top = 0;
+        stack[top++] = root << PLANE_COUNT | ALL_PLANES;
+        while (top > 0) {
+            int entry = stack[--top];
+            int node = entry >>> PLANE_COUNT;
+            ++tested;
+            int straddled = cull(node * 6, entry & ALL_PLANES);
+            if (straddled == 0) {
+                collectSubtree(node, top, result);
+            } else if (straddled != OUTSIDE) {
+                int first = children[node * 2];
+                if (first == NULL_NODE) {
+                    result.add(getUserData(node));
+                } else {
+                    top = push(top, first << PLANE_COUNT | straddled);
+                    top = push(top, children[node * 2 + 1] << PLANE_COUNT | straddled);
+                }
+            }
+        }
+        return tested;
+    }
+
+    /**
+     * Collects every object whose fat bounds overlap the given sphere. The caller is expected to refine the result
+     * with the exact bounds of the objects, if needed.
+     *
+     * @param result - the list the objects will be appended to.
+     */
+    public void querySphere(float x, float y, float z, float radius, List<T> result) {
+        if (root == NULL_NODE) {
+            return;
+        }
+        float radiusSquared = radius * radius;
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int node = stack[--top];
+            int base = node * 6;
+            // squared distance from the center of the sphere to the closest point of the box.
+            float dx = Math.max(Math.max(bounds[base + MIN_X] - x, x - bounds[base + MAX_X]), 0.0f);
+            float dy = Math.max(Math.max(bounds[base + MIN_Y] - y, y - bounds[base + MAX_Y]), 0.0f);
+            float dz = Math.max(Math.max(bounds[base + MIN_Z] - z, z - bounds[base + MAX_Z]), 0.0f);
+            if (dx * dx + dy * dy + dz * dz > radiusSquared) {
+                continue;
+            }
+            if (height[node] == 0) {
+                result.add(getUserData(node));
+            } else {
+                top = push(top, children[node * 2]);
+                top = push(top, children[node * 2 + 1]);
+            }
+        }
+    }
+
+    /**
+     * Tests every leaf, in the order of the node arrays.
+     *
+     * @return - the number of leaves tested.
+     */
+    private int scanFrustum(List<T> result) {
+        for (int node = 0; node < capacity; ++node) {
+            // internal nodes are higher, free ones lower.
+            if (height[node] == 0 && !isOutside(node * 6)) {
+                result.add(getUserData(node));
+            }
+        }
+        return proxyCount;
+    }
+
+    private void loadPlanes(Matrix4fc projectionView) {
+        for (int i = 0; i < PLANE_COUNT; ++i) {
+            projectionView.frustumPlane(i, plane);
+            planes[i * 4] = plane.x;
+            planes[i * 4 + 1] = plane.y;
+            planes[i * 4 + 2] = plane.z;
+            planes[i * 4 + 3] = plane.w;
+            planeCorners[i * 6] = plane.x >= 0.0f ? MAX_X : MIN_X;
+            planeCorners[i * 6 + 1] = plane.y >= 0.0f ? MAX_Y : MIN_Y;
+            planeCorners[i * 6 + 2] = plane.z >= 0.0f ? MAX_Z : MIN_Z;
+            // the closest corner takes the other bound on every axis.
+            planeCorners[i * 6 + 3] = plane.x >= 0.0f ? MIN_X : MAX_X;
+            planeCorners[i * 6 + 4] = plane.y >= 0.0f ? MIN_Y : MAX_Y;
+            planeCorners[i * 6 + 5] = plane.z >= 0.0f ? MIN_Z : MAX_Z;
+        }
+    }
+
+    /**
+     * @param base - the offset of the bounds.
+     * @return - true if the bounds are completely behind one of the planes.
+     */
+    private boolean isOutside(int base) {
+        for (int i = 0; i < PLANE_COUNT; ++i) {
+            int corner = i * 6;
+            if (planes[i * 4] * bounds[base + planeCorners[corner]]
+                    + planes[i * 4 + 1] * bounds[base + planeCorners[corner + 1]]
+                    + planes[i * 4 + 2] * bounds[base + planeCorners[corner + 2]] + planes[i * 4 + 3] < 0.0f) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests bounds against the given planes, the same way as {@link org.joml.FrustumIntersection#intersectAab}: outside
+     * of a plane when the corner furthest along its normal is behind it, inside when the closest corner is not.
+     *
+     * @param base - the offset of the bounds.
+     * @param mask - the planes to test, one bit per plane.
+     * @return - the planes of the mask the bounds straddle, or {@link #OUTSIDE}.
+     */
+    private int cull(int base, int mask) {
+        for (int i = 0; i < PLANE_COUNT; ++i) {
+            if ((mask & 1 << i) == 0) {
+                continue;
+            }
+            float a = planes[i * 4];
+            float b = planes[i * 4 + 1];
+            float c = planes[i * 4 + 2];
+            float d = planes[i * 4 + 3];
+            int corner = i * 6;
+            if (a * bounds[base + planeCorners[corner]] + b * bounds[base + planeCorners[corner + 1]]
+                    + c * bounds[base + planeCorners[corner + 2]] + d < 0.0f) {
+                return OUTSIDE;
+            }
+            if (a * bounds[base + planeCorners[corner + 3]] + b * bounds[base + planeCorners[corner + 4]]
+                    + c * bounds[base + planeCorners[corner + 5]] + d >= 0.0f) {
+                mask &= ~(1 << i);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Collects every leaf below the given node, using the part of the traversal stack above top as scratch space.
+     */
+    private void collectSubtree(int subtreeRoot, int top, List<T> result) {
+        int bottom = top;
+        top = push(top, subtreeRoot);
+        while (top > bottom) {
+            int node = stack[--top];
+            int first = children[node * 2];
+            if (first == NULL_NODE) {
+                result.add(getUserData(node));
+            } else {
+                top = push(top, first);
+                top = push(top, children[node * 2 + 1]);
+            }
+        }
+    }
+
+    private int push(int top, int node) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[top] = node;
+        return top + 1;
+    }
+
+    private void setFatBounds(int node, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        float margin = Math.max(minimumMargin, marginFraction * Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ)));
+        int base = node * 6;
+        bounds[base + MIN_X] = minX - margin;
+        bounds[base + MIN_Y] = minY - margin;
+        bounds[base + MIN_Z] = minZ - margin;
+        bounds[base + MAX_X] = maxX + margin;
+        bounds[base + MAX_Y] = maxY + margin;
+        bounds[base + MAX_Z] = maxZ + margin;
+    }
+
+    /**
+     * Inserts a leaf by walking down from the root, each time choosing the child whose bounds would grow the least
+     * (in surface area), then walks back up refitting and re-balancing the ancestors.
+     */
+    private void insertLeaf(int leaf) {
+        if (root == NULL_NODE) {
+            root = leaf;
+            parent[leaf] = NULL_NODE;
+            return;
+        }
+
+        int leafBase = leaf * 6;
+        int index = root;
+        while (height[index] > 0) {
+            int c1 = children[index * 2];
+            int c2 = children[index * 2 + 1];
+
+            float area = area(index);
+            float combinedArea = combinedArea(index, leafBase);
+            // cost of creating a new parent for this node and the new leaf.
+            float cost = 2.0f * combinedArea;
+            // minimum cost of pushing the leaf further down the tree.
+            float inheritanceCost = 2.0f * (combinedArea - area);
+
+            float cost1 = descendCost(c1, leafBase, inheritanceCost);
+            float cost2 = descendCost(c2, leafBase, inheritanceCost);
+
+            if (cost < cost1 && cost < cost2) {
+                break;
+            }
+            index = cost1 < cost2 ? c1 : c2;
+        }
+
+        int sibling = index;
+        int oldParent = parent[sibling];
+        int newParent = allocateNode();
+        parent[newParent] = oldParent;
+        userData[newParent] = null;
+        union(newParent, sibling, leaf);
+        height[newParent] = height[sibling] + 1;
+
+        if (oldParent != NULL_NODE) {
+            if (children[oldParent * 2] == sibling) {
+                children[oldParent * 2] = newParent;
+            } else {
+                children[oldParent * 2 + 1] = newParent;
+            }
+        } else {
+            root = newParent;
+        }
+        children[newParent * 2] = sibling;
+        children[newParent * 2 + 1] = leaf;
+        parent[sibling] = newParent;
+        parent[leaf] = newParent;
+
+        // the new parent is fitted already, but may be imbalanced.
+        refitAncestors(parent[balance(newParent)]);
+    }
+
+    private float descendCost(int child, int leafBase, float inheritanceCost) {
+        float combined = combinedArea(child, leafBase);
+        if (height[child] == 0) {
+            return combined + inheritanceCost;
+        }
+        return combined - area(child) + inheritanceCost;
+    }
+
+    private void removeLeaf(int leaf) {
+        if (leaf == root) {
+            root = NULL_NODE;
+            return;
+        }
+
+        int leafParent = parent[leaf];
+        int grandParent = parent[leafParent];
+        int sibling = children[leafParent * 2] == leaf ? children[leafParent * 2 + 1] : children[leafParent * 2];
+
+        if (grandParent != NULL_NODE) {
+            // destroy the parent, and connect the sibling to the grand parent.
+            if (children[grandParent * 2] == leafParent) {
+                children[grandParent * 2] = sibling;
+            } else {
+                children[grandParent * 2 + 1] = sibling;
+            }
+            parent[sibling] = grandParent;
+            freeNode(leafParent);
+            refitAncestors(grandParent);
+        } else {
+            root = sibling;
+            parent[sibling] = NULL_NODE;
+            freeNode(leafParent);
+        }
+    }
+
+    /**
+     * Re-balances and refits the given node and its ancestors, after one of its children changed. Stops at the first
+     * node left as it was, as the ancestors of that node only depend on it.
+     */
+    private void refitAncestors(int index) {
+        while (index != NULL_NODE) {
+            int balanced = balance(index);
+            int c1 = children[balanced * 2];
+            int c2 = children[balanced * 2 + 1];
+            int newHeight = 1 + Math.max(height[c1], height[c2]);
+            boolean changed = union(balanced, c1, c2) || newHeight != height[balanced];
+            height[balanced] = newHeight;
+            if (!changed && balanced == index) {
+                return;
+            }
+            index = parent[balanced];
+        }
+    }
+
+    /**
+     * Performs a left or right rotation if the node A is imbalanced.
+     *
+     * @return - the new root of the subtree which was rooted in A.
+     */
+    private int balance(int iA) {
+        if (height[iA] < 2) {
+            return iA;
+        }
+
+        int iB = children[iA * 2];
+        int iC = children[iA * 2 + 1];
+        int balance = height[iC] - height[iB];
+
+        if (balance > 1) {
+            return rotate(iA, iC, iB, false);
+        }
+        if (balance < -1) {
+            return rotate(iA, iB, iC, true);
+        }
+        return iA;
+    }
+
+    /**
+     * Promotes the taller child of A, replacing A with it, and gives A the shorter of the grandchildren.
+     *
+     * @param iA           - the imbalanced node.
+     * @param taller       - the taller child of A, which will take its place.
+     * @param shorter      - the other child of A.
+     * @param tallerIsLeft - whether the taller child is the first child of A.
+     * @return - the taller child, now the root of the subtree.
+     */
+    private int rotate(int iA, int taller, int shorter, boolean tallerIsLeft) {
+        int iF = children[taller * 2];
+        int iG = children[taller * 2 + 1];
+
+        // swap A and its taller child.
+        children[taller * 2] = iA;
+        parent[taller] = parent[iA];
+        parent[iA] = taller;
+
+        int oldParent = parent[taller];
+        if (oldParent != NULL_NODE) {
+            if (children[oldParent * 2] == iA) {
+                children[oldParent * 2] = taller;
+            } else {
+                children[oldParent * 2 + 1] = taller;
+            }
+        } else {
+            root = taller;
+        }
+
+        // the taller of the grandchildren stays with the promoted node, the other one goes to A.
+        int keep = height[iF] > height[iG] ? iF : iG;
+        int give = keep == iF ? iG : iF;
+        children[taller * 2 + 1] = keep;
+        if (tallerIsLeft) {
+            children[iA * 2] = give;
+        } else {
+            children[iA * 2 + 1] = give;
+        }
+        parent[give] = iA;
+
+        union(iA, shorter, give);
+        union(taller, iA, keep);
+        height[iA] = 1 + Math.max(height[shorter], height[give]);
+        height[taller] = 1 + Math.max(height[iA], height[keep]);
+        return taller;
+    }
+
+    /**
+     * @return - whether the bounds of the target changed.
+     */
+    private boolean union(int target, int a, int b) {
+        int t = target * 6, ba = a * 6, bb = b * 6;
+        boolean changed = false;
+        for (int i = MIN_X; i <= MIN_Z; ++i) {
+            float min = Math.min(bounds[ba + i], bounds[bb + i]);
+            float max = Math.max(bounds[ba + i + 3], bounds[bb + i + 3]);
+            changed |= bounds[t + i] != min || bounds[t + i + 3] != max;
+            bounds[t + i] = min;
+            bounds[t + i + 3] = max;
+        }
+        return changed;
+    }
+
+    /**
+     * @return - half the surface area of the bounds of the node; only ever compared, so the factor does not matter.
+     */
+    private float area(int node) {
+        int base = node * 6;
+        float dx = bounds[base + MAX_X] - bounds[base + MIN_X];
+        float dy = bounds[base + MAX_Y] - bounds[base + MIN_Y];
+        float dz = bounds[base + MAX_Z] - bounds[base + MIN_Z];
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+    private float combinedArea(int node, int otherBase) {
+        int base = node * 6;
+        float dx = Math.max(bounds[base + MAX_X], bounds[otherBase + MAX_X]) - Math.min(bounds[base + MIN_X], bounds[otherBase + MIN_X]);
+        float dy = Math.max(bounds[base + MAX_Y], bounds[otherBase + MAX_Y]) - Math.min(bounds[base + MIN_Y], bounds[otherBase + MIN_Y]);
+        float dz = Math.max(bounds[base + MAX_Z], bounds[otherBase + MAX_Z]) - Math.min(bounds[base + MIN_Z], bounds[otherBase + MIN_Z]);
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+    private int allocateNode() {
+        if (freeList == NULL_NODE) {
+            grow(capacity * 2);
+        }
+        int node = freeList;
+        freeList = parent[node];
+        parent[node] = NULL_NODE;
+        children[node * 2] = NULL_NODE;
+        children[node * 2 + 1] = NULL_NODE;
+        height[node] = 0;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        parent[node] = freeList;
+        height[node] = -1;
+        userData[node] = null;
+        freeList = node;
+    }
+
+    private void grow(int newCapacity) {
+        int oldCapacity = capacity;
+        bounds = bounds == null ? new float[newCapacity * 6] : Arrays.copyOf(bounds, newCapacity * 6);
+        parent = parent == null ? new int[newCapacity] : Arrays.copyOf(parent, newCapacity);
+        children = children == null ? new int[newCapacity * 2] : Arrays.copyOf(children, newCapacity * 2);
+        height = height == null ? new int[newCapacity] : Arrays.copyOf(height, newCapacity);
+        userData = userData == null ? new Object[newCapacity] : Arrays.copyOf(userData, newCapacity);
+
+        // link the new nodes into the free list.
+        for (int i = oldCapacity; i < newCapacity - 1; ++i) {
+            parent[i] = i + 1;
+            height[i] = -1;
+        }
+        parent[newCapacity - 1] = freeList;
+        height[newCapacity - 1] = -1;
+        freeList = oldCapacity;
+        capacity = newCapacity;
+    }
+}
@@ -0,0 +1,105 @@
+package scene;
+
+import entities.Entity;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+
+import java.util.List;
+
+/**
+ * Spatial index over the world bounds of the {@link Entity} instances of a scene, backed by a
+ * {@link DynamicAabbTree}. Entities added to a scene report their own movements (see
+ * {@link Entity#increasePosition(float, float, float)}, {@link Entity#setPosition(Vector3f)}), so the index never has
+ * to be rebuilt; static props are never touched again after being added.
+ */
+public class Scene {
+
+    public static final int NULL_PROXY = DynamicAabbTree.NULL_NODE;
+
+    /**
+     * Leaves are grown by 10% of their size (and at least half a unit), so that small movements are absorbed.
+     */
+    private static final float MARGIN_FRACTION = 0.1f;
+    private static final float MINIMUM_MARGIN = 0.5f;
+
+    private final DynamicAabbTree<Entity> tree = new DynamicAabbTree<>(MARGIN_FRACTION, MINIMUM_MARGIN);
+    private int nodesTested;
+
+    public void add(Entity entity) {
+        if (entity.getScene() != null) {
+            throw new IllegalStateException("The entity already belongs to a scene.");
+        }
+        Vector3f position = entity.getPosition();
+        float radius = entity.getBoundingRadius();
+        int proxy = tree.createProxy(position.x - radius, position.y - radius, position.z - radius,
+                position.x + radius, position.y + radius, position.z + radius, entity);
+        entity.attachToScene(this, proxy);
+    }
+
+    public void remove(Entity entity) {
+        if (entity.getScene() != this) {
+            throw new IllegalArgumentException("The entity does not belong to this scene.");
+        }
+        tree.destroyProxy(entity.getSceneProxy());
+        entity.attachToScene(null, NULL_PROXY);
+    }
+
+    /**
+     * Refreshes the bounds of an entity after it has moved, or changed its scale or model. Called by the entity itself.
+     *
+     * @param entity - the entity whose bounds have changed.
+     */
+    public void update(Entity entity) {
+        Vector3f position = entity.getPosition();
+        float radius = entity.getBoundingRadius();
+        tree.moveProxy(entity.getSceneProxy(), position.x - radius, position.y - radius, position.z - radius,
+                position.x + radius, position.y + radius, position.z + radius);
+    }
+
+    /**
+     * @return - the number of entities in the scene.
+     */
+    public int size() {
+        return tree.size();
+    }
+
+    /**
+     * Appends to the result every entity whose (slightly enlarged) bounds are not completely outside the frustum.
+     *
+     * @param projectionView - the projection matrix multiplied by the view matrix of the camera.
+     * @param result         - the list the visible entities will be appended to.
+     */
+    public void collectVisible(Matrix4fc projectionView, List<Entity> result) {
+        nodesTested = tree.queryFrustum(projectionView, result);
+    }
+
+    /**
+     * Appends to the result every entity whose bounding sphere intersects the given sphere.
+     *
+     * @param center - the center of the query sphere.
+     * @param radius - the radius of the query sphere.
+     * @param result - the list the entities will be appended to.
+     */
+    public void collectInRadius(Vector3f center, float radius, List<Entity> result) {
+        int first = result.size();
+        tree.querySphere(center.x, center.y, center.z, radius, result);
+
+        // the tree only knows about the enlarged boxes; keep the entities whose actual spheres intersect.
+        int kept = first;
+        for (int i = first; i < result.size(); ++i) {
+            Entity entity = result.get(i);
+            float reach = radius + entity.getBoundingRadius();
+            if (entity.getPosition().distanceSquared(center) <= reach * reach) {
+                result.set(kept++, entity);
+            }
+        }
+        result.subList(kept, result.size()).clear();
+    }
+
+    /**
+     * @return - the number of tree nodes tested by the last call to {@link #collectVisible}.
+     */
+    public int getNodesTested() {
+        return nodesTested;
+    }
+}
@@ -0,0 +1,107 @@
+package shaders;
+
+import entities.Camera;
+import entities.Light;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Uniform buffer holding the values shared by every shader program during a frame: the projection and view matrices,
+ * the camera position, the light and the fog. It is written once per frame, and stays bound to
+ * {@link #BINDING_POINT}, which every {@link ShaderProgram} declaring the FrameData block is connected to.
+ * <p>
+ * The block is laid out following the std140 rules, and must be declared by the shaders as:
+ * <pre>
+ * layout(std140) uniform FrameData {
+ *     mat4 projectionMatrix;
+ *     mat4 viewMatrix;
+ *     vec4 cameraPosition;   // xyz
+ *     vec4 lightPosition;    // xyz
+ *     vec4 lightColour;      // rgb
+ *     vec4 skyColour;        // rgb
+ *     vec4 fog;              // x: density, y: gradient
+ * };
+ * </pre>
+ * The vec3 values are padded to vec4, as std140 aligns them to 16 bytes anyway.
+ */
+public class FrameUniforms {
+
+    public static final String BLOCK_NAME = "FrameData";
+    public static final int BINDING_POINT = 0;
+
+    private static final int PROJECTION_OFFSET = 0;
+    private static final int VIEW_OFFSET = 16;
+    private static final int CAMERA_POSITION_OFFSET = 32;
+    private static final int LIGHT_POSITION_OFFSET = 36;
+    private static final int LIGHT_COLOUR_OFFSET = 40;
+    private static final int SKY_COLOUR_OFFSET = 44;
+    private static final int FOG_OFFSET = 48;
+    /**
+     * The size of the block, in floats.
+     */
+    private static final int BLOCK_LENGTH = 52;
+
+    private final int uboID;
+    private final FloatBuffer data = BufferUtils.createFloatBuffer(BLOCK_LENGTH);
+
+    public FrameUniforms() {
+        uboID = GL15.glGenBuffers();
+        GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, uboID);
+        GL15.glBufferData(GL31.GL_UNIFORM_BUFFER, BLOCK_LENGTH * 4, GL15.GL_DYNAMIC_DRAW);
+        GL30.glBindBufferBase(GL31.GL_UNIFORM_BUFFER, BINDING_POINT, uboID);
+    }
+
+    public void setProjectionMatrix(Matrix4f projection) {
+        projection.get(PROJECTION_OFFSET, data);
+    }
+
+    public void setView(Matrix4f viewMatrix, Camera camera) {
+        setView(viewMatrix, camera.getPosition());
+    }
+
+    public void setView(Matrix4f viewMatrix, Vector3f cameraPosition) {
+        viewMatrix.get(VIEW_OFFSET, data);
+        putVector(CAMERA_POSITION_OFFSET, cameraPosition);
+    }
+
+    public void setLight(Light light) {
+        putVector(LIGHT_POSITION_OFFSET, light.getPosition());
+        putVector(LIGHT_COLOUR_OFFSET, light.getColour());
+    }
+
+    public void setSkyColour(float r, float g, float b) {
+        data.put(SKY_COLOUR_OFFSET, r).put(SKY_COLOUR_OFFSET + 1, g).put(SKY_COLOUR_OFFSET + 2, b);
+    }
+
+    /**
+     * Sets the fog parameters; the visibility of a fragment at distance d from the camera is
+     * exp(-(d * density)^gradient).
+     */
+    public void setFog(float density, float gradient) {
+        data.put(FOG_OFFSET, density).put(FOG_OFFSET + 1, gradient);
+    }
+
+    /**
+     * Uploads the whole block, in one call. The previous storage is orphaned first, so that the driver does not have to
+     * wait for the draw calls of the previous frame which still read from it.
+     */
+    public void upload() {
+        GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, uboID);
+        GL15.glBufferData(GL31.GL_UNIFORM_BUFFER, BLOCK_LENGTH * 4, GL15.GL_DYNAMIC_DRAW);
+        GL15.glBufferSubData(GL31.GL_UNIFORM_BUFFER, 0, data);
+    }
+
+    public void cleanup() {
+        GL15.glDeleteBuffers(uboID);
+    }
+
+    private void putVector(int offset, Vector3f vector) {
+        data.put(offset, vector.x).put(offset + 1, vector.y).put(offset + 2, vector.z);
+    }
+}
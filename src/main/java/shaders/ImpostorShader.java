@@ -0,0 +1,41 @@
+package shaders;
+
+import models.Impostor;
+import renderengine.ImpostorRenderer;
+
+/**
+ * Draws entities as camera facing quads, textured with the snapshot of their {@link Impostor} taken from the angle
+ * closest to the one they are seen from.
+ */
+public class ImpostorShader extends ShaderProgram {
+
+    private static final String VERTEX_SHADER_FILE = "src/main/java/shaders/impostor.vert";
+    private static final String FRAGMENT_SHADER_FILE = "src/main/java/shaders/impostor.frag";
+
+    private int location_atlasLayout;
+
+    public ImpostorShader() {
+        super(VERTEX_SHADER_FILE, FRAGMENT_SHADER_FILE);
+    }
+
+    @Override
+    protected void bindAttributes() {
+        super.bindAttribute(0, "corner");
+        super.bindAttribute(ImpostorRenderer.INSTANCE_CENTER_ATTRIBUTE, "instanceCenter");
+        super.bindAttribute(ImpostorRenderer.INSTANCE_ROTATION_ATTRIBUTE, "instanceRotation");
+    }
+
+    @Override
+    protected void getAllUniformLocations() {
+        location_atlasLayout = super.getUniformLocation("atlasLayout");
+    }
+
+    /**
+     * Loads the layout of the atlas of the impostor about to be drawn.
+     *
+     * @param impostor - the impostor about to be drawn.
+     */
+    public void loadImpostor(Impostor impostor) {
+        super.loadVector(location_atlasLayout, impostor.getColumns(), impostor.getRows(), impostor.getViewCount());
+    }
+}
@@ -2,15 +2,17 @@ package shaders;
 
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
-import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL31;
+import renderengine.FrameStatistics;
+import renderengine.GLState;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.nio.FloatBuffer;
+import java.util.Arrays;
 
 /**
  * Created by ThatKidFlo on 17.04.2016.
@@ -23,7 +25,14 @@ public abstract class ShaderProgram {
     /**
      * Used for loading a 4x4 matrix of floats into the shader program.
      */
-    private static FloatBuffer matrixBuffer = BufferUtils.createFloatBuffer(16);
+    private final float[] matrixBuffer = new float[16];
+    private final float[] vectorBuffer = new float[4];
+
+    /**
+     * Shadow copy of the last value uploaded to each uniform location of this program (indexed by location; null
+     * until a value is uploaded). Uploads of a value identical to the shadow copy are skipped.
+     */
+    private float[][] uniformValues = new float[16][];
 
     protected ShaderProgram(String vertexFile, String fragmentFile) {
         vertexShaderID = loadShader(vertexFile, GL20.GL_VERTEX_SHADER);
@@ -34,9 +43,21 @@ public abstract class ShaderProgram {
         bindAttributes();
         GL20.glLinkProgram(programID);
         GL20.glValidateProgram(programID);
+        bindFrameUniforms();
         getAllUniformLocations();
     }
 
+    /**
+     * Connects the FrameData uniform block of the program, if it declares one, to the binding point of the
+     * {@link FrameUniforms} buffer. GLSL 4.00 has no binding layout qualifier, so this has to be done after linking.
+     */
+    private void bindFrameUniforms() {
+        int blockIndex = GL31.glGetUniformBlockIndex(programID, FrameUniforms.BLOCK_NAME);
+        if (blockIndex != GL31.GL_INVALID_INDEX) {
+            GL31.glUniformBlockBinding(programID, blockIndex, FrameUniforms.BINDING_POINT);
+        }
+    }
+
     /**
      * Hook method, used for retrieving all the uniform locations.
      */
@@ -47,12 +68,16 @@ public abstract class ShaderProgram {
      */
     protected abstract void bindAttributes();
 
+    public int getProgramID() {
+        return programID;
+    }
+
     public void start() {
-        GL20.glUseProgram(programID);
+        GLState.useProgram(programID);
     }
 
     public void stop() {
-        GL20.glUseProgram(0);
+        GLState.useProgram(0);
     }
 
     /**
@@ -64,7 +89,7 @@ public abstract class ShaderProgram {
         GL20.glDetachShader(programID, fragmentShaderID);
         GL20.glDeleteShader(vertexShaderID);
         GL20.glDeleteShader(fragmentShaderID);
-        GL20.glDeleteProgram(programID);
+        GLState.deleteProgram(programID);
     }
 
     /**
@@ -96,6 +121,10 @@ public abstract class ShaderProgram {
      * @param value    - the integer value to load.
      */
     protected void loadInt(int location, int value) {
+        vectorBuffer[0] = Float.intBitsToFloat(value);
+        if (isUpToDate(location, vectorBuffer, 1)) {
+            return;
+        }
         GL20.glUniform1i(location, value);
     }
 
@@ -106,11 +135,45 @@ public abstract class ShaderProgram {
      * @param value    - the value to load
      */
     protected void loadFloat(int location, float value) {
+        vectorBuffer[0] = value;
+        if (isUpToDate(location, vectorBuffer, 1)) {
+            return;
+        }
         GL20.glUniform1f(location, value);
     }
 
+    protected void loadVector(int location, float x, float y) {
+        vectorBuffer[0] = x;
+        vectorBuffer[1] = y;
+        if (isUpToDate(location, vectorBuffer, 2)) {
+            return;
+        }
+        GL20.glUniform2f(location, x, y);
+    }
+
     protected void loadVector(int location, Vector3f vector) {
-        GL20.glUniform3f(location, vector.x, vector.y, vector.z);
+        loadVector(location, vector.x, vector.y, vector.z);
+    }
+
+    protected void loadVector(int location, float x, float y, float z) {
+        vectorBuffer[0] = x;
+        vectorBuffer[1] = y;
+        vectorBuffer[2] = z;
+        if (isUpToDate(location, vectorBuffer, 3)) {
+            return;
+        }
+        GL20.glUniform3f(location, x, y, z);
+    }
+
+    protected void loadVector(int location, float x, float y, float z, float w) {
+        vectorBuffer[0] = x;
+        vectorBuffer[1] = y;
+        vectorBuffer[2] = z;
+        vectorBuffer[3] = w;
+        if (isUpToDate(location, vectorBuffer, 4)) {
+            return;
+        }
+        GL20.glUniform4f(location, x, y, z, w);
     }
 
     protected void loadBoolean(int location, boolean value) {
@@ -118,15 +181,56 @@ public abstract class ShaderProgram {
         if (value) {
             toLoad = 1;
         }
-        GL20.glUniform1f(location, toLoad);
+        loadFloat(location, toLoad);
     }
 
     protected void loadMatrix(int location, Matrix4f matrix) {
         matrix.get(matrixBuffer);
         //matrix.getTransposed(matrixBuffer);
+        if (isUpToDate(location, matrixBuffer, 16)) {
+            return;
+        }
         GL20.glUniformMatrix4fv(location, false, matrixBuffer);
     }
 
+    /**
+     * Compares a value about to be uploaded with the shadow copy of the uniform, and records it as the new shadow
+     * copy when they differ. Locations of uniforms which do not exist (-1) are always reported as up to date, since
+     * GL would ignore the upload anyway.
+     *
+     * @param location - the uniform location.
+     * @param values   - the components of the value about to be uploaded.
+     * @param count    - the number of components of the value.
+     * @return - true if the uniform already holds the value, and the upload can be skipped.
+     */
+    private boolean isUpToDate(int location, float[] values, int count) {
+        if (location < 0) {
+            return true;
+        }
+        if (location >= uniformValues.length) {
+            uniformValues = Arrays.copyOf(uniformValues, Math.max(location + 1, uniformValues.length * 2));
+        }
+
+        float[] shadow = uniformValues[location];
+        if (shadow == null || shadow.length != count) {
+            shadow = uniformValues[location] = new float[count];
+        } else {
+            boolean equal = true;
+            for (int i = 0; i < count && equal; ++i) {
+                // compare bit patterns, so that NaN and -0.0 are treated as the distinct values GL sees.
+                equal = Float.floatToRawIntBits(shadow[i]) == Float.floatToRawIntBits(values[i]);
+            }
+            if (equal) {
+                FrameStatistics.recordUniformUpload(false);
+                return true;
+            }
+        }
+
+        System.arraycopy(values, 0, shadow, 0, count);
+        FrameStatistics.recordUniformUpload(true);
+        return false;
+    }
+
     /**
      * Will load the specified shader program, and will return an id, representing the shader ID.
      *
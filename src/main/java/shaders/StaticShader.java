@@ -1,10 +1,9 @@
 package shaders;
 
-import entities.Camera;
-import entities.Light;
+import models.RawModel;
+import models.VertexFormat;
 import org.joml.Matrix4f;
-import org.joml.Vector3f;
-import utils.Maths;
+import renderengine.EntityRenderer;
 
 /**
  * Created by ThatKidFlo on 17.04.2016.
@@ -18,14 +17,14 @@ public class StaticShader extends ShaderProgram {
      * Variable representing the transformation matrix location (i.e. the uniform variable).
      */
     private int location_transformationMatrix;
-    private int location_projectionMatrix;
-    private int location_viewMatrix;
-    private int location_lightPosition;
-    private int location_lightColour;
     private int location_shineDamper;
     private int location_reflectivity;
     private int location_useFakeLighting;
-    private int location_skyColour;
+    private int location_useInstancing;
+    private int location_positionOffset;
+    private int location_positionScale;
+    private int location_textureTransform;
+    private int location_octahedralNormals;
 
     public StaticShader() {
         super(VERTEX_SHADER_FILE, FRAGMENT_SHADER_FILE);
@@ -37,49 +36,60 @@ public class StaticShader extends ShaderProgram {
         super.bindAttribute(0, "position");
         super.bindAttribute(1, "textureCoordinates");
         super.bindAttribute(2, "normal");
+        // a mat4 attribute occupies 4 consecutive slots, i.e. 3, 4, 5 and 6.
+        super.bindAttribute(EntityRenderer.INSTANCE_TRANSFORMATION_ATTRIBUTE, "instanceTransformation");
     }
 
     @Override
     protected void getAllUniformLocations() {
         location_transformationMatrix = super.getUniformLocation("transformationMatrix");
-        location_projectionMatrix = super.getUniformLocation("projectionMatrix");
-        location_viewMatrix = super.getUniformLocation("viewMatrix");
-        location_lightPosition = super.getUniformLocation("lightPosition");
-        location_lightColour = super.getUniformLocation("lightColour");
         location_shineDamper = super.getUniformLocation("shineDamper");
         location_reflectivity = super.getUniformLocation("reflectivity");
         location_useFakeLighting = super.getUniformLocation("useFakeLighting");
-        location_skyColour = super.getUniformLocation("skyColour");
-    }
-
-    public void loadSkyColour(float r, float g, float b) {
-        super.loadVector(location_skyColour, new Vector3f(r, g, b));
+        location_useInstancing = super.getUniformLocation("useInstancing");
+        location_positionOffset = super.getUniformLocation("positionOffset");
+        location_positionScale = super.getUniformLocation("positionScale");
+        location_textureTransform = super.getUniformLocation("textureTransform");
+        location_octahedralNormals = super.getUniformLocation("octahedralNormals");
     }
 
     public void loadFakeLightingVariable(boolean useFake) {
         super.loadBoolean(location_useFakeLighting, useFake);
     }
 
+    /**
+     * Selects where the vertex shader takes the transformation matrix from: the per-instance attribute when true, or
+     * the transformationMatrix uniform otherwise.
+     *
+     * @param instanced - whether the upcoming draw calls are instanced.
+     */
+    public void loadInstanced(boolean instanced) {
+        super.loadBoolean(location_useInstancing, instanced);
+    }
+
     public void loadShineVariables(float damper, float reflectivity) {
         super.loadFloat(location_shineDamper, damper);
         super.loadFloat(location_reflectivity, reflectivity);
     }
 
-    public void loadLight(Light light) {
-        super.loadVector(location_lightPosition, light.getPosition());
-        super.loadVector(location_lightColour, light.getColour());
-    }
-
     public void loadTransformationMatrix(Matrix4f transformation) {
         super.loadMatrix(location_transformationMatrix, transformation);
     }
 
-    public void loadViewMatrix(Camera camera) {
-        Matrix4f viewMatrix = Maths.createViewMatrix(camera);
-        super.loadMatrix(location_viewMatrix, viewMatrix);
-    }
-
-    public void loadProjectionMatrix(Matrix4f projection) {
-        super.loadMatrix(location_projectionMatrix, projection);
+    /**
+     * Loads the scale and offset which map the vertices stored in the VAO of the model back to model space.
+     *
+     * @param model - the model about to be drawn.
+     */
+    public void loadVertexFormat(RawModel model) {
+        float[] positionOffset = model.getPositionOffset();
+        float[] positionScale = model.getPositionScale();
+        super.loadVector(location_positionOffset, positionOffset[0], positionOffset[1], positionOffset[2]);
+        super.loadVector(location_positionScale, positionScale[0], positionScale[1], positionScale[2]);
+        float[] textureOffset = model.getTextureOffset();
+        float[] textureScale = model.getTextureScale();
+        super.loadVector(location_textureTransform, textureOffset[0], textureOffset[1], textureScale[0],
+                textureScale[1]);
+        super.loadBoolean(location_octahedralNormals, model.getVertexFormat() == VertexFormat.PACKED);
     }
 }
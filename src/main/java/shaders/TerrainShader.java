@@ -1,10 +1,6 @@
 package shaders;
 
-import entities.Camera;
-import entities.Light;
 import org.joml.Matrix4f;
-import org.joml.Vector3f;
-import utils.Maths;
 
 /**
  * Created by ThatKidFlo on 03.05.2016.
@@ -17,18 +13,15 @@ public class TerrainShader extends ShaderProgram {
      * Variable representing the transformation matrix location (i.e. the uniform variable).
      */
     private int location_transformationMatrix;
-    private int location_projectionMatrix;
-    private int location_viewMatrix;
-    private int location_lightPosition;
-    private int location_lightColour;
     private int location_shineDamper;
     private int location_reflectivity;
-    private int location_skyColour;
-    private int location_backgroundTexture;
-    private int location_redTexture;
-    private int location_greenTexture;
-    private int location_blueTexture;
+    private int location_layers;
+    private int location_layerCount;
     private int location_blendmap;
+    private int location_heightmap;
+    private int location_heightRange;
+    private int location_patchOffset;
+    private int location_gridLayout;
 
     public TerrainShader() {
         super(VERTEX_SHADER_FILE, FRAGMENT_SHADER_FILE);
@@ -36,39 +29,35 @@ public class TerrainShader extends ShaderProgram {
 
     @Override
     protected void bindAttributes() {
-        // connect our variable to the position variable of the vertex shader.
-        super.bindAttribute(0, "position");
-        super.bindAttribute(1, "textureCoordinates");
-        super.bindAttribute(2, "normal");
+        // the shared patch grid only holds grid positions; heights and normals come from the heightmap.
+        super.bindAttribute(0, "gridPosition");
     }
 
     @Override
     protected void getAllUniformLocations() {
         location_transformationMatrix = super.getUniformLocation("transformationMatrix");
-        location_projectionMatrix = super.getUniformLocation("projectionMatrix");
-        location_viewMatrix = super.getUniformLocation("viewMatrix");
-        location_lightPosition = super.getUniformLocation("lightPosition");
-        location_lightColour = super.getUniformLocation("lightColour");
         location_shineDamper = super.getUniformLocation("shineDamper");
         location_reflectivity = super.getUniformLocation("reflectivity");
-        location_skyColour = super.getUniformLocation("skyColour");
-        location_backgroundTexture = super.getUniformLocation("backgroundTexture");
-        location_redTexture = super.getUniformLocation("redTexture");
-        location_greenTexture = super.getUniformLocation("greenTexture");
-        location_blueTexture = super.getUniformLocation("blueTexture");
+        location_layers = super.getUniformLocation("layers");
+        location_layerCount = super.getUniformLocation("layerCount");
         location_blendmap = super.getUniformLocation("blendmap");
+        location_heightmap = super.getUniformLocation("heightmap");
+        location_heightRange = super.getUniformLocation("heightRange");
+        location_patchOffset = super.getUniformLocation("patchOffset");
+        location_gridLayout = super.getUniformLocation("gridLayout");
     }
 
     public void connectTextureUnits() {
-        super.loadInt(location_backgroundTexture, 0);
-        super.loadInt(location_redTexture, 1);
-        super.loadInt(location_greenTexture, 2);
-        super.loadInt(location_blueTexture, 3);
-        super.loadInt(location_blendmap, 4);
+        super.loadInt(location_layers, 0);
+        super.loadInt(location_blendmap, 1);
+        super.loadInt(location_heightmap, 2);
     }
 
-    public void loadSkyColour(float r, float g, float b) {
-        super.loadVector(location_skyColour, new Vector3f(r, g, b));
+    /**
+     * @param layerCount - the number of layers of the texture pack about to be drawn.
+     */
+    public void loadLayerCount(int layerCount) {
+        super.loadInt(location_layerCount, layerCount);
     }
 
     public void loadShineVariables(float damper, float reflectivity) {
@@ -76,21 +65,28 @@ public class TerrainShader extends ShaderProgram {
         super.loadFloat(location_reflectivity, reflectivity);
     }
 
-    public void loadLight(Light light) {
-        super.loadVector(location_lightPosition, light.getPosition());
-        super.loadVector(location_lightColour, light.getColour());
-    }
-
     public void loadTransformationMatrix(Matrix4f transformation) {
         super.loadMatrix(location_transformationMatrix, transformation);
     }
 
-    public void loadViewMatrix(Camera camera) {
-        Matrix4f viewMatrix = Maths.createViewMatrix(camera);
-        super.loadMatrix(location_viewMatrix, viewMatrix);
+    /**
+     * Loads the layout of the grid of a terrain, and the range its heightmap is normalised over.
+     *
+     * @param quadSize     - the size of a quad of the full resolution grid, in world units.
+     * @param quadsPerSide - the number of quads along a side of the terrain.
+     * @param minHeight    - the height of a heightmap texel holding 0.
+     * @param heightSpan   - the height difference between a texel holding 1 and a texel holding 0.
+     */
+    public void loadTerrainGrid(float quadSize, int quadsPerSide, float minHeight, float heightSpan) {
+        super.loadVector(location_gridLayout, quadSize, quadsPerSide);
+        super.loadVector(location_heightRange, minHeight, heightSpan);
     }
 
-    public void loadProjectionMatrix(Matrix4f projection) {
-        super.loadMatrix(location_projectionMatrix, projection);
+    /**
+     * @param patchX - the column of the first quad of the patch about to be drawn, in the grid of the terrain.
+     * @param patchZ - the row of the first quad of the patch about to be drawn.
+     */
+    public void loadPatchOffset(int patchX, int patchZ) {
+        super.loadVector(location_patchOffset, patchX, patchZ);
     }
 }
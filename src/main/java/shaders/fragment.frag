@@ -9,11 +9,20 @@ in float visibility;
 
 out vec4 out_colour;
 
+layout(std140) uniform FrameData {
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    vec4 cameraPosition;
+    vec4 lightPosition;
+    vec4 lightColour;
+    vec4 skyColour;
+    // x: density, y: gradient.
+    vec4 fog;
+};
+
 uniform sampler2D textureSampler;
-uniform vec3 lightColour;
 uniform float shineDamper;
 uniform float reflectivity;
-uniform vec3 skyColour;
 
 void main(void) {
     vec3 unitNormal = normalize(surfaceNormal);
@@ -21,7 +30,7 @@ void main(void) {
 
     float nDotl = dot(unitNormal, unitLightVector);
     float brightness = max(nDotl, 0.2);
-    vec3 diffuse = brightness * lightColour;
+    vec3 diffuse = brightness * lightColour.rgb;
 
     vec3 unitVectorToCamera = normalize(toCameraVector);
     vec3 lightDirection = -unitLightVector;
@@ -32,7 +41,7 @@ void main(void) {
 
     float dampedFactor = pow(specularFactor, shineDamper);
 
-    vec3 finalSpecular = dampedFactor * reflectivity * lightColour;
+    vec3 finalSpecular = dampedFactor * reflectivity * lightColour.rgb;
 
     vec4 textureColour = texture(textureSampler, pass_textureCoordinates);
     if(textureColour.a < 0.5) {
@@ -41,5 +50,5 @@ void main(void) {
 
     // returns the color on the texture at the pixel we give it, using the sampler
     out_colour = vec4(diffuse, 1.0) * textureColour + vec4(finalSpecular, 1.0);
-    out_colour = mix(vec4(skyColour, 1.0), out_colour, visibility);
+    out_colour = mix(vec4(skyColour.rgb, 1.0), out_colour, visibility);
 }
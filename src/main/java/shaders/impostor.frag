@@ -0,0 +1,29 @@
+#version 400 core
+
+in vec2 pass_textureCoordinates;
+in float visibility;
+
+out vec4 out_colour;
+
+layout(std140) uniform FrameData {
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    vec4 cameraPosition;
+    vec4 lightPosition;
+    vec4 lightColour;
+    vec4 skyColour;
+    // x: density, y: gradient.
+    vec4 fog;
+};
+
+uniform sampler2D atlasSampler;
+
+void main(void) {
+    // the snapshots already carry the lighting; their alpha is the coverage of the model.
+    vec4 textureColour = texture(atlasSampler, pass_textureCoordinates);
+    if(textureColour.a < 0.5) {
+        discard;
+    }
+
+    out_colour = mix(vec4(skyColour.rgb, 1.0), vec4(textureColour.rgb, 1.0), visibility);
+}
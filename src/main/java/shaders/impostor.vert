@@ -0,0 +1,49 @@
+#version 400 core
+
+// corner of the quad, in [-1, 1] on both axes.
+in vec2 corner;
+// xyz: center of the entity, w: half the size of the quad (the scaled bounding radius).
+in vec4 instanceCenter;
+// rotation of the entity around the Y axis, in degrees.
+in float instanceRotation;
+
+out vec2 pass_textureCoordinates;
+out float visibility;
+
+layout(std140) uniform FrameData {
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    vec4 cameraPosition;
+    vec4 lightPosition;
+    vec4 lightColour;
+    vec4 skyColour;
+    // x: density, y: gradient.
+    vec4 fog;
+};
+
+// x: columns, y: rows of the atlas, z: number of snapshots in it.
+uniform vec3 atlasLayout;
+
+const float TWO_PI = 6.28318530718;
+
+void main(void) {
+    vec3 toCamera = cameraPosition.xyz - instanceCenter.xyz;
+    vec2 direction = length(toCamera.xz) > 0.0001 ? normalize(toCamera.xz) : vec2(0.0, 1.0);
+
+    // the quad turns around the Y axis only, like the snapshots were taken; right matches the snapshot cameras.
+    vec3 right = vec3(direction.y, 0.0, -direction.x);
+    vec4 worldPosition = vec4(instanceCenter.xyz
+            + (right * corner.x + vec3(0.0, corner.y, 0.0)) * instanceCenter.w, 1.0);
+    vec4 positionRelativeToCam = viewMatrix * worldPosition;
+    gl_Position = projectionMatrix * positionRelativeToCam;
+
+    // the angle the entity is seen from, in its own space, picks the closest snapshot.
+    float angle = atan(direction.x, direction.y) - radians(instanceRotation);
+    float view = mod(round(angle / TWO_PI * atlasLayout.z), atlasLayout.z);
+    vec2 cell = vec2(mod(view, atlasLayout.x), floor(view / atlasLayout.x));
+    pass_textureCoordinates = (cell + corner * 0.5 + 0.5) / atlasLayout.xy;
+
+    float distance = length(positionRelativeToCam.xyz);
+    visibility = exp(-pow((distance * fog.x), fog.y));
+    visibility = clamp(visibility, 0.0, 1.0);
+}
@@ -9,39 +9,48 @@ in float visibility;
 
 out vec4 out_colour;
 
-uniform sampler2D backgroundTexture;
-uniform sampler2D redTexture;
-uniform sampler2D greenTexture;
-uniform sampler2D blueTexture;
-uniform sampler2D blendmap;
+layout(std140) uniform FrameData {
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    vec4 cameraPosition;
+    vec4 lightPosition;
+    vec4 lightColour;
+    vec4 skyColour;
+    // x: density, y: gradient.
+    vec4 fog;
+};
+
+// layer 0 is the background; layer i > 0 is weighted by channel (i - 1) % 4 of blendmap layer (i - 1) / 4.
+uniform sampler2DArray layers;
+uniform sampler2DArray blendmap;
+uniform int layerCount;
 
-uniform vec3 lightColour;
 uniform float shineDamper;
 uniform float reflectivity;
-uniform vec3 skyColour;
 
 void main(void) {
 
-    vec4 blendmapColour = texture(blendmap, pass_textureCoordinates);
-
-    // should render background texture when blendmap contains black.
-    float backTextureAmount = 1 - (blendmapColour.r + blendmapColour.g + blendmapColour.b);
-
     vec2 tiledCoords = pass_textureCoordinates * 40.0;
 
-    vec4 backgroundTextureColor = texture(backgroundTexture, tiledCoords) * backTextureAmount;
-    vec4 redTextureColor = texture(redTexture, tiledCoords) * blendmapColour.r;
-    vec4 greenTextureColor = texture(greenTexture, tiledCoords) * blendmapColour.g;
-    vec4 blueTextureColor = texture(blueTexture, tiledCoords) * blendmapColour.b;
-
-    vec4 totalColour = backgroundTextureColor + redTextureColor + greenTextureColor + blueTextureColor;
+    vec4 totalColour = vec4(0.0);
+    // should render background texture where the blendmap is black.
+    float backTextureAmount = 1.0;
+    for (int first = 1; first < layerCount; first += 4) {
+        vec4 blendmapColour = texture(blendmap, vec3(pass_textureCoordinates, (first - 1) / 4));
+        for (int channel = 0; channel < 4 && first + channel < layerCount; ++channel) {
+            float amount = blendmapColour[channel];
+            totalColour += texture(layers, vec3(tiledCoords, first + channel)) * amount;
+            backTextureAmount -= amount;
+        }
+    }
+    totalColour += texture(layers, vec3(tiledCoords, 0)) * max(backTextureAmount, 0.0);
 
     vec3 unitNormal = normalize(surfaceNormal);
     vec3 unitLightVector = normalize(toLightVector);
 
     float nDotl = dot(unitNormal, unitLightVector);
     float brightness = max(nDotl, 0.2);
-    vec3 diffuse = brightness * lightColour;
+    vec3 diffuse = brightness * lightColour.rgb;
 
     vec3 unitVectorToCamera = normalize(toCameraVector);
     vec3 lightDirection = -unitLightVector;
@@ -52,7 +61,7 @@ void main(void) {
 
     float dampedFactor = pow(specularFactor, shineDamper);
 
-    vec3 finalSpecular = dampedFactor * reflectivity * lightColour;
+    vec3 finalSpecular = dampedFactor * reflectivity * lightColour.rgb;
     out_colour = vec4(diffuse, 1.0) * totalColour + vec4(finalSpecular, 1.0);
-    out_colour = mix(vec4(skyColour, 1.0), out_colour, visibility);
+    out_colour = mix(vec4(skyColour.rgb, 1.0), out_colour, visibility);
 }
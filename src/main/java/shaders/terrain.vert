@@ -1,8 +1,7 @@
 #version 400 core
 
-in vec3 position;
-in vec2 textureCoordinates;
-in vec3 normal;
+// position of the vertex in the patch grid, in quads (0 to 32 on both axes).
+in vec2 gridPosition;
 
 out vec2 pass_textureCoordinates;
 out vec3 surfaceNormal;
@@ -11,27 +10,53 @@ out vec3 toCameraVector;
 out float visibility;
 
 uniform mat4 transformationMatrix;
-uniform mat4 projectionMatrix;
-uniform mat4 viewMatrix;
-uniform vec3 lightPosition;
 
-const float density = 0.0035;
-const float gradient = 5.0;
+layout(std140) uniform FrameData {
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    vec4 cameraPosition;
+    vec4 lightPosition;
+    vec4 lightColour;
+    vec4 skyColour;
+    // x: density, y: gradient.
+    vec4 fog;
+};
+
+// one texel per vertex of the full resolution grid of the tile, normalised to [0, 1] over heightRange.
+uniform sampler2D heightmap;
+// x: height of a texel at 0, y: height difference between a texel at 1 and a texel at 0.
+uniform vec2 heightRange;
+// position of the patch in the grid of the tile, in quads.
+uniform vec2 patchOffset;
+// x: size of a quad, in world units, y: number of quads along a side of the tile.
+uniform vec2 gridLayout;
+
+float heightAt(ivec2 vertex) {
+    ivec2 clamped = clamp(vertex, ivec2(0), ivec2(int(gridLayout.y)));
+    return heightRange.x + heightRange.y * texelFetch(heightmap, clamped, 0).r;
+}
 
 void main(void) {
+    ivec2 vertex = ivec2(patchOffset + gridPosition);
+    float height = heightAt(vertex);
 
-    vec4 worldPosition = transformationMatrix * vec4(position, 1.0);
+    vec4 worldPosition = transformationMatrix * vec4(vertex.x * gridLayout.x, height, vertex.y * gridLayout.x, 1.0);
     vec4 positionRelativeToCam = viewMatrix * worldPosition;
     gl_Position = projectionMatrix * positionRelativeToCam;
-    pass_textureCoordinates = textureCoordinates;
+    pass_textureCoordinates = vec2(vertex) / gridLayout.y;
+
+    // central differences of the neighbouring heights.
+    float heightL = heightAt(vertex - ivec2(1, 0));
+    float heightR = heightAt(vertex + ivec2(1, 0));
+    float heightD = heightAt(vertex - ivec2(0, 1));
+    float heightU = heightAt(vertex + ivec2(0, 1));
+    vec3 normal = normalize(vec3(heightL - heightR, 2.0 * gridLayout.x, heightD - heightU));
 
-    // rotate normal along with the object
     surfaceNormal = (transformationMatrix * vec4(normal, 0.0)).xyz;
-    toLightVector = lightPosition - worldPosition.xyz;
-    // view matrix contains the inverse of the camera position.
-    toCameraVector = (inverse(viewMatrix) * vec4(0.0, 0.0, 0.0, 1.0)).xyz - worldPosition.xyz;
+    toLightVector = lightPosition.xyz - worldPosition.xyz;
+    toCameraVector = cameraPosition.xyz - worldPosition.xyz;
 
     float distance = length(positionRelativeToCam.xyz);
-    visibility = exp(-pow((distance * density), gradient));
+    visibility = exp(-pow((distance * fog.x), fog.y));
     visibility = clamp(visibility, 0.0, 1.0);
 }
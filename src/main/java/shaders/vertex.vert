@@ -3,6 +3,7 @@
 in vec3 position;
 in vec2 textureCoordinates;
 in vec3 normal;
+in mat4 instanceTransformation;
 
 out vec2 pass_textureCoordinates;
 out vec3 surfaceNormal;
@@ -11,34 +12,63 @@ out vec3 toCameraVector;
 out float visibility;
 
 uniform mat4 transformationMatrix;
-uniform mat4 projectionMatrix;
-uniform mat4 viewMatrix;
-uniform vec3 lightPosition;
+
+layout(std140) uniform FrameData {
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    vec4 cameraPosition;
+    vec4 lightPosition;
+    vec4 lightColour;
+    vec4 skyColour;
+    // x: density, y: gradient.
+    vec4 fog;
+};
 
 uniform float useFakeLighting;
+uniform float useInstancing;
+// map the stored vertex values back to model space (identity for float meshes, see VertexFormat).
+uniform vec3 positionOffset;
+uniform vec3 positionScale;
+uniform vec4 textureTransform;
+uniform float octahedralNormals;
 
-const float density = 0.0035;
-const float gradient = 5.0;
+vec3 decodeNormal(vec3 stored) {
+    if(octahedralNormals < 0.5) {
+        return stored;
+    }
+    vec2 folded = stored.xy / 511.0;
+    vec3 n = vec3(folded, 1.0 - abs(folded.x) - abs(folded.y));
+    if(n.z < 0.0) {
+        vec2 signs = vec2(n.x >= 0.0 ? 1.0 : -1.0, n.y >= 0.0 ? 1.0 : -1.0);
+        n.xy = (1.0 - abs(n.yx)) * signs;
+    }
+    return normalize(n);
+}
 
 void main(void) {
 
-    vec4 worldPosition = transformationMatrix * vec4(position, 1.0);
+    // instanced batches carry their transformation as a per-instance attribute, instead of a uniform.
+    mat4 modelMatrix = transformationMatrix;
+    if(useInstancing > 0.5) {
+        modelMatrix = instanceTransformation;
+    }
+
+    vec4 worldPosition = modelMatrix * vec4(positionOffset + positionScale * position, 1.0);
     vec4 positionRelativeToCam = viewMatrix * worldPosition;
     gl_Position = projectionMatrix * positionRelativeToCam;
-    pass_textureCoordinates = textureCoordinates;
+    pass_textureCoordinates = textureTransform.xy + textureTransform.zw * textureCoordinates;
 
-    vec3 actualNormal = normal;
+    vec3 actualNormal = decodeNormal(normal);
     if(useFakeLighting > 0.5) {
         actualNormal = vec3(0.0, 1.0, 0.0);
     }
 
     // rotate normal along with the object
-    surfaceNormal = (transformationMatrix * vec4(actualNormal, 0.0)).xyz;
-    toLightVector = lightPosition - worldPosition.xyz;
-    // view matrix contains the inverse of the camera position.
-    toCameraVector = (inverse(viewMatrix) * vec4(0.0, 0.0, 0.0, 1.0)).xyz - worldPosition.xyz;
+    surfaceNormal = (modelMatrix * vec4(actualNormal, 0.0)).xyz;
+    toLightVector = lightPosition.xyz - worldPosition.xyz;
+    toCameraVector = cameraPosition.xyz - worldPosition.xyz;
 
     float distance = length(positionRelativeToCam.xyz);
-    visibility = exp(-pow((distance * density), gradient));
+    visibility = exp(-pow((distance * fog.x), fog.y));
     visibility = clamp(visibility, 0.0, 1.0);
 }
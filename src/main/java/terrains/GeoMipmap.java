@@ -0,0 +1,150 @@
+package terrains;
+
+import models.IndexType;
+import models.RawModel;
+import renderengine.Loader;
+
+/**
+ * The grid and index patterns every terrain patch is drawn with, shared by all terrains.
+ * <p>
+ * A patch is a square of {@link #PATCH_QUADS} x {@link #PATCH_QUADS} quads. Its vertices only hold their position in
+ * the patch, in quads, so a single grid of {@link #PATCH_VERTICES} x {@link #PATCH_VERTICES} vertices, row by row, is
+ * enough for every patch of every terrain: the vertex shader offsets it to the patch being drawn, and reads the height
+ * of each vertex from the heightmap of the terrain. Level l keeps every 2^l-th vertex, so each level has a quarter of
+ * the triangles of the previous one; all the patterns live in the element buffer of the grid.
+ * <p>
+ * Adjacent patches may be drawn at levels one apart. The finer patch then has vertices on the shared edge which the
+ * coarser one does not have, and which would leave cracks; so every level also comes with one pattern per combination
+ * of coarser neighbours (the stitching mask), in which the surplus edge vertices are snapped onto the previous vertex
+ * of the coarser edge. The triangles touching that edge turn into fans which follow the coarser edge exactly, and the
+ * ones which collapse are left out.
+ */
+public final class GeoMipmap {
+
+    public static final int PATCH_QUADS = 32;
+    public static final int PATCH_VERTICES = PATCH_QUADS + 1;
+    /**
+     * Level LEVEL_COUNT - 1 draws each patch as a single quad.
+     */
+    public static final int LEVEL_COUNT = Integer.numberOfTrailingZeros(PATCH_QUADS) + 1;
+
+    /**
+     * Stitching mask bits, set when the neighbour on that side of the patch is one level coarser.
+     */
+    public static final int COARSER_NEGATIVE_Z = 1;
+    public static final int COARSER_POSITIVE_X = 2;
+    public static final int COARSER_POSITIVE_Z = 4;
+    public static final int COARSER_NEGATIVE_X = 8;
+    private static final int MASK_COUNT = 16;
+
+    private final RawModel grid;
+    private final IndexType indexType;
+    private final int[] firstIndices = new int[LEVEL_COUNT * MASK_COUNT];
+    private final int[] indexCounts = new int[LEVEL_COUNT * MASK_COUNT];
+
+    public GeoMipmap(Loader loader) {
+        int total = 0;
+        for (int level = 0; level < LEVEL_COUNT; ++level) {
+            for (int mask = 0; mask < MASK_COUNT; ++mask) {
+                firstIndices[level * MASK_COUNT + mask] = total;
+                indexCounts[level * MASK_COUNT + mask] = buildPattern(level, mask, null, 0);
+                total += indexCounts[level * MASK_COUNT + mask];
+            }
+        }
+        int[] indices = new int[total];
+        for (int level = 0; level < LEVEL_COUNT; ++level) {
+            for (int mask = 0; mask < MASK_COUNT; ++mask) {
+                buildPattern(level, mask, indices, firstIndices[level * MASK_COUNT + mask]);
+            }
+        }
+        indexType = IndexType.forMaxIndex(PATCH_VERTICES * PATCH_VERTICES - 1);
+        int indexBuffer = loader.loadIndexBuffer(indices, indexType);
+
+        float[] positions = new float[PATCH_VERTICES * PATCH_VERTICES * 2];
+        for (int z = 0; z < PATCH_VERTICES; ++z) {
+            for (int x = 0; x < PATCH_VERTICES; ++x) {
+                positions[(z * PATCH_VERTICES + x) * 2] = x;
+                positions[(z * PATCH_VERTICES + x) * 2 + 1] = z;
+            }
+        }
+        grid = loader.loadToVAO(positions, 2, indexBuffer, indexType, getIndexCount(0, 0));
+    }
+
+    /**
+     * @return - the grid of a patch, whose vertex count is the number of indices of a full resolution patch.
+     */
+    public RawModel getGrid() {
+        return grid;
+    }
+
+    public IndexType getIndexType() {
+        return indexType;
+    }
+
+    /**
+     * @return - the offset of the pattern in the element buffer, in bytes, as expected by glDrawElements.
+     */
+    public long getOffset(int level, int mask) {
+        return (long) firstIndices[level * MASK_COUNT + mask] * indexType.getBytesPerIndex();
+    }
+
+    public int getIndexCount(int level, int mask) {
+        return indexCounts[level * MASK_COUNT + mask];
+    }
+
+    /**
+     * Writes the indices of a pattern, with the same triangle winding as a full resolution grid.
+     *
+     * @param level   - the level of the pattern.
+     * @param mask    - the stitching mask of the pattern; ignored for the coarsest level, which has no coarser
+     *                neighbours.
+     * @param indices - the array to write the indices to, or null to only count them.
+     * @param first   - the position of the first index in the array.
+     * @return - the number of indices of the pattern.
+     */
+    static int buildPattern(int level, int mask, int[] indices, int first) {
+        int step = 1 << level;
+        if (level == LEVEL_COUNT - 1) {
+            mask = 0;
+        }
+        int pointer = first;
+        for (int z = 0; z < PATCH_QUADS; z += step) {
+            for (int x = 0; x < PATCH_QUADS; x += step) {
+                int topLeft = snappedIndex(x, z, step, mask);
+                int topRight = snappedIndex(x + step, z, step, mask);
+                int bottomLeft = snappedIndex(x, z + step, step, mask);
+                int bottomRight = snappedIndex(x + step, z + step, step, mask);
+                pointer = addTriangle(indices, pointer, topLeft, bottomLeft, topRight);
+                pointer = addTriangle(indices, pointer, topRight, bottomLeft, bottomRight);
+            }
+        }
+        return pointer - first;
+    }
+
+    /**
+     * @return - the index of the vertex at (x, z) in the patch, moved back along the edge onto the previous vertex of
+     * the coarser neighbour, if it lies on an edge shared with one.
+     */
+    private static int snappedIndex(int x, int z, int step, int mask) {
+        int coarseStep = step * 2;
+        if (z == 0 && (mask & COARSER_NEGATIVE_Z) != 0 || z == PATCH_QUADS && (mask & COARSER_POSITIVE_Z) != 0) {
+            x -= x % coarseStep;
+        }
+        if (x == 0 && (mask & COARSER_NEGATIVE_X) != 0 || x == PATCH_QUADS && (mask & COARSER_POSITIVE_X) != 0) {
+            z -= z % coarseStep;
+        }
+        return z * PATCH_VERTICES + x;
+    }
+
+    private static int addTriangle(int[] indices, int pointer, int a, int b, int c) {
+        if (a == b || b == c || a == c) {
+            return pointer;
+        }
+        if (indices != null) {
+            indices[pointer] = a;
+            indices[pointer + 1] = b;
+            indices[pointer + 2] = c;
+        }
+        return pointer + 3;
+    }
+}
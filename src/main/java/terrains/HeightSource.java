@@ -0,0 +1,21 @@
+package terrains;
+
+/**
+ * Supplies the heights terrains are built from. Terrains are built on worker threads, so implementations must be safe
+ * to call from several threads at once.
+ */
+@FunctionalInterface
+public interface HeightSource {
+
+    /**
+     * A flat world, at height 0.
+     */
+    HeightSource FLAT = (worldX, worldZ) -> 0.0f;
+
+    /**
+     * @param worldX - the X coordinate of a vertex of a terrain, in world space.
+     * @param worldZ - the Z coordinate of the vertex.
+     * @return - the height of the ground at that point.
+     */
+    float getHeight(float worldX, float worldZ);
+}
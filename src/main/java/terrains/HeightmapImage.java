@@ -0,0 +1,74 @@
+package terrains;
+
+import de.matthiasmann.twl.utils.PNGDecoder;
+import renderengine.Loader;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Heights read from a greyscale image, stretched over a square of the world and repeated beyond it; black is
+ * -maxHeight, white is +maxHeight, and the heights in between pixels are interpolated bilinearly. The image should
+ * tile seamlessly, as its opposite edges meet where it repeats.
+ */
+public class HeightmapImage implements HeightSource {
+
+    private static final float MAX_PIXEL_COLOUR = 255.0f;
+
+    private final int width;
+    private final int height;
+    private final float[] heights;
+    private final float pixelsPerUnit;
+
+    /**
+     * @param fileName  - the name of the image, in the resources folder, without the ".png" extension.
+     * @param worldSize - the size of the square of the world the image covers, in world units.
+     * @param maxHeight - the height of a white pixel; black pixels are at -maxHeight.
+     */
+    public HeightmapImage(String fileName, float worldSize, float maxHeight) {
+        int width = 1;
+        int height = 1;
+        float[] heights = new float[1];
+        try (InputStream in = new FileInputStream(Loader.RESOURCES_FOLDER + fileName + ".png")) {
+            PNGDecoder decoder = new PNGDecoder(in);
+            width = decoder.getWidth();
+            height = decoder.getHeight();
+            // greyscale images decode as luminance, colour ones as RGB(A), of which only the red channel is used.
+            PNGDecoder.Format format = decoder.decideTextureFormat(PNGDecoder.Format.LUMINANCE);
+            int components = format.getNumComponents();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(components * width * height);
+            decoder.decode(buffer, width * components, format);
+            heights = new float[width * height];
+            for (int i = 0; i < heights.length; ++i) {
+                float colour = buffer.get(i * components) & 0xFF;
+                heights[i] = (colour / MAX_PIXEL_COLOUR * 2.0f - 1.0f) * maxHeight;
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read the heightmap " + fileName + ", the terrain will be flat.");
+            e.printStackTrace();
+        }
+        this.width = width;
+        this.height = height;
+        this.heights = heights;
+        this.pixelsPerUnit = width / worldSize;
+    }
+
+    @Override
+    public float getHeight(float worldX, float worldZ) {
+        float pixelX = worldX * pixelsPerUnit;
+        float pixelZ = worldZ * pixelsPerUnit;
+        int left = (int) Math.floor(pixelX);
+        int top = (int) Math.floor(pixelZ);
+        float fractionX = pixelX - left;
+        float fractionZ = pixelZ - top;
+        int x0 = Math.floorMod(left, width);
+        int x1 = Math.floorMod(left + 1, width);
+        int z0 = Math.floorMod(top, height) * width;
+        int z1 = Math.floorMod(top + 1, height) * width;
+        float upper = heights[z0 + x0] + fractionX * (heights[z0 + x1] - heights[z0 + x0]);
+        float lower = heights[z1 + x0] + fractionX * (heights[z1 + x1] - heights[z1 + x0]);
+        return upper + fractionZ * (lower - upper);
+    }
+}
@@ -1,6 +1,5 @@
 package terrains;
 
-import models.RawModel;
 import org.joml.Vector3f;
 import renderengine.Loader;
 import textures.ModelTexture;
@@ -12,20 +11,127 @@ import textures.TerrainTexturePack;
  */
 public class Terrain {
 
-    private static final float SIZE = 800;
-    private static final int VERTEX_COUNT = 128;
+    public static final float SIZE = 800;
+    /**
+     * Each terrain is split into PATCHES_PER_SIDE x PATCHES_PER_SIDE patches, culled and given a level of detail on
+     * their own.
+     */
+    public static final int PATCHES_PER_SIDE = 8;
+    public static final int QUADS_PER_SIDE = PATCHES_PER_SIDE * GeoMipmap.PATCH_QUADS;
+    private static final int VERTEX_COUNT = QUADS_PER_SIDE + 1;
+    public static final float QUAD_SIZE = SIZE / QUADS_PER_SIDE;
+    private static final float PATCH_SIZE = SIZE / PATCHES_PER_SIDE;
 
+    /**
+     * The grid and index patterns of the patches, shared by all terrains.
+     */
+    private static GeoMipmap geoMipmap;
+
+    private int gridX, gridZ;
     private float x, z;
-    private RawModel model;
+    private Vector3f center;
     private TerrainTexturePack texturePack;
     private TerrainTexture blendmap;
 
+    /**
+     * The height of every vertex of the full resolution grid, row by row, quantised to unsigned 16 bits over
+     * [minHeight, minHeight + heightSpan]. The same values are uploaded as the heightmap texture, so the heights
+     * queried on the CPU are exactly the ones drawn.
+     */
+    private short[] heights = new short[VERTEX_COUNT * VERTEX_COUNT];
+    private float minHeight;
+    private float heightSpan;
+    /**
+     * The height difference between two consecutive quantised values, i.e. heightSpan / 0xFFFF.
+     */
+    private float heightStep;
+    /**
+     * The heightmap texture the vertex shader reads the heights from; 0 until {@link #upload(Loader)} is called. The
+     * terrain has no mesh of its own; it is drawn with the grid of the {@link GeoMipmap}.
+     */
+    private int heightmap;
+    /**
+     * The world space bounding box of each patch, as 6 consecutive floats: minimum XYZ, then maximum XYZ.
+     */
+    private float[] patchBounds = new float[PATCHES_PER_SIDE * PATCHES_PER_SIDE * 6];
+    /**
+     * The largest vertical distance between the full resolution grid and each level of each patch, as
+     * {@link GeoMipmap#LEVEL_COUNT} consecutive floats per patch; never decreasing from one level to the next.
+     */
+    private float[] patchErrors = new float[PATCHES_PER_SIDE * PATCHES_PER_SIDE * GeoMipmap.LEVEL_COUNT];
+    /**
+     * The level each patch is drawn with in the current frame.
+     */
+    private int[] patchLevels = new int[PATCHES_PER_SIDE * PATCHES_PER_SIDE];
+
+    /**
+     * Builds a flat terrain, and uploads it right away.
+     */
     public Terrain(int gridX, int gridZ, Loader loader, TerrainTexturePack texturePack, TerrainTexture blendmap) {
+        this(gridX, gridZ, texturePack, blendmap, HeightSource.FLAT);
+        upload(loader);
+    }
+
+    /**
+     * Builds the CPU side of a terrain: its quantised heights, and the bounds and errors of its patches.
+     * This does not touch GL, so it may run on any thread; {@link #upload(Loader)} must then be called on the GL thread
+     * before the terrain is drawn.
+     *
+     * @param gridX        - the column of the terrain in the world grid.
+     * @param gridZ        - the row of the terrain in the world grid.
+     * @param texturePack  - the textures the terrain is painted with.
+     * @param blendmap     - the map of where each texture of the pack goes; a texture array with
+     *                     {@link TerrainTexturePack#getBlendmapLayerCount()} layers.
+     * @param heightSource - the heights of the world.
+     */
+    public Terrain(int gridX, int gridZ, TerrainTexturePack texturePack, TerrainTexture blendmap,
+                   HeightSource heightSource) {
         this.texturePack = texturePack;
         this.blendmap = blendmap;
+        this.gridX = gridX;
+        this.gridZ = gridZ;
         this.x = gridX * SIZE;
         this.z = gridZ * SIZE;
-        model = generateTerrain(loader);
+        this.center = new Vector3f(x + SIZE / 2.0f, 0.0f, z + SIZE / 2.0f);
+        float[] sourceHeights = new float[VERTEX_COUNT * VERTEX_COUNT];
+        for (int vertexZ = 0; vertexZ < VERTEX_COUNT; vertexZ++) {
+            for (int vertexX = 0; vertexX < VERTEX_COUNT; vertexX++) {
+                sourceHeights[vertexZ * VERTEX_COUNT + vertexX] =
+                        heightSource.getHeight(x + vertexX * QUAD_SIZE, z + vertexZ * QUAD_SIZE);
+            }
+        }
+        quantiseHeights(sourceHeights);
+        computePatchBounds();
+        computePatchErrors();
+    }
+
+    /**
+     * Uploads the heightmap of the terrain. Must be called on the GL thread.
+     *
+     * @param loader - the loader which will own the heightmap texture.
+     */
+    public void upload(Loader loader) {
+        if (geoMipmap == null) {
+            geoMipmap = new GeoMipmap(loader);
+        }
+        heightmap = loader.loadHeightmap(heights, VERTEX_COUNT);
+    }
+
+    /**
+     * Deletes the heightmap of the terrain, after which it cannot be drawn anymore. Must be called on the GL thread.
+     *
+     * @param loader - the loader which uploaded the terrain.
+     */
+    public void unload(Loader loader) {
+        loader.unloadTexture(heightmap);
+        heightmap = 0;
+    }
+
+    /**
+     * @return - the GPU memory taken by the terrain once uploaded, in bytes.
+     */
+    public static long getGpuBytes() {
+        return (long) VERTEX_COUNT * VERTEX_COUNT * 2;
     }
 
     public Vector3f getPosition() {
@@ -40,8 +146,44 @@ public class Terrain {
         return z;
     }
 
-    public RawModel getModel() {
-        return model;
+    public int getGridX() {
+        return gridX;
+    }
+
+    public int getGridZ() {
+        return gridZ;
+    }
+
+    /**
+     * @return - the center of the bounding sphere of this terrain, in world space.
+     */
+    public Vector3f getCenter() {
+        return center;
+    }
+
+    /**
+     * @return - the radius of the bounding sphere of this terrain, i.e. half the diagonal of the (flat) tile.
+     */
+    public float getBoundingRadius() {
+        return SIZE * (float) Math.sqrt(0.5);
+    }
+
+    public int getHeightmap() {
+        return heightmap;
+    }
+
+    /**
+     * @return - the height of a heightmap texel holding 0.
+     */
+    public float getMinHeight() {
+        return minHeight;
+    }
+
+    /**
+     * @return - the height difference between a heightmap texel holding 1 and one holding 0.
+     */
+    public float getHeightSpan() {
+        return heightSpan;
     }
 
     public TerrainTexturePack getTexturePack() {
@@ -52,47 +194,172 @@ public class Terrain {
         return blendmap;
     }
 
-    private RawModel generateTerrain(Loader loader) {
-        int count = VERTEX_COUNT * VERTEX_COUNT;
-        float[] vertices = new float[count * 3];
-        float[] normals = new float[count * 3];
-        float[] textureCoords = new float[count * 2];
-        int[] indices = new int[6 * (VERTEX_COUNT - 1) * (VERTEX_COUNT - 1)];
+    public GeoMipmap getGeoMipmap() {
+        return geoMipmap;
+    }
+
+    /**
+     * @return - the index of the patch at column patchX, row patchZ.
+     */
+    public static int getPatchIndex(int patchX, int patchZ) {
+        return patchZ * PATCHES_PER_SIDE + patchX;
+    }
+
+    /**
+     * @param patch - the index of the patch.
+     * @param bound - 0, 1, 2 for the minimum X, Y, Z, and 3, 4, 5 for the maximum X, Y, Z of the world space bounding
+     *              box of the patch.
+     */
+    public float getPatchBound(int patch, int bound) {
+        return patchBounds[patch * 6 + bound];
+    }
+
+    /**
+     * @return - the largest vertical distance between the full resolution grid and the given level of the patch.
+     */
+    public float getPatchError(int patch, int level) {
+        return patchErrors[patch * GeoMipmap.LEVEL_COUNT + level];
+    }
+
+    public int getPatchLevel(int patch) {
+        return patchLevels[patch];
+    }
+
+    public void setPatchLevel(int patch, int level) {
+        patchLevels[patch] = level;
+    }
+
+    /**
+     * Returns the height of the ground at a point, as drawn at full resolution: the point is located in its quad, and
+     * the heights of the corners of the triangle of the quad it lies in are interpolated with barycentric weights.
+     * Points outside the terrain get the height of the closest point on its edge. Allocation free, and cheap enough to
+     * be called for thousands of entities per frame.
+     *
+     * @param worldX - the X coordinate of the point, in world space.
+     * @param worldZ - the Z coordinate of the point, in world space.
+     * @return - the height of the ground at the point.
+     */
+    public float getHeightOfTerrain(float worldX, float worldZ) {
+        float gridX = Math.max(0.0f, Math.min(QUADS_PER_SIDE, (worldX - x) / QUAD_SIZE));
+        float gridZ = Math.max(0.0f, Math.min(QUADS_PER_SIDE, (worldZ - z) / QUAD_SIZE));
+        int quadX = Math.min((int) gridX, QUADS_PER_SIDE - 1);
+        int quadZ = Math.min((int) gridZ, QUADS_PER_SIDE - 1);
+        float u = gridX - quadX;
+        float v = gridZ - quadZ;
+
+        int topLeft = quadZ * VERTEX_COUNT + quadX;
+        float heightTL = heights[topLeft] & 0xFFFF;
+        float heightTR = heights[topLeft + 1] & 0xFFFF;
+        float heightBL = heights[topLeft + VERTEX_COUNT] & 0xFFFF;
+        float heightBR = heights[topLeft + VERTEX_COUNT + 1] & 0xFFFF;
+        // quads are split along their top right to bottom left diagonal, like in the GeoMipmap patterns.
+        float texel = u + v <= 1.0f
+                ? heightTL + u * (heightTR - heightTL) + v * (heightBL - heightTL)
+                : heightBR + (1.0f - u) * (heightBL - heightBR) + (1.0f - v) * (heightTR - heightBR);
+        return minHeight + heightStep * texel;
+    }
+
+    /**
+     * @return - the CPU memory taken by the heights of a terrain, in bytes.
+     */
+    public static long getHeightBytes() {
+        return (long) VERTEX_COUNT * VERTEX_COUNT * 2;
+    }
 
-        int vertexPointer = 0;
-        for (int i = 0; i < VERTEX_COUNT; i++) {
-            for (int j = 0; j < VERTEX_COUNT; j++) {
-                vertices[vertexPointer * 3] = (float) j / ((float) VERTEX_COUNT - 1) * SIZE;
-                vertices[vertexPointer * 3 + 1] = 0;
-                vertices[vertexPointer * 3 + 2] = (float) i / ((float) VERTEX_COUNT - 1) * SIZE;
+    private float getVertexHeight(int vertexX, int vertexZ) {
+        vertexX = Math.max(0, Math.min(VERTEX_COUNT - 1, vertexX));
+        vertexZ = Math.max(0, Math.min(VERTEX_COUNT - 1, vertexZ));
+        return minHeight + heightStep * (heights[vertexZ * VERTEX_COUNT + vertexX] & 0xFFFF);
+    }
 
-                normals[vertexPointer * 3] = normals[vertexPointer * 3 + 2] = 0;
-                normals[vertexPointer * 3 + 1] = 1;
+    /**
+     * Quantises the heights to 16 bits over their range.
+     *
+     * @param sourceHeights - the heights of the vertices of the full resolution grid, row by row.
+     */
+    private void quantiseHeights(float[] sourceHeights) {
+        float maxHeight = Float.NEGATIVE_INFINITY;
+        minHeight = Float.POSITIVE_INFINITY;
+        for (float height : sourceHeights) {
+            minHeight = Math.min(minHeight, height);
+            maxHeight = Math.max(maxHeight, height);
+        }
+        heightSpan = maxHeight - minHeight;
+        heightStep = heightSpan / 0xFFFF;
 
-                textureCoords[vertexPointer * 2] = (float) j / ((float) VERTEX_COUNT - 1);
-                textureCoords[vertexPointer * 2 + 1] = (float) i / ((float) VERTEX_COUNT - 1);
+        for (int i = 0; i < sourceHeights.length; ++i) {
+            int quantised = heightSpan > 0.0f ? Math.round((sourceHeights[i] - minHeight) / heightSpan * 0xFFFF) : 0;
+            heights[i] = (short) quantised;
+        }
+    }
 
-                ++vertexPointer;
+    private void computePatchBounds() {
+        for (int patchZ = 0; patchZ < PATCHES_PER_SIDE; patchZ++) {
+            for (int patchX = 0; patchX < PATCHES_PER_SIDE; patchX++) {
+                float minY = Float.POSITIVE_INFINITY;
+                float maxY = Float.NEGATIVE_INFINITY;
+                for (int i = 0; i < GeoMipmap.PATCH_VERTICES; i++) {
+                    for (int j = 0; j < GeoMipmap.PATCH_VERTICES; j++) {
+                        float height = getVertexHeight(patchX * GeoMipmap.PATCH_QUADS + j,
+                                patchZ * GeoMipmap.PATCH_QUADS + i);
+                        minY = Math.min(minY, height);
+                        maxY = Math.max(maxY, height);
+                    }
+                }
+                int bounds = getPatchIndex(patchX, patchZ) * 6;
+                patchBounds[bounds] = x + patchX * PATCH_SIZE;
+                patchBounds[bounds + 1] = minY;
+                patchBounds[bounds + 2] = z + patchZ * PATCH_SIZE;
+                patchBounds[bounds + 3] = x + (patchX + 1) * PATCH_SIZE;
+                patchBounds[bounds + 4] = maxY;
+                patchBounds[bounds + 5] = z + (patchZ + 1) * PATCH_SIZE;
             }
         }
+    }
 
-        int pointer = 0;
-        for (int gz = 0; gz < VERTEX_COUNT - 1; gz++) {
-            for (int gx = 0; gx < VERTEX_COUNT - 1; gx++) {
-                int topLeft = (gz * VERTEX_COUNT) + gx;
-                int topRight = topLeft + 1;
-                int bottomLeft = ((gz + 1) * VERTEX_COUNT) + gx;
-                int bottomRight = bottomLeft + 1;
-
-                indices[pointer++] = topLeft;
-                indices[pointer++] = bottomLeft;
-                indices[pointer++] = topRight;
-                indices[pointer++] = topRight;
-                indices[pointer++] = bottomLeft;
-                indices[pointer++] = bottomRight;
+    /**
+     * Measures, for each level of each patch, how far the surface drawn at that level strays vertically from the full
+     * resolution grid, by interpolating the heights of the level over the triangles it is drawn with.
+     */
+    private void computePatchErrors() {
+        for (int patchZ = 0; patchZ < PATCHES_PER_SIDE; patchZ++) {
+            for (int patchX = 0; patchX < PATCHES_PER_SIDE; patchX++) {
+                int patch = getPatchIndex(patchX, patchZ);
+                int originX = patchX * GeoMipmap.PATCH_QUADS;
+                int originZ = patchZ * GeoMipmap.PATCH_QUADS;
+                float previous = 0.0f;
+                for (int level = 0; level < GeoMipmap.LEVEL_COUNT; level++) {
+                    int step = 1 << level;
+                    float error = previous;
+                    for (int i = 0; i <= GeoMipmap.PATCH_QUADS; i++) {
+                        for (int j = 0; j <= GeoMipmap.PATCH_QUADS; j++) {
+                            float drawn = interpolateLevelHeight(originX, originZ, j, i, step);
+                            error = Math.max(error, Math.abs(drawn - getVertexHeight(originX + j, originZ + i)));
+                        }
+                    }
+                    patchErrors[patch * GeoMipmap.LEVEL_COUNT + level] = error;
+                    previous = error;
+                }
             }
         }
+    }
 
-        return loader.loadToVAO(vertices, textureCoords, normals, indices);
+    /**
+     * @return - the height of the surface drawn at the given step, at vertex (j, i) of the patch starting at vertex
+     * (originX, originZ); quads are split along their top right to bottom left diagonal, like in {@link GeoMipmap}.
+     */
+    private float interpolateLevelHeight(int originX, int originZ, int j, int i, int step) {
+        int quadX = Math.min(j / step * step, GeoMipmap.PATCH_QUADS - step);
+        int quadZ = Math.min(i / step * step, GeoMipmap.PATCH_QUADS - step);
+        float u = (float) (j - quadX) / step;
+        float v = (float) (i - quadZ) / step;
+        float topLeft = getVertexHeight(originX + quadX, originZ + quadZ);
+        float topRight = getVertexHeight(originX + quadX + step, originZ + quadZ);
+        float bottomLeft = getVertexHeight(originX + quadX, originZ + quadZ + step);
+        float bottomRight = getVertexHeight(originX + quadX + step, originZ + quadZ + step);
+        if (u + v <= 1.0f) {
+            return topLeft + u * (topRight - topLeft) + v * (bottomLeft - topLeft);
+        }
+        return bottomRight + (1.0f - u) * (bottomLeft - bottomRight) + (1.0f - v) * (topRight - bottomRight);
     }
 }
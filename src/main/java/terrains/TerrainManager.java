@@ -0,0 +1,360 @@
+package terrains;
+
+import org.joml.Vector3f;
+import renderengine.Loader;
+import textures.TerrainTexture;
+import textures.TerrainTexturePack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Streams terrains in and out around a moving position (usually the player), so that the world can be much larger than
+ * what fits in memory.
+ * <p>
+ * Every terrain within the load radius of the grid cell of the player is built on a worker thread; the only work left
+ * to the GL thread is uploading the heightmap of each finished terrain, and only a few of them per frame, so crossing
+ * into a new cell never stalls a frame. Terrains are only evicted once they are beyond the (larger) eviction radius, so
+ * that walking back and forth over a cell border does not rebuild the same terrains over and over, or, least recently
+ * needed first, when the uploaded terrains exceed the GPU memory budget.
+ */
+public class TerrainManager {
+
+    /**
+     * The number of times a terrain is built before it is given up on, so that a terrain which can never be built does
+     * not keep a worker busy.
+     */
+    private static final int MAX_BUILD_ATTEMPTS = 3;
+
+    private final Loader loader;
+    private final TerrainTexturePack texturePack;
+    private final TerrainTexture blendmap;
+    private final HeightSource heightSource;
+    private final int loadRadius;
+    private final int evictionRadius;
+    private final long gpuBudget;
+    private final int uploadsPerFrame;
+
+    private final ExecutorService workers;
+    /**
+     * The terrains built by the workers, waiting to be uploaded on the GL thread.
+     */
+    private final Queue<Terrain> built = new ConcurrentLinkedQueue<>();
+    /**
+     * The grid keys of the terrains the workers failed to build, waiting to be dropped from the pending ones on the GL
+     * thread, so that they are queued again.
+     */
+    private final Queue<Long> failed = new ConcurrentLinkedQueue<>();
+    /**
+     * The number of times each terrain failed to build; only touched by the GL thread.
+     */
+    private final Map<Long, Integer> failures = new HashMap<>();
+    /**
+     * The terrains being built, by grid key; only touched by the GL thread.
+     */
+    private final Map<Long, Future<?>> pending = new HashMap<>();
+    /**
+     * The uploaded terrains, by grid key, least recently needed first.
+     */
+    private final LinkedHashMap<Long, Terrain> loaded = new LinkedHashMap<>(16, 0.75f, true);
+    private final Collection<Terrain> loadedView = Collections.unmodifiableCollection(loaded.values());
+    /**
+     * The offsets of the cells within the load radius, closest first, so that the terrains under the player are built
+     * before the distant ones.
+     */
+    private final List<int[]> loadOffsets = new ArrayList<>();
+
+    /**
+     * The uploaded terrains around the cell of the player, row by row, over the eviction radius; null where no terrain
+     * is uploaded. Height queries look terrains up in it, so that they neither allocate nor reorder the loaded map.
+     */
+    private final Terrain[] window;
+    private final int windowSize;
+    private boolean windowDirty = true;
+
+    private int cellX = Integer.MIN_VALUE;
+    private int cellZ = Integer.MIN_VALUE;
+
+    /**
+     * @param loader          - the loader the terrains are uploaded with.
+     * @param texturePack     - the textures every terrain is painted with.
+     * @param blendmap        - the map of where each texture of the pack goes, on every terrain.
+     * @param heightSource    - the heights of the world; called from the worker threads.
+     * @param loadRadius      - terrains up to this many cells away from the cell of the player (on either axis) are
+     *                        loaded.
+     * @param evictionRadius  - terrains further than this many cells away are evicted; must be larger than the load
+     *                        radius.
+     * @param gpuBudget       - the GPU memory the uploaded terrains may take, in bytes; the least recently needed
+     *                        terrains outside the load radius are evicted beyond it.
+     * @param uploadsPerFrame - the number of built terrains uploaded per call to {@link #update(Vector3f)}.
+     */
+    public TerrainManager(Loader loader, TerrainTexturePack texturePack, TerrainTexture blendmap,
+                          HeightSource heightSource, int loadRadius, int evictionRadius, long gpuBudget,
+                          int uploadsPerFrame) {
+        if (evictionRadius <= loadRadius) {
+            throw new IllegalArgumentException("The eviction radius must be larger than the load radius.");
+        }
+        this.loader = loader;
+        this.texturePack = texturePack;
+        this.blendmap = blendmap;
+        this.heightSource = heightSource;
+        this.loadRadius = loadRadius;
+        this.evictionRadius = evictionRadius;
+        this.gpuBudget = gpuBudget;
+        this.uploadsPerFrame = uploadsPerFrame;
+        this.windowSize = 2 * evictionRadius + 1;
+        this.window = new Terrain[windowSize * windowSize];
+
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "terrain-builder");
+            thread.setDaemon(true);
+            // the GL thread comes first.
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        for (int dz = -loadRadius; dz <= loadRadius; ++dz) {
+            for (int dx = -loadRadius; dx <= loadRadius; ++dx) {
+                loadOffsets.add(new int[]{dx, dz});
+            }
+        }
+        loadOffsets.sort((a, b) -> Integer.compare(a[0] * a[0] + a[1] * a[1], b[0] * b[0] + b[1] * b[1]));
+    }
+
+    /**
+     * Builds and uploads every terrain within the load radius of the position, and waits for them; meant to be called
+     * once, at load time, so that the first frame already has ground to stand on and to place entities on.
+     *
+     * @param position - the starting position of the player, in world space.
+     */
+    public void preload(Vector3f position) {
+        update(position);
+        for (Future<?> terrain : new ArrayList<>(pending.values())) {
+            try {
+                terrain.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        while (!built.isEmpty()) {
+            uploadBuilt();
+        }
+        refreshWindow();
+    }
+
+    /**
+     * Must be called once per frame, on the GL thread, before the terrains are processed for rendering: queues the
+     * terrains which entered the load radius, drops the ones which left the eviction radius, and uploads a few of
+     * the terrains built since the last call.
+     *
+     * @param position - the position of the player, in world space.
+     */
+    public void update(Vector3f position) {
+        int newCellX = (int) Math.floor(position.x / Terrain.SIZE);
+        int newCellZ = (int) Math.floor(position.z / Terrain.SIZE);
+        if (newCellX != cellX || newCellZ != cellZ) {
+            cellX = newCellX;
+            cellZ = newCellZ;
+            windowDirty = true;
+            evictDistant();
+            queueMissing();
+        }
+        retryFailed();
+        uploadBuilt();
+        evictOverBudget();
+        refreshWindow();
+    }
+
+    /**
+     * Returns the height of the ground at a point, as drawn. Points on terrains which are not uploaded (yet) are
+     * answered by the height source directly, so the answer never depends on what happened to be streamed in.
+     * Allocation free; must be called on the GL thread.
+     *
+     * @param worldX - the X coordinate of the point, in world space.
+     * @param worldZ - the Z coordinate of the point, in world space.
+     * @return - the height of the ground at the point.
+     */
+    public float getHeightOfTerrain(float worldX, float worldZ) {
+        int windowX = (int) Math.floor(worldX / Terrain.SIZE) - cellX + evictionRadius;
+        int windowZ = (int) Math.floor(worldZ / Terrain.SIZE) - cellZ + evictionRadius;
+        if (windowX >= 0 && windowX < windowSize && windowZ >= 0 && windowZ < windowSize) {
+            Terrain terrain = window[windowZ * windowSize + windowX];
+            if (terrain != null) {
+                return terrain.getHeightOfTerrain(worldX, worldZ);
+            }
+        }
+        return heightSource.getHeight(worldX, worldZ);
+    }
+
+    /**
+     * @return - the terrains currently uploaded, ready to be drawn; a live view, which must not be kept across calls to
+     * {@link #update(Vector3f)}.
+     */
+    public Collection<Terrain> getTerrains() {
+        return loadedView;
+    }
+
+    /**
+     * @return - the GPU memory taken by the uploaded terrains, in bytes.
+     */
+    public long getGpuBytes() {
+        return loaded.size() * Terrain.getGpuBytes();
+    }
+
+    /**
+     * Stops the workers, and deletes every uploaded terrain. Must be called on the GL thread.
+     */
+    public void cleanup() {
+        workers.shutdownNow();
+        pending.clear();
+        built.clear();
+        failed.clear();
+        failures.clear();
+        loaded.values().forEach(terrain -> terrain.unload(loader));
+        loaded.clear();
+        Arrays.fill(window, null);
+    }
+
+    private void refreshWindow() {
+        if (!windowDirty) {
+            return;
+        }
+        windowDirty = false;
+        Arrays.fill(window, null);
+        for (Terrain terrain : loaded.values()) {
+            int windowX = terrain.getGridX() - cellX + evictionRadius;
+            int windowZ = terrain.getGridZ() - cellZ + evictionRadius;
+            if (windowX >= 0 && windowX < windowSize && windowZ >= 0 && windowZ < windowSize) {
+                window[windowZ * windowSize + windowX] = terrain;
+            }
+        }
+    }
+
+    private void queueMissing() {
+        for (int[] offset : loadOffsets) {
+            int gridX = cellX + offset[0];
+            int gridZ = cellZ + offset[1];
+            long key = gridKey(gridX, gridZ);
+            if (loaded.get(key) != null || pending.containsKey(key)
+                    || failures.getOrDefault(key, 0) >= MAX_BUILD_ATTEMPTS) {
+                // the lookup also marks the terrain as recently needed.
+                continue;
+            }
+            pending.put(key, workers.submit(() -> {
+                try {
+                    built.add(new Terrain(gridX, gridZ, texturePack, blendmap, heightSource));
+                } catch (RuntimeException e) {
+                    System.err.println("Failed to build the terrain at " + gridX + ", " + gridZ);
+                    e.printStackTrace();
+                    failed.add(key);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Drops the terrains which failed to build from the pending ones, and queues them again if they are still within
+     * the load radius, up to {@link #MAX_BUILD_ATTEMPTS} times; the ground of a terrain given up on is only known
+     * through the height source.
+     */
+    private void retryFailed() {
+        boolean retry = false;
+        Long key;
+        while ((key = failed.poll()) != null) {
+            if (pending.remove(key) == null) {
+                continue;
+            }
+            int attempts = failures.merge(key, 1, Integer::sum);
+            if (attempts < MAX_BUILD_ATTEMPTS) {
+                retry = true;
+            } else {
+                System.err.println("Gave up building the terrain at " + (int) (key >> 32) + ", " + key.intValue()
+                        + " after " + attempts + " attempts.");
+            }
+        }
+        if (retry) {
+            queueMissing();
+        }
+    }
+
+    private void uploadBuilt() {
+        for (int uploads = 0; uploads < uploadsPerFrame; ) {
+            Terrain terrain = built.poll();
+            if (terrain == null) {
+                return;
+            }
+            long key = gridKey(terrain.getGridX(), terrain.getGridZ());
+            // terrains cancelled while being built are dropped without ever reaching the GPU.
+            if (pending.remove(key) == null) {
+                continue;
+            }
+            terrain.upload(loader);
+            failures.remove(key);
+            loaded.put(key, terrain);
+            windowDirty = true;
+            ++uploads;
+        }
+    }
+
+    private void evictDistant() {
+        Iterator<Map.Entry<Long, Future<?>>> pendingTerrains = pending.entrySet().iterator();
+        while (pendingTerrains.hasNext()) {
+            Map.Entry<Long, Future<?>> entry = pendingTerrains.next();
+            if (cellDistance(entry.getKey()) > loadRadius) {
+                entry.getValue().cancel(false);
+                pendingTerrains.remove();
+            }
+        }
+        Iterator<Map.Entry<Long, Terrain>> loadedTerrains = loaded.entrySet().iterator();
+        while (loadedTerrains.hasNext()) {
+            Map.Entry<Long, Terrain> entry = loadedTerrains.next();
+            if (cellDistance(entry.getKey()) > evictionRadius) {
+                entry.getValue().unload(loader);
+                loadedTerrains.remove();
+                windowDirty = true;
+            }
+        }
+    }
+
+    private void evictOverBudget() {
+        Iterator<Map.Entry<Long, Terrain>> leastRecentlyNeeded = loaded.entrySet().iterator();
+        while (getGpuBytes() > gpuBudget && leastRecentlyNeeded.hasNext()) {
+            Map.Entry<Long, Terrain> entry = leastRecentlyNeeded.next();
+            if (cellDistance(entry.getKey()) > loadRadius) {
+                entry.getValue().unload(loader);
+                leastRecentlyNeeded.remove();
+                windowDirty = true;
+            }
+        }
+    }
+
+    /**
+     * @return - the number of cells between the cell of the player and the cell of the key, along the furthest axis.
+     */
+    private int cellDistance(long key) {
+        int gridX = (int) (key >> 32);
+        int gridZ = (int) key;
+        return Math.max(Math.abs(gridX - cellX), Math.abs(gridZ - cellZ));
+    }
+
+    private static long gridKey(int gridX, int gridZ) {
+        return ((long) gridX << 32) | (gridZ & 0xFFFFFFFFL);
+    }
+}
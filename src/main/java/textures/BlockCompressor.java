@@ -0,0 +1,431 @@
+package textures;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.EXTTextureCompressionS3TC;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts RGBA images to block compressed textures, along with their whole mip chain, on the CPU.
+ * <p>
+ * Opaque images are encoded as BC1 (DXT1, 4 bits per pixel), images with any transparency as BC3 (DXT5, 8 bits per
+ * pixel), which is 8 and 4 times smaller than RGBA8. Each 4x4 block picks the two endpoints of its colour line along
+ * the principal axis of its colours, and each pixel the closest of the four colours on that line; the alpha of BC3
+ * blocks is encoded between the smallest and largest alpha of the block.
+ * <p>
+ * The mip levels are computed here rather than by the driver: each one is a 2x2 box filter of the previous one,
+ * averaged in linear space (the images hold sRGB colours), with the colours weighted by their alpha, so that the
+ * colour of fully transparent pixels does not bleed into the edges of alpha tested foliage.
+ */
+public final class BlockCompressor {
+
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int BLOCK_SIZE = 4;
+    private static final int BC1_BLOCK_BYTES = 8;
+    private static final int BC3_BLOCK_BYTES = 16;
+    private static final int REFINEMENT_ITERATIONS = 3;
+    /**
+     * The weight of the first endpoint in the colour each BC1 index stands for.
+     */
+    private static final float[] INDEX_WEIGHTS = {1.0f, 0.0f, 2.0f / 3.0f, 1.0f / 3.0f};
+
+    private static final float[] SRGB_TO_LINEAR = new float[256];
+
+    static {
+        for (int i = 0; i < SRGB_TO_LINEAR.length; ++i) {
+            float srgb = i / 255.0f;
+            SRGB_TO_LINEAR[i] = srgb <= 0.04045f
+                    ? srgb / 12.92f
+                    : (float) Math.pow((srgb + 0.055f) / 1.055f, 2.4f);
+        }
+    }
+
+    private BlockCompressor() {
+    }
+
+    /**
+     * @param image - the image to compress.
+     * @return - the image compressed as BC1 if it is opaque, as BC3 otherwise, with every mip level down to 1x1.
+     */
+    public static CompressedTexture compress(TextureData image) {
+        return compress(image, isOpaque(image));
+    }
+
+    /**
+     * @param image  - the image to compress.
+     * @param opaque - true to compress the image as BC1, dropping its alpha channel; false to compress it as BC3.
+     * @return - the compressed image, with every mip level down to 1x1.
+     */
+    public static CompressedTexture compress(TextureData image, boolean opaque) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int levelCount = 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+
+        ByteBuffer[] levels = new ByteBuffer[levelCount];
+        TextureData level = image;
+        for (int i = 0; i < levelCount; ++i) {
+            if (i > 0) {
+                level = downsample(level);
+            }
+            levels[i] = encode(level, opaque);
+        }
+        int format = opaque
+                ? EXTTextureCompressionS3TC.GL_COMPRESSED_RGB_S3TC_DXT1_EXT
+                : EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+        return new CompressedTexture(format, width, height, levels);
+    }
+
+    private static boolean isOpaque(TextureData image) {
+        ByteBuffer pixels = image.getPixels();
+        for (int i = 3; i < image.getWidth() * image.getHeight() * BYTES_PER_PIXEL; i += BYTES_PER_PIXEL) {
+            if ((pixels.get(i) & 0xFF) != 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return - the next mip level of the image, half its size on each axis (but at least one pixel).
+     */
+    static TextureData downsample(TextureData image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int newWidth = Math.max(1, width / 2);
+        int newHeight = Math.max(1, height / 2);
+        ByteBuffer source = image.getPixels();
+        ByteBuffer target = BufferUtils.createByteBuffer(newWidth * newHeight * BYTES_PER_PIXEL);
+
+        for (int y = 0; y < newHeight; ++y) {
+            for (int x = 0; x < newWidth; ++x) {
+                float red = 0.0f;
+                float green = 0.0f;
+                float blue = 0.0f;
+                float alpha = 0.0f;
+                float plainRed = 0.0f;
+                float plainGreen = 0.0f;
+                float plainBlue = 0.0f;
+                for (int dy = 0; dy < 2; ++dy) {
+                    for (int dx = 0; dx < 2; ++dx) {
+                        // odd sizes fold their last row or column into the previous one.
+                        int sourceX = Math.min(2 * x + dx, width - 1);
+                        int sourceY = Math.min(2 * y + dy, height - 1);
+                        int pixel = (sourceY * width + sourceX) * BYTES_PER_PIXEL;
+                        float r = SRGB_TO_LINEAR[source.get(pixel) & 0xFF];
+                        float g = SRGB_TO_LINEAR[source.get(pixel + 1) & 0xFF];
+                        float b = SRGB_TO_LINEAR[source.get(pixel + 2) & 0xFF];
+                        float a = (source.get(pixel + 3) & 0xFF) / 255.0f;
+                        red += r * a;
+                        green += g * a;
+                        blue += b * a;
+                        alpha += a;
+                        plainRed += r;
+                        plainGreen += g;
+                        plainBlue += b;
+                    }
+                }
+                if (alpha > 0.0f) {
+                    red /= alpha;
+                    green /= alpha;
+                    blue /= alpha;
+                } else {
+                    red = plainRed / 4.0f;
+                    green = plainGreen / 4.0f;
+                    blue = plainBlue / 4.0f;
+                }
+                target.put(linearToSrgb(red)).put(linearToSrgb(green)).put(linearToSrgb(blue))
+                        .put((byte) Math.round(alpha / 4.0f * 255.0f));
+            }
+        }
+        target.flip();
+        return new TextureData(newWidth, newHeight, target);
+    }
+
+    private static byte linearToSrgb(float linear) {
+        float srgb = linear <= 0.0031308f
+                ? linear * 12.92f
+                : 1.055f * (float) Math.pow(linear, 1.0f / 2.4f) - 0.055f;
+        return (byte) Math.round(Math.min(Math.max(srgb, 0.0f), 1.0f) * 255.0f);
+    }
+
+    /**
+     * Encodes a level, block by block, row by row. Blocks hanging over the edge of the level repeat its last row and
+     * column.
+     */
+    static ByteBuffer encode(TextureData image, boolean opaque) {
+        int blocksX = (image.getWidth() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int blocksY = (image.getHeight() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        ByteBuffer blocks = BufferUtils.createByteBuffer(blocksX * blocksY
+                * (opaque ? BC1_BLOCK_BYTES : BC3_BLOCK_BYTES));
+        int[] block = new int[BLOCK_SIZE * BLOCK_SIZE * BYTES_PER_PIXEL];
+        ByteBuffer pixels = image.getPixels();
+
+        for (int blockY = 0; blockY < blocksY; ++blockY) {
+            for (int blockX = 0; blockX < blocksX; ++blockX) {
+                for (int i = 0; i < BLOCK_SIZE * BLOCK_SIZE; ++i) {
+                    int x = Math.min(blockX * BLOCK_SIZE + i % BLOCK_SIZE, image.getWidth() - 1);
+                    int y = Math.min(blockY * BLOCK_SIZE + i / BLOCK_SIZE, image.getHeight() - 1);
+                    int pixel = (y * image.getWidth() + x) * BYTES_PER_PIXEL;
+                    for (int channel = 0; channel < BYTES_PER_PIXEL; ++channel) {
+                        block[i * BYTES_PER_PIXEL + channel] = pixels.get(pixel + channel) & 0xFF;
+                    }
+                }
+                if (!opaque) {
+                    encodeAlphaBlock(block, blocks);
+                }
+                encodeColourBlock(block, blocks);
+            }
+        }
+        blocks.flip();
+        return blocks;
+    }
+
+    /**
+     * Writes the 8 bytes of a BC3 alpha block: the largest and smallest alpha, then a 3 bit index per pixel into the
+     * 8 alphas interpolated between them.
+     */
+    private static void encodeAlphaBlock(int[] block, ByteBuffer target) {
+        int max = 0;
+        int min = 255;
+        for (int i = 0; i < BLOCK_SIZE * BLOCK_SIZE; ++i) {
+            int alpha = block[i * BYTES_PER_PIXEL + 3];
+            max = Math.max(max, alpha);
+            min = Math.min(min, alpha);
+        }
+        long indices = 0;
+        if (max > min) {
+            int[] palette = new int[8];
+            palette[0] = max;
+            palette[1] = min;
+            for (int i = 1; i < 7; ++i) {
+                palette[i + 1] = ((7 - i) * max + i * min) / 7;
+            }
+            for (int i = 0; i < BLOCK_SIZE * BLOCK_SIZE; ++i) {
+                int alpha = block[i * BYTES_PER_PIXEL + 3];
+                indices |= (long) closest(palette, alpha) << (3 * i);
+            }
+        }
+        target.put((byte) max).put((byte) min);
+        for (int i = 0; i < 6; ++i) {
+            target.put((byte) (indices >>> (8 * i)));
+        }
+    }
+
+    private static int closest(int[] palette, int value) {
+        int best = 0;
+        for (int i = 1; i < palette.length; ++i) {
+            if (Math.abs(palette[i] - value) < Math.abs(palette[best] - value)) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Writes the 8 bytes of a BC1 colour block: two RGB565 endpoints, the first one larger so that the block is
+     * decoded in its four colour mode, then a 2 bit index per pixel.
+     */
+    private static void encodeColourBlock(int[] block, ByteBuffer target) {
+        int pixelCount = BLOCK_SIZE * BLOCK_SIZE;
+        float meanR = 0.0f;
+        float meanG = 0.0f;
+        float meanB = 0.0f;
+        for (int i = 0; i < pixelCount; ++i) {
+            meanR += block[i * BYTES_PER_PIXEL];
+            meanG += block[i * BYTES_PER_PIXEL + 1];
+            meanB += block[i * BYTES_PER_PIXEL + 2];
+        }
+        meanR /= pixelCount;
+        meanG /= pixelCount;
+        meanB /= pixelCount;
+
+        // covariance of the colours, then its principal axis by power iteration.
+        float rr = 0, rg = 0, rb = 0, gg = 0, gb = 0, bb = 0;
+        for (int i = 0; i < pixelCount; ++i) {
+            float r = block[i * BYTES_PER_PIXEL] - meanR;
+            float g = block[i * BYTES_PER_PIXEL + 1] - meanG;
+            float b = block[i * BYTES_PER_PIXEL + 2] - meanB;
+            rr += r * r;
+            rg += r * g;
+            rb += r * b;
+            gg += g * g;
+            gb += g * b;
+            bb += b * b;
+        }
+        float axisR = 1.0f;
+        float axisG = 1.0f;
+        float axisB = 1.0f;
+        for (int iteration = 0; iteration < 8; ++iteration) {
+            float r = rr * axisR + rg * axisG + rb * axisB;
+            float g = rg * axisR + gg * axisG + gb * axisB;
+            float b = rb * axisR + gb * axisG + bb * axisB;
+            float length = Math.max(Math.abs(r), Math.max(Math.abs(g), Math.abs(b)));
+            if (length == 0.0f) {
+                break;
+            }
+            axisR = r / length;
+            axisG = g / length;
+            axisB = b / length;
+        }
+
+        float minProjection = Float.POSITIVE_INFINITY;
+        float maxProjection = Float.NEGATIVE_INFINITY;
+        int minPixel = 0;
+        int maxPixel = 0;
+        for (int i = 0; i < pixelCount; ++i) {
+            float projection = block[i * BYTES_PER_PIXEL] * axisR + block[i * BYTES_PER_PIXEL + 1] * axisG
+                    + block[i * BYTES_PER_PIXEL + 2] * axisB;
+            if (projection < minProjection) {
+                minProjection = projection;
+                minPixel = i;
+            }
+            if (projection > maxProjection) {
+                maxProjection = projection;
+                maxPixel = i;
+            }
+        }
+
+        // the endpoints are pulled in by 1/16 of the range, which lowers the error of the colours in between.
+        int[] low = new int[3];
+        int[] high = new int[3];
+        for (int channel = 0; channel < 3; ++channel) {
+            int lowValue = block[minPixel * BYTES_PER_PIXEL + channel];
+            int highValue = block[maxPixel * BYTES_PER_PIXEL + channel];
+            int inset = (highValue - lowValue) / 16;
+            low[channel] = lowValue + inset;
+            high[channel] = highValue - inset;
+        }
+        int bestColour0 = toRgb565(high);
+        int bestColour1 = toRgb565(low);
+        int[] indices = new int[1];
+        long bestError = assignIndices(block, bestColour0, bestColour1, indices);
+        int bestIndices = indices[0];
+
+        // refine the endpoints by least squares over the chosen indices, as long as it lowers the error.
+        float[] refinedHigh = new float[3];
+        float[] refinedLow = new float[3];
+        for (int iteration = 0; iteration < REFINEMENT_ITERATIONS && bestError > 0; ++iteration) {
+            if (!solveEndpoints(block, bestIndices, refinedHigh, refinedLow)) {
+                break;
+            }
+            int colour0 = toRgb565(refinedHigh);
+            int colour1 = toRgb565(refinedLow);
+            long error = assignIndices(block, colour0, colour1, indices);
+            if (error >= bestError) {
+                break;
+            }
+            bestError = error;
+            bestColour0 = colour0;
+            bestColour1 = colour1;
+            bestIndices = indices[0];
+        }
+
+        // the first endpoint must be the larger one, for the block to be decoded in its four colour mode.
+        int colour0 = bestColour0;
+        int colour1 = bestColour1;
+        int packedIndices = bestIndices;
+        if (colour0 < colour1) {
+            colour0 = bestColour1;
+            colour1 = bestColour0;
+            // swapping the endpoints swaps indices 0 and 1, and 2 and 3.
+            packedIndices ^= 0x55555555;
+        } else if (colour0 == colour1) {
+            packedIndices = 0;
+        }
+        target.put((byte) colour0).put((byte) (colour0 >>> 8));
+        target.put((byte) colour1).put((byte) (colour1 >>> 8));
+        target.put((byte) packedIndices).put((byte) (packedIndices >>> 8)).put((byte) (packedIndices >>> 16))
+                .put((byte) (packedIndices >>> 24));
+    }
+
+    /**
+     * Picks, for every pixel of a block, the closest of the four colours between two endpoints.
+     *
+     * @param indices - receives the 2 bit index of every pixel, packed in its first element.
+     * @return - the squared error of the block.
+     */
+    private static long assignIndices(int[] block, int colour0, int colour1, int[] indices) {
+        int[] palette = new int[4 * 3];
+        fromRgb565(colour0, palette, 0);
+        fromRgb565(colour1, palette, 3);
+        for (int channel = 0; channel < 3; ++channel) {
+            palette[6 + channel] = (2 * palette[channel] + palette[3 + channel]) / 3;
+            palette[9 + channel] = (palette[channel] + 2 * palette[3 + channel]) / 3;
+        }
+        long error = 0;
+        int packed = 0;
+        for (int i = 0; i < BLOCK_SIZE * BLOCK_SIZE; ++i) {
+            int best = 0;
+            int bestDistance = Integer.MAX_VALUE;
+            for (int candidate = 0; candidate < 4; ++candidate) {
+                int distance = 0;
+                for (int channel = 0; channel < 3; ++channel) {
+                    int difference = block[i * BYTES_PER_PIXEL + channel] - palette[candidate * 3 + channel];
+                    distance += difference * difference;
+                }
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = candidate;
+                }
+            }
+            packed |= best << (2 * i);
+            error += bestDistance;
+        }
+        indices[0] = packed;
+        return error;
+    }
+
+    /**
+     * Finds the two endpoints which minimise the squared error of the block for the given indices.
+     *
+     * @return - false if the indices do not determine the endpoints (e.g. they all pick the same endpoint).
+     */
+    private static boolean solveEndpoints(int[] block, int indices, float[] colour0, float[] colour1) {
+        float aa = 0.0f;
+        float ab = 0.0f;
+        float bb = 0.0f;
+        float[] ax = new float[3];
+        float[] bx = new float[3];
+        for (int i = 0; i < BLOCK_SIZE * BLOCK_SIZE; ++i) {
+            float weight = INDEX_WEIGHTS[indices >>> (2 * i) & 3];
+            float a = weight;
+            float b = 1.0f - weight;
+            aa += a * a;
+            ab += a * b;
+            bb += b * b;
+            for (int channel = 0; channel < 3; ++channel) {
+                ax[channel] += a * block[i * BYTES_PER_PIXEL + channel];
+                bx[channel] += b * block[i * BYTES_PER_PIXEL + channel];
+            }
+        }
+        float determinant = aa * bb - ab * ab;
+        if (Math.abs(determinant) < 1e-6f) {
+            return false;
+        }
+        for (int channel = 0; channel < 3; ++channel) {
+            colour0[channel] = Math.min(Math.max((ax[channel] * bb - bx[channel] * ab) / determinant, 0.0f), 255.0f);
+            colour1[channel] = Math.min(Math.max((bx[channel] * aa - ax[channel] * ab) / determinant, 0.0f), 255.0f);
+        }
+        return true;
+    }
+
+    private static int toRgb565(int[] colour) {
+        return toRgb565(new float[]{colour[0], colour[1], colour[2]});
+    }
+
+    private static int toRgb565(float[] colour) {
+        int r = Math.round(colour[0] * 31 / 255.0f);
+        int g = Math.round(colour[1] * 63 / 255.0f);
+        int b = Math.round(colour[2] * 31 / 255.0f);
+        return r << 11 | g << 5 | b;
+    }
+
+    private static void fromRgb565(int colour, int[] target, int offset) {
+        int r = colour >>> 11 & 0x1F;
+        int g = colour >>> 5 & 0x3F;
+        int b = colour & 0x1F;
+        target[offset] = r << 3 | r >>> 2;
+        target[offset + 1] = g << 2 | g >>> 4;
+        target[offset + 2] = b << 3 | b >>> 2;
+    }
+}
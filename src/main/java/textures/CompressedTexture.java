@@ -0,0 +1,172 @@
+package textures;
+
+import org.lwjgl.BufferUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A block compressed texture along with its whole mip chain, ready to be uploaded level by level with
+ * glCompressedTexImage2D (see {@link BlockCompressor}).
+ * <p>
+ * It is cached on disk in a minimal container: a header holding the magic number, the version of the format, the GL
+ * internal format, the size of level 0 and the number of levels, all as little endian ints, followed by the byte
+ * length and the blocks of every level, largest first.
+ */
+public class CompressedTexture {
+
+    private static final int MAGIC = 0x54434247; // "GBCT"
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 6;
+
+    private final int internalFormat;
+    private final int width;
+    private final int height;
+    private final ByteBuffer[] levels;
+
+    /**
+     * @param internalFormat - the GL internal format of the blocks, e.g. GL_COMPRESSED_RGB_S3TC_DXT1_EXT.
+     * @param width          - the width of level 0, in pixels.
+     * @param height         - the height of level 0, in pixels.
+     * @param levels         - the blocks of every level, largest first, each one flipped.
+     */
+    public CompressedTexture(int internalFormat, int width, int height, ByteBuffer[] levels) {
+        this.internalFormat = internalFormat;
+        this.width = width;
+        this.height = height;
+        this.levels = levels;
+    }
+
+    public int getInternalFormat() {
+        return internalFormat;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public ByteBuffer getLevel(int level) {
+        return levels[level];
+    }
+
+    /**
+     * @return - the width of a level, in pixels.
+     */
+    public int getLevelWidth(int level) {
+        return Math.max(1, width >> level);
+    }
+
+    /**
+     * @return - the height of a level, in pixels.
+     */
+    public int getLevelHeight(int level) {
+        return Math.max(1, height >> level);
+    }
+
+    /**
+     * @return - the memory the texture takes once uploaded, in bytes.
+     */
+    public long getByteCount() {
+        long bytes = 0;
+        for (ByteBuffer level : levels) {
+            bytes += level.remaining();
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the texture to a cache file. The file is written next to its destination, then moved in place, so that
+     * an interrupted write never leaves a truncated cache behind.
+     *
+     * @param file - the cache file.
+     * @throws IOException - if the file cannot be written.
+     */
+    public void write(Path file) throws IOException {
+        Path folder = file.toAbsolutePath().getParent();
+        Files.createDirectories(folder);
+        // a file of its own, so that concurrent writers of the same texture never interleave.
+        Path temporary = Files.createTempFile(folder, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_INTS * 4).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(internalFormat).putInt(width).putInt(height)
+                        .putInt(levels.length);
+                header.flip();
+                writeFully(channel, header);
+                ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+                for (ByteBuffer level : levels) {
+                    length.clear();
+                    length.putInt(level.remaining()).flip();
+                    writeFully(channel, length);
+                    writeFully(channel, level.duplicate());
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads a texture from a cache file.
+     *
+     * @param file - the cache file.
+     * @return - the texture.
+     * @throws IOException - if the file cannot be read, or is not a cache file of the current version.
+     */
+    public static CompressedTexture read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_INTS * 4).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a texture cache file of version " + VERSION + ": " + file);
+            }
+            int internalFormat = header.getInt();
+            int width = header.getInt();
+            int height = header.getInt();
+            ByteBuffer[] levels = new ByteBuffer[header.getInt()];
+            ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            for (int level = 0; level < levels.length; ++level) {
+                length.clear();
+                readFully(channel, length);
+                levels[level] = BufferUtils.createByteBuffer(length.getInt());
+                readFully(channel, levels[level]);
+            }
+            return new CompressedTexture(internalFormat, width, height, levels);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Fills the buffer from the channel, and flips it.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of the texture cache file.");
+            }
+        }
+        buffer.flip();
+    }
+}
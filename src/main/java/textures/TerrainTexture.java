@@ -6,12 +6,26 @@ package textures;
 public class TerrainTexture {
 
     private int textureID;
+    private int layerCount;
 
     public TerrainTexture(int textureID) {
+        this(textureID, 1);
+    }
+
+    /**
+     * @param textureID  - the ID of the texture; a GL_TEXTURE_2D_ARRAY for the textures of terrains.
+     * @param layerCount - the number of layers of the texture array.
+     */
+    public TerrainTexture(int textureID, int layerCount) {
         this.textureID = textureID;
+        this.layerCount = layerCount;
     }
 
     public int getTextureID() {
         return textureID;
     }
+
+    public int getLayerCount() {
+        return layerCount;
+    }
 }
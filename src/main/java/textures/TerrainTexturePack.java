@@ -1,34 +1,44 @@
 package textures;
 
 /**
+ * The textures a terrain is painted with, as the layers of a single texture array, so that any number of them is drawn
+ * with one bound texture, and tiles sharing a pack are drawn without rebinding anything.
+ * <p>
+ * Layer 0 is the background, which covers whatever the blendmap leaves uncovered. Each following layer gets one channel
+ * of the blendmap, in order: layers 1 to 4 the red, green, blue and alpha channels of blendmap layer 0, layers 5 to 8
+ * those of blendmap layer 1, and so on; see {@link #getBlendmapLayerCount()}.
+ * <p>
  * Created by ThatKidFlo on 6/20/2016.
  */
 public class TerrainTexturePack {
-    private TerrainTexture backgroundTexture;
-    private TerrainTexture redTexture;
-    private TerrainTexture greenTexture;
-    private TerrainTexture blueTexture;
 
-    public TerrainTexturePack(TerrainTexture backgroundTexture, TerrainTexture redTexture, TerrainTexture greenTexture, TerrainTexture blueTexture) {
-        this.backgroundTexture = backgroundTexture;
-        this.redTexture = redTexture;
-        this.greenTexture = greenTexture;
-        this.blueTexture = blueTexture;
-    }
+    private static final int CHANNELS_PER_BLENDMAP_LAYER = 4;
+
+    private TerrainTexture layers;
 
-    public TerrainTexture getBackgroundTexture() {
-        return backgroundTexture;
+    /**
+     * @param layers - the texture array holding the layers, background first (see {@link
+     *               renderengine.Loader#loadTextureArray(String...)}).
+     */
+    public TerrainTexturePack(TerrainTexture layers) {
+        if (layers.getLayerCount() < 1) {
+            throw new IllegalArgumentException("A texture pack needs at least a background layer.");
+        }
+        this.layers = layers;
     }
 
-    public TerrainTexture getRedTexture() {
-        return redTexture;
+    public TerrainTexture getLayers() {
+        return layers;
     }
 
-    public TerrainTexture getGreenTexture() {
-        return greenTexture;
+    public int getLayerCount() {
+        return layers.getLayerCount();
     }
 
-    public TerrainTexture getBlueTexture() {
-        return blueTexture;
+    /**
+     * @return - the number of layers the blendmap of a terrain painted with this pack must have.
+     */
+    public int getBlendmapLayerCount() {
+        return (getLayerCount() - 1 + CHANNELS_PER_BLENDMAP_LAYER - 1) / CHANNELS_PER_BLENDMAP_LAYER;
     }
 }
@@ -0,0 +1,129 @@
+package textures;
+
+import models.ModelData;
+
+import java.util.Map;
+
+/**
+ * A texture holding several images, each in its own region (see {@link TextureAtlasBuilder}). Models textured with one
+ * of the images have their texture coordinates remapped into its region, at load time, after which all of them are
+ * drawn with the same texture, so switching between them needs no texture bind.
+ */
+public class TextureAtlas {
+
+    /**
+     * Texture coordinates a little outside [0, 1] are still accepted, as exporters round them.
+     */
+    private static final float COORDINATE_TOLERANCE = 1e-3f;
+
+    private final int textureID;
+    private final Map<String, Region> regions;
+
+    public TextureAtlas(int textureID, Map<String, Region> regions) {
+        this.textureID = textureID;
+        this.regions = regions;
+    }
+
+    public int getTextureID() {
+        return textureID;
+    }
+
+    /**
+     * @return - whether the image of the given name was packed in the atlas.
+     */
+    public boolean contains(String name) {
+        return regions.containsKey(name);
+    }
+
+    public Region getRegion(String name) {
+        return regions.get(name);
+    }
+
+    /**
+     * Remaps the texture coordinates of a model into the region of an image of the atlas.
+     * <p>
+     * Only coordinates within [0, 1] can be remapped: a model which repeats its texture would sample the neighbouring
+     * regions instead, so such models must keep a texture of their own (see {@link #canRemap(ModelData)}).
+     *
+     * @param name - the name of the image the model is textured with.
+     * @param data - the model.
+     * @return - a copy of the model sampling the region of the image, sharing everything else with the original.
+     */
+    public ModelData remap(String name, ModelData data) {
+        Region region = regions.get(name);
+        if (region == null) {
+            throw new IllegalArgumentException("The image " + name + " is not part of the atlas.");
+        }
+        return remap(region, data);
+    }
+
+    /**
+     * Remaps the texture coordinates of a model into a region, before the atlas itself is uploaded (e.g. on a worker
+     * thread, right after the atlas was packed).
+     *
+     * @param region - the region of the image the model is textured with.
+     * @param data   - the model.
+     * @return - a copy of the model sampling the region, sharing everything else with the original.
+     */
+    public static ModelData remap(Region region, ModelData data) {
+        if (!canRemap(data)) {
+            throw new IllegalArgumentException("The texture coordinates of the model leave [0, 1].");
+        }
+        float[] textureCoords = data.getTextureCoords();
+        float[] remapped = new float[textureCoords.length];
+        for (int i = 0; i < textureCoords.length; i += 2) {
+            float u = Math.min(Math.max(textureCoords[i], 0.0f), 1.0f);
+            float v = Math.min(Math.max(textureCoords[i + 1], 0.0f), 1.0f);
+            remapped[i] = region.getU() + u * region.getWidth();
+            remapped[i + 1] = region.getV() + v * region.getHeight();
+        }
+        return new ModelData(data.getVertices(), remapped, data.getNormals(), data.getIndices(),
+                data.getFurthestPoint());
+    }
+
+    /**
+     * @return - whether every texture coordinate of the model lies within [0, 1].
+     */
+    public static boolean canRemap(ModelData data) {
+        for (float coordinate : data.getTextureCoords()) {
+            if (coordinate < -COORDINATE_TOLERANCE || coordinate > 1.0f + COORDINATE_TOLERANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The area an image takes in the atlas, in texture coordinates, gutters excluded.
+     */
+    public static class Region {
+
+        private final float u;
+        private final float v;
+        private final float width;
+        private final float height;
+
+        public Region(float u, float v, float width, float height) {
+            this.u = u;
+            this.v = v;
+            this.width = width;
+            this.height = height;
+        }
+
+        public float getU() {
+            return u;
+        }
+
+        public float getV() {
+            return v;
+        }
+
+        public float getWidth() {
+            return width;
+        }
+
+        public float getHeight() {
+            return height;
+        }
+    }
+}
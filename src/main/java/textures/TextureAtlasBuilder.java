@@ -0,0 +1,131 @@
+package textures;
+
+import org.lwjgl.BufferUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs small images into the pixels of a single atlas, so that models textured with any of them can share texture
+ * state. The images are placed on shelves (rows), tallest first, each one surrounded by a gutter.
+ * <p>
+ * The gutters and positions are chosen so that the atlas stays correct down to mip level {@link #MAX_MIP_LEVEL}: every
+ * image starts on a multiple of 2^MAX_MIP_LEVEL pixels, so no texel of a mip level mixes two images, and the gutter is
+ * 2^MAX_MIP_LEVEL pixels wide, so it is still a texel wide at that level. The gutter holds the image wrapped around, as
+ * GL_REPEAT would sample it, so bilinear filtering on the edges of a region matches what a standalone texture gives.
+ */
+public class TextureAtlasBuilder {
+
+    /**
+     * The last mip level of the atlas; the atlas texture must not use the levels after it.
+     */
+    public static final int MAX_MIP_LEVEL = 4;
+    private static final int ALIGNMENT = 1 << MAX_MIP_LEVEL;
+    private static final int GUTTER = ALIGNMENT;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final int width;
+    private final Map<String, TextureData> images = new LinkedHashMap<>();
+
+    /**
+     * @param width - the width of the atlas, in pixels; its height is as much as the images need.
+     */
+    public TextureAtlasBuilder(int width) {
+        if (width % ALIGNMENT != 0) {
+            throw new IllegalArgumentException("The width of an atlas must be a multiple of " + ALIGNMENT + ".");
+        }
+        this.width = width;
+    }
+
+    /**
+     * Queues an image for packing.
+     *
+     * @param name  - the name the region of the image is looked up by.
+     * @param image - the image.
+     * @return - false if the image is too wide to fit in the atlas, in which case it is left out.
+     */
+    public boolean add(String name, TextureData image) {
+        if (paddedSize(image.getWidth()) > width) {
+            return false;
+        }
+        images.put(name, image);
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return images.isEmpty();
+    }
+
+    /**
+     * Packs the queued images.
+     *
+     * @param regions - receives the region of every image, by name.
+     * @return - the pixels of the atlas.
+     */
+    public TextureData build(Map<String, TextureAtlas.Region> regions) {
+        List<Map.Entry<String, TextureData>> sorted = new ArrayList<>(images.entrySet());
+        sorted.sort(Comparator.comparingInt((Map.Entry<String, TextureData> entry) -> entry.getValue().getHeight())
+                .reversed());
+
+        // first pass: the position of every cell, and the height of the atlas.
+        int[] cellX = new int[sorted.size()];
+        int[] cellY = new int[sorted.size()];
+        int shelfX = 0;
+        int shelfY = 0;
+        int shelfHeight = 0;
+        for (int i = 0; i < sorted.size(); ++i) {
+            TextureData image = sorted.get(i).getValue();
+            int cellWidth = paddedSize(image.getWidth());
+            if (shelfX + cellWidth > width) {
+                shelfY += shelfHeight;
+                shelfX = 0;
+                shelfHeight = 0;
+            }
+            cellX[i] = shelfX;
+            cellY[i] = shelfY;
+            shelfX += cellWidth;
+            // the first image of each shelf is the tallest one.
+            shelfHeight = Math.max(shelfHeight, paddedSize(image.getHeight()));
+        }
+        int height = Math.max(ALIGNMENT, shelfY + shelfHeight);
+
+        ByteBuffer pixels = BufferUtils.createByteBuffer(width * height * BYTES_PER_PIXEL);
+        for (int i = 0; i < sorted.size(); ++i) {
+            TextureData image = sorted.get(i).getValue();
+            int left = cellX[i] + GUTTER;
+            int top = cellY[i] + GUTTER;
+            copyWithGutter(image, pixels, left, top);
+            regions.put(sorted.get(i).getKey(), new TextureAtlas.Region(
+                    (float) left / width, (float) top / height,
+                    (float) image.getWidth() / width, (float) image.getHeight() / height));
+        }
+        return new TextureData(width, height, pixels);
+    }
+
+    /**
+     * Copies an image to the atlas, along with the gutter around it.
+     */
+    private void copyWithGutter(TextureData image, ByteBuffer atlas, int left, int top) {
+        ByteBuffer source = image.getPixels();
+        for (int y = -GUTTER; y < image.getHeight() + GUTTER; ++y) {
+            int sourceRow = Math.floorMod(y, image.getHeight()) * image.getWidth();
+            int targetRow = (top + y) * width;
+            for (int x = -GUTTER; x < image.getWidth() + GUTTER; ++x) {
+                int sourcePixel = (sourceRow + Math.floorMod(x, image.getWidth())) * BYTES_PER_PIXEL;
+                int targetPixel = (targetRow + left + x) * BYTES_PER_PIXEL;
+                atlas.putInt(targetPixel, source.getInt(sourcePixel));
+            }
+        }
+    }
+
+    /**
+     * @return - the size of the cell holding an image of the given size, gutters included, rounded up to the alignment.
+     */
+    private static int paddedSize(int size) {
+        return (size + 2 * GUTTER + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
@@ -0,0 +1,109 @@
+package textures;
+
+import de.matthiasmann.twl.utils.PNGDecoder;
+import org.lwjgl.BufferUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The decoded pixels of an image, as 8 bit RGBA, row by row, ready to be uploaded to a texture.
+ */
+public class TextureData {
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final int width;
+    private final int height;
+    private final ByteBuffer pixels;
+
+    /**
+     * @param width  - the width of the image, in pixels.
+     * @param height - the height of the image, in pixels.
+     * @param pixels - the RGBA pixels of the image, flipped, holding exactly width * height * 4 bytes.
+     */
+    public TextureData(int width, int height, ByteBuffer pixels) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Decodes a PNG image.
+     *
+     * @param in - the stream holding the PNG file; it is not closed.
+     * @return - the decoded image.
+     * @throws IOException - if the stream cannot be read, or does not hold a supported PNG image.
+     */
+    public static TextureData decode(InputStream in) throws IOException {
+        PNGDecoder decoder = new PNGDecoder(in);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BYTES_PER_PIXEL * decoder.getWidth() * decoder.getHeight());
+        buffer.order(ByteOrder.nativeOrder());
+        decoder.decode(buffer, decoder.getWidth() * BYTES_PER_PIXEL, PNGDecoder.Format.RGBA);
+        buffer.flip();
+        return new TextureData(decoder.getWidth(), decoder.getHeight(), buffer);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public ByteBuffer getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Resamples the image bilinearly to another size. The image is treated as tiling, so the pixels on each edge are
+     * blended with the ones on the opposite edge, as they would be by a repeating texture.
+     *
+     * @param newWidth  - the width of the resampled image, in pixels.
+     * @param newHeight - the height of the resampled image, in pixels.
+     * @return - the resampled image, or this image if it already has the requested size.
+     */
+    public TextureData resize(int newWidth, int newHeight) {
+        if (newWidth == width && newHeight == height) {
+            return this;
+        }
+        ByteBuffer resized = BufferUtils.createByteBuffer(newWidth * newHeight * BYTES_PER_PIXEL);
+        float scaleX = (float) width / newWidth;
+        float scaleY = (float) height / newHeight;
+        for (int y = 0; y < newHeight; ++y) {
+            // sample at the centre of the new pixel.
+            float sourceY = (y + 0.5f) * scaleY - 0.5f;
+            int top = (int) Math.floor(sourceY);
+            float fractionY = sourceY - top;
+            int row0 = Math.floorMod(top, height) * width;
+            int row1 = Math.floorMod(top + 1, height) * width;
+            for (int x = 0; x < newWidth; ++x) {
+                float sourceX = (x + 0.5f) * scaleX - 0.5f;
+                int left = (int) Math.floor(sourceX);
+                float fractionX = sourceX - left;
+                int column0 = Math.floorMod(left, width);
+                int column1 = Math.floorMod(left + 1, width);
+                for (int channel = 0; channel < BYTES_PER_PIXEL; ++channel) {
+                    float upper = lerp(component(row0 + column0, channel), component(row0 + column1, channel),
+                            fractionX);
+                    float lower = lerp(component(row1 + column0, channel), component(row1 + column1, channel),
+                            fractionX);
+                    resized.put((byte) Math.round(lerp(upper, lower, fractionY)));
+                }
+            }
+        }
+        resized.flip();
+        return new TextureData(newWidth, newHeight, resized);
+    }
+
+    private float component(int pixel, int channel) {
+        return pixels.get(pixel * BYTES_PER_PIXEL + channel) & 0xFF;
+    }
+
+    private static float lerp(float a, float b, float fraction) {
+        return a + fraction * (b - a);
+    }
+}
@@ -27,6 +27,21 @@ public final class Maths {
                 .scale(scale);
     }
 
+    /**
+     * Same as {@link #createTransformationMatrix(Vector3f, float, float, float, float)}, but writes the result into
+     * the destination matrix, instead of allocating a new one.
+     *
+     * @param dest - the {@link Matrix4f} that will hold the result.
+     * @return - dest.
+     */
+    public static Matrix4f createTransformationMatrix(Vector3f translation, float rx, float ry, float rz, float scale,
+                                                      Matrix4f dest) {
+        return dest
+                .translation(translation)
+                .rotateXYZ(toRadiansf(rx), toRadiansf(ry), toRadiansf(rz))
+                .scale(scale);
+    }
+
     /**
      * Creates the view matrix corresponding to the position, and orientation of the camera passed in as a parameter.
      *
@@ -1,12 +1,13 @@
 package utils;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
+import renderengine.GLState;
+
+import textures.TextureData;
+
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.IntBuffer;
 
 import static org.lwjgl.opengl.GL11.*;
 
@@ -22,52 +23,41 @@ public class Texture {
         texture = load(path);
     }
 
+    /**
+     * Decodes the PNG straight into off-heap memory, in the RGBA layout GL expects, so no per-pixel conversion is
+     * needed.
+     */
     private int load(String path) {
-        int[] pixels = null;
-        try {
-            BufferedImage image = ImageIO.read(new FileInputStream(path));
+        ByteBuffer pixels = null;
+        try (InputStream in = new FileInputStream(path)) {
+            TextureData image = TextureData.decode(in);
             width = image.getWidth();
             height = image.getHeight();
-            pixels = new int[width * height];
-            image.getRGB(0, 0, width, height, pixels, 0, width);
+            pixels = image.getPixels();
         } catch (IOException e) {
             e.printStackTrace();
         }
 
-        int[] data = new int[width * height];
-        for (int i = 0; i < width * height; i++) {
-            int a = (pixels[i] & 0xff000000) >> 24;
-            int r = (pixels[i] & 0xff0000) >> 16;
-            int g = (pixels[i] & 0xff00) >> 8;
-            int b = (pixels[i] & 0xff);
-
-            data[i] = a << 24 | b << 16 | g << 8 | r;
-        }
-
         int result = glGenTextures();
-        glBindTexture(GL_TEXTURE_2D, result);
+        GLState.bindTexture(0, GL_TEXTURE_2D, result);
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
 
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
 
-        IntBuffer buffer = ByteBuffer.allocateDirect(data.length << 2)
-                .order(ByteOrder.nativeOrder()).asIntBuffer();
-        buffer.put(data).flip();
-
         glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA,
-                GL_UNSIGNED_BYTE, buffer);
-        glBindTexture(GL_TEXTURE_2D, 0);
+                GL_UNSIGNED_BYTE, pixels);
+        GLState.bindTexture(0, GL_TEXTURE_2D, 0);
         return result;
     }
 
     public void bind() {
-        glBindTexture(GL_TEXTURE_2D, texture);
+        GLState.bindTexture(0, GL_TEXTURE_2D, texture);
     }
 
     public void unbind() {
-        glBindTexture(GL_TEXTURE_2D, 0);
+        GLState.bindTexture(0, GL_TEXTURE_2D, 0);
     }
 
     public int getTextureID() {
@@ -0,0 +1,267 @@
+package utils.objparser;
+
+import models.ModelData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Parses .obj files straight from their bytes (see {@link OBJScanner}): the elements are stored in growable primitive
+ * arrays, so parsing allocates nothing per line, vertex or face.
+ * <p>
+ * The output is the same as the one of the original parser of the {@link renderengine.OBJLoader}: vertex i is position
+ * i, textured and lit by the first texture coordinates and normal it is used with, and every other combination of
+ * texture coordinates and normal used with a position becomes a new vertex, appended in the order the faces use it.
+ * On top of that, it supports:
+ * <ul>
+ * <li>polygons of any number of vertices, triangulated as fans around their first vertex;</li>
+ * <li>negative indices, counting back from the last element defined before the face;</li>
+ * <li>faces without texture coordinates and/or normals (f v, f v/vt, f v//vn), which get zero ones;</li>
+ * <li>faces interleaved with other statements, e.g. groups and materials.</li>
+ * </ul>
+ */
+public final class OBJParser extends OBJScanner {
+
+    private final FloatArray positions = new FloatArray();
+    private final FloatArray textureCoords = new FloatArray();
+    private final FloatArray normals = new FloatArray();
+    /**
+     * The (position, texture coordinates, normal) index triplet of every corner of every triangle, 0 based, or
+     * {@link #NONE} for a missing element.
+     */
+    private final IntArray corners = new IntArray();
+
+    private OBJParser(ByteBuffer data) {
+        this.data = data;
+        this.position = data.position();
+        this.end = data.limit();
+    }
+
+    /**
+     * Parses an .obj file, mapped in memory.
+     *
+     * @param file - the .obj file.
+     * @return - the parsed model.
+     * @throws IOException - if the file cannot be read.
+     */
+    public static ModelData parse(Path file) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return parse(mapped);
+    }
+
+    /**
+     * Parses the contents of an .obj file.
+     *
+     * @param data - the bytes of the file, from its position to its limit; they are not consumed.
+     * @return - the parsed model.
+     * @throws IllegalArgumentException - if a face refers to an element which is not defined.
+     */
+    public static ModelData parse(ByteBuffer data) {
+        OBJParser parser = new OBJParser(data);
+        parser.parseStatements();
+        return parser.buildModel();
+    }
+
+    @Override
+    protected void addPosition(float x, float y, float z) {
+        positions.add(x);
+        positions.add(y);
+        positions.add(z);
+    }
+
+    @Override
+    protected void addTextureCoords(float u, float v) {
+        textureCoords.add(u);
+        textureCoords.add(v);
+    }
+
+    @Override
+    protected void addNormal(float x, float y, float z) {
+        normals.add(x);
+        normals.add(y);
+        normals.add(z);
+    }
+
+    @Override
+    protected void addCorner(int positionIndex, int textureIndex, int normalIndex) {
+        corners.add(positionIndex);
+        corners.add(textureIndex);
+        corners.add(normalIndex);
+    }
+
+    @Override
+    protected int getPositionCount() {
+        return positions.size() / 3;
+    }
+
+    @Override
+    protected int getTextureCoordsCount() {
+        return textureCoords.size() / 2;
+    }
+
+    @Override
+    protected int getNormalCount() {
+        return normals.size() / 3;
+    }
+
+    /**
+     * Gives every distinct (position, texture coordinates, normal) triplet a vertex, then fills the arrays of the
+     * model.
+     */
+    private ModelData buildModel() {
+        int positionCount = positions.size() / 3;
+        // the first combination used with a position takes the vertex of the position itself.
+        int[] baseTexture = new int[positionCount];
+        int[] baseNormal = new int[positionCount];
+        boolean[] claimed = new boolean[positionCount];
+        CornerTable duplicates = new CornerTable();
+        IntArray vertexPositions = new IntArray();
+        IntArray vertexTextures = new IntArray();
+        IntArray vertexNormals = new IntArray();
+
+        int[] indices = new int[corners.size() / 3];
+        for (int corner = 0; corner < indices.length; ++corner) {
+            int positionIndex = corners.get(corner * 3);
+            int textureIndex = corners.get(corner * 3 + 1);
+            int normalIndex = corners.get(corner * 3 + 2);
+            if (!claimed[positionIndex]) {
+                claimed[positionIndex] = true;
+                baseTexture[positionIndex] = textureIndex;
+                baseNormal[positionIndex] = normalIndex;
+                indices[corner] = positionIndex;
+            } else if (baseTexture[positionIndex] == textureIndex && baseNormal[positionIndex] == normalIndex) {
+                indices[corner] = positionIndex;
+            } else {
+                int vertex = duplicates.get(positionIndex, textureIndex, normalIndex);
+                if (vertex == NONE) {
+                    vertex = positionCount + vertexPositions.size();
+                    duplicates.put(positionIndex, textureIndex, normalIndex, vertex);
+                    vertexPositions.add(positionIndex);
+                    vertexTextures.add(textureIndex);
+                    vertexNormals.add(normalIndex);
+                }
+                indices[corner] = vertex;
+            }
+        }
+
+        int vertexCount = positionCount + vertexPositions.size();
+        float[] verticesArray = new float[vertexCount * 3];
+        float[] texturesArray = new float[vertexCount * 2];
+        float[] normalsArray = new float[vertexCount * 3];
+        float furthest = 0.0f;
+        for (int vertex = 0; vertex < vertexCount; ++vertex) {
+            int positionIndex;
+            int textureIndex;
+            int normalIndex;
+            if (vertex < positionCount) {
+                positionIndex = vertex;
+                // unused positions take the first texture coordinates and normal, as with the original parser.
+                textureIndex = claimed[vertex] ? baseTexture[vertex] : 0;
+                normalIndex = claimed[vertex] ? baseNormal[vertex] : 0;
+            } else {
+                positionIndex = vertexPositions.get(vertex - positionCount);
+                textureIndex = vertexTextures.get(vertex - positionCount);
+                normalIndex = vertexNormals.get(vertex - positionCount);
+            }
+            float x = positions.get(positionIndex * 3);
+            float y = positions.get(positionIndex * 3 + 1);
+            float z = positions.get(positionIndex * 3 + 2);
+            verticesArray[vertex * 3] = x;
+            verticesArray[vertex * 3 + 1] = y;
+            verticesArray[vertex * 3 + 2] = z;
+            furthest = Math.max(furthest, (float) Math.sqrt(x * x + y * y + z * z));
+
+            float u = 0.0f;
+            float v = 0.0f;
+            if (textureIndex != NONE && textureIndex < textureCoords.size() / 2) {
+                u = textureCoords.get(textureIndex * 2);
+                v = textureCoords.get(textureIndex * 2 + 1);
+            }
+            texturesArray[vertex * 2] = u;
+            // 1-y because OpenGL actually starts UV mapping from the top left corner
+            texturesArray[vertex * 2 + 1] = 1 - v;
+
+            if (normalIndex != NONE && normalIndex < normals.size() / 3) {
+                normalsArray[vertex * 3] = normals.get(normalIndex * 3);
+                normalsArray[vertex * 3 + 1] = normals.get(normalIndex * 3 + 1);
+                normalsArray[vertex * 3 + 2] = normals.get(normalIndex * 3 + 2);
+            }
+        }
+        return new ModelData(verticesArray, texturesArray, normalsArray, indices, furthest);
+    }
+
+    /**
+     * An open addressing hash table, with linear probing, from (position, texture coordinates, normal) triplets to
+     * the vertex created for them.
+     */
+    private static final class CornerTable {
+
+        private int[] keys = new int[3 * 1024];
+        private int[] vertices = new int[1024];
+        private int size;
+
+        CornerTable() {
+            Arrays.fill(vertices, NONE);
+        }
+
+        int get(int positionIndex, int textureIndex, int normalIndex) {
+            int mask = vertices.length - 1;
+            for (int slot = hash(positionIndex, textureIndex, normalIndex) & mask; ; slot = (slot + 1) & mask) {
+                if (vertices[slot] == NONE) {
+                    return NONE;
+                }
+                if (keys[slot * 3] == positionIndex && keys[slot * 3 + 1] == textureIndex
+                        && keys[slot * 3 + 2] == normalIndex) {
+                    return vertices[slot];
+                }
+            }
+        }
+
+        /**
+         * Adds a triplet which is not in the table yet.
+         */
+        void put(int positionIndex, int textureIndex, int normalIndex, int vertex) {
+            // kept at most half full, so that probes stay short.
+            if (2 * (size + 1) > vertices.length) {
+                grow();
+            }
+            int mask = vertices.length - 1;
+            int slot = hash(positionIndex, textureIndex, normalIndex) & mask;
+            while (vertices[slot] != NONE) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot * 3] = positionIndex;
+            keys[slot * 3 + 1] = textureIndex;
+            keys[slot * 3 + 2] = normalIndex;
+            vertices[slot] = vertex;
+            ++size;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldVertices = vertices;
+            keys = new int[oldKeys.length * 2];
+            vertices = new int[oldVertices.length * 2];
+            Arrays.fill(vertices, NONE);
+            size = 0;
+            for (int slot = 0; slot < oldVertices.length; ++slot) {
+                if (oldVertices[slot] != NONE) {
+                    put(oldKeys[slot * 3], oldKeys[slot * 3 + 1], oldKeys[slot * 3 + 2], oldVertices[slot]);
+                }
+            }
+        }
+
+        private static int hash(int positionIndex, int textureIndex, int normalIndex) {
+            int hash = positionIndex * 0x9E3779B1 ^ textureIndex * 0x85EBCA77 ^ normalIndex * 0xC2B2AE3D;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
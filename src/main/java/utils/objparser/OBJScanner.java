@@ -0,0 +1,352 @@
+package utils.objparser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the statements of an .obj file straight from its bytes, with a hand-written number parser, and hands the
+ * elements they define to its subclass, which decides how to store them (see {@link OBJParser} and
+ * {@link OBJStreamParser}). Only positions, texture coordinates, normals and faces are read; faces are triangulated as
+ * fans around their first corner, and their indices are resolved to 0 based ones.
+ */
+abstract class OBJScanner {
+
+    static final int NONE = -1;
+    /**
+     * Doubles holding an integer up to 2^53, and powers of ten up to 10^22, are exact, so that dividing or multiplying
+     * them is correctly rounded.
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18,
+            1e19, 1e20, 1e21, 1e22
+    };
+    /**
+     * The bits of a double which are rounded off when it is cast to a float, and their value when the double lies
+     * exactly half way between two floats.
+     */
+    private static final long FLOAT_ROUNDED_BITS = (1L << 29) - 1;
+    private static final long FLOAT_HALF_WAY = 1L << 28;
+
+    /**
+     * The bytes being parsed, from position to end.
+     */
+    ByteBuffer data;
+    int position;
+    int end;
+
+    /**
+     * The corners of the polygon being read, before it is triangulated.
+     */
+    private final IntArray polygon = new IntArray();
+
+    protected abstract void addPosition(float x, float y, float z);
+
+    protected abstract void addTextureCoords(float u, float v);
+
+    protected abstract void addNormal(float x, float y, float z);
+
+    /**
+     * Adds a corner of a triangle.
+     *
+     * @param positionIndex - the 0 based index of the position of the corner.
+     * @param textureIndex  - the 0 based index of its texture coordinates, or {@link #NONE}.
+     * @param normalIndex   - the 0 based index of its normal, or {@link #NONE}.
+     */
+    protected abstract void addCorner(int positionIndex, int textureIndex, int normalIndex);
+
+    protected abstract int getPositionCount();
+
+    protected abstract int getTextureCoordsCount();
+
+    protected abstract int getNormalCount();
+
+    /**
+     * Parses the statements from the current position up to the end, each of which must be complete.
+     */
+    void parseStatements() {
+        while (position < end) {
+            skipBlanks();
+            if (position >= end) {
+                break;
+            }
+            byte first = data.get(position);
+            byte second = position + 1 < end ? data.get(position + 1) : (byte) '\n';
+            if (first == 'v' && isBlank(second)) {
+                position += 1;
+                addPosition(nextFloat(), nextFloat(), nextFloat());
+            } else if (first == 'v' && second == 't' && position + 2 < end && isBlank(data.get(position + 2))) {
+                position += 2;
+                addTextureCoords(nextFloat(), nextFloat());
+            } else if (first == 'v' && second == 'n' && position + 2 < end && isBlank(data.get(position + 2))) {
+                position += 2;
+                addNormal(nextFloat(), nextFloat(), nextFloat());
+            } else if (first == 'f' && isBlank(second)) {
+                position += 1;
+                readFace();
+            }
+            skipLine();
+        }
+    }
+
+    /**
+     * Reads the next float of the line; any further ones are ignored (e.g. the w of a position).
+     */
+    private float nextFloat() {
+        skipBlanks();
+        return readFloat();
+    }
+
+    private void readFace() {
+        polygon.clear();
+        while (true) {
+            skipBlanks();
+            if (position >= end || isEndOfLine(data.get(position))) {
+                break;
+            }
+            int positionIndex = resolve(readInt(), getPositionCount(), "position");
+            int textureIndex = NONE;
+            int normalIndex = NONE;
+            if (position < end && data.get(position) == '/') {
+                ++position;
+                if (position < end && data.get(position) != '/') {
+                    textureIndex = resolve(readInt(), getTextureCoordsCount(), "texture coordinates");
+                }
+                if (position < end && data.get(position) == '/') {
+                    ++position;
+                    normalIndex = resolve(readInt(), getNormalCount(), "normal");
+                }
+            }
+            polygon.add(positionIndex);
+            polygon.add(textureIndex);
+            polygon.add(normalIndex);
+        }
+        int cornerCount = polygon.size() / 3;
+        for (int i = 1; i + 1 < cornerCount; ++i) {
+            emitCorner(0);
+            emitCorner(i);
+            emitCorner(i + 1);
+        }
+    }
+
+    private void emitCorner(int corner) {
+        addCorner(polygon.get(corner * 3), polygon.get(corner * 3 + 1), polygon.get(corner * 3 + 2));
+    }
+
+    /**
+     * Turns a 1 based index, or a negative one relative to the elements defined so far, into a 0 based index.
+     */
+    private static int resolve(int index, int count, String element) {
+        int resolved = index < 0 ? count + index : index - 1;
+        if (resolved < 0 || resolved >= count) {
+            throw new IllegalArgumentException("Face refers to undefined " + element + " " + index + ".");
+        }
+        return resolved;
+    }
+
+    private int readInt() {
+        boolean negative = false;
+        if (position < end && (data.get(position) == '-' || data.get(position) == '+')) {
+            negative = data.get(position) == '-';
+            ++position;
+        }
+        int start = position;
+        long value = 0;
+        while (position < end && isDigit(data.get(position))) {
+            value = value * 10 + (data.get(position) - '0');
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Index out of range at byte " + start + ".");
+            }
+            ++position;
+        }
+        if (position == start) {
+            throw new IllegalArgumentException("Expected an index at byte " + start + ".");
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Reads a decimal number, with an optional sign, fraction and exponent. The result is the float closest to the
+     * number, exactly as {@link Float#parseFloat(String)} would return it: the digits are gathered in a long, scaled
+     * by an exact power of ten as a double, which is correctly rounded, then rounded to a float. Rounding twice only
+     * differs from rounding once when the double lies half way between two floats, and the few numbers for which it
+     * does, or which do not fit in the exact range, are handed to {@link Float#parseFloat(String)}.
+     */
+    private float readFloat() {
+        int start = position;
+        boolean negative = false;
+        if (position < end && (data.get(position) == '-' || data.get(position) == '+')) {
+            negative = data.get(position) == '-';
+            ++position;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        boolean exact = true;
+        boolean anyDigit = false;
+        while (position < end && isDigit(data.get(position))) {
+            anyDigit = true;
+            if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                mantissa = mantissa * 10 + (data.get(position) - '0');
+            } else {
+                exact = false;
+            }
+            ++position;
+        }
+        if (position < end && data.get(position) == '.') {
+            ++position;
+            while (position < end && isDigit(data.get(position))) {
+                anyDigit = true;
+                if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                    mantissa = mantissa * 10 + (data.get(position) - '0');
+                    --exponent;
+                } else if (data.get(position) != '0') {
+                    exact = false;
+                }
+                ++position;
+            }
+        }
+        if (!anyDigit) {
+            return fallback(start);
+        }
+        if (position < end && (data.get(position) == 'e' || data.get(position) == 'E')) {
+            ++position;
+            boolean negativeExponent = false;
+            if (position < end && (data.get(position) == '-' || data.get(position) == '+')) {
+                negativeExponent = data.get(position) == '-';
+                ++position;
+            }
+            int explicitExponent = 0;
+            int exponentStart = position;
+            while (position < end && isDigit(data.get(position))) {
+                explicitExponent = Math.min(explicitExponent * 10 + (data.get(position) - '0'), 1000);
+                ++position;
+            }
+            if (position == exponentStart) {
+                return fallback(start);
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (position < end && !isDelimiter(data.get(position))) {
+            return fallback(start);
+        }
+        if (!exact || exponent < -POWERS_OF_TEN.length + 1 || exponent > POWERS_OF_TEN.length - 1) {
+            return mantissa == 0 && exact ? (negative ? -0.0f : 0.0f) : fallback(start);
+        }
+
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        if (value != 0.0 && (value < Float.MIN_NORMAL || value > Float.MAX_VALUE)) {
+            return fallback(start);
+        }
+        long roundedBits = Double.doubleToRawLongBits(value) & FLOAT_ROUNDED_BITS;
+        if (Math.abs(roundedBits - FLOAT_HALF_WAY) <= 1) {
+            return fallback(start);
+        }
+        float result = (float) value;
+        return negative ? -result : result;
+    }
+
+    /**
+     * Parses the number starting at the given byte with {@link Float#parseFloat(String)}, and moves past it.
+     */
+    private float fallback(int start) {
+        position = start;
+        while (position < end && !isDelimiter(data.get(position))) {
+            ++position;
+        }
+        byte[] bytes = new byte[position - start];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = data.get(start + i);
+        }
+        String text = new String(bytes, StandardCharsets.US_ASCII);
+        try {
+            return Float.parseFloat(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a number at byte " + start + ", found \"" + text + "\".", e);
+        }
+    }
+
+    private void skipBlanks() {
+        while (position < end && isBlank(data.get(position))) {
+            ++position;
+        }
+    }
+
+    /**
+     * Moves to the start of the next line.
+     */
+    private void skipLine() {
+        while (position < end && data.get(position) != '\n') {
+            ++position;
+        }
+        ++position;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static boolean isEndOfLine(byte b) {
+        return b == '\n' || b == '\r' || b == '#';
+    }
+
+    private static boolean isDelimiter(byte b) {
+        return isBlank(b) || isEndOfLine(b) || b == '/';
+    }
+
+    /**
+     * A growable array of floats.
+     */
+    static final class FloatArray {
+
+        private float[] values = new float[1024];
+        private int size;
+
+        void add(float value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        float get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * A growable array of ints.
+     */
+    static final class IntArray {
+
+        private int[] values = new int[1024];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package utils.objparser;
+
+import models.VertexFormat;
+import org.lwjgl.BufferUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Parses .obj files too large to be held on the heap, e.g. scans of millions of triangles, and streams out their
+ * vertices and indices in chunks, ready to be appended to GPU buffers.
+ * <p>
+ * The file is read through a fixed-size buffer, a whole number of lines at a time. The positions, texture coordinates
+ * and normals, and the table de-duplicating the vertices, must be kept for the whole file, as any face may refer to
+ * any of them; they live in direct buffers, off the heap. Every distinct (position, texture coordinates, normal)
+ * triplet becomes a vertex the first time a face uses it, wherever the chunk boundaries fall, and is streamed out at
+ * once, in the interleaved {@link VertexFormat#FLOAT} layout; unused positions are dropped. The indices are streamed
+ * out as unsigned ints, as the number of vertices is not known up front.
+ * <p>
+ * The heap holds nothing but a few objects, whatever the size of the model; the chunk size bounds the staging buffers,
+ * and how long a line may be.
+ */
+public final class OBJStreamParser extends OBJScanner {
+
+    private static final int VERTEX_FLOATS = VertexFormat.FLOAT.getBytesPerVertex() / 4;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final int chunkBytes;
+    private final Consumer<ByteBuffer> vertexSink;
+    private final Consumer<ByteBuffer> indexSink;
+    private final ByteBuffer vertexStaging;
+    private final ByteBuffer indexStaging;
+
+    private final DirectFloatArray positions = new DirectFloatArray();
+    private final DirectFloatArray textureCoords = new DirectFloatArray();
+    private final DirectFloatArray normals = new DirectFloatArray();
+    private final DirectCornerTable vertices = new DirectCornerTable();
+
+    private int vertexCount;
+    private long indexCount;
+    private float boundingRadius;
+
+    /**
+     * @param chunkBytes - the size of the read buffer, and of each of the staging buffers; no line may be longer.
+     * @param vertexSink - receives the vertices, in order, a chunk at a time; the buffer is only valid during the call.
+     * @param indexSink  - receives the indices, in order, a chunk at a time; the buffer is only valid during the call.
+     */
+    public OBJStreamParser(int chunkBytes, Consumer<ByteBuffer> vertexSink, Consumer<ByteBuffer> indexSink) {
+        this.chunkBytes = chunkBytes;
+        this.vertexSink = vertexSink;
+        this.indexSink = indexSink;
+        int vertexBytes = VERTEX_FLOATS * 4;
+        this.vertexStaging = BufferUtils.createByteBuffer(Math.max(vertexBytes, chunkBytes / vertexBytes * vertexBytes));
+        this.indexStaging = BufferUtils.createByteBuffer(Math.max(4, chunkBytes / 4 * 4));
+    }
+
+    /**
+     * Parses a file, and streams out all of its vertices and indices.
+     *
+     * @param file - the .obj file.
+     * @throws IOException              - if the file cannot be read.
+     * @throws IllegalArgumentException - if a line is longer than the chunk size, or a face refers to an element
+     *                                  which is not defined.
+     */
+    public void parse(Path file) throws IOException {
+        ByteBuffer chunk = BufferUtils.createByteBuffer(chunkBytes);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            boolean endOfFile = false;
+            while (!endOfFile) {
+                while (chunk.hasRemaining()) {
+                    if (channel.read(chunk) < 0) {
+                        endOfFile = true;
+                        break;
+                    }
+                }
+                chunk.flip();
+                // only whole lines are parsed; the rest is carried over to the next chunk.
+                int complete = endOfFile ? chunk.limit() : lastLineEnd(chunk);
+                if (complete == 0 && chunk.hasRemaining() && !endOfFile) {
+                    throw new IllegalArgumentException("A line of " + file + " is longer than " + chunkBytes
+                            + " bytes.");
+                }
+                data = chunk;
+                position = 0;
+                end = complete;
+                parseStatements();
+                chunk.position(complete);
+                chunk.compact();
+            }
+        }
+        flush();
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public long getIndexCount() {
+        return indexCount;
+    }
+
+    /**
+     * @return - the radius of the bounding sphere of the vertices streamed out, centered on the origin.
+     */
+    public float getBoundingRadius() {
+        return boundingRadius;
+    }
+
+    @Override
+    protected void addPosition(float x, float y, float z) {
+        positions.add(x);
+        positions.add(y);
+        positions.add(z);
+    }
+
+    @Override
+    protected void addTextureCoords(float u, float v) {
+        textureCoords.add(u);
+        textureCoords.add(v);
+    }
+
+    @Override
+    protected void addNormal(float x, float y, float z) {
+        normals.add(x);
+        normals.add(y);
+        normals.add(z);
+    }
+
+    @Override
+    protected void addCorner(int positionIndex, int textureIndex, int normalIndex) {
+        int vertex = vertices.get(positionIndex, textureIndex, normalIndex);
+        if (vertex == NONE) {
+            vertex = vertexCount++;
+            vertices.put(positionIndex, textureIndex, normalIndex, vertex);
+            writeVertex(positionIndex, textureIndex, normalIndex);
+        }
+        if (!indexStaging.hasRemaining()) {
+            flush(indexStaging, indexSink);
+        }
+        indexStaging.putInt(vertex);
+        ++indexCount;
+    }
+
+    @Override
+    protected int getPositionCount() {
+        return positions.size() / 3;
+    }
+
+    @Override
+    protected int getTextureCoordsCount() {
+        return textureCoords.size() / 2;
+    }
+
+    @Override
+    protected int getNormalCount() {
+        return normals.size() / 3;
+    }
+
+    private void writeVertex(int positionIndex, int textureIndex, int normalIndex) {
+        if (!vertexStaging.hasRemaining()) {
+            flush(vertexStaging, vertexSink);
+        }
+        float x = positions.get(positionIndex * 3);
+        float y = positions.get(positionIndex * 3 + 1);
+        float z = positions.get(positionIndex * 3 + 2);
+        vertexStaging.putFloat(x).putFloat(y).putFloat(z);
+        boundingRadius = Math.max(boundingRadius, (float) Math.sqrt(x * x + y * y + z * z));
+        if (textureIndex != NONE) {
+            // 1-y because OpenGL actually starts UV mapping from the top left corner
+            vertexStaging.putFloat(textureCoords.get(textureIndex * 2))
+                    .putFloat(1 - textureCoords.get(textureIndex * 2 + 1));
+        } else {
+            vertexStaging.putFloat(0.0f).putFloat(1.0f);
+        }
+        if (normalIndex != NONE) {
+            vertexStaging.putFloat(normals.get(normalIndex * 3)).putFloat(normals.get(normalIndex * 3 + 1))
+                    .putFloat(normals.get(normalIndex * 3 + 2));
+        } else {
+            vertexStaging.putFloat(0.0f).putFloat(0.0f).putFloat(0.0f);
+        }
+    }
+
+    private void flush() {
+        flush(vertexStaging, vertexSink);
+        flush(indexStaging, indexSink);
+    }
+
+    private static void flush(ByteBuffer staging, Consumer<ByteBuffer> sink) {
+        staging.flip();
+        if (staging.hasRemaining()) {
+            sink.accept(staging);
+        }
+        staging.clear();
+    }
+
+    /**
+     * @return - the offset following the last line feed of the buffer, or 0 if it holds none.
+     */
+    private static int lastLineEnd(ByteBuffer buffer) {
+        for (int i = buffer.limit() - 1; i >= 0; --i) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A growable array of floats, in a direct buffer.
+     */
+    private static final class DirectFloatArray {
+
+        private FloatBuffer values = BufferUtils.createFloatBuffer(INITIAL_CAPACITY);
+
+        void add(float value) {
+            if (!values.hasRemaining()) {
+                FloatBuffer grown = BufferUtils.createFloatBuffer(values.capacity() * 2);
+                values.flip();
+                grown.put(values);
+                values = grown;
+            }
+            values.put(value);
+        }
+
+        float get(int index) {
+            return values.get(index);
+        }
+
+        int size() {
+            return values.position();
+        }
+    }
+
+    /**
+     * An open addressing hash table, with linear probing, from (position, texture coordinates, normal) triplets to
+     * the vertex created for them, in direct buffers.
+     */
+    private static final class DirectCornerTable {
+
+        private IntBuffer keys;
+        private IntBuffer vertices;
+        private int size;
+
+        DirectCornerTable() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        int get(int positionIndex, int textureIndex, int normalIndex) {
+            int mask = vertices.capacity() - 1;
+            for (int slot = hash(positionIndex, textureIndex, normalIndex) & mask; ; slot = (slot + 1) & mask) {
+                int vertex = vertices.get(slot);
+                if (vertex == NONE) {
+                    return NONE;
+                }
+                if (keys.get(slot * 3) == positionIndex && keys.get(slot * 3 + 1) == textureIndex
+                        && keys.get(slot * 3 + 2) == normalIndex) {
+                    return vertex;
+                }
+            }
+        }
+
+        /**
+         * Adds a triplet which is not in the table yet.
+         */
+        void put(int positionIndex, int textureIndex, int normalIndex, int vertex) {
+            // kept at most half full, so that probes stay short.
+            if (2 * (size + 1) > vertices.capacity()) {
+                IntBuffer oldKeys = keys;
+                IntBuffer oldVertices = vertices;
+                allocate(oldVertices.capacity() * 2);
+                for (int slot = 0; slot < oldVertices.capacity(); ++slot) {
+                    if (oldVertices.get(slot) != NONE) {
+                        insert(oldKeys.get(slot * 3), oldKeys.get(slot * 3 + 1), oldKeys.get(slot * 3 + 2),
+                                oldVertices.get(slot));
+                    }
+                }
+            }
+            insert(positionIndex, textureIndex, normalIndex, vertex);
+        }
+
+        private void insert(int positionIndex, int textureIndex, int normalIndex, int vertex) {
+            int mask = vertices.capacity() - 1;
+            int slot = hash(positionIndex, textureIndex, normalIndex) & mask;
+            while (vertices.get(slot) != NONE) {
+                slot = (slot + 1) & mask;
+            }
+            keys.put(slot * 3, positionIndex).put(slot * 3 + 1, textureIndex).put(slot * 3 + 2, normalIndex);
+            vertices.put(slot, vertex);
+            ++size;
+        }
+
+        private void allocate(int capacity) {
+            keys = BufferUtils.createIntBuffer(capacity * 3);
+            vertices = BufferUtils.createIntBuffer(capacity);
+            for (int slot = 0; slot < capacity; ++slot) {
+                vertices.put(slot, NONE);
+            }
+            size = 0;
+        }
+
+        private static int hash(int positionIndex, int textureIndex, int normalIndex) {
+            int hash = positionIndex * 0x9E3779B1 ^ textureIndex * 0x85EBCA77 ^ normalIndex * 0xC2B2AE3D;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package models;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class IndexTypeTest {
+
+    @Test
+    public void picksTheNarrowestTypeOnEachSideOfTheBoundaries() {
+        assertEquals(IndexType.UNSIGNED_BYTE, IndexType.forMaxIndex(0));
+        assertEquals(IndexType.UNSIGNED_BYTE, IndexType.forMaxIndex(0xFF));
+        assertEquals(IndexType.UNSIGNED_SHORT, IndexType.forMaxIndex(0x100));
+        assertEquals(IndexType.UNSIGNED_SHORT, IndexType.forMaxIndex(0xFFFF));
+        assertEquals(IndexType.UNSIGNED_INT, IndexType.forMaxIndex(0x10000));
+        assertEquals(IndexType.UNSIGNED_INT, IndexType.forMaxIndex(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void picksTheTypeFromTheHighestIndexOfAMesh() {
+        // 65,536 vertices are still addressed by shorts, one more is not.
+        assertEquals(IndexType.UNSIGNED_BYTE, IndexType.forIndices(new int[]{0, 0xFF, 0x7F}));
+        assertEquals(IndexType.UNSIGNED_SHORT, IndexType.forIndices(new int[]{0, 0x100, 0x80}));
+        assertEquals(IndexType.UNSIGNED_SHORT, IndexType.forIndices(new int[]{0, 0xFFFF, 0x7FFF}));
+        assertEquals(IndexType.UNSIGNED_INT, IndexType.forIndices(new int[]{0, 0x10000, 0x8000}));
+    }
+
+    @Test
+    public void encodedBytesRoundTrip() {
+        assertRoundTrip(IndexType.UNSIGNED_BYTE, 0xFF);
+        assertRoundTrip(IndexType.UNSIGNED_SHORT, 0xFFFF);
+        assertRoundTrip(IndexType.UNSIGNED_INT, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Encodes random indices up to the highest one the type holds, which is included, and decodes them back.
+     */
+    private static void assertRoundTrip(IndexType type, int maxIndex) {
+        Random random = new Random(maxIndex);
+        int[] indices = new int[1 << 16];
+        indices[1] = maxIndex;
+        for (int i = 2; i < indices.length; ++i) {
+            indices[i] = random.nextInt(maxIndex) + 1;
+        }
+        assertEquals(type, IndexType.forIndices(indices));
+
+        ByteBuffer encoded = type.encode(indices);
+        assertEquals(indices.length * type.getBytesPerIndex(), encoded.remaining());
+        for (int i = 0; i < indices.length; ++i) {
+            assertEquals(type + " index " + i, indices[i], type.decode(encoded, i));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package renderengine;
+
+import entities.Light;
+import models.Impostor;
+import models.TexturedModel;
+import models.VertexFormat;
+import org.joml.Vector3f;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import textures.ModelTexture;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bakes the impostor of a model against a hidden window, and reads its atlas back. It needs a display and an OpenGL
+ * 4.1 driver, and is skipped without them; on a headless machine, run it with Mesa's software rasterizer, e.g. through
+ * {@code LIBGL_ALWAYS_SOFTWARE=1 xvfb-run mvn test}.
+ */
+public class ImpostorRendererTest {
+
+    private static Loader loader;
+    private static MasterRenderer renderer;
+
+    @BeforeClass
+    public static void createContext() {
+        try {
+            DisplayManager.createDisplay(false);
+        } catch (RuntimeException | LinkageError e) {
+            Assume.assumeNoException("No OpenGL context could be created", e);
+        }
+        loader = new Loader();
+        renderer = new MasterRenderer(loader);
+    }
+
+    @AfterClass
+    public static void destroyContext() {
+        if (renderer != null) {
+            renderer.cleanup();
+            loader.cleanup();
+            DisplayManager.closeDisplay();
+        }
+    }
+
+    @Test
+    public void everySnapshotShowsTheModel() {
+        TexturedModel fern = new TexturedModel(loader.loadToVAO(MeshCache.load("fern", VertexFormat.FLOAT, null)),
+                new ModelTexture(loader.loadTexture("fern")));
+        fern.getTexture().setHasTransparency(true);
+        renderer.createImpostor(fern, new Light(new Vector3f(20000, 20000, 20000), new Vector3f(1, 1, 1)));
+        Impostor impostor = fern.getImpostor();
+        assertNotNull(impostor);
+
+        GLState.bindTexture(0, GL11.GL_TEXTURE_2D, impostor.getTextureID());
+        int width = GL11.glGetTexLevelParameteri(GL11.GL_TEXTURE_2D, 0, GL11.GL_TEXTURE_WIDTH);
+        int height = GL11.glGetTexLevelParameteri(GL11.GL_TEXTURE_2D, 0, GL11.GL_TEXTURE_HEIGHT);
+        ByteBuffer pixels = BufferUtils.createByteBuffer(width * height * 4);
+        GL11.glGetTexImage(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, pixels);
+
+        int cellWidth = width / impostor.getColumns();
+        int cellHeight = height / impostor.getRows();
+        for (int view = 0; view < impostor.getViewCount(); ++view) {
+            int left = (view % impostor.getColumns()) * cellWidth;
+            int bottom = (view / impostor.getColumns()) * cellHeight;
+            int covered = 0;
+            for (int y = bottom; y < bottom + cellHeight; ++y) {
+                for (int x = left; x < left + cellWidth; ++x) {
+                    if (pixels.get((y * width + x) * 4 + 3) != 0) {
+                        ++covered;
+                    }
+                }
+            }
+            // the model shows up, over a transparent background.
+            assertTrue("Snapshot " + view + " is empty", covered > 0);
+            assertTrue("Snapshot " + view + " is fully covered", covered < cellWidth * cellHeight);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package renderengine;
+
+import models.ModelData;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the decoding error bounds documented on {@link PackedVertices}, decoding every vertex the way the vertex
+ * shader does, and comparing it with the float source.
+ */
+public class PackedVerticesTest {
+
+    private static final double MAX_NORMAL_ERROR_DEGREES = 0.5;
+    private static final int RANDOM_NORMALS = 1000000;
+
+    @Test
+    public void everyModelDecodesWithinTheBounds() {
+        File[] files = new File(Loader.RESOURCES_FOLDER).listFiles((directory, name) -> name.endsWith(".obj"));
+        assertNotNull("Resources folder not found: " + Loader.RESOURCES_FOLDER, files);
+        assertTrue("No models in " + Loader.RESOURCES_FOLDER, files.length > 0);
+        Arrays.sort(files);
+
+        float[] decoded = new float[3];
+        for (File file : files) {
+            String name = file.getName().substring(0, file.getName().length() - ".obj".length());
+            ModelData data = OBJLoader.loadOBJ(name);
+            float[] positions = data.getVertices();
+            float[] textureCoords = data.getTextureCoords();
+            float[] normals = data.getNormals();
+            PackedVertices packed = new PackedVertices(positions, textureCoords, normals);
+
+            for (int vertex = 0; vertex < packed.getVertexCount(); ++vertex) {
+                packed.decodePosition(vertex, decoded);
+                for (int axis = 0; axis < 3; ++axis) {
+                    assertWithinHalfAStep(name + " position " + vertex, positions[vertex * 3 + axis], decoded[axis],
+                            packed.getPositionScale()[axis]);
+                }
+                packed.decodeTextureCoordinates(vertex, decoded);
+                for (int axis = 0; axis < 2; ++axis) {
+                    assertWithinHalfAStep(name + " texture coordinates " + vertex, textureCoords[vertex * 2 + axis],
+                            decoded[axis], packed.getTextureScale()[axis]);
+                }
+                packed.decodeNormal(vertex, decoded);
+                assertNormalWithinBound(name + " normal " + vertex, normals, vertex * 3, decoded);
+            }
+        }
+    }
+
+    @Test
+    public void randomNormalsDecodeWithinTheBound() {
+        Random random = new Random(42);
+        float[] normal = new float[3];
+        float[] decoded = new float[3];
+        for (int i = 0; i < RANDOM_NORMALS; ++i) {
+            for (int axis = 0; axis < 3; ++axis) {
+                normal[axis] = (float) random.nextGaussian();
+            }
+            PackedVertices.decodePackedNormal(PackedVertices.encodeNormal(normal[0], normal[1], normal[2]), decoded);
+            assertNormalWithinBound(Arrays.toString(normal), normal, 0, decoded);
+        }
+    }
+
+    /**
+     * Allows half a quantisation step, plus a few ulps of the value for the rounding of the float arithmetic of the
+     * decoding.
+     */
+    private static void assertWithinHalfAStep(String message, float source, float decoded, float step) {
+        double error = Math.abs(decoded - source) - 4.0 * Math.ulp(Math.max(Math.abs(source), Math.abs(decoded)));
+        assertTrue(message + ": " + decoded + " instead of " + source + ", step " + step, error <= step * 0.5);
+    }
+
+    /**
+     * Checks the angle between a source vector, of any length, and a decoded unit vector; a zero source vector has no
+     * direction to keep.
+     */
+    private static void assertNormalWithinBound(String message, float[] source, int offset, float[] decoded) {
+        double x = source[offset];
+        double y = source[offset + 1];
+        double z = source[offset + 2];
+        double length = Math.sqrt(x * x + y * y + z * z);
+        if (length == 0.0) {
+            return;
+        }
+        double cosine = (x * decoded[0] + y * decoded[1] + z * decoded[2]) / length;
+        double degrees = Math.toDegrees(Math.acos(Math.min(1.0, Math.max(-1.0, cosine))));
+        assertTrue(message + ": " + degrees + " degrees off", degrees <= MAX_NORMAL_ERROR_DEGREES);
+    }
+}
@@ -0,0 +1,200 @@
+package scene;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the queries of the tree with a brute force test of the fat bounds of every object, which the test keeps
+ * track of the same way as the tree: they are only refreshed when a move re-inserts the object.
+ */
+public class DynamicAabbTreeTest {
+
+    private static final float MARGIN_FRACTION = 0.1f;
+    private static final float MINIMUM_MARGIN = 0.5f;
+    private static final float WORLD_SIZE = 1000.0f;
+
+    @Test
+    public void scansSmallTrees() {
+        checkFrustumQueries(DynamicAabbTree.LINEAR_QUERY_THRESHOLD / 2);
+    }
+
+    @Test
+    public void traversesLargeTrees() {
+        checkFrustumQueries(DynamicAabbTree.LINEAR_QUERY_THRESHOLD * 4);
+    }
+
+    @Test
+    public void sphereQueriesMatchBruteForce() {
+        Random random = new Random(7);
+        Objects objects = new Objects(5000);
+        for (int i = 0; i < objects.capacity; ++i) {
+            objects.add(i, random);
+        }
+        for (int query = 0; query < 100; ++query) {
+            float x = random.nextFloat() * WORLD_SIZE;
+            float y = 5.0f;
+            float z = random.nextFloat() * WORLD_SIZE;
+            float radius = random.nextFloat() * 100.0f;
+            List<Integer> result = new ArrayList<>();
+            objects.tree.querySphere(x, y, z, radius, result);
+
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < objects.capacity; ++i) {
+                float[] fat = objects.fat;
+                int base = i * 6;
+                float dx = Math.max(Math.max(fat[base] - x, x - fat[base + 3]), 0.0f);
+                float dy = Math.max(Math.max(fat[base + 1] - y, y - fat[base + 4]), 0.0f);
+                float dz = Math.max(Math.max(fat[base + 2] - z, z - fat[base + 5]), 0.0f);
+                if (dx * dx + dy * dy + dz * dz <= radius * radius) {
+                    expected.add(i);
+                }
+            }
+            assertSameObjects(expected, result);
+        }
+    }
+
+    /**
+     * Queries a tree of the given size from random views, then again after each of a few rounds of moving, removing
+     * and adding objects.
+     */
+    private static void checkFrustumQueries(int size) {
+        Random random = new Random(size);
+        // room for the objects added after the removals.
+        Objects objects = new Objects(size * 2);
+        for (int i = 0; i < size; ++i) {
+            objects.add(i, random);
+        }
+        checkViews(objects, random);
+
+        int added = size;
+        for (int round = 0; round < 10; ++round) {
+            for (int i = 0; i < added; ++i) {
+                if (objects.present[i] && random.nextInt(4) == 0) {
+                    // mostly small steps, which the fat bounds absorb, and a few jumps across the world.
+                    float step = random.nextInt(10) == 0 ? WORLD_SIZE / 2 : 1.0f;
+                    objects.move(i, (random.nextFloat() * 2.0f - 1.0f) * step,
+                            (random.nextFloat() * 2.0f - 1.0f) * step);
+                }
+            }
+            for (int i = 0; i < size / 20; ++i) {
+                int removed = random.nextInt(added);
+                if (objects.present[removed]) {
+                    objects.remove(removed);
+                }
+            }
+            for (int i = 0; i < size / 10; ++i) {
+                objects.add(added++, random);
+            }
+            checkViews(objects, random);
+        }
+        int log2 = 32 - Integer.numberOfLeadingZeros(objects.tree.size());
+        assertTrue("The tree is " + objects.tree.getHeight() + " high", objects.tree.getHeight() <= 2 * log2);
+    }
+
+    private static void checkViews(Objects objects, Random random) {
+        Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(60.0), 16.0f / 9.0f, 0.1f, 600.0f);
+        for (int view = 0; view < 20; ++view) {
+            Matrix4f projectionView = new Matrix4f(projection).rotateX(random.nextFloat() - 0.5f)
+                    .rotateY(random.nextFloat() * 7.0f)
+                    .translate(-random.nextFloat() * WORLD_SIZE, -10.0f, -random.nextFloat() * WORLD_SIZE);
+            List<Integer> result = new ArrayList<>();
+            objects.tree.queryFrustum(projectionView, result);
+
+            FrustumIntersection frustum = new FrustumIntersection(projectionView);
+            float[] fat = objects.fat;
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < objects.capacity; ++i) {
+                int base = i * 6;
+                if (objects.present[i] && frustum.testAab(fat[base], fat[base + 1], fat[base + 2], fat[base + 3],
+                        fat[base + 4], fat[base + 5])) {
+                    expected.add(i);
+                }
+            }
+            assertSameObjects(expected, result);
+        }
+    }
+
+    private static void assertSameObjects(List<Integer> expected, List<Integer> actual) {
+        List<Integer> sorted = new ArrayList<>(actual);
+        Collections.sort(sorted);
+        assertEquals(expected, sorted);
+    }
+
+    /**
+     * A tree, and the exact and fat bounds of the objects in it, 6 floats per object.
+     */
+    private static final class Objects {
+
+        private final DynamicAabbTree<Integer> tree = new DynamicAabbTree<>(MARGIN_FRACTION, MINIMUM_MARGIN);
+        private final int capacity;
+        private final float[] exact;
+        private final float[] fat;
+        private final int[] proxies;
+        private final boolean[] present;
+
+        private Objects(int capacity) {
+            this.capacity = capacity;
+            exact = new float[capacity * 6];
+            fat = new float[capacity * 6];
+            proxies = new int[capacity];
+            present = new boolean[capacity];
+        }
+
+        private void add(int i, Random random) {
+            float radius = 1.0f + random.nextFloat() * 7.0f;
+            float x = random.nextFloat() * WORLD_SIZE;
+            float y = random.nextFloat() * 10.0f;
+            float z = random.nextFloat() * WORLD_SIZE;
+            int base = i * 6;
+            exact[base] = x - radius;
+            exact[base + 1] = y - radius;
+            exact[base + 2] = z - radius;
+            exact[base + 3] = x + radius;
+            exact[base + 4] = y + radius;
+            exact[base + 5] = z + radius;
+            proxies[i] = tree.createProxy(exact[base], exact[base + 1], exact[base + 2], exact[base + 3],
+                    exact[base + 4], exact[base + 5], i);
+            present[i] = true;
+            refreshFatBounds(i);
+        }
+
+        private void move(int i, float dx, float dz) {
+            int base = i * 6;
+            exact[base] += dx;
+            exact[base + 3] += dx;
+            exact[base + 2] += dz;
+            exact[base + 5] += dz;
+            if (tree.moveProxy(proxies[i], exact[base], exact[base + 1], exact[base + 2], exact[base + 3],
+                    exact[base + 4], exact[base + 5])) {
+                refreshFatBounds(i);
+            }
+        }
+
+        private void remove(int i) {
+            tree.destroyProxy(proxies[i]);
+            present[i] = false;
+        }
+
+        /**
+         * The same computation as the tree, so that the fat bounds match to the bit.
+         */
+        private void refreshFatBounds(int i) {
+            int base = i * 6;
+            float margin = Math.max(MINIMUM_MARGIN, MARGIN_FRACTION * Math.max(exact[base + 3] - exact[base],
+                    Math.max(exact[base + 4] - exact[base + 1], exact[base + 5] - exact[base + 2])));
+            for (int axis = 0; axis < 3; ++axis) {
+                fat[base + axis] = exact[base + axis] - margin;
+                fat[base + axis + 3] = exact[base + axis + 3] + margin;
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package utils.objparser;
+
+import models.ModelData;
+import org.junit.Test;
+import renderengine.Loader;
+import renderengine.OBJLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class OBJParserTest {
+
+    /**
+     * The parser must give the same output as the original one, float for float, on every model in the resources
+     * folder.
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void matchesTheLegacyParserOnEveryModel() throws IOException {
+        File[] files = new File(Loader.RESOURCES_FOLDER).listFiles((directory, name) -> name.endsWith(".obj"));
+        assertNotNull("Resources folder not found: " + Loader.RESOURCES_FOLDER, files);
+        assertTrue("No models in " + Loader.RESOURCES_FOLDER, files.length > 0);
+        Arrays.sort(files);
+
+        for (File file : files) {
+            String name = file.getName().substring(0, file.getName().length() - ".obj".length());
+            ModelData expected = OBJLoader.loadOBJLegacy(name);
+            ModelData actual = OBJParser.parse(file.toPath());
+            assertArrayEquals(name + " positions", expected.getVertices(), actual.getVertices(), 0.0f);
+            assertArrayEquals(name + " texture coordinates", expected.getTextureCoords(), actual.getTextureCoords(),
+                    0.0f);
+            assertArrayEquals(name + " normals", expected.getNormals(), actual.getNormals(), 0.0f);
+            assertArrayEquals(name + " indices", expected.getIndices(), actual.getIndices());
+            assertEquals(name + " furthest point", expected.getFurthestPoint(), actual.getFurthestPoint(), 0.0f);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package utils.objparser;
+
+import models.VertexFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Streams a model which does not fit in the heap, and checks that the heap used while streaming stays within a bound
+ * set by the chunk size. Surefire runs it on its own, with a 32 MB heap and room for the direct buffers, which the JVM
+ * caps to the size of the heap by default (see the bounded-heap execution in the pom).
+ */
+public class OBJStreamParserTest {
+
+    private static final long MAX_HEAP = 64L << 20;
+    private static final int TRIANGLES = 2000000;
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    private Path file;
+
+    @Before
+    public void writeModel() throws IOException {
+        file = Files.createTempFile("streamed", ".obj");
+        writeGrid(file, TRIANGLES);
+    }
+
+    @After
+    public void deleteModel() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void heapStaysBoundedByTheChunkSize() throws IOException {
+        assertTrue("The heap is too big for the model not to fit in it: run with -Xmx32m",
+                Runtime.getRuntime().maxMemory() <= MAX_HEAP);
+        assertTrue("The model fits in the heap", Files.size(file) > Runtime.getRuntime().maxMemory());
+
+        System.gc();
+        long baseline = usedHeap();
+        resetPeakHeap();
+        long[] streamed = new long[2];
+        OBJStreamParser parser = new OBJStreamParser(CHUNK_BYTES, chunk -> streamed[0] += chunk.remaining(),
+                chunk -> streamed[1] += chunk.remaining());
+        parser.parse(file);
+        long peak = peakHeap() - baseline;
+
+        assertEquals(TRIANGLES * 3L, parser.getIndexCount());
+        assertEquals(parser.getIndexCount() * 4, streamed[1]);
+        assertEquals((long) parser.getVertexCount() * VertexFormat.FLOAT.getBytesPerVertex(), streamed[0]);
+        long bound = 8L * CHUNK_BYTES;
+        assertTrue("Streaming used " + peak + " bytes of heap, more than " + bound, peak <= bound);
+    }
+
+    /**
+     * Writes a square grid, with a position, texture coordinates and normal per grid point.
+     */
+    private static void writeGrid(Path file, int triangles) throws IOException {
+        int side = (int) Math.ceil(Math.sqrt(triangles / 2.0)) + 1;
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (int z = 0; z < side; ++z) {
+                for (int x = 0; x < side; ++x) {
+                    writer.write(String.format("v %.6f %.6f %.6f%n", x * 0.01f, (float) Math.sin(x * 0.1f) * 0.5f,
+                            z * 0.01f));
+                }
+            }
+            for (int z = 0; z < side; ++z) {
+                for (int x = 0; x < side; ++x) {
+                    writer.write(String.format("vt %.6f %.6f%n", x / (side - 1.0f), z / (side - 1.0f)));
+                }
+            }
+            writer.write("vn 0.0 1.0 0.0\n");
+            int written = 0;
+            for (int z = 0; z + 1 < side && written < triangles; ++z) {
+                for (int x = 0; x + 1 < side && written < triangles; ++x) {
+                    int topLeft = z * side + x + 1;
+                    int bottomLeft = topLeft + side;
+                    // one quad per face, split by the parser.
+                    writer.write(String.format("f %d/%d/1 %d/%d/1 %d/%d/1 %d/%d/1%n", topLeft, topLeft, bottomLeft,
+                            bottomLeft, bottomLeft + 1, bottomLeft + 1, topLeft + 1, topLeft + 1));
+                    written += 2;
+                }
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}